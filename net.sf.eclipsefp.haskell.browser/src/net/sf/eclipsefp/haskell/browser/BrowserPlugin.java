@@ -15,7 +15,7 @@ import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
 import net.sf.eclipsefp.haskell.browser.client.NullBrowserServer;
-import net.sf.eclipsefp.haskell.browser.client.StreamBrowserServer;
+import net.sf.eclipsefp.haskell.browser.client.PooledBrowserServer;
 import net.sf.eclipsefp.haskell.browser.items.Declaration;
 import net.sf.eclipsefp.haskell.browser.items.Documented;
 import net.sf.eclipsefp.haskell.browser.items.HoogleResult;
@@ -49,6 +49,8 @@ public class BrowserPlugin extends AbstractUIPlugin implements IDatabaseLoadedLi
 
 	// The instance of the server used for communication
 	private BrowserServer server;
+	// The declarations of the local database, for prefix searches
+	private DeclarationPrefixIndex declarationIndex;
 	// The console log output
 	private Writer logStream;
 	
@@ -73,6 +75,8 @@ public class BrowserPlugin extends AbstractUIPlugin implements IDatabaseLoadedLi
 		this.logStream = null;
 		this.dbLoadedListeners = new ArrayList<>();
 		this.hoogleLoadedListeners = new ArrayList<>();
+		this.declarationIndex = new DeclarationPrefixIndex();
+		addDatabaseLoadedListener(declarationIndex);
 	}
 
 	/*
@@ -199,6 +203,7 @@ public class BrowserPlugin extends AbstractUIPlugin implements IDatabaseLoadedLi
 
 	/**
 	 * Changes the scion-browser used to get information about packages
+	 * Several scion-browser processes are started, to answer queries in parallel
 	 * If the browser cannot be loaded, an empty browser will be used
 	 * 
 	 * @param path file path to the server executable
@@ -210,7 +215,7 @@ public class BrowserPlugin extends AbstractUIPlugin implements IDatabaseLoadedLi
 		
 		if (path.toFile().exists()) {
 			try {
-				this.server = new StreamBrowserServer(path,logError);
+				this.server = new PooledBrowserServer(path,logError);
 				this.server.addDatabaseLoadedListener(this);
 				this.server.addHoogleLoadedListener(this);
 				this.server.setLogStream(this.logStream);
@@ -282,6 +287,29 @@ public class BrowserPlugin extends AbstractUIPlugin implements IDatabaseLoadedLi
 		}
 	}
 	
+	/**
+	 * Finds the declarations starting with a prefix, from the in-memory index of the local database when it's ready,
+	 * or from the shared instance if it is not busy
+	 * 
+	 * @param db the database: local or a package
+	 * @param prefix the prefix
+	 * @return the declarations, maybe empty
+	 * @throws Exception
+	 */
+	public static Packaged<Declaration>[] getDeclarationsFromPrefix(Database db,String prefix) throws Exception{
+		Packaged<Declaration>[] decls=getDefault().declarationIndex.getDeclarationsFromPrefix(db, prefix);
+		if (decls!=null){
+			return decls;
+		}
+		BrowserServer bs=getSharedInstance();
+		if (bs.isAnyDatabaseLoaded() && !bs.isRunning()){
+			return bs.getDeclarationsFromPrefix(db, prefix);
+		}
+		@SuppressWarnings("unchecked")
+		Packaged<Declaration>[] result = new Packaged[0];
+		return result;
+	}
+	
 	public static HoogleResult[] queryHoogle(Database db,String query) throws Exception{
 		return getSharedInstance().queryHoogle(db,getLocalDatabasePath().toOSString(),query);
 	}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.browser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.eclipsefp.haskell.browser.items.Declaration;
+import net.sf.eclipsefp.haskell.browser.items.HaskellPackage;
+import net.sf.eclipsefp.haskell.browser.items.PackageIdentifier;
+import net.sf.eclipsefp.haskell.browser.items.Packaged;
+import net.sf.eclipsefp.haskell.browser.util.BrowserText;
+
+/**
+ * An in-memory index of the declarations of the local database, sorted by name, so that prefix searches
+ * do not need a round trip to the browser server.
+ * The index is built in the background when the local database is loaded, one query per package, and replaced as a whole
+ * the next time the database is loaded. Until it is ready, searches return null and callers ask the server.
+ * Prefix matching is case insensitive, like the server
+ * @author JP Moresmau
+ *
+ */
+public class DeclarationPrefixIndex implements IDatabaseLoadedListener {
+	/**
+	 * the current index, null if not built
+	 */
+	private volatile Snapshot snapshot=null;
+	/**
+	 * incremented by each load or unload, so that an older build does not replace a newer one
+	 */
+	private final AtomicLong generation=new AtomicLong();
+
+	/**
+	 * @return true if the index has been built for the current local database
+	 */
+	public boolean isReady(){
+		return snapshot!=null;
+	}
+
+	/**
+	 * find the declarations whose name starts with the given prefix
+	 * @param db the database: local or a local package
+	 * @param prefix the prefix
+	 * @return the declarations, or null if the index cannot answer for that database
+	 */
+	public Packaged<Declaration>[] getDeclarationsFromPrefix(Database db,String prefix){
+		Snapshot s=snapshot;
+		if (s==null){
+			return null;
+		}
+		if (DatabaseType.LOCAL.equals(db.getType())){
+			return s.all.find(prefix);
+		} else if (DatabaseType.PACKAGE.equals(db.getType())){
+			Entries es=s.packages.get(db.getPkgId());
+			return es!=null?es.find(prefix):null;
+		}
+		return null;
+	}
+
+	@Override
+	public void databaseLoaded(DatabaseLoadedEvent e) {
+		if (DatabaseType.LOCAL.equals(e.getType())){
+			final BrowserServer server=e.getServer();
+			final long gen=generation.incrementAndGet();
+			Thread t=new Thread("Browser declaration index"){
+				@Override
+				public void run() {
+					build(server, gen);
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	@Override
+	public void databaseUnloaded(BrowserEvent e) {
+		synchronized (generation) {
+			generation.incrementAndGet();
+			snapshot=null;
+		}
+	}
+
+	/**
+	 * build the index from the declarations of each local package
+	 * @param server the server that loaded the database
+	 * @param gen the generation of the load
+	 */
+	private void build(BrowserServer server,long gen){
+		try {
+			Map<PackageIdentifier,Entries> packages=new HashMap<>();
+			List<Packaged<Declaration>> all=new ArrayList<>();
+			for (HaskellPackage pkg:server.getPackages(Database.LOCAL)){
+				if (generation.get()!=gen){
+					return;
+				}
+				PackageIdentifier id=pkg.getIdentifier();
+				Packaged<Declaration>[] decls=server.getDeclarationsFromPrefix(Database.Package(id), "");
+				packages.put(id, new Entries(Arrays.asList(decls)));
+				all.addAll(Arrays.asList(decls));
+			}
+			Snapshot s=new Snapshot(packages, new Entries(all));
+			synchronized (generation) {
+				if (generation.get()==gen){
+					snapshot=s;
+				}
+			}
+		} catch (Exception e){
+			BrowserPlugin.logError(BrowserText.error_index, e);
+		}
+	}
+
+	/**
+	 * declarations sorted by name
+	 */
+	private static class Entries {
+		private static final Comparator<Packaged<Declaration>> BY_NAME=new Comparator<Packaged<Declaration>>() {
+			@Override
+			public int compare(Packaged<Declaration> o1, Packaged<Declaration> o2) {
+				return String.CASE_INSENSITIVE_ORDER.compare(o1.getElement().getName(), o2.getElement().getName());
+			}
+		};
+
+		private final String[] names;
+		private final Packaged<Declaration>[] decls;
+
+		@SuppressWarnings("unchecked")
+		private Entries(List<Packaged<Declaration>> l){
+			List<Packaged<Declaration>> sorted=new ArrayList<>(l);
+			Collections.sort(sorted, BY_NAME);
+			decls=sorted.toArray(new Packaged[sorted.size()]);
+			names=new String[decls.length];
+			for (int a=0;a<decls.length;a++){
+				names[a]=decls[a].getElement().getName();
+			}
+		}
+
+		/**
+		 * @param prefix the prefix
+		 * @return the declarations whose name starts with the prefix, ignoring case
+		 */
+		private Packaged<Declaration>[] find(String prefix){
+			int start=Arrays.binarySearch(names, prefix, String.CASE_INSENSITIVE_ORDER);
+			if (start<0){
+				start=-start-1;
+			} else {
+				// binary search finds any of the equal names
+				while (start>0 && String.CASE_INSENSITIVE_ORDER.compare(names[start-1], prefix)==0){
+					start--;
+				}
+			}
+			int end=start;
+			while (end<names.length && names[end].regionMatches(true, 0, prefix, 0, prefix.length())){
+				end++;
+			}
+			return Arrays.copyOfRange(decls, start, end);
+		}
+	}
+
+	/**
+	 * the index of one load of the local database
+	 */
+	private static class Snapshot {
+		private final Map<PackageIdentifier,Entries> packages;
+		private final Entries all;
+
+		private Snapshot(Map<PackageIdentifier, Entries> packages, Entries all) {
+			this.packages = packages;
+			this.all = all;
+		}
+	}
+}
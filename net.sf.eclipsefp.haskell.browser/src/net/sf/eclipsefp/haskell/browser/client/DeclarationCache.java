@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.browser.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.eclipsefp.haskell.browser.Database;
+import net.sf.eclipsefp.haskell.browser.DatabaseType;
+import net.sf.eclipsefp.haskell.browser.items.Declaration;
+import net.sf.eclipsefp.haskell.browser.items.Packaged;
+
+/**
+ * A cache of the declarations of modules, by database and module name, least recently used entries being dropped first.
+ * The cache is bounded by its number of entries and by its weight: the length of the JSON responses the declarations were parsed from,
+ * which is a good estimate of the memory they take.
+ * Rebuilding a database drops the entries that may come from it
+ * @author JP Moresmau
+ *
+ */
+public class DeclarationCache {
+	/**
+	 * the default maximum number of modules
+	 */
+	public static final int DEFAULT_MAX_COUNT=1000;
+	/**
+	 * the default maximum weight, in characters
+	 */
+	public static final long DEFAULT_MAX_WEIGHT=4L*1024*1024;
+
+	/**
+	 * the entries, in access order
+	 */
+	private final Map<Key,Entry> entries=new LinkedHashMap<>(16,0.75f,true);
+
+	private final int maxCount;
+	private final long maxWeight;
+
+	/**
+	 * the current weight, in characters
+	 */
+	private long weight=0;
+	/**
+	 * incremented by each invalidation, so that results of queries started before are not cached
+	 */
+	private long generation=0;
+
+	private long hits=0;
+	private long misses=0;
+
+	public DeclarationCache() {
+		this(DEFAULT_MAX_COUNT,DEFAULT_MAX_WEIGHT);
+	}
+
+	/**
+	 * @param maxCount the maximum number of modules
+	 * @param maxWeight the maximum total length of the responses, in characters
+	 */
+	public DeclarationCache(int maxCount, long maxWeight) {
+		this.maxCount = maxCount;
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * @param db the database
+	 * @param module the module name
+	 * @return the cached declarations or null
+	 */
+	public synchronized Packaged<Declaration>[] get(Database db,String module){
+		Entry e=entries.get(new Key(db,module));
+		if (e!=null){
+			hits++;
+			return e.decls;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * @return the generation to give to put for a query starting now
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * cache declarations, unless the cache was invalidated since the query started
+	 * @param db the database
+	 * @param module the module name
+	 * @param decls the declarations
+	 * @param responseLength the length of the response the declarations were parsed from
+	 * @param generation the generation when the query started
+	 */
+	public synchronized void put(Database db,String module,Packaged<Declaration>[] decls,long responseLength,long generation){
+		if (generation!=this.generation || responseLength>maxWeight){
+			return;
+		}
+		Entry old=entries.put(new Key(db,module), new Entry(decls,responseLength));
+		if (old!=null){
+			weight-=old.weight;
+		}
+		weight+=responseLength;
+		evict();
+	}
+
+	/**
+	 * drop the entries that may contain declarations from the given database
+	 * @param type the type of the database that changed
+	 */
+	public synchronized void invalidate(DatabaseType type){
+		generation++;
+		for (Iterator<Map.Entry<Key,Entry>> it=entries.entrySet().iterator();it.hasNext();){
+			Map.Entry<Key,Entry> e=it.next();
+			DatabaseType t=e.getKey().db.getType();
+			// we do not know which database a package comes from
+			if (t==type || t==DatabaseType.ALL || t==DatabaseType.PACKAGE){
+				weight-=e.getValue().weight;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * remove all entries
+	 */
+	public synchronized void clear(){
+		generation++;
+		entries.clear();
+		weight=0;
+	}
+
+	/**
+	 * @return the number of modules cached
+	 */
+	public synchronized int getCount(){
+		return entries.size();
+	}
+
+	/**
+	 * @return the current weight of the entries, in characters of JSON response
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return the number of times get returned declarations
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of times get returned null
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the proportion of get calls that returned declarations, between 0 and 1
+	 */
+	public synchronized double getHitRate(){
+		long total=hits+misses;
+		return total>0?(double)hits/total:0;
+	}
+
+	/**
+	 * drop the least recently used entries until we're within our bounds
+	 */
+	private void evict(){
+		Iterator<Entry> it=entries.values().iterator();
+		while ((weight>maxWeight || entries.size()>maxCount) && it.hasNext()){
+			weight-=it.next().weight;
+			it.remove();
+		}
+	}
+
+	/**
+	 * a module in a database
+	 */
+	private static class Key {
+		private final Database db;
+		private final String module;
+
+		private Key(Database db, String module) {
+			this.db = db;
+			this.module = module;
+		}
+
+		@Override
+		public int hashCode() {
+			return db.hashCode()*31+module.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)){
+				return false;
+			}
+			Key other=(Key)obj;
+			return db.equals(other.db) && module.equals(other.module);
+		}
+	}
+
+	/**
+	 * declarations and the length of the response they were parsed from
+	 */
+	private static class Entry {
+		private final Packaged<Declaration>[] decls;
+		private final long weight;
+
+		private Entry(Packaged<Declaration>[] decls, long weight) {
+			this.decls = decls;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,411 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.browser.client;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.sf.eclipsefp.haskell.browser.BrowserEvent;
+import net.sf.eclipsefp.haskell.browser.BrowserPlugin;
+import net.sf.eclipsefp.haskell.browser.BrowserServer;
+import net.sf.eclipsefp.haskell.browser.Database;
+import net.sf.eclipsefp.haskell.browser.DatabaseLoadedEvent;
+import net.sf.eclipsefp.haskell.browser.DatabaseType;
+import net.sf.eclipsefp.haskell.browser.items.Declaration;
+import net.sf.eclipsefp.haskell.browser.items.DeclarationId;
+import net.sf.eclipsefp.haskell.browser.items.HaskellPackage;
+import net.sf.eclipsefp.haskell.browser.items.HoogleResult;
+import net.sf.eclipsefp.haskell.browser.items.HoogleStatus;
+import net.sf.eclipsefp.haskell.browser.items.Module;
+import net.sf.eclipsefp.haskell.browser.items.Packaged;
+import net.sf.eclipsefp.haskell.browser.util.BrowserText;
+
+import org.eclipse.core.runtime.IPath;
+import org.json.JSONException;
+
+/**
+ * A pool of Scion Browser processes working on the same local and Hackage databases.
+ * Declaration lookups go to the least busy declaration worker, Hoogle queries go to their own worker,
+ * so that a slow Hoogle search does not delay completions.
+ * The first worker loads the databases before the call returns, the others load them in the background
+ * and only receive queries once they're ready. A worker that crashes restarts and reloads its databases in its own reader thread;
+ * a worker that cannot restart is replaced by a new process
+ * @author JP Moresmau
+ *
+ */
+public class PooledBrowserServer extends BrowserServer {
+	/**
+	 * the number of workers answering declaration queries
+	 */
+	private static final int DECLARATION_WORKERS=Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors()/2));
+
+	/**
+	 * the declaration workers
+	 */
+	private final List<StreamBrowserServer> declarationWorkers=new CopyOnWriteArrayList<>();
+	/**
+	 * the worker for Hoogle, packages and modules
+	 */
+	private volatile StreamBrowserServer hoogleWorker;
+	/**
+	 * all the workers, the first declaration worker first
+	 */
+	private final List<StreamBrowserServer> workers=new CopyOnWriteArrayList<>();
+	/**
+	 * the declarations cache, shared by the workers since they work on the same databases
+	 */
+	private final DeclarationCache declCache=new DeclarationCache();
+
+	private volatile boolean localDbLoaded = false;
+	private volatile boolean hackageDbLoaded = false;
+	private volatile boolean hoogleLoaded = false;
+
+	/**
+	 * what we need to start and load a new worker
+	 */
+	private final IPath serverExecutable;
+	private volatile boolean logError;
+	private volatile String localDbPath;
+	private volatile String hackageDbPath;
+	private volatile String hooglePath;
+	private volatile String extraHooglePath;
+	/**
+	 * when we last replaced a dead worker
+	 */
+	private long lastRespawn=0;
+	/**
+	 * has the pool been stopped?
+	 */
+	private volatile boolean stopped=false;
+	/**
+	 * we don't replace dead workers more often than that, in milliseconds, in case the executable cannot start
+	 */
+	private static final long MIN_RESPAWN_INTERVAL=10000;
+
+	public PooledBrowserServer(IPath serverExecutable,boolean logError) throws Exception {
+		this.serverExecutable=serverExecutable;
+		this.logError=logError;
+		try {
+			for (int a=0;a<DECLARATION_WORKERS;a++){
+				StreamBrowserServer w=new StreamBrowserServer(serverExecutable, logError, declCache);
+				declarationWorkers.add(w);
+				workers.add(w);
+			}
+			hoogleWorker=new StreamBrowserServer(serverExecutable, logError, declCache);
+			workers.add(hoogleWorker);
+		} catch (Exception e){
+			for (StreamBrowserServer w:workers){
+				w.stop();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the cache of declarations by module
+	 */
+	public DeclarationCache getDeclarationCache() {
+		return declCache;
+	}
+
+	@Override
+	public void setLogStream(Writer logStream) {
+		super.setLogStream(logStream);
+		for (StreamBrowserServer w:workers){
+			w.setLogStream(logStream);
+		}
+	}
+
+	@Override
+	public void setLogError(boolean logError) {
+		this.logError=logError;
+		for (StreamBrowserServer w:workers){
+			w.setLogError(logError);
+		}
+	}
+
+	/**
+	 * can the given worker answer queries on the databases we loaded?
+	 * @param w the worker
+	 * @return true if the worker has loaded the same databases as the pool and is not restarting
+	 */
+	private boolean isReady(StreamBrowserServer w){
+		return w.isAlive() && !w.isRestarting()
+				&& (!localDbLoaded || w.isLocalDatabaseLoaded())
+				&& (!hackageDbLoaded || w.isHackageDatabaseLoaded());
+	}
+
+	/**
+	 * @param candidates the workers to choose from
+	 * @return the ready worker with the fewest pending requests, or null if no worker is ready
+	 */
+	private StreamBrowserServer leastBusy(List<StreamBrowserServer> candidates){
+		StreamBrowserServer best=null;
+		int bestCount=Integer.MAX_VALUE;
+		for (StreamBrowserServer w:candidates){
+			if (isReady(w)){
+				int count=w.getPendingCount();
+				if (count<bestCount){
+					best=w;
+					bestCount=count;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * replace the workers whose process died and could not be restarted
+	 */
+	private void checkWorkers(){
+		for (StreamBrowserServer w:workers){
+			if (!w.isAlive()){
+				respawn();
+				return;
+			}
+		}
+	}
+
+	private synchronized void respawn(){
+		long now=System.currentTimeMillis();
+		if (stopped || now-lastRespawn<MIN_RESPAWN_INTERVAL){
+			return;
+		}
+		lastRespawn=now;
+		for (int a=0;a<workers.size();a++){
+			final StreamBrowserServer w=workers.get(a);
+			if (!w.isAlive()){
+				try {
+					final StreamBrowserServer nw=new StreamBrowserServer(serverExecutable, logError, declCache);
+					nw.setLogStream(getLogStream());
+					workers.set(a, nw);
+					int ix=declarationWorkers.indexOf(w);
+					if (ix>-1){
+						declarationWorkers.set(ix, nw);
+					} else {
+						hoogleWorker=nw;
+					}
+					w.stop();
+					// the new worker gets queries once it's ready
+					new Thread("Scion Browser worker reload"){
+						@Override
+						public void run() {
+							reload(nw, nw==hoogleWorker);
+						}
+					}.start();
+				} catch (Exception e){
+					BrowserPlugin.logError(BrowserText.error_restart, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * load the databases the pool has loaded into a new worker
+	 * @param w the worker
+	 * @param hoogle should we initialize Hoogle too?
+	 */
+	private void reload(StreamBrowserServer w,boolean hoogle){
+		try {
+			if (localDbLoaded && localDbPath!=null){
+				w.loadLocalDatabase(localDbPath, false);
+			}
+			if (hackageDbLoaded && hackageDbPath!=null){
+				w.loadHackageDatabase(hackageDbPath, false);
+			}
+			if (hoogle){
+				if (extraHooglePath!=null){
+					w.setExtraHooglePath(extraHooglePath);
+				}
+				if (hoogleLoaded && hooglePath!=null){
+					w.initHoogle(hooglePath, false);
+				}
+			}
+		} catch (Exception e){
+			BrowserPlugin.logError(BrowserText.error_restart, e);
+		}
+	}
+
+	/**
+	 * @return the worker to send a declaration query to
+	 */
+	private StreamBrowserServer getDeclarationWorker(){
+		checkWorkers();
+		StreamBrowserServer w=leastBusy(declarationWorkers);
+		if (w==null){
+			w=leastBusy(workers);
+		}
+		// the first worker loads the databases synchronously: it's the best bet if nobody is ready
+		return w!=null?w:workers.get(0);
+	}
+
+	/**
+	 * @return the worker to send a package or module query to
+	 */
+	private StreamBrowserServer getGeneralWorker(){
+		checkWorkers();
+		StreamBrowserServer hoogleWorker=this.hoogleWorker;
+		return isReady(hoogleWorker)?hoogleWorker:getDeclarationWorker();
+	}
+
+	@Override
+	public boolean isLocalDatabaseLoaded() {
+		return localDbLoaded;
+	}
+
+	@Override
+	public boolean isHackageDatabaseLoaded() {
+		return hackageDbLoaded;
+	}
+
+	@Override
+	public boolean isHoogleLoaded() {
+		return hoogleLoaded;
+	}
+
+	@Override
+	protected void loadLocalDatabaseInternal(final String path, boolean rebuild)
+			throws IOException, JSONException {
+		// only one process rebuilds the database, the others read it once it's written
+		StreamBrowserServer first=workers.get(0);
+		first.loadLocalDatabase(path, rebuild);
+		if (first.isLocalDatabaseLoaded()){
+			localDbPath=path;
+			localDbLoaded=true;
+			for (final StreamBrowserServer w:workers.subList(1, workers.size())){
+				new Thread("Scion Browser worker local database"){
+					@Override
+					public void run() {
+						try {
+							w.loadLocalDatabase(path, false);
+						} catch (Exception e){
+							BrowserPlugin.logError(BrowserText.error_loadlocaldb, e);
+						}
+					}
+				}.start();
+			}
+			notifyDatabaseLoaded(new DatabaseLoadedEvent(this, path, DatabaseType.LOCAL));
+		}
+	}
+
+	@Override
+	protected void loadHackageDatabaseInternal(final String path, boolean rebuild)
+			throws IOException, JSONException {
+		StreamBrowserServer first=workers.get(0);
+		first.loadHackageDatabase(path, rebuild);
+		if (first.isHackageDatabaseLoaded()){
+			hackageDbPath=path;
+			hackageDbLoaded=true;
+			for (final StreamBrowserServer w:workers.subList(1, workers.size())){
+				new Thread("Scion Browser worker hackage database"){
+					@Override
+					public void run() {
+						try {
+							w.loadHackageDatabase(path, false);
+						} catch (Exception e){
+							BrowserPlugin.logError(BrowserText.error_loadhackagedb, e);
+						}
+					}
+				}.start();
+			}
+			notifyDatabaseLoaded(new DatabaseLoadedEvent(this, path, DatabaseType.HACKAGE));
+		}
+	}
+
+	@Override
+	public HaskellPackage[] getPackages(Database db) throws IOException,
+			JSONException {
+		return getGeneralWorker().getPackages(db);
+	}
+
+	@Override
+	public Module[] getAllModules(Database db) throws IOException,
+			JSONException {
+		return getGeneralWorker().getAllModules(db);
+	}
+
+	@Override
+	public Module[] getModules(Database db, String module) throws IOException,
+			JSONException {
+		return getDeclarationWorker().getModules(db, module);
+	}
+
+	@Override
+	public Packaged<Declaration>[] getDeclarations(Database db, String module)
+			throws Exception {
+		return getDeclarationWorker().getDeclarations(db, module);
+	}
+
+	@Override
+	public Packaged<Declaration>[] getDeclarationsFromPrefix(Database db,
+			String prefix) throws Exception {
+		return getDeclarationWorker().getDeclarationsFromPrefix(db, prefix);
+	}
+
+	@Override
+	public DeclarationId[] findModulesForDeclaration(Database db, String decl)
+			throws IOException, JSONException {
+		return getDeclarationWorker().findModulesForDeclaration(db, decl);
+	}
+
+	@Override
+	public void setExtraHooglePath(String newPath) throws IOException,
+			JSONException {
+		checkWorkers();
+		hoogleWorker.setExtraHooglePath(newPath);
+		extraHooglePath=newPath;
+	}
+
+	@Override
+	public HoogleResult[] queryHoogle(Database db, String path, String query)
+			throws Exception {
+		// only the Hoogle worker has initialized Hoogle: wait for it even if it's busy
+		checkWorkers();
+		return hoogleWorker.queryHoogle(db, path, query);
+	}
+
+	@Override
+	public HoogleStatus initHoogle(String path, boolean addToDB)
+			throws Exception {
+		checkWorkers();
+		HoogleStatus st=hoogleWorker.initHoogle(path, addToDB);
+		if (HoogleStatus.OK.equals(st)) {
+			hooglePath=path;
+			hoogleLoaded = true;
+			notifyHoogleLoaded(new BrowserEvent(this));
+		}
+		return st;
+	}
+
+	@Override
+	public void stop() {
+		stopped=true;
+		localDbLoaded = false;
+		hackageDbLoaded = false;
+		hoogleLoaded = false;
+		for (StreamBrowserServer w:workers){
+			w.stop();
+		}
+		BrowserEvent e = new BrowserEvent(this);
+		notifyDatabaseUnloaded(e);
+		notifyHoogleUnloaded(e);
+	}
+
+	/**
+	 * declaration queries have to wait if no declaration worker is idle
+	 */
+	@Override
+	public boolean isRunning() {
+		for (StreamBrowserServer w:declarationWorkers){
+			if (isReady(w) && !w.isRunning()){
+				return false;
+			}
+		}
+		return true;
+	}
+}
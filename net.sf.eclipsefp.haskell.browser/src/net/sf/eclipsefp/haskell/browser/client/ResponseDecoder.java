@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.browser.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.sf.eclipsefp.haskell.util.FileUtil;
+
+/**
+ * Reads the responses of a Scion Browser instance: each response is a line compressed in its own zlib stream.
+ * The same inflater is used for all the responses, and the bytes read after the end of a response are kept for the next one,
+ * so that several responses can be waiting in the pipe
+ * @author JP Moresmau
+ *
+ */
+class ResponseDecoder {
+	private final InputStream in;
+	private final Inflater inflater=new Inflater();
+	private final byte[] input=new byte[8192];
+	private final byte[] output=new byte[8192];
+	private final ByteArrayOutputStream line=new ByteArrayOutputStream();
+	/**
+	 * the number of bytes last read into input
+	 */
+	private int inputLength=0;
+
+	ResponseDecoder(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * read the next response
+	 * @return the first line of the response, or null at the end of the input
+	 * @throws IOException
+	 */
+	String readLine() throws IOException {
+		line.reset();
+		boolean eol=false;
+		boolean started=false;
+		try {
+			while (!inflater.finished()){
+				if (inflater.needsInput()){
+					inputLength=in.read(input);
+					if (inputLength<0){
+						inputLength=0;
+						if (!started){
+							return null;
+						}
+						throw new EOFException();
+					}
+					inflater.setInput(input, 0, inputLength);
+				}
+				started=true;
+				int n=inflater.inflate(output);
+				if (n==0 && inflater.needsDictionary()){
+					throw new IOException("zlib dictionary not supported");
+				}
+				// like BufferedReader.readLine on the stream, only keep the first line
+				for (int a=0;a<n && !eol;a++){
+					if (output[a]=='\n'){
+						eol=true;
+					} else {
+						line.write(output[a]);
+					}
+				}
+			}
+		} catch (DataFormatException dfe){
+			throw new IOException(dfe);
+		}
+		// the bytes after the end of the stream belong to the next response
+		int remaining=inflater.getRemaining();
+		inflater.reset();
+		if (remaining>0){
+			inflater.setInput(input, inputLength-remaining, remaining);
+		}
+		String s=new String(line.toByteArray(), FileUtil.UTF8);
+		if (s.endsWith("\r")){
+			s=s.substring(0, s.length()-1);
+		}
+		return s;
+	}
+
+	void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+}
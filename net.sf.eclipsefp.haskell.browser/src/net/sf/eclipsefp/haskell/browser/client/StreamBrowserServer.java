@@ -4,17 +4,20 @@
  */
 package net.sf.eclipsefp.haskell.browser.client;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.eclipsefp.haskell.browser.BrowserEvent;
 import net.sf.eclipsefp.haskell.browser.BrowserPlugin;
@@ -37,12 +40,13 @@ import net.sf.eclipsefp.haskell.util.LangUtil;
 import net.sf.eclipsefp.haskell.util.StreamRedirect;
 
 import org.eclipse.core.runtime.IPath;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
  * Class used for communicating with a Scion Browser instance.
+ * Commands are sent without waiting for the responses of the previous ones: the server answers them in order,
+ * and a reader thread gives each response to the oldest pending request.
  * 
  * @author Alejandro Serrano
  * @author JP Moresmau
@@ -58,16 +62,52 @@ public class StreamBrowserServer extends BrowserServer {
 	private boolean hackageDbLoaded = false;
 	private String hackageDbPath = null;
 	private boolean hoogleLoaded = false;
+	private String hooglePath = null;
+	private String extraHooglePath = null;
 	private StreamRedirect errorRedirect;
-	public LockObject lock= new LockObject();
+	/**
+	 * the maximum time in milliseconds we wait for the response of a query
+	 */
+	private static final long QUERY_TIMEOUT=30000;
+	/**
+	 * the requests sent and waiting for their response, oldest first. Writing to the server is synchronized on this
+	 */
+	private final LinkedList<Request> pending=new LinkedList<>();
+	/**
+	 * shared by all the instances, so that the log tells the requests of several servers apart
+	 */
+	private static final AtomicLong requestIDs=new AtomicLong();
+	/**
+	 * are we stopping the server on purpose?
+	 */
+	private volatile boolean stopped=false;
+	/**
+	 * are we restarting the server and reloading its databases?
+	 */
+	private volatile boolean restarting=false;
+	/**
+	 * has the process died without being restarted?
+	 */
+	private volatile boolean dead=false;
+	/**
+	 * when we last restarted the process after a crash
+	 */
+	private long lastRestart=0;
+	/**
+	 * a process crashing sooner than that after a restart is not restarted again, in milliseconds
+	 */
+	private static final long MIN_RESTART_INTERVAL=10000;
 	
 	/**
 	 * cache packages by database
 	 */
-	private Map<Database,HaskellPackage[]> packageCache=new HashMap<>();
+	private Map<Database,HaskellPackage[]> packageCache=new ConcurrentHashMap<>();
 	
 	//private DatabaseType currentDatabase;
-	private HashMap<String, Packaged<Declaration>[]> declCache = new HashMap<>();
+	/**
+	 * cache declarations by database and module, maybe shared with other servers on the same databases
+	 */
+	private final DeclarationCache declCache;
 
 	private boolean logError;
 	
@@ -75,10 +115,28 @@ public class StreamBrowserServer extends BrowserServer {
 	private DispatchWriter allErrWs=new DispatchWriter();
 	
 	public StreamBrowserServer(IPath serverExecutable,boolean logError) throws Exception {
+		this(serverExecutable,logError,new DeclarationCache());
+	}
+	
+	/**
+	 * @param serverExecutable the path to the Scion Browser executable
+	 * @param logError should we log the error output of the server?
+	 * @param declCache the declaration cache
+	 * @throws Exception
+	 */
+	public StreamBrowserServer(IPath serverExecutable,boolean logError,DeclarationCache declCache) throws Exception {
 		this.serverExecutable = serverExecutable;
 		this.logError=logError;
+		this.declCache=declCache;
 		startServer();
 	}
+	
+	/**
+	 * @return the cache of declarations by module
+	 */
+	public DeclarationCache getDeclarationCache() {
+		return declCache;
+	}
 
 	@Override
 	public void setLogStream(Writer logStream) {
@@ -114,6 +172,7 @@ public class StreamBrowserServer extends BrowserServer {
 		builder.redirectErrorStream(false);
 
 		try {
+			stopped=false;
 			process = builder.start();
 			out = process.getInputStream();
 			allErrWs.getWriters().clear();
@@ -127,138 +186,236 @@ public class StreamBrowserServer extends BrowserServer {
 					process.getInputStream(), FileUtil.UTF8));*/
 			/*err = new BufferedReader(new InputStreamReader(
 					process.getErrorStream(), FileUtil.UTF8)); */
-			in  = new BufferedWriter(new OutputStreamWriter(
-					process.getOutputStream(),FileUtil.UTF8));
+			synchronized (pending) {
+				in  = new BufferedWriter(new OutputStreamWriter(
+						process.getOutputStream(),FileUtil.UTF8));
+			}
+			final ResponseDecoder decoder=new ResponseDecoder(out);
+			Thread reader=new Thread("Scion Browser responses"){
+				@Override
+				public void run() {
+					readResponses(decoder);
+				}
+			};
+			reader.setDaemon(true);
+			reader.start();
 		} catch (Throwable ex) {
 			throw new Exception("Could not load");
 		}
 	}
 
+	/**
+	 * send a command and wait for its response
+	 * @param input the command
+	 * @return the response
+	 * @throws IOException
+	 */
 	public String sendAndReceive(JSONObject input)
 			throws IOException {
-		synchronized(lock) {
-			lock.setRunning(true);
-			try {
-				String jsonInput = input.toString();
-				sendCommand(jsonInput);
-				String response=getALine();
-				// String response = out.readLine();
-				//log(response);
-				if (response==null){
-					response=new JSONArray().toString();
-				}
-				return response;
-			} finally {
-				lock.setRunning(false);
-			}
+		return sendAndReceive(input, 0);
+	}
+
+	/**
+	 * send a command and wait for its response
+	 * @param input the command
+	 * @param timeout the maximum time to wait in milliseconds, 0 to wait until the response arrives
+	 * @return the response
+	 * @throws IOException if the server fails or the time is over
+	 */
+	public String sendAndReceive(JSONObject input,long timeout)
+			throws IOException {
+		String response=send(input, ResponseType.LINE).get(timeout);
+		if (response==null){
+			// never pass an empty answer for a failure: it would be cached
+			throw new IOException("No response from Scion Browser");
 		}
+		return response;
 	}
 
 	public boolean sendAndReceiveOk(JSONObject input)
 			throws IOException {
-		synchronized(lock) {
-			lock.setRunning(true);
-			try {
-				String jsonInput = input.toString();
-				sendCommand(jsonInput);
-		
-				String response = null;
-				do {
-					response = getALine(); // out.readLine();
-					log(response);
-				} while (response!=null && !response.equals("\"ok\""));
-				return "\"ok\"".equals(response);
-			} finally {
-				lock.setRunning(false);
-			}
-		}
+		return "\"ok\"".equals(send(input, ResponseType.OK).get(0));
 	}
 	
 	public boolean sendAndReceiveBoolean(JSONObject input)
 			throws IOException {
-		synchronized(lock) {
-			lock.setRunning(true);
-			try {
-		
-				String jsonInput = input.toString();
-				sendCommand(jsonInput);
-		
-				String response = null;
-				do {
-					response = getALine(); // out.readLine();
-					log(response);
-				} while (response!=null && !response.equals("true") && !response.equals("false"));
-				
-				return "true".equals(response);
-			} finally {
-				lock.setRunning(false);
-			}
-		}
-	}
-	
-	private void sendCommand(String command) throws IOException{
-		log(">> " + command);
-		lastErrW.clear();
-		in.write(command + "\n");
-		in.flush();
+		return "true".equals(send(input, ResponseType.BOOLEAN).get(0));
 	}
 	
 	public HoogleStatus sendAndReceiveStatus(JSONObject input)
 			throws IOException {
-		synchronized(lock) {
-			lock.setRunning(true);
+		String response=send(input, ResponseType.STATUS).get(0);
+		return response!=null?ResponseType.getStatus(response):null;
+	}
+	
+	/**
+	 * send a command without waiting for the responses of the previous commands
+	 * @param input the command
+	 * @param type the type of response we wait for
+	 * @return the request, to wait for the response or cancel it
+	 * @throws IOException
+	 */
+	public Request send(JSONObject input,ResponseType type) throws IOException{
+		String command=input.toString();
+		// the server answers in order: the queue order must be the order we write in
+		synchronized (pending) {
+			Request r=new Request(requestIDs.incrementAndGet(), type);
+			log(">> " + r.getID() + " " + command);
+			lastErrW.clear();
+			pending.add(r);
 			try {
-				String jsonInput = input.toString();
-				sendCommand(jsonInput);
-				HoogleStatus st=null;
-				String response = null;
-				do {
-					response = getALine(); // out.readLine();
-					log(response);
-					try {
-						st=HoogleStatus.valueOf(LangUtil.unquote(response).toUpperCase());
-					} catch (IllegalArgumentException iae){
-						// NOOP
-					}
-				} while (st==null);
-				
-				return st;
-			} finally {
-				lock.setRunning(false);
+				in.write(command + "\n");
+				in.flush();
+			} catch (IOException ioe){
+				pending.remove(r);
+				throw ioe;
 			}
+			return r;
 		}
 	}
 	
-	public String getALine() throws IOException{
-		try {			
-			InflaterInputStream gzip = new InflaterInputStream(out);
-			BufferedReader reader = new BufferedReader(
-					new InputStreamReader(gzip, FileUtil.UTF8));
-			
-			return reader.readLine();
+	/**
+	 * @return the number of requests waiting for their response
+	 */
+	public int getPendingCount(){
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+	
+	/**
+	 * read the responses of the server and give them to the pending requests, in order
+	 * @param decoder the decoder on the process output
+	 */
+	private void readResponses(ResponseDecoder decoder){
+		try {
+			String line=decoder.readLine();
+			while (line!=null){
+				Request r;
+				synchronized (pending) {
+					r=pending.peek();
+					if (r!=null && r.offer(line)){
+						pending.poll();
+					}
+				}
+				if (r==null){
+					log("<< unexpected " + line);
+				} else {
+					log("<< " + r.getID() + " " + line);
+				}
+				line=decoder.readLine();
+			}
+			// end of output: the process has died or is dying
+			throw new EOFException("Scion Browser closed its output");
 		} catch (IOException e) {
+			try {
+				decoder.close();
+			} catch (IOException ignore){
+				// noop
+			}
+			if (stopped){
+				failPending(new IOException("Scion Browser stopped"));
+				return;
+			}
 			BrowserPlugin.logError(BrowserText.error_read, e);
 			String lastErr=lastErrW.toString().trim();
-			try {
-				process.exitValue();
-				startServer();
-				if (localDbLoaded && localDbPath!=null){
-					loadLocalDatabase(localDbPath, false);
-				}
-				if (hackageDbLoaded && hackageDbPath!=null){
-					loadHackageDatabase(hackageDbPath, false);
+			failPending(lastErr!=null && lastErr.length()>0?new IOException(lastErr):e);
+			restart();
+		}
+	}
+	
+	/**
+	 * fail all the pending requests
+	 * @param e the error to give them
+	 */
+	private void failPending(IOException e){
+		List<Request> rs;
+		synchronized (pending) {
+			rs=new ArrayList<>(pending);
+			pending.clear();
+		}
+		for (Request r:rs){
+			r.fail(e);
+		}
+	}
+	
+	/**
+	 * @param p a process
+	 * @return true if the process has not exited yet
+	 */
+	private static boolean isAlive(Process p){
+		try {
+			p.exitValue();
+			return false;
+		} catch (IllegalThreadStateException itse){
+			return true;
+		}
+	}
+	
+	/**
+	 * @return true if the server process is running or being restarted, false if it was stopped or could not be restarted
+	 */
+	public boolean isAlive(){
+		return !stopped && !dead;
+	}
+	
+	/**
+	 * restart the server after its output ended or failed, and reload the databases and Hoogle.
+	 * This runs in the thread reading the responses of the dead process
+	 */
+	private void restart(){
+		restarting=true;
+		try {
+			// a process that does not answer any more is no use to us
+			Process p=process;
+			if (p!=null){
+				if (isAlive(p)){
+					p.destroy();
 				}
-			} catch (Exception ignore){
-				// noop
+				p.waitFor();
+			}
+			if (stopped){
+				return;
+			}
+			// do not loop if the process crashes at startup
+			long now=System.currentTimeMillis();
+			if (now-lastRestart<MIN_RESTART_INTERVAL){
+				dead=true;
+				BrowserPlugin.logError(BrowserText.error_restart, null);
+				return;
 			}
-			
-			if (lastErr!=null && lastErr.length()>0){
-				throw new IOException(lastErr);
+			lastRestart=now;
+			startServer();
+			if (localDbLoaded && localDbPath!=null){
+				loadLocalDatabase(localDbPath, false);
 			}
-			throw e;
+			if (hackageDbLoaded && hackageDbPath!=null){
+				loadHackageDatabase(hackageDbPath, false);
+			}
+			if (extraHooglePath!=null){
+				setExtraHooglePath(extraHooglePath);
+			}
+			if (hoogleLoaded && hooglePath!=null){
+				initHoogle(hooglePath, false);
+			}
+		} catch (InterruptedException ie){
+			dead=true;
+			Thread.currentThread().interrupt();
+		} catch (Exception e){
+			dead=true;
+			BrowserPlugin.logError(BrowserText.error_restart, e);
+		} finally {
+			restarting=false;
 		}
 	}
 	
+	/**
+	 * @return true if the server is being restarted after a crash, and may not have its databases yet
+	 */
+	public boolean isRestarting() {
+		return restarting;
+	}
+	
 	@Override
 	public boolean isLocalDatabaseLoaded() {
 		return localDbLoaded;
@@ -281,6 +438,9 @@ public class StreamBrowserServer extends BrowserServer {
 			localDbPath=path;
 			packageCache.remove(Database.LOCAL);
 			packageCache.remove(Database.ALL);
+			if (rebuild){
+				declCache.invalidate(DatabaseType.LOCAL);
+			}
 			// Notify listeners
 			DatabaseLoadedEvent e = new DatabaseLoadedEvent(this, path,
 					DatabaseType.LOCAL);
@@ -296,6 +456,9 @@ public class StreamBrowserServer extends BrowserServer {
 			hackageDbPath=path;
 			packageCache.remove(Database.HACKAGE);
 			packageCache.remove(Database.ALL);
+			if (rebuild){
+				declCache.invalidate(DatabaseType.HACKAGE);
+			}
 			// Notify listeners
 			DatabaseLoadedEvent e = new DatabaseLoadedEvent(this, path,
 					DatabaseType.HACKAGE);
@@ -334,7 +497,7 @@ public class StreamBrowserServer extends BrowserServer {
 
 	@Override
 	public Module[] getModules(Database db,String module) throws IOException, JSONException {
-		String response = sendAndReceive(Commands.createGetModules(db,module));
+		String response = sendAndReceive(Commands.createGetModules(db,module),QUERY_TIMEOUT);
 		return Commands.responseGetModules(response);
 	}
 
@@ -343,22 +506,18 @@ public class StreamBrowserServer extends BrowserServer {
 	public Packaged<Declaration>[] getDeclarations(Database db,String module)
 			throws Exception {
 		// Try to find in cache
-		//if (this.currentDatabase == DatabaseType.ALL) {
-		Packaged<Declaration>[] decls=this.declCache.get(module);
+		Packaged<Declaration>[] decls=this.declCache.get(db,module);
 		if (decls!=null){
 			return decls;
 		}
-		//}
 		// If not, search
-		String response = sendAndReceive(Commands.createGetDeclarations(db,module));
+		long generation=this.declCache.getGeneration();
+		String response = sendAndReceive(Commands.createGetDeclarations(db,module),QUERY_TIMEOUT);
 		decls = Commands.responseGetDeclarations(response);
 		if (decls==null){
 			decls=new Packaged[0];
 		}
-		// Check if we need to save in cache
-		//if (this.currentDatabase == DatabaseType.ALL) {
-		this.declCache.put(module, decls);
-		//}
+		this.declCache.put(db, module, decls, response.length(), generation);
 		return decls;
 	}
 	
@@ -367,7 +526,7 @@ public class StreamBrowserServer extends BrowserServer {
 	public Packaged<Declaration>[] getDeclarationsFromPrefix(Database db,String prefix)
 			throws Exception {
 
-		String response = sendAndReceive(Commands.createGetDeclarationsFromPrefix(db, prefix));
+		String response = sendAndReceive(Commands.createGetDeclarationsFromPrefix(db, prefix),QUERY_TIMEOUT);
 		Packaged<Declaration>[] decls = Commands.responseGetDeclarationsFromPrefix(response);
 		if (decls==null){
 			decls=new Packaged[0];
@@ -378,18 +537,19 @@ public class StreamBrowserServer extends BrowserServer {
 	
 	@Override
 	public DeclarationId[] findModulesForDeclaration(Database db,String decl) throws IOException, JSONException {
-		String response = sendAndReceive(Commands.createFindModulesForDeclaration(db,decl));
+		String response = sendAndReceive(Commands.createFindModulesForDeclaration(db,decl),QUERY_TIMEOUT);
 		return Commands.responseGetDeclarationId(response);
 	}
 	
 	@Override
 	public void setExtraHooglePath(String newPath) throws IOException, JSONException {
 		sendAndReceiveOk(Commands.createSetExtraHooglePath(newPath));
+		extraHooglePath=newPath;
 	}
 
 	@Override
 	public HoogleResult[] queryHoogle(Database db,String path,String query) throws Exception {
-		String response = sendAndReceive(Commands.createHoogleQuery(db,path,query,BrowserPlugin.getToolSandboxPath()));
+		String response = sendAndReceive(Commands.createHoogleQuery(db,path,query,BrowserPlugin.getToolSandboxPath()),QUERY_TIMEOUT);
 		return Commands.responseHoogleQuery(response);
 	}
 //
@@ -413,6 +573,7 @@ public class StreamBrowserServer extends BrowserServer {
 		HoogleStatus st = sendAndReceiveStatus(Commands.createInitHoogle(path,addToDB,BrowserPlugin.getToolSandboxPath()));
 		if (HoogleStatus.OK.equals(st)) {
 			hoogleLoaded = true;
+			hooglePath = path;
 			notifyHoogleLoaded(new BrowserEvent(this));
 		}
 		return st;
@@ -429,6 +590,7 @@ public class StreamBrowserServer extends BrowserServer {
 		notifyDatabaseUnloaded(e);
 		// Nor a Hoogle connection
 		notifyHoogleUnloaded(e);
+		stopped=true;
 		try {
 			if (out!=null){
 				out.close();
@@ -458,20 +620,131 @@ public class StreamBrowserServer extends BrowserServer {
 	
 	@Override
 	public boolean isRunning(){
-		return lock.isRunning();
+		return getPendingCount()>0;
 	}
 	
-	private static class LockObject{
-		AtomicBoolean running=new AtomicBoolean(false);
-
-		public boolean isRunning() {
-			return running.get();
+	/**
+	 * what ends the response to a request: the server may send progress lines before
+	 */
+	public static enum ResponseType {
+		/**
+		 * the first line
+		 */
+		LINE,
+		/**
+		 * "ok"
+		 */
+		OK,
+		/**
+		 * true or false
+		 */
+		BOOLEAN,
+		/**
+		 * a Hoogle status
+		 */
+		STATUS;
+		
+		boolean isEnd(String line){
+			switch (this){
+			case OK:
+				return line.equals("\"ok\"");
+			case BOOLEAN:
+				return line.equals("true") || line.equals("false");
+			case STATUS:
+				return getStatus(line)!=null;
+			default:
+				return true;
+			}
 		}
-
-		public void setRunning(boolean running) {
-			this.running.set(running);
+		
+		static HoogleStatus getStatus(String line){
+			try {
+				return HoogleStatus.valueOf(LangUtil.unquote(line).toUpperCase());
+			} catch (IllegalArgumentException iae){
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * a command sent to the server, waiting for its response.
+	 * A canceled or timed out request stays in the queue until its response arrives, and the response is discarded
+	 */
+	public static class Request {
+		private final long id;
+		private final ResponseType type;
+		private boolean done=false;
+		private boolean canceled=false;
+		private String response;
+		private IOException error;
+		
+		private Request(long id, ResponseType type) {
+			this.id = id;
+			this.type = type;
+		}
+		
+		public long getID() {
+			return id;
 		}
 		
+		/**
+		 * give a line sent by the server
+		 * @param line the line
+		 * @return true if the line ends the response
+		 */
+		synchronized boolean offer(String line){
+			if (!type.isEnd(line)){
+				return false;
+			}
+			response=line;
+			done=true;
+			notifyAll();
+			return true;
+		}
+		
+		synchronized void fail(IOException e){
+			error=e;
+			done=true;
+			notifyAll();
+		}
 		
+		/**
+		 * stop waiting for the response
+		 */
+		public synchronized void cancel(){
+			canceled=true;
+			notifyAll();
+		}
+		
+		/**
+		 * wait for the response
+		 * @param timeout the maximum time to wait in milliseconds, 0 to wait until the response arrives
+		 * @return the response
+		 * @throws IOException if the server failed, the time is over or the request was canceled
+		 */
+		public synchronized String get(long timeout) throws IOException {
+			long end=timeout>0?System.currentTimeMillis()+timeout:Long.MAX_VALUE;
+			while (!done && !canceled){
+				long wait=end-System.currentTimeMillis();
+				if (wait<=0){
+					canceled=true;
+					throw new InterruptedIOException("No response from Scion Browser to request "+id+" after "+timeout+"ms");
+				}
+				try {
+					wait(timeout>0?wait:0);
+				} catch (InterruptedException ie){
+					canceled=true;
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			if (canceled && !done){
+				throw new InterruptedIOException("Request "+id+" canceled");
+			}
+			if (error!=null){
+				throw error;
+			}
+			return response;
+		}
 	}
 }
@@ -18,6 +18,8 @@ public class BrowserText extends NLS {
 	public static String error_read;
 	public static String error_loadlocaldb;
 	public static String error_loadhackagedb;
+	public static String error_index;
+	public static String error_restart;
 	
 	  private static final String BUNDLE_NAME = BrowserText.class.getPackage().getName() + ".browser"; //$NON-NLS-1$
 
@@ -9,6 +9,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -49,9 +50,12 @@ import net.sf.eclipsefp.haskell.buildwrapper.types.TokenDef;
 import net.sf.eclipsefp.haskell.buildwrapper.usage.UsageAPI;
 import net.sf.eclipsefp.haskell.buildwrapper.util.BWText;
 import net.sf.eclipsefp.haskell.util.FileUtil;
+import net.sf.eclipsefp.haskell.util.JSONPullParser;
+import net.sf.eclipsefp.haskell.util.KeyLockManager.WaitStatistics;
 import net.sf.eclipsefp.haskell.util.LangUtil;
 import net.sf.eclipsefp.haskell.util.OutputWriter;
 import net.sf.eclipsefp.haskell.util.PlatformUtil;
+import net.sf.eclipsefp.haskell.util.ResultCache;
 import net.sf.eclipsefp.haskell.util.SingleJobQueue;
 
 import org.eclipse.core.resources.IFile;
@@ -62,6 +66,7 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.swt.widgets.Display;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -76,6 +81,10 @@ public class BWFacade {
 	public static final String DIST_FOLDER_CABAL=DIST_FOLDER+"/dist";
 	public static final String DIST_FOLDER_CABALDEV=DIST_FOLDER+"/cabal-dev";
 	public static final String DIST_FOLDER_SANDBOX=DIST_FOLDER+"/sandbox";
+	/**
+	 * the folder where cached results are persisted, inside the dist folder
+	 */
+	public static final String CACHE_FOLDER="cache";
 	
 	private static final String prefix="build-wrapper-json:";
 	
@@ -117,6 +126,12 @@ public class BWFacade {
 	 */
 	public static boolean longRunning=true;
 	
+	/**
+	 * how long (in milliseconds) do we wait for a busy long running process before running a one-shot buildwrapper process instead.
+	 * The UI thread never waits
+	 */
+	public static long longRunningWait=2000;
+	
 	/**
 	 * log build times
 	 */
@@ -161,6 +176,11 @@ public class BWFacade {
 	
 	private Map<IFile,String> moduleCache=Collections.synchronizedMap(new HashMap<IFile,String>());
 	
+	/**
+	 * cache of answers, keyed by command, configuration and contents of the file, so that identical contents do not require a new buildwrapper call
+	 */
+	private ResultCache resultCache;
+	
 	/**
 	 * do we need to set derived on dist dir?
 	 */
@@ -446,7 +466,14 @@ public class BWFacade {
 		}
 		showedNoExeError=false;
 		BWFileInfo bfi=getFileInfo(file);
-		processManager.startRunningFileWait(bfi);
+		long tw=System.currentTimeMillis();
+		if (!processManager.startRunningFileWait(bfi,monitor.get())){
+			// canceled while waiting for the process
+			return null;
+		}
+		if (logBuildTimes){
+			BuildWrapperPlugin.logInfo("wait:"+(System.currentTimeMillis()-tw)+"ms, "+processManager.getWaitStatistics());
+		}
 		JSONArray arr=null;
 		//BuildWrapperPlugin.logInfo("build1 longrunning start");
 		try {
@@ -495,7 +522,7 @@ public class BWFacade {
 				}
 			}
 			long t0=System.currentTimeMillis();
-			arr=readArrayBW(p);
+			arr=readBW(p,ARRAY);
 
 			// check if process has ended because of some uncaught error in buildwrapper
 			if (processManager.hasEnded(bfi)){
@@ -566,7 +593,7 @@ public class BWFacade {
 		p.getOutputStream().write((command+PlatformUtil.NL).getBytes(FileUtil.UTF8));
 		p.getOutputStream().flush();
 		if (readResults){
-			parseBuildResult(readArrayBW(p));
+			parseBuildResult(readBW(p,ARRAY));
 		}
 		return false;
 	}
@@ -585,41 +612,139 @@ public class BWFacade {
         return m;
 	}
 	
-	private JSONArray readArrayBW(Process p) throws IOException{
+	/**
+	 * read the answer of a long running process
+	 * @param p the process
+	 * @param f the factory building the result
+	 * @return the result, or null if the process ended without answering or the answer could not be parsed
+	 * @throws IOException
+	 */
+	private <T> T readBW(Process p,JSONFactory<T> f) throws IOException{
 		processManager.registerProcess(p);
 		try {
-			JSONArray arr=null;
 			BufferedReader br=new BufferedReader(new InputStreamReader(p.getInputStream(),FileUtil.UTF8));
-			//long t0=System.currentTimeMillis();
-			String l=br.readLine();
-			boolean goOn=true;
-	
-			while (goOn && l!=null){
-				if (l.startsWith(prefix)){
-					if (ow!=null && BuildWrapperPlugin.logAnswers) {
-						ow.addMessage(l);
-					}					
-					String jsons=l.substring(prefix.length()).trim();
-					try {
-						arr=ARRAY.fromJSON(jsons);
-					} catch (JSONException je){
-						BuildWrapperPlugin.logError(BWText.process_parse_error, je);
-					}
-					goOn=false;
-				} else {
-					if (ow!=null) {
-						ow.addMessage(l);
-					}
-	
-					l=br.readLine();
+			while (!readPrefix(br)){
+				String l=br.readLine();
+				if (l==null){
+					return null;
+				}
+				if (ow!=null) {
+					ow.addMessage(l);
 				}
 			}
-			return arr;
+			return readAnswer(br, f);
 		} finally {
 			processManager.unregisterProcess();
 		}
 	}
 	
+	/**
+	 * check if the next line is an answer line. We don't read past the first character that doesn't match the answer prefix,
+	 * so we never wait for output that a live process will not send
+	 * @param br the reader, positioned at the start of a line
+	 * @return true if the prefix has been consumed, false if the reader is back at the start of the line
+	 * @throws IOException
+	 */
+	private static boolean readPrefix(BufferedReader br) throws IOException{
+		br.mark(prefix.length());
+		for (int a=0;a<prefix.length();a++){
+			if (br.read()!=prefix.charAt(a)){
+				br.reset();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * read the answer, just after the prefix. Streaming factories decode it directly from the process output,
+	 * without reading the whole line into a String first, unless we need the raw text to log it
+	 * @param br the reader
+	 * @param f the factory
+	 * @return the result or null if parsing failed
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T readAnswer(BufferedReader br,JSONFactory<T> f) throws IOException{
+		boolean log=ow!=null && BuildWrapperPlugin.logAnswers;
+		if (!log && f instanceof StreamingJSONFactory){
+			try {
+				T obj=((StreamingJSONFactory<T>)f).fromJSON(new JSONPullParser(br));
+				skipLineEnd(br);
+				return obj;
+			} catch (JSONException je){
+				BuildWrapperPlugin.logError(BWText.process_parse_error, je);
+				// skip what's left of the answer, so the next command starts at a new line
+				br.readLine();
+				return null;
+			}
+		}
+		String l=br.readLine();
+		if (l==null){
+			return null;
+		}
+		if (log) {
+			ow.addMessage(prefix+l);
+		}
+		try {
+			return f.fromJSON(l.trim());
+		} catch (JSONException je){
+			BuildWrapperPlugin.logError(BWText.process_parse_error, je);
+			return null;
+		}
+	}
+	
+	/**
+	 * consume the end of the answer line, if it's already available
+	 * @param br the reader
+	 * @throws IOException
+	 */
+	private static void skipLineEnd(BufferedReader br) throws IOException{
+		while (br.ready()){
+			int c=br.read();
+			if (c=='\n' || c==-1){
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * send a command to the long running process for the file, if there is one.
+	 * The warm GHC session answers much faster than a new buildwrapper process that has to reload the cabal setup,
+	 * so if the session is only busy we wait for it a little while before giving up.
+	 * We never wait in the UI thread: there a busy session means the caller runs a one-shot process straight away
+	 * @param file the file
+	 * @param command the encoded command, including the new line
+	 * @return the result array, or null if no long running process could answer, and the caller should run a one-shot buildwrapper process
+	 * @throws IOException
+	 */
+	private <T> T runLongRunning(IFile file,byte[] command,JSONFactory<T> f) throws IOException{
+		BWFileInfo bfi=getFileInfo(file);
+		// no session: don't wait for nothing
+		if (processManager.getProcess(bfi)==null){
+			return null;
+		}
+		boolean owned=Display.findDisplay(Thread.currentThread())!=null
+				?processManager.startRunningFile(bfi)
+				:processManager.startRunningFileWait(bfi,longRunningWait,monitor.get());
+		if (!owned){
+			return null;
+		}
+		try {
+			BWProcessInfo bpi=processManager.getProcess(bfi);
+			if (bpi!=null && !processManager.hasEnded(bfi)){
+				switchProcess(bpi, bfi, true);
+				Process p=bpi.getProcess();
+				p.getOutputStream().write(command);
+				p.getOutputStream().flush();
+				return readBW(p,f);
+			}
+		} finally {
+			processManager.stopRunningFile(bfi);
+		}
+		return null;
+	}
+	
 	/**
 	 * end long running build process if present
 	 * @param file
@@ -627,8 +752,7 @@ public class BWFacade {
 	public void endLongRunning(IFile file){
 		BWFileInfo bfi=getFileInfo(file);
 		BWProcessInfo bpi=processManager.getProcess(bfi);
-		if (bpi!=null && processManager.removeProcess(bfi)){
-			processManager.startRunningFileWait(bfi);
+		if (bpi!=null && processManager.removeProcess(bfi) && processManager.startRunningFileWait(bfi,null)){
 			try {
 				endProcess(bpi.getProcess());
 			} finally {
@@ -780,7 +904,15 @@ public class BWFacade {
 		}
 	}
 	
-	public void generateUsage(Component c,boolean returnAll){
+	/**
+	 * generate the usage files for a component. The files are not added to the usage database here,
+	 * so that several components can be processed at the same time while only one thread writes to the database
+	 * @param c the component
+	 * @param returnAll should we return all paths, or only the ones that changed?
+	 * @return the project relative paths of the source files whose usage file has been generated
+	 */
+	public List<String> generateUsage(Component c,boolean returnAll){
+		List<String> ret=new ArrayList<>();
 		LinkedList<String> command=new LinkedList<>();
 		command.add("generateusage");
 		command.add("--cabalcomponent="+serializeComponent(c));
@@ -798,28 +930,27 @@ public class BWFacade {
 				if (allPaths.length()>0){
 					refreshDist(false);
 				}
-				BuildWrapperPlugin plugin=BuildWrapperPlugin.getDefault();
-				if (plugin!=null){
-					for (int a=0;a<allPaths.length();a++){
-						try {
-							String p=allPaths.getString(a);
-							UsageAPI api=plugin.getUsageAPI();
-							if (api!=null){
-								api.addFile(getProject(),c, p);
-							}
-						} catch (JSONException je){
-							BuildWrapperPlugin.logError(BWText.error_parsing_usage_path, je);
-						}
+				for (int a=0;a<allPaths.length();a++){
+					try {
+						ret.add(allPaths.getString(a));
+					} catch (JSONException je){
+						BuildWrapperPlugin.logError(BWText.error_parsing_usage_path, je);
 					}
 				}
 			}
 		}
+		return ret;
 	}
 	
 	public void cabalFileChanged(){
 		components=null;
 		packageDB=null;
 		hasCabalChanged=true;
+		synchronized(this){
+			if (resultCache!=null){
+				resultCache.clear();
+			}
+		}
 		//flagInfos.clear();
 	}
 	
@@ -942,30 +1073,20 @@ public class BWFacade {
 		command.add("--file="+path);
 		addEditorStanza(file,command);
 		//command.add("--buildflags="+escapeFlags(i.getFlags()));
-		JSONArray arr=run(command,ARRAY);
+		OutlineFactory f=new OutlineFactory(file);
+		String key=getCacheKey(file, command, true);
+		BWAnswer<OutlineResult> ans=fromCache(key, f);
+		if (ans==null){
+			ans=run(command,cachingFactory(key, f));
+		}
 		or=new OutlineResult();
-		if (arr!=null){
-			JSONObject obj=arr.optJSONObject(0);
-			if (obj!=null){
-				try {
-					or=new OutlineResult(file, obj);
-				} catch (JSONException je){
-					BuildWrapperPlugin.logError(BWText.process_parse_outline_error, je);
-				}
-			} else {
-				// old version pre 0.2.3
-				JSONArray objs=arr.optJSONArray(0);
-				for (int a=0;a<objs.length();a++){
-					try {
-						or.getOutlineDefs().add(new OutlineDef(file,objs.getJSONObject(a)));
-					} catch (JSONException je){
-						BuildWrapperPlugin.logError(BWText.process_parse_outline_error, je);
-					}
-				}
+		if (ans!=null){
+			if (ans.getPayload()!=null){
+				or=ans.getPayload();
 			}
 			
-			if (arr.length()>1){
-				JSONArray notes=arr.optJSONArray(1);
+			if (ans.getNotes()!=null){
+				JSONArray notes=ans.getNotes();
 				//notes.putAll(i.getNotes());
 				List<Note> ns=new ArrayList<>();
 				Map<IResource,IDocument> m=new HashMap<>();
@@ -987,57 +1108,28 @@ public class BWFacade {
 	
 	public List<TokenDef> tokenTypes(IFile file){
 		//long t0=System.currentTimeMillis();
-		JSONArray arr=null;
-		BWFileInfo bfi=getFileInfo(file);
-		if (processManager.startRunningFile(bfi)){
-			BWProcessInfo bpi=processManager.getProcess(bfi);
+		TokenDefFactory f=new TokenDefFactory(file.getLocation().toOSString());
+		String path=file.getProjectRelativePath().toOSString();
+		LinkedList<String> command=new LinkedList<>();
+		command.add("tokentypes");
+		command.add("--file="+path);
+		addEditorStanza(file,command);
+		String key=getCacheKey(file, command, true);
+		BWAnswer<List<TokenDef>> ans=fromCache(key, f);
+		if (ans==null){
+			JSONFactory<BWAnswer<List<TokenDef>>> cf=cachingFactory(key, f);
 			try {
-				if (bpi!=null){
-					switchProcess(bpi, bfi, true);
-					//BuildWrapperPlugin.logInfo("tokenTypes longrunning start");
-					bpi.getProcess().getOutputStream().write(tokenTypesCommand);
-					bpi.getProcess().getOutputStream().flush();
-					arr=readArrayBW(bpi.getProcess());
-				}
-				//BuildWrapperPlugin.logInfo("tokenTypes longrunning");
+				ans=runLongRunning(file, tokenTypesCommand, cf);
 			} catch (IOException ioe){
 				//BuildWrapperPlugin.logError(BWText.process_launch_error, ioe);
-			} finally {
-				//BuildWrapperPlugin.logInfo("tokenTypes longrunning end");
-				processManager.stopRunningFile(bfi);
 			}
-		} 
-		if (arr==null){
-			String path=file.getProjectRelativePath().toOSString();
-			LinkedList<String> command=new LinkedList<>();
-			command.add("tokentypes");
-			command.add("--file="+path);
-			addEditorStanza(file,command);
-			arr=run(command,ARRAY);
-		}
-		//long t01=System.currentTimeMillis();
-		List<TokenDef> cps;
-		if (arr!=null){
-			if (arr.length()>1){
-				JSONArray notes=arr.optJSONArray(1);
-				parseNotes(notes);
+			if (ans==null){
+				ans=run(command,cf);
 			}
-			JSONArray objs=arr.optJSONArray(0);
-			cps=new ArrayList<>(objs.length());
-			String fn=file.getLocation().toOSString();
-			for (int a=0;a<objs.length();a++){
-				try {
-					cps.add(new TokenDef(fn,objs.getJSONObject(a)));
-				} catch (JSONException je){
-					BuildWrapperPlugin.logError(BWText.process_parse_outline_error, je);
-				}
-			}
-		} else {
-			cps=new ArrayList<>();
 		}
 		//long t1=System.currentTimeMillis();
-		//BuildWrapperPlugin.logInfo("tokenTypes:"+(t1-t0)+"ms, parsing:"+(t1-t01)+"ms");
-		return cps;
+		//BuildWrapperPlugin.logInfo("tokenTypes:"+(t1-t0)+"ms");
+		return getTokenDefs(ans);
 	}
 	
 	public List<TokenDef> tokenTypes(String fn){
@@ -1045,29 +1137,27 @@ public class BWFacade {
 		LinkedList<String> command=new LinkedList<>();
 		command.add("tokentypes");
 		command.add("--file="+fn);
-		JSONArray arr=run(command,ARRAY);
-		//long t01=System.currentTimeMillis();
-		List<TokenDef> cps;
-		if (arr!=null){
-			if (arr.length()>1){
-				JSONArray notes=arr.optJSONArray(1);
-				parseNotes(notes);
+		BWAnswer<List<TokenDef>> ans=run(command,new TokenDefFactory(fn));
+		//long t1=System.currentTimeMillis();
+		//BuildWrapperPlugin.logInfo("tokenTypes:"+(t1-t0)+"ms");
+		return getTokenDefs(ans);
+	}
+	
+	/**
+	 * get the token definitions from the answer, and process the notes
+	 * @param ans the answer, maybe null
+	 * @return the token definitions, never null
+	 */
+	private List<TokenDef> getTokenDefs(BWAnswer<List<TokenDef>> ans){
+		if (ans!=null){
+			if (ans.getNotes()!=null){
+				parseNotes(ans.getNotes());
 			}
-			JSONArray objs=arr.optJSONArray(0);
-			cps=new ArrayList<>(objs.length());
-			for (int a=0;a<objs.length();a++){
-				try {
-					cps.add(new TokenDef(fn,objs.getJSONObject(a)));
-				} catch (JSONException je){
-					BuildWrapperPlugin.logError(BWText.process_parse_outline_error, je);
-				}
+			if (ans.getPayload()!=null){
+				return ans.getPayload();
 			}
-		} else {
-			cps=new ArrayList<>();
 		}
-		//long t1=System.currentTimeMillis();
-		//BuildWrapperPlugin.logInfo("tokenTypes:"+(t1-t0)+"ms, parsing:"+(t1-t01)+"ms");
-		return cps;
+		return new ArrayList<>();
 	}
 	
 	public BuildFlags getBuildFlags(IFile file){
@@ -1082,7 +1172,12 @@ public class BWFacade {
 		if (withStanza){
 			addEditorStanza(file,command);
 		}
-		JSONArray arr=run(command,ARRAY);
+		// the flags only depend on the cabal file, not on the contents of the file
+		String key=getCacheKey(file, command, false);
+		JSONArray arr=fromCache(key, ARRAY);
+		if (arr==null){
+			arr=run(command,cachingFactory(key, ARRAY));
+		}
 		if (arr!=null){
 			if (arr.length()>1){
 				JSONArray notes=arr.optJSONArray(1);
@@ -1169,27 +1264,13 @@ public class BWFacade {
 	public ThingAtPoint getThingAtPoint(IFile file,Location location){
 		//BuildFlagInfo i=getBuildFlags(file);
 		//long t0=System.currentTimeMillis();
-		BWFileInfo bfi=getFileInfo(file);
 		JSONArray arr=null;
-		if (processManager.startRunningFile(bfi)){
-			try {
-				BWProcessInfo bpi=processManager.getProcess(bfi);
-				if (bpi!=null){
-					switchProcess(bpi, bfi, true);
-					Process p=bpi.getProcess();
-					//BuildWrapperPlugin.logInfo("getThingAtPoint longrunning start");
-					String command="p("+location.getStartLine()+","+(location.getStartColumn()+1)+")";
-					p.getOutputStream().write((command+PlatformUtil.NL).getBytes(FileUtil.UTF8));
-					p.getOutputStream().flush();
-					arr=readArrayBW(p);
-				}
-			} catch (IOException ioe){
-				BuildWrapperPlugin.logError(BWText.process_launch_error, ioe);
-			} finally {
-				//BuildWrapperPlugin.logInfo("getThingAtPoint longrunning end");
-				processManager.stopRunningFile(bfi);
-			}
-		} 
+		try {
+			String command="p("+location.getStartLine()+","+(location.getStartColumn()+1)+")";
+			arr=runLongRunning(file, (command+PlatformUtil.NL).getBytes(FileUtil.UTF8),ARRAY);
+		} catch (IOException ioe){
+			BuildWrapperPlugin.logError(BWText.process_launch_error, ioe);
+		}
 		if (arr==null){
 			String path=file.getProjectRelativePath().toOSString();
 			LinkedList<String> command=new LinkedList<>();
@@ -1231,28 +1312,12 @@ public class BWFacade {
 	public List<ThingAtPoint> getLocals(IFile file,Location location){
 		//long t0=System.currentTimeMillis();
 		JSONArray arr=null;
-		BWFileInfo bfi=getFileInfo(file);
-		//boolean run=false;
-		if (processManager.startRunningFile(bfi)){
-			try {
-				BWProcessInfo bpi=processManager.getProcess(bfi);
-				if (bpi!=null){
-					switchProcess(bpi, bfi, true);
-					Process p=bpi.getProcess();
-					//BuildWrapperPlugin.logInfo("getThingAtPoint longrunning start");
-					String command="l("+location.getStartLine()+","+(location.getStartColumn()+1)+","+location.getEndLine()+","+(location.getEndColumn()+1)+")";
-					p.getOutputStream().write((command+PlatformUtil.NL).getBytes(FileUtil.UTF8));
-					p.getOutputStream().flush();
-					arr=readArrayBW(p);
-					//run=true;
-				}
-			} catch (IOException ioe){
-				BuildWrapperPlugin.logError(BWText.process_launch_error, ioe);
-			} finally {
-				//BuildWrapperPlugin.logInfo("getThingAtPoint longrunning end");
-				processManager.stopRunningFile(bfi);
-			}
-		} 
+		try {
+			String command="l("+location.getStartLine()+","+(location.getStartColumn()+1)+","+location.getEndLine()+","+(location.getEndColumn()+1)+")";
+			arr=runLongRunning(file, (command+PlatformUtil.NL).getBytes(FileUtil.UTF8),ARRAY);
+		} catch (IOException ioe){
+			BuildWrapperPlugin.logError(BWText.process_launch_error, ioe);
+		}
 		if (arr==null){
 			String path=file.getProjectRelativePath().toOSString();
 			LinkedList<String> command=new LinkedList<>();
@@ -1483,6 +1548,102 @@ public class BWFacade {
 		return run(args,f,true);
 	}
 	
+	/**
+	 * @return the result cache, or null if caching is disabled
+	 */
+	private synchronized ResultCache getResultCache(){
+		int sz=BuildWrapperPlugin.getResultCacheSize();
+		if (sz<=0 || workingDir==null){
+			return null;
+		}
+		long max=sz*1024L;
+		if (resultCache==null){
+			File fldr=BuildWrapperPlugin.isPersistResultCache()?new File(new File(workingDir,DIST_FOLDER),CACHE_FOLDER):null;
+			resultCache=new ResultCache(max, fldr);
+		} else {
+			resultCache.setMaxSize(max);
+		}
+		return resultCache;
+	}
+	
+	/**
+	 * get the cache key for a command on a file: the command line, the project configuration and, if needed, the contents buildwrapper will read
+	 * @param file the file
+	 * @param command the command arguments
+	 * @param withContents should the contents of the file be part of the key?
+	 * @return the key, or null if the result cannot be cached
+	 */
+	private String getCacheKey(IFile file,List<String> command,boolean withContents){
+		if (getResultCache()==null){
+			return null;
+		}
+		StringBuilder sb=new StringBuilder();
+		sb.append(LangUtil.join(command, " "));
+		sb.append("|").append(bwPath);
+		sb.append("|").append(cabalFile);
+		if (cabalFile!=null){
+			sb.append("|").append(new File(cabalFile).lastModified());
+		}
+		sb.append("|").append(flags);
+		sb.append("|").append(extraOpts);
+		if (cabalImplDetails!=null){
+			sb.append("|").append(cabalImplDetails.getExecutable());
+			sb.append("|").append(cabalImplDetails.getOptions());
+		}
+		if (withContents){
+			// buildwrapper works on the copy in the dist folder
+			File tgt=new File(new File(workingDir,DIST_FOLDER),file.getProjectRelativePath().toOSString());
+			if (!tgt.exists()){
+				return null;
+			}
+			// the copy is going to be refreshed from the original
+			if (file.getLocation()!=null && file.getLocation().toFile().lastModified()>tgt.lastModified()){
+				return null;
+			}
+			try {
+				sb.append("|").append(ResultCache.digest(tgt));
+			} catch (IOException ioe){
+				return null;
+			}
+		}
+		return ResultCache.digest(sb.toString());
+	}
+	
+	/**
+	 * get a cached result
+	 * @param key the key, maybe null
+	 * @param f the factory to build the result from the cached answer
+	 * @return the result or null if not cached
+	 */
+	private <T> T fromCache(String key,JSONFactory<T> f){
+		if (key==null){
+			return null;
+		}
+		ResultCache rc=getResultCache();
+		String json=rc!=null?rc.get(key):null;
+		if (json!=null){
+			try {
+				return f.fromJSON(json);
+			} catch (JSONException je){
+				BuildWrapperPlugin.logError(BWText.process_parse_error, je);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @param key the key, maybe null
+	 * @param f the factory
+	 * @return a factory that caches the answer under the given key, or the given factory if we don't cache
+	 */
+	private <T> JSONFactory<T> cachingFactory(String key,JSONFactory<T> f){
+		ResultCache rc=getResultCache();
+		if (key==null || rc==null){
+			return f;
+		}
+		return new CachingFactory<>(rc, key, f);
+	}
+	
 	/**
 	 * synchronized to avoid concurrent executions of stuff
 	 * @param args
@@ -1545,30 +1706,25 @@ public class BWFacade {
 			
 			BufferedReader br=new BufferedReader(new InputStreamReader(p.getInputStream(),FileUtil.UTF8));
 			//long t0=System.currentTimeMillis();
-			String l=br.readLine();
 			boolean goOn=true;
 			boolean needConfigure=false;
 			boolean needDelete=false;
-			while (goOn && l!=null){
+			while (goOn){
 				/*if (outStream!=null){
 					outStream.write(l);
 					outStream.write(PlatformUtil.NL);
 					outStream.flush();
 				}*/
 				
-				if (l.startsWith(prefix)){
-					if (ow!=null && BuildWrapperPlugin.logAnswers) {
-						ow.addMessage(l);
-					}					
-					String jsons=l.substring(prefix.length()).trim();
-					try {
-						obj=f.fromJSON(jsons);
-					} catch (JSONException je){
-						BuildWrapperPlugin.logError(BWText.process_parse_error, je);
-					}
+				if (readPrefix(br)){
+					obj=readAnswer(br, f);
 					goOn=false;
 
 				} else {
+					String l=br.readLine();
+					if (l==null){
+						break;
+					}
 					String ll=l.toLowerCase(Locale.ENGLISH);
 					if (ll.contains(CabalMessages.RERUN_CONFIGURE) || ll.contains(CabalMessages.CANNOT_SATISFY)){
 						if (ll.contains(CabalMessages.VERSION)){
@@ -1580,9 +1736,6 @@ public class BWFacade {
 						ow.addMessage(l);
 					}
 				}
-				if (goOn){
-					l=br.readLine();
-				}
 			}
 			processManager.unregisterProcess();
 			if (isCanceled()){
@@ -1798,13 +1951,154 @@ public class BWFacade {
 		T fromJSON(String json) throws JSONException;
 	}
 	
-	private static JSONFactory<JSONArray> ARRAY=new JSONFactory<JSONArray>() {
+	/**
+	 * a factory that can decode the answer directly from the process output
+	 */
+	private static abstract class StreamingJSONFactory<T> implements JSONFactory<T>{
+		@Override
+		public T fromJSON(String json) throws JSONException {
+			try {
+				return fromJSON(new JSONPullParser(new StringReader(json)));
+			} catch (IOException ioe){
+				// cannot happen on a String
+				throw new JSONException(ioe);
+			}
+		}
+		
+		public abstract T fromJSON(JSONPullParser p) throws IOException,JSONException;
+	}
+	
+	private static JSONFactory<JSONArray> ARRAY=new StreamingJSONFactory<JSONArray>() {
 		@Override
 		public JSONArray fromJSON(String json)throws JSONException {
 			return new JSONArray(json);
 		}
+		
+		@Override
+		public JSONArray fromJSON(JSONPullParser p) throws IOException,JSONException {
+			return p.readArray();
+		}
 	};
 	
+	/**
+	 * keeps the raw answer in the cache once it has been parsed successfully
+	 */
+	private static class CachingFactory<T> implements JSONFactory<T>{
+		private ResultCache cache;
+		private String key;
+		private JSONFactory<T> factory;
+		
+		public CachingFactory(ResultCache cache, String key, JSONFactory<T> factory) {
+			super();
+			this.cache = cache;
+			this.key = key;
+			this.factory = factory;
+		}
+
+		@Override
+		public T fromJSON(String json) throws JSONException {
+			T t=factory.fromJSON(json);
+			if (t!=null){
+				cache.put(key, json);
+			}
+			return t;
+		}
+	}
+	
+	/**
+	 * the usual answer of buildwrapper: a payload and the notes
+	 */
+	private static class BWAnswer<T>{
+		private T payload;
+		private JSONArray notes;
+		
+		public T getPayload() {
+			return payload;
+		}
+		
+		public JSONArray getNotes() {
+			return notes;
+		}
+	}
+	
+	/**
+	 * builds the payload while reading, the notes are usually few and are kept as JSON for parseNotes
+	 */
+	private static abstract class AnswerFactory<T> extends StreamingJSONFactory<BWAnswer<T>>{
+		@Override
+		public BWAnswer<T> fromJSON(JSONPullParser p) throws IOException,JSONException {
+			if (p.peek()==JSONPullParser.Event.NULL){
+				p.next();
+				return null;
+			}
+			p.expect(JSONPullParser.Event.START_ARRAY);
+			BWAnswer<T> ans=new BWAnswer<>();
+			if (p.peek()!=JSONPullParser.Event.END_ARRAY){
+				ans.payload=readPayload(p);
+			}
+			if (p.peek()!=JSONPullParser.Event.END_ARRAY){
+				ans.notes=p.readArray();
+			}
+			while (p.peek()!=JSONPullParser.Event.END_ARRAY){
+				p.skipValue();
+			}
+			p.next();
+			return ans;
+		}
+		
+		protected abstract T readPayload(JSONPullParser p) throws IOException,JSONException;
+	}
+	
+	/**
+	 * builds the token definitions one by one
+	 */
+	private static class TokenDefFactory extends AnswerFactory<List<TokenDef>>{
+		private String fn;
+		
+		public TokenDefFactory(String fn) {
+			super();
+			this.fn = fn;
+		}
+
+		@Override
+		protected List<TokenDef> readPayload(JSONPullParser p) throws IOException,JSONException {
+			List<TokenDef> cps=new ArrayList<>();
+			p.expect(JSONPullParser.Event.START_ARRAY);
+			while (p.peek()!=JSONPullParser.Event.END_ARRAY){
+				cps.add(new TokenDef(fn,p));
+			}
+			p.next();
+			return cps;
+		}
+	}
+	
+	/**
+	 * builds the outline
+	 */
+	private static class OutlineFactory extends AnswerFactory<OutlineResult>{
+		private IFile file;
+		
+		public OutlineFactory(IFile file) {
+			super();
+			this.file = file;
+		}
+		
+		@Override
+		protected OutlineResult readPayload(JSONPullParser p) throws IOException,JSONException {
+			if (p.peek()==JSONPullParser.Event.START_OBJECT){
+				return new OutlineResult(file, p);
+			}
+			// old version pre 0.2.3
+			OutlineResult or=new OutlineResult();
+			p.expect(JSONPullParser.Event.START_ARRAY);
+			while (p.peek()!=JSONPullParser.Event.END_ARRAY){
+				or.getOutlineDefs().add(new OutlineDef(file,p));
+			}
+			p.next();
+			return or;
+		}
+	}
+	
 //	private static JSONFactory<JSONObject> OBJECT=new JSONFactory<JSONObject>() {
 //		public JSONObject fromJSON(String json)throws JSONException {
 //			return new JSONObject(json);
@@ -1976,6 +2270,41 @@ public class BWFacade {
 		}
 	}
 	
+	/**
+	 * @return how long callers have been waiting for the long running processes, by stanza or file
+	 */
+	public Map<String,WaitStatistics> getSessionWaitStatistics(){
+		return processManager.getWaitStatistics();
+	}
+	
+	/**
+	 * @return the number of long running processes currently alive, across all projects
+	 */
+	public static int getSessionCount(){
+		return BWProcessManager.getSessionCount();
+	}
+	
+	/**
+	 * @return the number of long running processes started since startup, across all projects
+	 */
+	public static long getSessionStartedCount(){
+		return BWProcessManager.getStartedCount();
+	}
+	
+	/**
+	 * @return the number of long running processes ended because the maximum number of processes was reached
+	 */
+	public static long getSessionEvictedCount(){
+		return BWProcessManager.getEvictedCount();
+	}
+	
+	/**
+	 * @return the number of long running processes ended because they were not used for too long
+	 */
+	public static long getSessionIdleEvictedCount(){
+		return BWProcessManager.getIdleEvictedCount();
+	}
+	
 	/**
 	 * close all long running processes
 	 */
@@ -2130,27 +2459,13 @@ public class BWFacade {
 		long t0=System.currentTimeMillis();
 		expression=expression.replace('\n', ' ').replace('\r',' ');
 		JSONArray arr=null;
-		BWFileInfo bfi=getFileInfo(file);
-		if (processManager.startRunningFile(bfi)){
-			try {
-				BWProcessInfo bpi=processManager.getProcess(bfi);
-				if (bpi!=null){
-					switchProcess(bpi, bfi, true);
-					Process p=bpi.getProcess();
-					//BuildWrapperPlugin.logInfo("getThingAtPoint longrunning start");
-					String command="e "+expression;
-					p.getOutputStream().write((command+PlatformUtil.NL).getBytes(FileUtil.UTF8));
-					p.getOutputStream().flush();
-					arr=readArrayBW(p);
-				}
-			} catch (IOException ioe){
-				BuildWrapperPlugin.logError(BWText.process_launch_error, ioe);
-				return Collections.emptyList();
-			} finally {
-				//BuildWrapperPlugin.logInfo("getThingAtPoint longrunning end");
-				processManager.stopRunningFile(bfi);
-			}
-		} 
+		try {
+			String command="e "+expression;
+			arr=runLongRunning(file, (command+PlatformUtil.NL).getBytes(FileUtil.UTF8),ARRAY);
+		} catch (IOException ioe){
+			BuildWrapperPlugin.logError(BWText.process_launch_error, ioe);
+			return Collections.emptyList();
+		}
 		if (arr==null){
 			String path=file.getProjectRelativePath().toOSString();
 			LinkedList<String> command=new LinkedList<>();
@@ -12,6 +12,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import net.sf.eclipsefp.haskell.buildwrapper.types.BWProcessManager;
 import net.sf.eclipsefp.haskell.buildwrapper.types.BuildFlags;
 import net.sf.eclipsefp.haskell.buildwrapper.types.CabalImplDetails;
 import net.sf.eclipsefp.haskell.buildwrapper.usage.UsageAPI;
@@ -64,6 +65,10 @@ public class BuildWrapperPlugin extends AbstractUIPlugin {
 	private static String bwPath;
 	private static int maxConfigureFailures=10;
 	private static int maxEvalTime=30;
+	private static int maxBuildSessions=8;
+	private static int buildSessionIdleTime=30*60;
+	private static int resultCacheSize=4*1024;
+	private static boolean persistResultCache=true;
 	
 	public static boolean logAnswers=false;
 	
@@ -105,6 +110,7 @@ public class BuildWrapperPlugin extends AbstractUIPlugin {
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(sandboxListener,IResourceChangeEvent.POST_CHANGE);
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(preDeleteListener, IResourceChangeEvent.PRE_DELETE);
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(nonHaskellListener,IResourceChangeEvent.POST_CHANGE);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(usageThread.getJournal(),IResourceChangeEvent.POST_CHANGE);
 	}
 
 	/**
@@ -124,7 +130,9 @@ public class BuildWrapperPlugin extends AbstractUIPlugin {
 		ResourcesPlugin.getWorkspace().removeResourceChangeListener(sandboxListener);
 		ResourcesPlugin.getWorkspace().removeResourceChangeListener(preDeleteListener);
 		ResourcesPlugin.getWorkspace().removeResourceChangeListener(nonHaskellListener);
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(usageThread.getJournal());
 		// facades are removed and stopped by ScionManager
+		BWProcessManager.stopIdleTimer();
 		
 		usageThread.setShouldStop();
 		// wait for all pending writes for 10 secs
@@ -418,6 +426,50 @@ public class BuildWrapperPlugin extends AbstractUIPlugin {
 		BuildWrapperPlugin.maxEvalTime = maxEvalTime;
 	}
 
+	/**
+	 * @return the maximum number of long running build sessions across all projects (0 or less: no limit)
+	 */
+	public static int getMaxBuildSessions() {
+		return maxBuildSessions;
+	}
+
+	public static void setMaxBuildSessions(int maxBuildSessions) {
+		BuildWrapperPlugin.maxBuildSessions = maxBuildSessions;
+	}
+
+	/**
+	 * @return the number of seconds after which an unused long running build session is ended (0 or less: never)
+	 */
+	public static int getBuildSessionIdleTime() {
+		return buildSessionIdleTime;
+	}
+
+	public static void setBuildSessionIdleTime(int buildSessionIdleTime) {
+		BuildWrapperPlugin.buildSessionIdleTime = buildSessionIdleTime;
+	}
+
+	/**
+	 * @return the size in KB of the cache of results per project (0 or less: no cache)
+	 */
+	public static int getResultCacheSize() {
+		return resultCacheSize;
+	}
+
+	public static void setResultCacheSize(int resultCacheSize) {
+		BuildWrapperPlugin.resultCacheSize = resultCacheSize;
+	}
+
+	/**
+	 * @return true if the cache of results is kept on disk between sessions
+	 */
+	public static boolean isPersistResultCache() {
+		return persistResultCache;
+	}
+
+	public static void setPersistResultCache(boolean persistResultCache) {
+		BuildWrapperPlugin.persistResultCache = persistResultCache;
+	}
+
 	/**
 	 * get extensions used in a file
 	 * @param file
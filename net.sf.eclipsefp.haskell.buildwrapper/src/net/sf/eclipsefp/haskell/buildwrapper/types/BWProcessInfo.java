@@ -19,6 +19,10 @@ public class BWProcessInfo {
 	private Process process;
 	private IFile currentFile;
 	private Set<IFile> files=new HashSet<IFile>();
+	/**
+	 * last time the process was used, for idle and LRU eviction
+	 */
+	private volatile long lastUsed=System.currentTimeMillis();
 	
 	public BWProcessInfo(Process process, IFile currentFile) {
 		super();
@@ -38,6 +42,20 @@ public class BWProcessInfo {
 	public Process getProcess() {
 		return process;
 	}
+	
+	/**
+	 * @return the last time the process was used
+	 */
+	public long getLastUsed() {
+		return lastUsed;
+	}
+	
+	/**
+	 * mark the process as used now
+	 */
+	public void touch(){
+		lastUsed=System.currentTimeMillis();
+	}
 
 	/**
 	 * @return the files
@@ -5,22 +5,64 @@
  */
 package net.sf.eclipsefp.haskell.buildwrapper.types;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.eclipsefp.haskell.buildwrapper.BWFacade;
+import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
+import net.sf.eclipsefp.haskell.util.KeyLockManager;
+import net.sf.eclipsefp.haskell.util.KeyLockManager.WaitStatistics;
+
+import org.eclipse.core.runtime.IProgressMonitor;
 
 /**
- * Manages the buildwrapper long running processes
+ * Manages the buildwrapper long running processes.
+ * The number of long running processes is bounded across all projects: when the maximum is reached the least recently used process is ended,
+ * and processes that have been idle for too long are ended too
  * @author JP Moresmau
  *
  */
 public class BWProcessManager {
-	private Map<String,BWProcessInfo> buildProcesses=new HashMap<String,BWProcessInfo>();
-	private Set<String> runningFiles=Collections.synchronizedSet(new HashSet<String>());
+	/**
+	 * all managers, to enforce the limits across projects
+	 */
+	private static final Set<BWProcessManager> managers=Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<BWProcessManager,Boolean>()));
+
+	/**
+	 * the timer checking for idle processes
+	 */
+	private static Timer idleTimer;
+
+	/**
+	 * how often we check for idle processes, in milliseconds
+	 */
+	private static final long IDLE_CHECK_PERIOD=60*1000;
+
+	/**
+	 * counters, to help size the maximum number of processes
+	 */
+	private static final AtomicLong startedCount=new AtomicLong(0);
+	private static final AtomicLong evictedCount=new AtomicLong(0);
+	private static final AtomicLong idleEvictedCount=new AtomicLong(0);
+
+	/**
+	 * the long running processes, in access order so the first one is the least recently used
+	 */
+	private Map<String,BWProcessInfo> buildProcesses=new LinkedHashMap<String,BWProcessInfo>(16,0.75f,true);
+	/**
+	 * the files or stanzas currently in use, so that only one command at a time is sent to a given process
+	 */
+	private KeyLockManager runningFiles=new KeyLockManager();
 	
 	/**
 	 * the processes running, by thread, so we can kill them when cancelling
@@ -32,28 +74,52 @@ public class BWProcessManager {
 	 * 
 	 */
 	public BWProcessManager() {
-
+		managers.add(this);
+		startIdleTimer();
+	}
+	
+	/**
+	 * wait for the file to be available, in the order the requests were made
+	 * @param bfi the file info
+	 * @param mon the progress monitor, maybe null. If it's canceled we stop waiting
+	 * @return true if we now own the file, false if the wait was canceled
+	 */
+	public boolean startRunningFileWait(BWFileInfo bfi,IProgressMonitor mon){
+		return startRunningFileWait(bfi, 0, mon);
 	}
 
-	public void startRunningFileWait(BWFileInfo bfi){
+	/**
+	 * wait at most the given time for the file to be available, in the order the requests were made
+	 * @param bfi the file info
+	 * @param timeout the maximum time to wait, in milliseconds (0 or less: no limit)
+	 * @param mon the progress monitor, maybe null. If it's canceled we stop waiting
+	 * @return true if we now own the file, false if the wait timed out or was canceled
+	 */
+	public boolean startRunningFileWait(BWFileInfo bfi,long timeout,IProgressMonitor mon){
 		String k=getKey(bfi);
-		while (!runningFiles.add(k)){
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException ignore){
-				// noop
-			}
-		}
+		return runningFiles.lock(k, timeout, mon);
 	}
-	
+
 	public boolean startRunningFile(BWFileInfo bfi){
 		String k=getKey(bfi);
-		return runningFiles.add(k);
+		return runningFiles.tryLock(k);
 	}
 	
+	/**
+	 * release the file, from the thread that started running it
+	 * @param bfi the file info
+	 * @throws IllegalMonitorStateException if the current thread does not own the file
+	 */
 	public void stopRunningFile(BWFileInfo bfi){
 		String k=getKey(bfi);
-		runningFiles.remove(k);
+		runningFiles.unlock(k);
+	}
+
+	/**
+	 * @return the statistics of waiting for each stanza or file
+	 */
+	public Map<String,WaitStatistics> getWaitStatistics(){
+		return runningFiles.getStatistics();
 	}
 	
 	private String getKey(BWFileInfo bfi){
@@ -64,13 +130,22 @@ public class BWProcessManager {
 	}
 	
 	public synchronized BWProcessInfo getProcess(BWFileInfo bfi){
-		return buildProcesses.get(getKey(bfi));
+		BWProcessInfo bpi=buildProcesses.get(getKey(bfi));
+		if (bpi!=null){
+			bpi.touch();
+		}
+		return bpi;
 	}
 	
-	public synchronized void registerProcess(BWFileInfo bfi,Process p){
+	public void registerProcess(BWFileInfo bfi,Process p){
 		String k=getKey(bfi);
 		BWProcessInfo bpi=new BWProcessInfo(p, bfi.getFile());
-		buildProcesses.put(k,bpi);
+		synchronized(this){
+			buildProcesses.put(k,bpi);
+		}
+		startedCount.incrementAndGet();
+		// outside of our lock, since we may need to evict a process from another manager
+		enforceLimit();
 	}
 	
 	public synchronized boolean removeProcess(BWFileInfo bfi){
@@ -126,4 +201,185 @@ public class BWProcessManager {
 		buildProcesses.clear();
 		
 	}
+
+	/**
+	 * @return the number of long running processes this manager holds
+	 */
+	public synchronized int getProcessCount(){
+		return buildProcesses.size();
+	}
+
+	/**
+	 * get the least recently used process that is not currently in use
+	 * @return the entry, or null if there is none
+	 */
+	private synchronized Map.Entry<String,BWProcessInfo> getEvictionCandidate(){
+		for (Map.Entry<String,BWProcessInfo> e:buildProcesses.entrySet()){
+			if (!runningFiles.isLocked(e.getKey())){
+				return new AbstractMap.SimpleEntry<>(e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * end the process for the given key, if it's still there and not in use
+	 * @param k the key
+	 * @param bpi the process info we expect for that key
+	 * @return true if the process was ended
+	 */
+	private boolean evict(String k,BWProcessInfo bpi){
+		if (!runningFiles.tryLock(k)){
+			return false;
+		}
+		try {
+			synchronized(this){
+				if (buildProcesses.get(k)!=bpi){
+					return false;
+				}
+				buildProcesses.remove(k);
+			}
+			endProcessAsync(bpi.getProcess());
+			return true;
+		} finally {
+			runningFiles.unlock(k);
+		}
+	}
+
+	/**
+	 * end all processes not used since the given time
+	 * @param limit the time limit
+	 */
+	private void evictIdle(long limit){
+		List<Map.Entry<String,BWProcessInfo>> idles=new ArrayList<>();
+		synchronized(this){
+			for (Map.Entry<String,BWProcessInfo> e:buildProcesses.entrySet()){
+				if (e.getValue().getLastUsed()<limit){
+					idles.add(new AbstractMap.SimpleEntry<>(e));
+				}
+			}
+		}
+		for (Map.Entry<String,BWProcessInfo> e:idles){
+			if (evict(e.getKey(),e.getValue())){
+				idleEvictedCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * end the given process without blocking the caller, since the process may take a while to exit
+	 * @param p
+	 */
+	private static void endProcessAsync(final Process p){
+		Thread t=new Thread(new Runnable(){
+			@Override
+			public void run() {
+				BWFacade.endProcess(p);
+			}
+		},"BWProcessManager.endProcess");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * @return a copy of the live managers
+	 */
+	private static List<BWProcessManager> getManagers(){
+		synchronized (managers) {
+			return new ArrayList<>(managers);
+		}
+	}
+
+	/**
+	 * end least recently used processes until we're within the configured maximum
+	 */
+	private static synchronized void enforceLimit(){
+		int max=BuildWrapperPlugin.getMaxBuildSessions();
+		if (max<=0){
+			return;
+		}
+		while (getSessionCount()>max){
+			BWProcessManager oldestManager=null;
+			Map.Entry<String,BWProcessInfo> oldest=null;
+			for (BWProcessManager m:getManagers()){
+				Map.Entry<String,BWProcessInfo> e=m.getEvictionCandidate();
+				if (e!=null && (oldest==null || e.getValue().getLastUsed()<oldest.getValue().getLastUsed())){
+					oldest=e;
+					oldestManager=m;
+				}
+			}
+			// everything is in use
+			if (oldest==null){
+				return;
+			}
+			if (oldestManager.evict(oldest.getKey(),oldest.getValue())){
+				evictedCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * start the timer checking for idle processes, if needed
+	 */
+	private static synchronized void startIdleTimer(){
+		if (idleTimer==null){
+			idleTimer=new Timer("BWProcessManager.idleTimer",true);
+			idleTimer.schedule(new TimerTask() {
+
+				@Override
+				public void run() {
+					long idle=BuildWrapperPlugin.getBuildSessionIdleTime()*1000L;
+					if (idle<=0){
+						return;
+					}
+					long limit=System.currentTimeMillis()-idle;
+					for (BWProcessManager m:getManagers()){
+						m.evictIdle(limit);
+					}
+				}
+			}, IDLE_CHECK_PERIOD, IDLE_CHECK_PERIOD);
+		}
+	}
+
+	/**
+	 * stop the timer checking for idle processes, when the plugin stops
+	 */
+	public static synchronized void stopIdleTimer(){
+		if (idleTimer!=null){
+			idleTimer.cancel();
+			idleTimer=null;
+		}
+	}
+
+	/**
+	 * @return the number of long running processes across all projects
+	 */
+	public static int getSessionCount(){
+		int cnt=0;
+		for (BWProcessManager m:getManagers()){
+			cnt+=m.getProcessCount();
+		}
+		return cnt;
+	}
+
+	/**
+	 * @return the number of long running processes started since startup
+	 */
+	public static long getStartedCount(){
+		return startedCount.get();
+	}
+
+	/**
+	 * @return the number of long running processes ended because the maximum number of processes was reached
+	 */
+	public static long getEvictedCount(){
+		return evictedCount.get();
+	}
+
+	/**
+	 * @return the number of long running processes ended because they were idle
+	 */
+	public static long getIdleEvictedCount(){
+		return idleEvictedCount.get();
+	}
 }
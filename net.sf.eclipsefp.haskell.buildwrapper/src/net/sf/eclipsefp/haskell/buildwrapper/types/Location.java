@@ -10,6 +10,8 @@ import java.util.Map;
 import net.sf.eclipsefp.haskell.buildwrapper.BWFacade;
 import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
 import net.sf.eclipsefp.haskell.buildwrapper.util.BWText;
+import net.sf.eclipsefp.haskell.util.JSONPullParser;
+import net.sf.eclipsefp.haskell.util.LineOffsetTable;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -45,14 +47,63 @@ public class Location {
 	}
 	
 	public Location(String fn, JSONArray json) throws JSONException {
-		startLine=json.getInt(0);
-		startColumn=json.getInt(1)-1; // we're zero based, Haskell code 1 based
-		if (json.length()>3){
-			endLine=json.getInt(2);
-			endColumn=json.getInt(3)-1;// we're zero based, Haskell code 1 based
-		} else if (json.length()>2){
+		if (json.length()<2){
+			throw new JSONException("Incomplete location: "+json);
+		}
+		int[] pos=new int[Math.min(json.length(),4)];
+		for (int a=0;a<pos.length;a++){
+			pos[a]=json.getInt(a);
+		}
+		init(fn,pos,pos.length);
+	}
+	
+	/**
+	 * @param fn the file name
+	 * @param pos the buildwrapper positions: start line, start column, end line and end column, columns being 1 based
+	 */
+	public Location(String fn, int[] pos) {
+		init(fn,pos,pos.length);
+	}
+	
+	/**
+	 * read the location array from the parser, positioned before the array
+	 * @param fn the file name
+	 * @param p the parser
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public Location(String fn, JSONPullParser p) throws IOException,JSONException {
+		p.expect(JSONPullParser.Event.START_ARRAY);
+		int[] pos=new int[4];
+		int len=0;
+		while (p.peek()!=JSONPullParser.Event.END_ARRAY){
+			if (len==pos.length){
+				throw new JSONException("Too many positions in location");
+			}
+			pos[len++]=p.nextInt();
+		}
+		p.next();
+		if (len<2){
+			throw new JSONException("Incomplete location");
+		}
+		init(fn,pos,len);
+	}
+	
+	/**
+	 * initialize from the buildwrapper positions
+	 * @param fn the file name
+	 * @param pos the positions: start line, start column, and optionally end line and end column, or only end column
+	 * @param len the number of positions
+	 */
+	private void init(String fn,int[] pos,int len){
+		startLine=pos[0];
+		startColumn=pos[1]-1; // we're zero based, Haskell code 1 based
+		if (len>3){
+			endLine=pos[2];
+			endColumn=pos[3]-1;// we're zero based, Haskell code 1 based
+		} else if (len>2){
 			endLine=startLine;
-			endColumn=json.getInt(2)-1;// we're zero based, Haskell code 1 based
+			endColumn=pos[2]-1;// we're zero based, Haskell code 1 based
 		} else {
 			endLine=startLine;
 			endColumn=startColumn+1;
@@ -218,6 +269,34 @@ public class Location {
 		return getEndOffset(document) - getStartOffset(document);
 	}
 	
+	/**
+	 * Returns the offset of the start of this {@link Location} object
+	 * in the text the given table was built from.
+	 */
+	public int getStartOffset(LineOffsetTable table) throws BadLocationException {
+		int off=table.getOffset(startLine-1, startColumn);
+		if (off<0){
+			throw new BadLocationException();
+		}
+		return off;
+	}
+
+	/**
+	 * Returns the offset of the end of this {@link Location} object
+	 * in the text the given table was built from.
+	 */
+	public int getEndOffset(LineOffsetTable table) throws BadLocationException {
+		int off=table.getOffset(endLine-1, endColumn);
+		if (off<0){
+			throw new BadLocationException();
+		}
+		return off;
+	}
+	
+	public int getLength(LineOffsetTable table) throws BadLocationException {
+		return getEndOffset(table) - getStartOffset(table);
+	}
+	
 	public String getContents(IDocument document) throws BadLocationException {
 		int st=getStartOffset(document);
 		return document.get(st,getEndOffset(document)-st);
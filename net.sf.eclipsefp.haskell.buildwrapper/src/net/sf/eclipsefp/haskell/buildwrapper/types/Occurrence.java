@@ -1,6 +1,8 @@
 // Copyright (c) 2007 by Leif Frenzel - see http://leiffrenzel.de
 package net.sf.eclipsefp.haskell.buildwrapper.types;
 
+import net.sf.eclipsefp.haskell.util.LineOffsetTable;
+
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 
@@ -34,6 +36,18 @@ public class Occurrence {
 	  this.length=td.getLocation().getLength(doc);
   }
 
+  /**
+   * build an occurrence with a guaranteed length calculated from the line offsets of the doc
+   * @param td
+   * @param table
+   * @throws BadLocationException
+   */
+  public Occurrence(TokenDef td,LineOffsetTable table) throws BadLocationException{
+	  this.line=td.getLocation().getStartLine();
+	  this.column=td.getLocation().getStartColumn();
+	  this.length=td.getLocation().getLength(table);
+  }
+
   // attribute getters
   ////////////////////
 
@@ -1,5 +1,6 @@
 package net.sf.eclipsefp.haskell.buildwrapper.types;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -8,6 +9,7 @@ import java.util.Locale;
 import java.util.Set;
 
 import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
+import net.sf.eclipsefp.haskell.util.JSONPullParser;
 
 import org.eclipse.core.resources.IFile;
 import org.json.JSONArray;
@@ -121,6 +123,67 @@ public class OutlineDef {
 		}
 	}
 
+	/**
+	 * read an outline definition from the parser, positioned before the object
+	 * @param f the file
+	 * @param p the parser
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public OutlineDef(IFile f,JSONPullParser p) throws IOException,JSONException{
+		p.expect(JSONPullParser.Event.START_OBJECT);
+		types=new HashSet<>(1);
+		String fn=f!=null?f.getLocation().toOSString():"";
+		for (String k=p.nextKey();k!=null;k=p.nextKey()){
+			if ("n".equals(k)){
+				name=p.nextString();
+			} else if ("t".equals(k)){
+				p.expect(JSONPullParser.Event.START_ARRAY);
+				while (p.peek()!=JSONPullParser.Event.END_ARRAY){
+					String t=p.nextString();
+					if (t==null){
+						throw new JSONException("No outline definition type");
+					}
+					try {
+						types.add(OutlineDefType.valueOf(t.toUpperCase(Locale.ENGLISH)));
+					} catch (IllegalArgumentException iae){
+						throw new JSONException(t+" is not a valid outlinedef type");
+					}
+				}
+				p.next();
+			} else if ("l".equals(k)){
+				loc=new Location(fn,p);
+			} else if ("c".equals(k)){
+				p.expect(JSONPullParser.Event.START_ARRAY);
+				while (p.peek()!=JSONPullParser.Event.END_ARRAY){
+					children.add(new OutlineDef(f,p));
+				}
+				p.next();
+			} else if ("s".equals(k)){
+				typeSignature=p.nextString();
+			} else if ("d".equals(k)){
+				comment=p.nextString();
+			} else if ("sl".equals(k)){
+				if (p.peek()==JSONPullParser.Event.NULL){
+					p.next();
+				} else {
+					commentStartLine=p.nextInt();
+				}
+			} else {
+				p.skipValue();
+			}
+		}
+		if (name==null || loc==null){
+			throw new JSONException("Incomplete outline definition");
+		}
+		if (typeSignature==null || typeSignature.length()==0 || "null".equals(typeSignature)){
+			typeSignature="?";
+		}
+		if (comment==null || "null".equals(comment)){
+			comment="";
+		}
+	}
+
 	public List<OutlineDef> getChildren() {
 		return children;
 	}
@@ -5,9 +5,12 @@
  */
 package net.sf.eclipsefp.haskell.buildwrapper.types;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.sf.eclipsefp.haskell.util.JSONPullParser;
+
 import org.eclipse.core.resources.IFile;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -62,6 +65,39 @@ public class OutlineResult {
 		}
 	}
 	
+	/**
+	 * read the outline result from the parser, positioned before the object.
+	 * The outline definitions are built as they are read, imports and exports are usually small and go through JSON objects
+	 * @param f the file
+	 * @param p the parser
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public OutlineResult(IFile f,JSONPullParser p) throws IOException,JSONException{
+		p.expect(JSONPullParser.Event.START_OBJECT);
+		for (String k=p.nextKey();k!=null;k=p.nextKey()){
+			if ("o".equals(k)){
+				p.expect(JSONPullParser.Event.START_ARRAY);
+				while (p.peek()!=JSONPullParser.Event.END_ARRAY){
+					outlineDefs.add(new OutlineDef(f,p));
+				}
+				p.next();
+			} else if ("e".equals(k)){
+				JSONArray arr=p.readArray();
+				for (int a=0;arr!=null && a<arr.length();a++){
+					exportDefs.add(new ExportDef(f,arr.getJSONObject(a)));
+				}
+			} else if ("i".equals(k)){
+				JSONArray arr=p.readArray();
+				for (int a=0;arr!=null && a<arr.length();a++){
+					importDefs.add(new ImportDef(f,arr.getJSONObject(a)));
+				}
+			} else {
+				p.skipValue();
+			}
+		}
+	}
+	
 	public List<OutlineDef> getOutlineDefs() {
 		return outlineDefs;
 	}
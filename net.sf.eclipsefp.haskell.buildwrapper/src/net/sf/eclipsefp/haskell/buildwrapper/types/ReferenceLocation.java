@@ -33,6 +33,16 @@ public class ReferenceLocation extends Location {
 		super(f, json);
 		setReference(reference);
 	}
+	
+	/**
+	 * @param reference the name of the thing
+	 * @param f the file
+	 * @param pos the buildwrapper positions: start line, start column, end line and end column
+	 */
+	public ReferenceLocation(String reference,IFile f, int[] pos) {
+		super(f!=null?f.getLocation().toOSString():"",pos);
+		setReference(reference);
+	}
 
 	public String getReference() {
 		return reference;
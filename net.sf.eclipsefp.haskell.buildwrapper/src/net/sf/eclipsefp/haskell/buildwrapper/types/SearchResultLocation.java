@@ -22,6 +22,11 @@ public class SearchResultLocation extends Location {
 		this.ifile=f;
 	}
 	
+	public SearchResultLocation(IFile f, int[] pos) {
+		super(f!=null?f.getLocation().toOSString():"",pos);
+		this.ifile=f;
+	}
+	
 	/* (non-Javadoc)
 	 * @see net.sf.eclipsefp.haskell.buildwrapper.types.Location#getIFile()
 	 */
@@ -1,5 +1,11 @@
 package net.sf.eclipsefp.haskell.buildwrapper.types;
 
+import java.io.IOException;
+import java.util.List;
+
+import net.sf.eclipsefp.haskell.util.JSONPullParser;
+import net.sf.eclipsefp.haskell.util.LineOffsetTable;
+
 import org.eclipse.core.resources.IFile;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -39,6 +45,26 @@ public class TokenDef {
 		this.location=new Location(fn,obj.getJSONArray(name));
 	}
 	
+	/**
+	 * read a token from the parser, positioned before the object
+	 * @param fn the file name
+	 * @param p the parser
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public TokenDef(String fn,JSONPullParser p) throws IOException,JSONException{
+		p.expect(JSONPullParser.Event.START_OBJECT);
+		this.name=p.nextKey();
+		if (this.name==null){
+			throw new JSONException("Empty token");
+		}
+		this.location=new Location(fn,p);
+		// ignore anything else
+		while (p.nextKey()!=null){
+			p.skipValue();
+		}
+	}
+	
 	public Location getLocation() {
 		return location;
 	}
@@ -53,6 +79,30 @@ public class TokenDef {
 				location.getEndLine() + line, location.getEndColumn() + (allInSameLine ? column : 0));
 	}
 	
+	/**
+	 * convert the locations of a list of tokens to offsets in one go
+	 * @param tds the tokens
+	 * @param table the line offsets of the text the tokens come from
+	 * @return the start and end offsets of each token, packed: token i starts at [2*i] and ends at [2*i+1]. 
+	 * Both are -1 if the token is not inside the text
+	 */
+	public static int[] getOffsets(List<TokenDef> tds,LineOffsetTable table){
+		int[] ret=new int[tds.size()*2];
+		int ix=0;
+		for (TokenDef td:tds){
+			Location l=td.getLocation();
+			int st=table.getOffset(l.getStartLine()-1, l.getStartColumn());
+			int end=table.getOffset(l.getEndLine()-1, l.getEndColumn());
+			if (st<0 || end<0){
+				st=-1;
+				end=-1;
+			}
+			ret[ix++]=st;
+			ret[ix++]=end;
+		}
+		return ret;
+	}
+	
 	@Override
 	public String toString() {
 		return name+"("+String.valueOf(location)+")";
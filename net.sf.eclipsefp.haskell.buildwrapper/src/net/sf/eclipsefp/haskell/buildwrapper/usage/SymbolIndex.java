@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.buildwrapper.usage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.eclipsefp.haskell.util.NameIndex;
+
+/**
+ * In-memory index of the names of the modules and symbols tables, so that name searches
+ * do not need to scan the tables: the searches give the ids of the matching modules and symbols,
+ * and only the usage of these ids is then read from the database.
+ * The index is kept in sync by UsageDB when modules and symbols are inserted
+ * @author JP Moresmau
+ *
+ */
+public class SymbolIndex {
+	private final NameIndex moduleNames=new NameIndex();
+	private final NameIndex symbolNames=new NameIndex();
+
+	/**
+	 * the package of each module, by module id
+	 */
+	private final Map<Long,String> modulePackages=new HashMap<>();
+	/**
+	 * the module ids by module name id
+	 */
+	private final Map<Integer,List<Long>> modulesByName=new HashMap<>();
+
+	/**
+	 * the symbols, in parallel arrays, only the first symbolCount entries are used
+	 */
+	private long[] symbolIDs=new long[1024];
+	private long[] symbolModules=new long[1024];
+	private int[] symbolTypes=new int[1024];
+	/**
+	 * the index of the next symbol with the same name, -1 for the last one
+	 */
+	private int[] nextByName=new int[1024];
+	private int symbolCount=0;
+	/**
+	 * the index of the first symbol for each symbol name id, -1 if none
+	 */
+	private int[] firstByName=new int[1024];
+
+	public SymbolIndex() {
+		Arrays.fill(firstByName, -1);
+	}
+
+	/**
+	 * @return the index of module names
+	 */
+	public NameIndex getModuleNames() {
+		return moduleNames;
+	}
+
+	/**
+	 * @return the index of symbol names
+	 */
+	public NameIndex getSymbolNames() {
+		return symbolNames;
+	}
+
+	/**
+	 * @param moduleID the module id in the db
+	 * @param pkg the package
+	 * @param module the module name
+	 */
+	public synchronized void addModule(long moduleID,String pkg,String module){
+		int nameID=moduleNames.add(module);
+		modulePackages.put(moduleID, pkg);
+		List<Long> l=modulesByName.get(nameID);
+		if (l==null){
+			l=new ArrayList<>(1);
+			modulesByName.put(nameID, l);
+		}
+		l.add(moduleID);
+	}
+
+	/**
+	 * @param symbolID the symbol id in the db
+	 * @param symbol the symbol name
+	 * @param type the symbol type, as a UsageQueryFlags type
+	 * @param moduleID the module id in the db
+	 */
+	public synchronized void addSymbol(long symbolID,String symbol,int type,long moduleID){
+		int nameID=symbolNames.add(symbol);
+		if (symbolCount==symbolIDs.length){
+			int newLength=symbolCount*2;
+			symbolIDs=Arrays.copyOf(symbolIDs, newLength);
+			symbolModules=Arrays.copyOf(symbolModules, newLength);
+			symbolTypes=Arrays.copyOf(symbolTypes, newLength);
+			nextByName=Arrays.copyOf(nextByName, newLength);
+		}
+		if (nameID>=firstByName.length){
+			int oldLength=firstByName.length;
+			firstByName=Arrays.copyOf(firstByName, Math.max(nameID+1, oldLength*2));
+			Arrays.fill(firstByName, oldLength, firstByName.length, -1);
+		}
+		symbolIDs[symbolCount]=symbolID;
+		symbolModules[symbolCount]=moduleID;
+		symbolTypes[symbolCount]=type;
+		nextByName[symbolCount]=firstByName[nameID];
+		firstByName[nameID]=symbolCount;
+		symbolCount++;
+	}
+
+	/**
+	 * @return the number of symbols
+	 */
+	public synchronized int getSymbolCount(){
+		return symbolCount;
+	}
+
+	/**
+	 * @param nameIDs the ids of module names
+	 * @param pkg the package restriction, null for everything
+	 * @return the ids of the modules with these names
+	 */
+	public synchronized List<Long> findModules(BitSet nameIDs,String pkg){
+		List<Long> ret=new ArrayList<>();
+		for (int nameID=nameIDs.nextSetBit(0);nameID>=0;nameID=nameIDs.nextSetBit(nameID+1)){
+			List<Long> l=modulesByName.get(nameID);
+			if (l!=null){
+				for (Long moduleID:l){
+					if (pkg==null || pkg.equals(modulePackages.get(moduleID))){
+						ret.add(moduleID);
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @param nameIDs the ids of symbol names
+	 * @param typeFlags the types of the symbols, as UsageQueryFlags types
+	 * @param moduleIDs the ids of the modules the symbols are in, null for any module
+	 * @param pkg the package restriction, null for everything
+	 * @return the ids of the symbols
+	 */
+	public synchronized List<Long> findSymbols(BitSet nameIDs,int typeFlags,Collection<Long> moduleIDs,String pkg){
+		List<Long> ret=new ArrayList<>();
+		for (int nameID=nameIDs.nextSetBit(0);nameID>=0 && nameID<firstByName.length;nameID=nameIDs.nextSetBit(nameID+1)){
+			for (int ix=firstByName[nameID];ix>=0;ix=nextByName[ix]){
+				if ((symbolTypes[ix] & typeFlags)==0){
+					continue;
+				}
+				long moduleID=symbolModules[ix];
+				if (moduleIDs!=null && !moduleIDs.contains(moduleID)){
+					continue;
+				}
+				if (pkg!=null && !pkg.equals(modulePackages.get(moduleID))){
+					continue;
+				}
+				ret.add(symbolIDs[ix]);
+			}
+		}
+		return ret;
+	}
+}
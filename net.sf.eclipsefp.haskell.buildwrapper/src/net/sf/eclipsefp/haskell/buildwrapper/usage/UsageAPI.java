@@ -6,15 +6,19 @@
 package net.sf.eclipsefp.haskell.buildwrapper.usage;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.sf.eclipsefp.haskell.buildwrapper.BWFacade;
 import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
@@ -25,14 +29,17 @@ import net.sf.eclipsefp.haskell.buildwrapper.types.ReferenceLocation;
 import net.sf.eclipsefp.haskell.buildwrapper.types.SymbolDef;
 import net.sf.eclipsefp.haskell.buildwrapper.types.UsageResults;
 import net.sf.eclipsefp.haskell.buildwrapper.util.BWText;
+import net.sf.eclipsefp.haskell.util.JSONPullParser;
+import net.sf.eclipsefp.haskell.util.JSONPullParser.Event;
+import net.sf.eclipsefp.haskell.util.NameIndex;
+import net.sf.eclipsefp.haskell.util.ResultCache;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
-import org.json.JSONArray;
+import org.eclipse.osgi.util.NLS;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 /**
  * The business-oriented API for Usage searches
@@ -42,6 +49,11 @@ import org.json.JSONTokener;
 public class UsageAPI {
 	private UsageDB db=new UsageDB();
 	
+	/**
+	 * indexing statistics of the projects being indexed, by project name
+	 */
+	private Map<String,IndexStatistics> indexing=new HashMap<>();
+	
 	public void close(){
 		db.close();
 	}
@@ -61,12 +73,80 @@ public class UsageAPI {
 		removeFile(p.getFile(relPath));
 	}
 	
+	/**
+	 * remove all the files of a deleted project, and the packages only it used
+	 * @param p the project
+	 */
+	public void removeProject(IProject p){
+		try {
+			db.removeProject(p.getName());
+			db.collectPackages();
+			db.commit();
+		} catch (SQLException sqle){
+			BuildWrapperPlugin.logError(BWText.error_db, sqle);
+		}
+	}
+	
+	/**
+	 * start indexing a project: files added until endIndexing is called are committed in batches,
+	 * and module and symbol ids are cached. Several projects can be indexed at the same time
+	 * @param p the project
+	 */
+	public void startIndexing(IProject p){
+		synchronized (indexing) {
+			indexing.put(p.getName(), new IndexStatistics());
+			db.startBulk();
+		}
+	}
+	
+	/**
+	 * end indexing a project: if no other project is being indexed, delete the packages no file references anymore
+	 * and commit the pending files
+	 * @param p the project
+	 */
+	public void endIndexing(IProject p){
+		IndexStatistics st;
+		synchronized (indexing) {
+			st=indexing.remove(p.getName());
+			if (indexing.isEmpty()){
+				try {
+					int modules=db.collectPackages();
+					if (BWFacade.logBuildTimes && modules>0){
+						BuildWrapperPlugin.logInfo(NLS.bind(BWText.usage_collect_statistics, modules));
+					}
+					db.endBulk();
+				} catch (SQLException sqle){
+					BuildWrapperPlugin.logError(BWText.error_db, sqle);
+				}
+			}
+		}
+		if (BWFacade.logBuildTimes && st!=null && st.files>0){
+			long t=Math.max(1, System.currentTimeMillis()-st.start);
+			BuildWrapperPlugin.logInfo(NLS.bind(BWText.usage_index_statistics, new Object[]{p.getName(),st.files,st.rows,t,st.files*1000/t}));
+		}
+	}
+	
 	public void addFile(Component c,IFile f){
 		addFile(f.getProject(),c,f.getProjectRelativePath().toOSString());
 	}
 	
 	/**
-	 * add a given file to the db
+	 * @param p the project
+	 * @param relPaths project relative paths of files
+	 * @return the names of the components the files are part of, or null if we don't know the components of a file
+	 */
+	public Set<String> getComponents(IProject p,Collection<String> relPaths){
+		try {
+			return db.getComponents(p, relPaths);
+		} catch (SQLException sqle){
+			BuildWrapperPlugin.logError(BWText.error_db, sqle);
+		}
+		return null;
+	}
+	
+	/**
+	 * add a given file to the db. The file is not parsed again if its usage information did not change since it was last added.
+	 * If the symbols it defines change, the files referencing its module are recorded as changed in the usage journal
 	 * @param p the project
 	 * @param c the cabal component
 	 * @param relPath the file project relative path
@@ -78,129 +158,281 @@ public class UsageAPI {
 			IFile uf=getUsageFile(p, relPath);
 			// check usage file exists AND has been generated after the source file
 			if (uf!=null && uf.getLocation().toFile().lastModified()>f.getLocation().toFile().lastModified()){
-				//BuildWrapperPlugin.log(IStatus.INFO, "Adding "+p.getName()+"/"+f.getProjectRelativePath().toPortableString()+": usage file found", null);
-				JSONArray arr=parseUsageFile(uf);
-				if (arr!=null){
-					try {
-						String pkg=formatPackage(arr.getString(0));
-						String module=formatModule(c, arr.getString(1));
-						String loc=arr.optString(2);
-						if (module!=null){
-							long fileID=db.getFileID(f);
-							db.clearUsageInFile(fileID);
-							
-							//long moduleID=
-							db.getModuleID(pkg, module, fileID, loc);
-							List<ObjectUsage> modUsages=new ArrayList<>();
-							List<ObjectUsage> objUsages=new ArrayList<>();
-							List<ObjectUsage> objDefs=new ArrayList<>();
-							buildUsage(fileID,arr,modUsages,objDefs,objUsages);
-							db.setModuleUsages(fileID, modUsages);
-							db.setSymbolDefinitions(fileID, objDefs);
-							db.setSymbolUsages(fileID, objUsages);
-							db.commit();
-							JSONObject outline=arr.optJSONObject(4);
-							
-							if (outline!=null){
-								OutlineResult or=new OutlineResult(f, outline);
-								BWFacade bf=BuildWrapperPlugin.getFacade(p);
-								if(bf!=null){
-									bf.registerOutline(f, or);
-								}
-							}
-						}
-					} catch (SQLException sqle){
-						BuildWrapperPlugin.logError(BWText.error_db, sqle);
-					} catch (JSONException je){
-						BuildWrapperPlugin.logError(BWText.error_parsing_usage_file, je);
+				String fingerprint=null;
+				try {
+					db.startFile();
+					fingerprint=ResultCache.digest(uf.getLocation().toFile());
+					if (fingerprint.equals(db.getFingerprint(f))){
+						db.addFileComponent(db.getFileID(f), c.toString());
+						db.commitFile();
+						return;
 					}
+				} catch (IOException ioe){
+					// parse it anyway
+				} catch (SQLException sqle){
+					BuildWrapperPlugin.logError(BWText.error_db, sqle);
+					rollbackFile();
+					return;
+				}
+				//BuildWrapperPlugin.log(IStatus.INFO, "Adding "+p.getName()+"/"+f.getProjectRelativePath().toPortableString()+": usage file found", null);
+				try (InputStream is=uf.getContents();
+						BufferedReader br=new BufferedReader(new InputStreamReader(is,uf.getCharset()))) {
+					addUsage(p, c, f, new JSONPullParser(br), fingerprint);
+				} catch (SQLException sqle){
+					BuildWrapperPlugin.logError(BWText.error_db, sqle);
+					rollbackFile();
+				} catch (Exception e){
+					BuildWrapperPlugin.logError(BWText.error_parsing_usage_file, e);
+					rollbackFile();
 				}
 			}
 		}
 	}
 	
-	public Map<String,List<ReferenceLocation>> listReferencesInFile(IFile f){
+	/**
+	 * undo what was written for the current file after an error, so that the next commit does not store half a file
+	 */
+	private void rollbackFile(){
 		try {
-			return db.listReferencesInFile(f);
+			db.rollbackFile();
 		} catch (SQLException sqle){
 			BuildWrapperPlugin.logError(BWText.error_db, sqle);
-		} catch (JSONException je){
-			BuildWrapperPlugin.logError(BWText.error_parsing_usage_file, je);
 		}
-		return new HashMap<>();
 	}
 	
-	private void buildUsage(long fileID,JSONArray arr,List<ObjectUsage> modUsages,List<ObjectUsage> objDefs,List<ObjectUsage> objUsages){
-		JSONObject pkgs=arr.optJSONObject(3);
-		if (pkgs!=null){
-			for (Iterator<String> itPkg=pkgs.keys();itPkg.hasNext();){
-				String pkgKey=itPkg.next();
-				JSONObject mods=pkgs.optJSONObject(pkgKey);
-				if (mods!=null){
-					String pkg=formatPackage(pkgKey);
-					buildUsageModule(fileID,pkg,mods,modUsages,objDefs,objUsages);
+	/**
+	 * read a usage file generated by BuildWrapper and add its contents to the db as we go,
+	 * without building the JSON structure in memory.
+	 * Nothing is committed if an exception is thrown: the caller rolls the file back, so it keeps its previous usage and fingerprint
+	 * and is parsed again next time
+	 * @param p the project
+	 * @param c the cabal component
+	 * @param f the source file
+	 * @param pp the parser on the usage file
+	 * @param fingerprint the fingerprint of the usage file
+	 * @throws IOException
+	 * @throws JSONException
+	 * @throws SQLException
+	 */
+	private void addUsage(IProject p,Component c,IFile f,JSONPullParser pp,String fingerprint) throws IOException,JSONException,SQLException{
+		pp.expect(Event.START_ARRAY);
+		String pkg=pp.nextString();
+		String module=formatModule(c, pp.nextString());
+		int[] loc=null;
+		if (pp.peek()==Event.START_ARRAY){
+			loc=new int[4];
+			if (!readLocation(pp, loc)){
+				loc=null;
+			}
+		} else {
+			pp.skipValue();
+		}
+		if (pkg==null || module==null){
+			return;
+		}
+		FileUsage fu=new FileUsage(db.getFileID(f));
+		db.addFileComponent(fu.fileID, c.toString());
+		Set<Long> oldDefs=db.getDefinedSymbols(fu.fileID);
+		db.clearUsageInFile(fu.fileID);
+		long moduleID=db.getModuleID(formatPackage(pkg), module, fu.fileID, loc);
+		JSONObject outline=null;
+		if (pp.peek()==Event.START_OBJECT){
+			addPackages(pp, fu);
+		} else if (pp.peek()!=Event.END_ARRAY){
+			pp.skipValue();
+		}
+		if (pp.peek()==Event.START_OBJECT){
+			outline=(JSONObject)pp.readValue();
+		}
+		db.flushUsages();
+		db.setFingerprint(fu.fileID, fingerprint);
+		boolean defsChanged=!oldDefs.isEmpty() && !oldDefs.equals(fu.defs);
+		if (defsChanged){
+			// the dependent files need to be indexed again even if their usage file did not change
+			db.clearDependentFingerprints(moduleID, fu.fileID);
+		}
+		db.commitFile();
+		if (defsChanged){
+			addDependentFiles(moduleID, fu.fileID);
+		}
+		synchronized (indexing) {
+			IndexStatistics st=indexing.get(p.getName());
+			if (st!=null){
+				st.files++;
+				st.rows+=fu.rows;
+			}
+		}
+		if (outline!=null){
+			// the usage is committed, a bad outline only loses the outline
+			try {
+				OutlineResult or=new OutlineResult(f, outline);
+				BWFacade bf=BuildWrapperPlugin.getFacade(p);
+				if(bf!=null){
+					bf.registerOutline(f, or);
 				}
+			} catch (JSONException je){
+				BuildWrapperPlugin.logError(BWText.process_parse_outline_error, je);
 			}
 		}
 	}
 	
-	private void buildUsageModule(long fileID,String pkg,JSONObject mods,List<ObjectUsage> modUsages,List<ObjectUsage> objDefs,List<ObjectUsage> objUsages){
-		for (Iterator<String> itMod=mods.keys();itMod.hasNext();){
-			String modKey=itMod.next();
-			JSONObject types=mods.optJSONObject(modKey);
-			if (types!=null){
-				try {
-					long modID=db.getModuleID(pkg, modKey, null,null);
-				
-					buildUsage(fileID,modID,types.optJSONObject("vars"),false,modUsages,objDefs,objUsages);
-					buildUsage(fileID,modID,types.optJSONObject("types"),true,modUsages,objDefs,objUsages);
-				} catch (SQLException sqle){
-					BuildWrapperPlugin.logError(BWText.error_db, sqle);
+	/**
+	 * read the usage by package and module
+	 * @param pp the parser, positioned before the object
+	 * @param fu the file we're reading
+	 */
+	private void addPackages(JSONPullParser pp,FileUsage fu) throws IOException,JSONException,SQLException{
+		pp.expect(Event.START_OBJECT);
+		for (String pkgKey=pp.nextKey();pkgKey!=null;pkgKey=pp.nextKey()){
+			if (pp.peek()!=Event.START_OBJECT){
+				pp.skipValue();
+				continue;
+			}
+			pp.next();
+			String pkg=formatPackage(pkgKey);
+			db.addFilePackage(fu.fileID, pkg);
+			for (String modKey=pp.nextKey();modKey!=null;modKey=pp.nextKey()){
+				if (pp.peek()!=Event.START_OBJECT){
+					pp.skipValue();
+					continue;
+				}
+				pp.next();
+				long modID=db.getModuleID(pkg, modKey, null,null);
+				for (String key=pp.nextKey();key!=null;key=pp.nextKey()){
+					boolean isType="types".equals(key);
+					if ((isType || "vars".equals(key)) && pp.peek()==Event.START_OBJECT){
+						addSymbols(pp, fu, modID, isType);
+					} else {
+						pp.skipValue();
+					}
 				}
 			}
 		}
 	}
 	
-	private void buildUsage(long fileID,long modID,JSONObject symbols,boolean isType,List<ObjectUsage> modUsages,List<ObjectUsage> objDefs,List<ObjectUsage> objUsages) throws SQLException{
-		if (symbols!=null){
-			for (Iterator<String> itSym=symbols.keys();itSym.hasNext();){
-				String symKey=itSym.next();
-				JSONArray locs=symbols.optJSONArray(symKey);
-				if (locs!=null){
-					
-					for (int a=0;a<locs.length();a++){
-						JSONObject secLoc=locs.optJSONObject(a);
-						if (secLoc!=null){
-							String sec=secLoc.optString("s");
-							JSONArray loc=secLoc.optJSONArray("l");
-							if (sec!=null && loc!=null){
-								String sloc=loc.toString();
-								if (!isType && symKey.length()==0){
-									modUsages.add(new ObjectUsage(modID, sec,sloc));
-								} else {
-									boolean def=secLoc.optBoolean("d", false);
-									int type=UsageQueryFlags.TYPE_VAR;
-									if (isType){
-										type=UsageQueryFlags.TYPE_TYPE;
-									} else if (Character.isUpperCase(symKey.charAt(0))){
-										type=UsageQueryFlags.TYPE_CONSTRUCTOR;
-									}
-									long symbolID=db.getSymbolID(modID, symKey, type);
-									if (def){
-										//, sec, sloc
-										objDefs.add(new ObjectUsage(symbolID, sec, sloc));
-									} else {
-										objUsages.add(new ObjectUsage(symbolID, sec, sloc));
-									}
-								}
-							}
+	/**
+	 * read the usage of the symbols of one module
+	 * @param pp the parser, positioned before the object
+	 * @param fu the file we're reading
+	 * @param modID the module id
+	 * @param isType are we reading types or vars?
+	 */
+	private void addSymbols(JSONPullParser pp,FileUsage fu,long modID,boolean isType) throws IOException,JSONException,SQLException{
+		pp.expect(Event.START_OBJECT);
+		for (String symKey=pp.nextKey();symKey!=null;symKey=pp.nextKey()){
+			if (pp.peek()!=Event.START_ARRAY){
+				pp.skipValue();
+				continue;
+			}
+			pp.next();
+			// an empty symbol is the module itself
+			boolean isModule=!isType && symKey.length()==0;
+			long symbolID=-1;
+			while (pp.peek()!=Event.END_ARRAY){
+				if (pp.peek()!=Event.START_OBJECT){
+					pp.skipValue();
+					continue;
+				}
+				pp.next();
+				String sec="";
+				boolean def=false;
+				boolean hasLoc=false;
+				for (String k=pp.nextKey();k!=null;k=pp.nextKey()){
+					if ("s".equals(k) && pp.peek()==Event.STRING){
+						sec=pp.nextString();
+					} else if ("l".equals(k) && pp.peek()==Event.START_ARRAY){
+						hasLoc=readLocation(pp, fu.loc);
+					} else if ("d".equals(k) && pp.peek()==Event.BOOLEAN){
+						pp.next();
+						def=pp.getBoolean();
+					} else {
+						pp.skipValue();
+					}
+				}
+				if (!hasLoc){
+					continue;
+				}
+				if (isModule){
+					db.addModuleUsage(fu.fileID, modID, sec, fu.loc);
+				} else {
+					if (symbolID<0){
+						int type=UsageQueryFlags.TYPE_VAR;
+						if (isType){
+							type=UsageQueryFlags.TYPE_TYPE;
+						} else if (Character.isUpperCase(symKey.charAt(0))){
+							type=UsageQueryFlags.TYPE_CONSTRUCTOR;
 						}
+						symbolID=db.getSymbolID(modID, symKey, type);
+					}
+					if (def){
+						db.addSymbolDefinition(fu.fileID, symbolID, sec, fu.loc);
+						fu.defs.add(symbolID);
+					} else {
+						db.addSymbolUsage(fu.fileID, symbolID, sec, fu.loc);
 					}
 				}
+				fu.rows++;
+			}
+			pp.next();
+		}
+	}
+	
+	/**
+	 * read a location array, in the same format as Location. 
+	 * Short forms are expanded so that we always get start line, start column, end line and end column
+	 * @param pp the parser, positioned before the array
+	 * @param loc the array to fill
+	 * @return true if the location is valid
+	 */
+	private static boolean readLocation(JSONPullParser pp,int[] loc) throws IOException,JSONException{
+		pp.expect(Event.START_ARRAY);
+		int len=0;
+		while (pp.peek()!=Event.END_ARRAY){
+			int v=pp.nextInt();
+			if (len<loc.length){
+				loc[len]=v;
+			}
+			len++;
+		}
+		pp.next();
+		return UsageDB.expandLocation(loc, Math.min(len, loc.length));
+	}
+	
+	/**
+	 * record the files referencing a module as changed, and queue their projects.
+	 * Their fingerprints have been cleared, so the next pass indexes them again.
+	 * The file has been committed already, so errors are only logged
+	 * @param moduleID the module id
+	 * @param fileID the id of the file defining the module
+	 */
+	private void addDependentFiles(long moduleID,long fileID){
+		BuildWrapperPlugin plugin=BuildWrapperPlugin.getDefault();
+		UsageThread ut=plugin!=null?plugin.getUsageThread():null;
+		if (ut!=null){
+			try {
+				Set<IProject> ps=new HashSet<>();
+				for (IFile df:db.getDependentFiles(moduleID, fileID)){
+					ut.getJournal().fileChanged(df);
+					ps.add(df.getProject());
+				}
+				for (IProject dp:ps){
+					ut.addProject(dp);
+				}
+			} catch (SQLException sqle){
+				BuildWrapperPlugin.logError(BWText.error_db, sqle);
 			}
 		}
 	}
 	
+	public Map<String,List<ReferenceLocation>> listReferencesInFile(IFile f){
+		try {
+			return db.listReferencesInFile(f);
+		} catch (SQLException sqle){
+			BuildWrapperPlugin.logError(BWText.error_db, sqle);
+		}
+		return new HashMap<>();
+	}
+	
 	/**
 	 * get the IFile identified with the given db identifier
 	 * @param fileid
@@ -325,53 +557,93 @@ public class UsageAPI {
 	 * @return the results
 	 */
 	public UsageResults exactSearch(String pkg,String term,IProject p,int typeFlags,int scopeFlags){
+		return exactSearchInProjects(pkg, term, p!=null?Collections.singleton(p):null, typeFlags, scopeFlags);
+	}
+	
+	/**
+	 * perform an exact search in several projects at once
+	 * @param pkg package restriction (null for everything)
+	 * @param term term to search for
+	 * @param projects project restriction (null for everything)
+	 * @param typeFlags @see {@link UsageQueryFlags}
+	 * @param scopeFlags @see {@link UsageQueryFlags}
+	 * @return the results
+	 */
+	public UsageResults exactSearchInProjects(String pkg,String term,Collection<IProject> projects,int typeFlags,int scopeFlags){
 		UsageResults ret=new UsageResults();
-		if ((typeFlags & UsageQueryFlags.TYPE_MODULE) == UsageQueryFlags.TYPE_MODULE){
-			if ((scopeFlags & UsageQueryFlags.SCOPE_DEFINITIONS) ==UsageQueryFlags.SCOPE_DEFINITIONS){
-				ret.add(getModuleDefinitions(pkg, term, p,true));
+		try {
+			SymbolIndex idx=db.getSymbolIndex();
+			// all the queries read the same snapshot
+			db.startRead();
+			if ((typeFlags & UsageQueryFlags.TYPE_MODULE) == UsageQueryFlags.TYPE_MODULE){
+				moduleSearch(ret, idx.findModules(exactNames(idx.getModuleNames(), term), pkg), projects, scopeFlags);
 			}
-			if ((scopeFlags & UsageQueryFlags.SCOPE_REFERENCES) ==UsageQueryFlags.SCOPE_REFERENCES){
-				ret.add(getModuleReferences(pkg, term, p,true));
+			int ix=term.lastIndexOf('.');
+			if (ix>-1 && ix<term.length()-1){
+				String module=term.substring(0,ix);
+				String symbol=term.substring(ix+1);
+				int types=Character.isUpperCase(symbol.charAt(0))
+						?UsageQueryFlags.TYPE_TYPE | UsageQueryFlags.TYPE_CONSTRUCTOR
+						:UsageQueryFlags.TYPE_VAR;
+				Set<Long> mods=new HashSet<>(idx.findModules(exactNames(idx.getModuleNames(), module), pkg));
+				if (!mods.isEmpty()){
+					symbolSearch(ret, idx.findSymbols(exactNames(idx.getSymbolNames(), symbol), types & typeFlags, mods, pkg), projects, scopeFlags);
+				}
 			}
+		} catch (SQLException sqle){
+			BuildWrapperPlugin.logError(BWText.error_db, sqle);
+		} finally {
+			db.endRead();
 		}
-		int ix=term.lastIndexOf('.');
-		if (ix>-1 && ix<term.length()-1){
-			String module=term.substring(0,ix);
-			String symbol=term.substring(ix+1);
-			if (Character.isUpperCase(symbol.charAt(0))){
-				symbolSearch(ret, pkg, module, symbol, UsageQueryFlags.TYPE_TYPE, p, typeFlags, scopeFlags,true);
-				symbolSearch(ret, pkg, module, symbol, UsageQueryFlags.TYPE_CONSTRUCTOR, p, typeFlags, scopeFlags,true);
-			} else {
-				symbolSearch(ret, pkg, module, symbol, UsageQueryFlags.TYPE_VAR, p, typeFlags, scopeFlags,true);
+		return ret;
+	}
+	
+	/**
+	 * get the results for modules
+	 * @param ret the results to add to
+	 * @param moduleIDs the module ids
+	 * @param projects project restriction (null for everything)
+	 * @param scopeFlags @see {@link UsageQueryFlags}
+	 * @throws SQLException
+	 */
+	private void moduleSearch(UsageResults ret,Collection<Long> moduleIDs,Collection<IProject> projects,int scopeFlags) throws SQLException{
+		if (!moduleIDs.isEmpty()){
+			if ((scopeFlags & UsageQueryFlags.SCOPE_DEFINITIONS) ==UsageQueryFlags.SCOPE_DEFINITIONS){
+				ret.add(db.getModuleDefinitions(moduleIDs, projects));
+			}
+			if ((scopeFlags & UsageQueryFlags.SCOPE_REFERENCES) ==UsageQueryFlags.SCOPE_REFERENCES){
+				ret.add(db.getModuleReferences(moduleIDs, projects));
 			}
 		}
-		
-		return ret;
 	}
 	
 	/**
-	 * search for a symbol
-	 * @param ret
-	 * @param pkg
-	 * @param module
-	 * @param symbol
-	 * @param type
-	 * @param p
-	 * @param typeFlags
-	 * @param scopeFlags
-	 * @param exact
+	 * get the results for symbols
+	 * @param ret the results to add to
+	 * @param symbolIDs the symbol ids
+	 * @param projects project restriction (null for everything)
+	 * @param scopeFlags @see {@link UsageQueryFlags}
+	 * @throws SQLException
 	 */
-	private void symbolSearch(UsageResults ret,String pkg,String module,String symbol,int type,IProject p,int typeFlags,int scopeFlags,boolean exact){
-		if ((typeFlags & type) == type){
+	private void symbolSearch(UsageResults ret,Collection<Long> symbolIDs,Collection<IProject> projects,int scopeFlags) throws SQLException{
+		if (!symbolIDs.isEmpty()){
 			if ((scopeFlags & UsageQueryFlags.SCOPE_DEFINITIONS) ==UsageQueryFlags.SCOPE_DEFINITIONS){
-				ret.add(getSymbolDefinitions(pkg, module,symbol,type, p,exact));
+				ret.add(db.getSymbolDefinitions(symbolIDs, projects));
 			}
 			if ((scopeFlags & UsageQueryFlags.SCOPE_REFERENCES) ==UsageQueryFlags.SCOPE_REFERENCES){
-				ret.add(getSymbolReferences(pkg,  module,symbol,type, p,exact));
+				ret.add(db.getSymbolReferences(symbolIDs, projects));
 			}
 		}
 	}
 	
+	private static BitSet exactNames(NameIndex names,String name){
+		BitSet ret=new BitSet();
+		int id=names.getID(name);
+		if (id>-1){
+			ret.set(id);
+		}
+		return ret;
+	}
 	
 	/**
 	 * perform an like search
@@ -383,64 +655,66 @@ public class UsageAPI {
 	 * @return the results
 	 */
 	public UsageResults likeSearch(String pkg,String term,IProject p,int typeFlags,int scopeFlags){
+		return likeSearch(pkg, term, p, typeFlags, scopeFlags, false);
+	}
+	
+	/**
+	 * perform an like search: the term can contain Eclipse wildcards, and is matched case insensitively. 
+	 * The names are matched in memory and only the matching ids are queried in the database
+	 * @param pkg package restriction (null for everything)
+	 * @param term term to search for
+	 * @param p project restriction (null for everything)
+	 * @param typeFlags @see {@link UsageQueryFlags}
+	 * @param scopeFlags @see {@link UsageQueryFlags}
+	 * @param camelCase should a symbol name without wildcards also be matched as a camel case pattern?
+	 * @return the results
+	 */
+	public UsageResults likeSearch(String pkg,String term,IProject p,int typeFlags,int scopeFlags,boolean camelCase){
+		return likeSearchInProjects(pkg, term, p!=null?Collections.singleton(p):null, typeFlags, scopeFlags, camelCase);
+	}
+	
+	/**
+	 * perform an like search in several projects at once, like likeSearch
+	 * @param pkg package restriction (null for everything)
+	 * @param term term to search for
+	 * @param projects project restriction (null for everything)
+	 * @param typeFlags @see {@link UsageQueryFlags}
+	 * @param scopeFlags @see {@link UsageQueryFlags}
+	 * @param camelCase should a symbol name without wildcards also be matched as a camel case pattern?
+	 * @return the results
+	 */
+	public UsageResults likeSearchInProjects(String pkg,String term,Collection<IProject> projects,int typeFlags,int scopeFlags,boolean camelCase){
 		UsageResults ret=new UsageResults();
-		
-		
-		// replace Eclipse wildcards by SQLLite wildcards
-		StringBuilder newTerm=new StringBuilder();
-		for (int a=0;a<term.length();a++){
-			char c=term.charAt(a);
-			Character prev=a>0?term.charAt(a-1):null;
-			boolean isEscaped=prev!=null && prev.charValue()=='\\';
-			if (c=='%'){
-				newTerm.append("\\%");
-			} else if (c=='_'){
-				newTerm.append("\\_");
-			} else if (c=='*'){
-				if (isEscaped){
-					newTerm.replace(newTerm.length()-1, 1, "*");
-				} else {
-					newTerm.append("%");
-				}
-			} else if (c=='?' && !isEscaped){
-				if (isEscaped){
-					newTerm.replace(newTerm.length()-1, 1, "?");
-				} else {
-					newTerm.append("_");
-				}
-			} else {
-				newTerm.append(c);
-			}
-		}
-		String sqlLiteTerm=newTerm.toString();
-		if ((typeFlags & UsageQueryFlags.TYPE_MODULE) == UsageQueryFlags.TYPE_MODULE){
-			if ((scopeFlags & UsageQueryFlags.SCOPE_DEFINITIONS) ==UsageQueryFlags.SCOPE_DEFINITIONS){
-				ret.add(getModuleDefinitions(pkg, sqlLiteTerm, p,false));
-			}
-			if ((scopeFlags & UsageQueryFlags.SCOPE_REFERENCES) ==UsageQueryFlags.SCOPE_REFERENCES){
-				ret.add(getModuleReferences(pkg, sqlLiteTerm, p,false));
+		try {
+			SymbolIndex idx=db.getSymbolIndex();
+			// all the queries read the same snapshot
+			db.startRead();
+			if ((typeFlags & UsageQueryFlags.TYPE_MODULE) == UsageQueryFlags.TYPE_MODULE){
+				moduleSearch(ret, idx.findModules(idx.getModuleNames().match(term), pkg), projects, scopeFlags);
 			}
-		}
-		if (typeFlags != UsageQueryFlags.TYPE_MODULE){
-			// there is a dot: qualified name
-			int ix=sqlLiteTerm.lastIndexOf(".");
-			List<String> mods=Collections.singletonList(null);
-			try {
-				if (ix>-1){
-					String modTerm=sqlLiteTerm.substring(0,ix);
-					mods=db.findModules(pkg, modTerm, p);
+			int symbolTypes=typeFlags & (UsageQueryFlags.TYPE_TYPE | UsageQueryFlags.TYPE_CONSTRUCTOR | UsageQueryFlags.TYPE_VAR);
+			if (symbolTypes!=0){
+				String symbol=term;
+				Set<Long> mods=null;
+				// there is a dot: qualified name
+				int ix=term.lastIndexOf('.');
+				if (ix>0 && ix<term.length()-1){
+					mods=new HashSet<>(idx.findModules(idx.getModuleNames().match(term.substring(0,ix)), pkg));
+					symbol=term.substring(ix+1);
 				} 
-				for (String m:mods){
-					symbolSearch(ret, pkg, m, sqlLiteTerm, UsageQueryFlags.TYPE_TYPE, p, typeFlags, scopeFlags,false);
-					symbolSearch(ret, pkg, m, sqlLiteTerm, UsageQueryFlags.TYPE_CONSTRUCTOR, p, typeFlags, scopeFlags,false);
-					symbolSearch(ret, pkg, m, sqlLiteTerm, UsageQueryFlags.TYPE_VAR, p, typeFlags, scopeFlags,false);
+				if (mods==null || !mods.isEmpty()){
+					BitSet names=idx.getSymbolNames().match(symbol);
+					if (camelCase && !NameIndex.hasWildcards(symbol)){
+						names.or(idx.getSymbolNames().matchCamelCase(symbol));
+					}
+					symbolSearch(ret, idx.findSymbols(names, symbolTypes, mods, pkg), projects, scopeFlags);
 				}
-			} catch (SQLException sqle){
-				BuildWrapperPlugin.logError(BWText.error_db, sqle);
-			} 
+			}
+		} catch (SQLException sqle){
+			BuildWrapperPlugin.logError(BWText.error_db, sqle);
+		} finally {
+			db.endRead();
 		}
-		
-		
 		return ret;
 	}
 	
@@ -454,21 +728,6 @@ public class UsageAPI {
 	}
 	
 	
-	/**
-	 * parse the file generated by BuildWrapper
-	 * @param uf
-	 * @return
-	 */
-	private JSONArray parseUsageFile(IFile uf){
-		try (InputStream is=uf.getContents();
-		        BufferedReader br = new BufferedReader(new InputStreamReader( is,uf.getCharset() ))) {
-			return new JSONArray(new JSONTokener(br));
-		} catch (Exception e){
-			BuildWrapperPlugin.logError(BWText.error_parsing_usage_file, e);
-		}
-		return null;
-	}
-	
 	/**
 	 * get the usage file generated by BuildWrapper
 	 * @param p
@@ -520,5 +779,33 @@ public class UsageAPI {
 		return ret;
 	}
 	
+	/**
+	 * statistics on the indexing of one project
+	 */
+	private static class IndexStatistics {
+		private long start=System.currentTimeMillis();
+		private int files;
+		private long rows;
+	}
 	
+	/**
+	 * what we record while reading the usage of one file
+	 */
+	private static class FileUsage {
+		private final long fileID;
+		/**
+		 * the ids of the symbols defined in the file
+		 */
+		private final Set<Long> defs=new HashSet<>();
+		/**
+		 * the current location, reused for each usage
+		 */
+		private final int[] loc=new int[4];
+		private int rows;
+		
+		public FileUsage(long fileID) {
+			super();
+			this.fileID = fileID;
+		}
+	}
 }
@@ -16,8 +16,12 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
 import net.sf.eclipsefp.haskell.buildwrapper.types.Module;
@@ -30,24 +34,127 @@ import net.sf.eclipsefp.haskell.buildwrapper.util.BWText;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.core.runtime.IPath;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.sqlite.SQLiteConfig;
 
 
 /**
- * The DB side (sqlite) of usage queries
+ * The DB side (sqlite) of usage queries.
+ * Indexing goes through a single writer connection. Searches go through a small pool of read only connections:
+ * in WAL mode they do not wait for the writer, and each search reads a snapshot of the last commit, never half indexed files
  * @author JP Moresmau
  *
  */
 public class UsageDB {
+	/**
+	 * number of files committed together when indexing in bulk
+	 */
+	private static final int BULK_FILES=100;
+	/**
+	 * maximum number of ids in one query
+	 */
+	private static final int MAX_IDS=500;
+	/**
+	 * number of usages inserted together
+	 */
+	private static final int BATCH_USAGES=1000;
+	/**
+	 * the version of the schema, stored in the user_version pragma.
+	 * Version 2 stores locations as integer columns instead of JSON text, version 3 records the packages referenced by each file
+	 */
+	private static final int SCHEMA_VERSION=3;
+	/**
+	 * maximum number of read only connections
+	 */
+	private static final int MAX_READERS=3;
+	/**
+	 * how long a search waits for the database, in seconds
+	 */
+	private static final int READ_TIMEOUT=10;
+	
+	/**
+	 * the tables storing usages with their location, and the column and table of the object used
+	 */
+	private static final String[] USAGE_TABLES={"module_usages","symbol_usages","symbol_defs"};
+	private static final String[] USAGE_KEYS={"moduleid","symbolid","symbolid"};
+	private static final String[] USAGE_PARENTS={"modules","symbols","symbols"};
+	
+	private static final String INSERT_MODULE_USAGE="insert into module_usages values(?,?,?,?,?,?,?)";
+	private static final String INSERT_SYMBOL_USAGE="insert into symbol_usages values(?,?,?,?,?,?,?)";
+	private static final String INSERT_SYMBOL_DEF="insert into symbol_defs values(?,?,?,?,?,?,?)";
+	private static final String[] INSERT_USAGES={INSERT_MODULE_USAGE,INSERT_SYMBOL_USAGE,INSERT_SYMBOL_DEF};
+	
+	/**
+	 * the writer connection
+	 */
 	private Connection conn;
+	/**
+	 * the db file
+	 */
+	private final File file;
+	/**
+	 * the idle read only connections. This also protects openReaders and readersClosed
+	 */
+	private final LinkedList<Connection> readers=new LinkedList<>();
+	/**
+	 * the number of read only connections, idle or in use
+	 */
+	private int openReaders=0;
+	/**
+	 * have we been closed?
+	 */
+	private boolean readersClosed=false;
+	/**
+	 * the read only connection of the read session of each thread
+	 */
+	private final ThreadLocal<Connection> session=new ThreadLocal<>();
+	
+	/**
+	 * the statements used when indexing, prepared once per connection
+	 */
+	private final Map<String,PreparedStatement> statements=new HashMap<>();
+	/**
+	 * module ids by package and module name
+	 */
+	private final Map<String,Long> moduleIDs=new HashMap<>();
+	/**
+	 * symbol ids by module id, type and symbol name
+	 */
+	private final Map<String,Long> symbolIDs=new HashMap<>();
+	/**
+	 * package ids by package name
+	 */
+	private final Map<String,Long> packageIDs=new HashMap<>();
+	/**
+	 * number of files indexed in the current transaction, -1 if we're not in bulk mode
+	 */
+	private int bulkFiles=-1;
+	/**
+	 * is there a savepoint for the file being indexed in bulk mode?
+	 */
+	private boolean fileSavepoint=false;
+	/**
+	 * the index of module and symbol names, loaded on the first search
+	 */
+	private SymbolIndex index;
+	/**
+	 * number of usages added but not inserted yet
+	 */
+	private int pendingUsages=0;
 
 	
 	public UsageDB(){
 		// the db file is inside the project metadata folder
-		IPath p=BuildWrapperPlugin.getDefault().getStateLocation().append("usage.db");
-		File f=p.toFile();
+		this(BuildWrapperPlugin.getDefault().getStateLocation().append("usage.db").toFile());
+	}
+	
+	/**
+	 * open the database in the given file, creating or migrating the schema if needed
+	 * @param f the db file
+	 */
+	public UsageDB(File f){
+		this.file=f;
 		f.getParentFile().mkdirs();
 		try {
 			Class.forName("org.sqlite.JDBC");
@@ -57,6 +164,9 @@ public class UsageDB {
 			// foreign key support
 			try (Statement s=conn.createStatement()) {
 				s.executeUpdate("PRAGMA foreign_keys = ON;");
+				// write ahead logging: commits are cheaper and readers do not block the writer
+				s.execute("PRAGMA journal_mode = WAL;");
+				s.execute("PRAGMA synchronous = NORMAL;");
 			}
 			// we do explicit commits for performance and coherence
 			conn.setAutoCommit(false);
@@ -66,9 +176,23 @@ public class UsageDB {
 		}
 	}
 	
-	public void close(){
+	public synchronized void close(){
+		synchronized (readers) {
+			readersClosed=true;
+			for (Connection c:readers){
+				closeReader(c);
+			}
+			readers.clear();
+			readers.notifyAll();
+		}
 		if (conn!=null){
 			try {
+				for (PreparedStatement ps:statements.values()){
+					ps.close();
+				}
+				statements.clear();
+				clearCaches();
+				index=null;
 				conn.close();
 			} catch (SQLException sqle){
 				BuildWrapperPlugin.logError(BWText.error_db, sqle);
@@ -77,9 +201,274 @@ public class UsageDB {
 		}
 	}
 	
-	public void commit() throws SQLException{
+	public synchronized void commit() throws SQLException{
 		checkConnection();
+		flushUsages();
 		conn.commit();
+		// the commit released the savepoint
+		fileSavepoint=false;
+	}
+	
+	/**
+	 * start indexing one file. In bulk mode, a savepoint is set so that rollbackFile only undoes this file
+	 * and keeps the files indexed before it in the same transaction
+	 * @throws SQLException
+	 */
+	public synchronized void startFile() throws SQLException{
+		if (bulkFiles>=0){
+			checkConnection();
+			try (Statement s=conn.createStatement()) {
+				if (fileSavepoint){
+					s.execute("release savepoint indexfile");
+				}
+				s.execute("savepoint indexfile");
+			}
+			fileSavepoint=true;
+		}
+	}
+	
+	/**
+	 * undo the indexing of the current file after an error: back to the savepoint in bulk mode, the whole transaction otherwise.
+	 * In bulk mode, nothing is undone once the file has been committed
+	 * @throws SQLException
+	 */
+	public synchronized void rollbackFile() throws SQLException{
+		checkConnection();
+		// ids created since are gone, and may be reused
+		clearCaches();
+		index=null;
+		discardUsages();
+		if (fileSavepoint){
+			fileSavepoint=false;
+			try (Statement s=conn.createStatement()) {
+				s.execute("rollback to savepoint indexfile");
+				s.execute("release savepoint indexfile");
+			}
+		} else if (bulkFiles<0){
+			conn.rollback();
+		}
+	}
+	
+	/**
+	 * start indexing several files: commitFile only commits every few files
+	 */
+	public synchronized void startBulk(){
+		if (bulkFiles<0){
+			bulkFiles=0;
+		}
+	}
+	
+	/**
+	 * end bulk indexing: commit and release the id caches
+	 * @throws SQLException
+	 */
+	public synchronized void endBulk() throws SQLException{
+		if (bulkFiles>=0){
+			bulkFiles=-1;
+			commit();
+			clearCaches();
+		}
+	}
+	
+	/**
+	 * commit the indexing of one file. In bulk mode, several files are committed together
+	 * @throws SQLException
+	 */
+	public synchronized void commitFile() throws SQLException{
+		if (bulkFiles<0){
+			commit();
+		} else if (++bulkFiles>=BULK_FILES){
+			commit();
+			bulkFiles=0;
+		} else if (fileSavepoint){
+			fileSavepoint=false;
+			try (Statement s=conn.createStatement()) {
+				s.execute("release savepoint indexfile");
+			}
+		}
+	}
+	
+	/**
+	 * forget the cached module and symbol ids
+	 */
+	public synchronized void clearCaches(){
+		moduleIDs.clear();
+		symbolIDs.clear();
+		packageIDs.clear();
+	}
+	
+	/**
+	 * @return the index of module and symbol names, loaded from the tables if needed
+	 * @throws SQLException
+	 */
+	public synchronized SymbolIndex getSymbolIndex() throws SQLException{
+		checkConnection();
+		if (index==null){
+			SymbolIndex idx=new SymbolIndex();
+			try (Statement s=conn.createStatement()) {
+				try (ResultSet rs=s.executeQuery("select moduleid,package,module from modules")) {
+					while (rs.next()){
+						idx.addModule(rs.getLong(1), rs.getString(2), rs.getString(3));
+					}
+				}
+				try (ResultSet rs=s.executeQuery("select symbolid,symbol,type,moduleid from symbols where symbol is not null")) {
+					while (rs.next()){
+						idx.addSymbol(rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getLong(4));
+					}
+				}
+			}
+			index=idx;
+		}
+		return index;
+	}
+	
+	/**
+	 * @param sql the SQL
+	 * @return the prepared statement for the SQL, created once per connection. Do not close it!
+	 * @throws SQLException
+	 */
+	private PreparedStatement getStatement(String sql) throws SQLException{
+		PreparedStatement ps=statements.get(sql);
+		if (ps==null){
+			ps=conn.prepareStatement(sql);
+			statements.put(sql, ps);
+		}
+		return ps;
+	}
+	
+	/**
+	 * start a read session for the current thread: all the searches until endRead see the same snapshot of the database.
+	 * Sessions do not nest
+	 * @throws SQLException
+	 */
+	public void startRead() throws SQLException{
+		if (session.get()==null){
+			session.set(borrowReader());
+		}
+	}
+	
+	/**
+	 * end the read session of the current thread
+	 */
+	public void endRead(){
+		Connection c=session.get();
+		if (c!=null){
+			session.remove();
+			returnReader(c);
+		}
+	}
+	
+	/**
+	 * @return the connection of the current read session, or a connection from the pool. Call releaseReader when done
+	 * @throws SQLException
+	 */
+	private Connection getReader() throws SQLException{
+		Connection c=session.get();
+		return c!=null?c:borrowReader();
+	}
+	
+	/**
+	 * @param c the connection got from getReader
+	 */
+	private void releaseReader(Connection c){
+		if (session.get()!=c){
+			returnReader(c);
+		}
+	}
+	
+	/**
+	 * get an idle read only connection, opening one if we don't have too many.
+	 * Call returnReader when done, the reads in between see the same snapshot of the database
+	 * @return the connection
+	 * @throws SQLException
+	 */
+	private Connection borrowReader() throws SQLException{
+		checkConnection();
+		long deadline=System.currentTimeMillis()+READ_TIMEOUT*1000L;
+		synchronized (readers) {
+			while (!readersClosed && readers.isEmpty() && openReaders>=MAX_READERS){
+				long wait=deadline-System.currentTimeMillis();
+				if (wait<=0){
+					throw new SQLException(BWText.error_db_readers);
+				}
+				try {
+					readers.wait(wait);
+				} catch (InterruptedException ie){
+					throw new SQLException(BWText.error_db_readers,ie);
+				}
+			}
+			if (readersClosed){
+				throw new SQLException(BWText.error_no_db);
+			}
+			if (!readers.isEmpty()){
+				return readers.removeFirst();
+			}
+			openReaders++;
+		}
+		try {
+			SQLiteConfig config=new SQLiteConfig();
+			config.setReadOnly(true);
+			Connection c=DriverManager.getConnection("jdbc:sqlite:"+file.getAbsolutePath(),config.toProperties());
+			c.setAutoCommit(false);
+			return c;
+		} catch (SQLException sqle){
+			synchronized (readers) {
+				openReaders--;
+				readers.notify();
+			}
+			throw sqle;
+		}
+	}
+	
+	/**
+	 * end the read transaction of a connection and give it back to the pool
+	 * @param c the connection got from borrowReader
+	 */
+	private void returnReader(Connection c){
+		try {
+			// the next reads will see the latest commit
+			c.rollback();
+		} catch (SQLException sqle){
+			BuildWrapperPlugin.logError(BWText.error_db, sqle);
+			synchronized (readers) {
+				closeReader(c);
+				readers.notify();
+			}
+			return;
+		}
+		synchronized (readers) {
+			if (readersClosed){
+				closeReader(c);
+			} else {
+				readers.addFirst(c);
+			}
+			readers.notify();
+		}
+	}
+	
+	/**
+	 * close a read only connection. Must be called while synchronized on readers
+	 * @param c the connection
+	 */
+	private void closeReader(Connection c){
+		openReaders--;
+		try {
+			c.close();
+		} catch (SQLException sqle){
+			BuildWrapperPlugin.logError(BWText.error_db, sqle);
+		}
+	}
+	
+	/**
+	 * @param c a read only connection
+	 * @param sql the SQL
+	 * @return a statement that gives up if the database is locked for too long
+	 * @throws SQLException
+	 */
+	private static PreparedStatement prepareRead(Connection c,String sql) throws SQLException{
+		PreparedStatement ps=c.prepareStatement(sql);
+		ps.setQueryTimeout(READ_TIMEOUT);
+		return ps;
 	}
 	
 	public boolean isValid(){
@@ -99,207 +488,610 @@ public class UsageDB {
 	protected void setup() throws SQLException{
 		checkConnection();
 		try (Statement s=conn.createStatement()) {
-			s.execute("create table if not exists files (fileid INTEGER PRIMARY KEY ASC,project TEXT not null, name TEXT not null)");
+			s.execute("create table if not exists files (fileid INTEGER PRIMARY KEY ASC,project TEXT not null, name TEXT not null,fingerprint TEXT)");
 			s.execute("create unique index if not exists filenames on files (project, name)");
+			// databases created before we recorded fingerprints
+			if (!hasColumn(s, "files", "fingerprint")){
+				s.execute("alter table files add column fingerprint TEXT");
+			}
+			s.execute("create table if not exists file_components (fileid INTEGER not null,component TEXT not null,primary key (fileid,component),foreign key (fileid) references files(fileid) on delete cascade)");
 			
-			s.execute("create table if not exists modules (moduleid INTEGER PRIMARY KEY ASC,package TEXT not null, module TEXT not null,fileid INTEGER,location TEXT,foreign key (fileid) references files(fileid) on delete set null)");
+			s.execute("create table if not exists modules (moduleid INTEGER PRIMARY KEY ASC,package TEXT not null, module TEXT not null,fileid INTEGER,startline INTEGER,startcolumn INTEGER,endline INTEGER,endcolumn INTEGER,foreign key (fileid) references files(fileid) on delete set null)");
 			s.execute("create unique index if not exists modulenames on modules (package,module)");
+			// deleting a file sets the fileid of its module to null
+			s.execute("create index if not exists modulefiles on modules (fileid)");
 			
-			//s.execute("create index if not exists modulefiles on modules (fileid)");
-			
-			s.execute("create table if not exists module_usages (moduleid INTEGER not null,fileid INTEGER not null,section TEXT not null,location TEXT not null,foreign key (fileid) references files(fileid) on delete cascade,foreign key (moduleid) references modules(moduleid) on delete cascade)");
-		
 			s.execute("create table if not exists symbols(symbolid INTEGER PRIMARY KEY ASC,symbol TEXT,type INTEGER,moduleid INTEGER not null,foreign key (moduleid) references modules(moduleid) on delete set null)");
 			s.execute("create index if not exists symbolnames on symbols (symbol,type,moduleid)");
+			// deleting the modules of unused packages
+			s.execute("create index if not exists symbolmodules on symbols (moduleid)");
 			
-			s.execute("create table if not exists symbol_defs(symbolid INTEGER not null,fileid INTEGER not null,section TEXT not null,location TEXT not null,foreign key (symbolid) references symbols(symbolid) on delete cascade,foreign key (fileid) references files(fileid) on delete cascade)");
-			
-			s.execute("create table if not exists symbol_usages(symbolid INTEGER not null,fileid INTEGER not null,section TEXT not null,location TEXT not null,foreign key (symbolid) references symbols(symbolid) on delete cascade,foreign key (fileid) references files(fileid) on delete cascade)");
+			// the modules and symbols of a package are shared by all the files referencing it, and deleted when no file references it anymore
+			s.execute("create table if not exists packages (packageid INTEGER PRIMARY KEY ASC,name TEXT not null)");
+			s.execute("create unique index if not exists packagenames on packages (name)");
+			s.execute("create table if not exists file_packages (fileid INTEGER not null,packageid INTEGER not null,primary key (fileid,packageid),foreign key (fileid) references files(fileid) on delete cascade,foreign key (packageid) references packages(packageid) on delete cascade)");
+			s.execute("create index if not exists packagefiles on file_packages (packageid)");
 			
+			int version=0;
+			try (ResultSet rs=s.executeQuery("PRAGMA user_version")) {
+				if (rs.next()){
+					version=rs.getInt(1);
+				}
+			}
+			if (version<2){
+				migrateLocations(s);
+			}
 			
+			for (int a=0;a<USAGE_TABLES.length;a++){
+				createUsageTable(s, USAGE_TABLES[a], USAGE_KEYS[a], USAGE_PARENTS[a]);
+				// the reference and definition queries only read the index
+				s.execute("create index if not exists "+USAGE_TABLES[a]+"_ids on "+USAGE_TABLES[a]+" ("+USAGE_KEYS[a]+",fileid,section,startline,startcolumn,endline,endcolumn)");
+				// deleting the usages of a file, and listing what a file defines or references
+				s.execute("create index if not exists "+USAGE_TABLES[a]+"_files on "+USAGE_TABLES[a]+" (fileid,"+USAGE_KEYS[a]+")");
+			}
+			if (version<2){
+				// commit the recreated usage tables before reading them again: SQLite spills the pages of a large transaction
+				s.execute("PRAGMA user_version = 2");
+				conn.commit();
+			}
+			if (version<3){
+				migrateFilePackages(s);
+			}
+			s.execute("PRAGMA user_version = "+SCHEMA_VERSION);
 		}
 		conn.commit();
 	}
 	
-	public long getFileID(IFile f) throws SQLException{
-		checkConnection();
-		Long fileID=null;
-		try (PreparedStatement ps=conn.prepareStatement("select fileid from files where project=? and name=?")) {
-			ps.setString(1, f.getProject().getName());
-			ps.setString(2, f.getProjectRelativePath().toPortableString());
-			try (ResultSet rs=ps.executeQuery()) {
-				if (rs.next()){
-					fileID=rs.getLong(1);
+	private static void createUsageTable(Statement s,String table,String key,String parent) throws SQLException{
+		s.execute("create table if not exists "+table+" ("+key+" INTEGER not null,fileid INTEGER not null,section TEXT not null,startline INTEGER not null,startcolumn INTEGER not null,endline INTEGER not null,endcolumn INTEGER not null,foreign key (fileid) references files(fileid) on delete cascade,foreign key ("+key+") references "+parent+"("+key+") on delete cascade)");
+	}
+	
+	/**
+	 * record the packages referenced by the files already indexed in a database created before version 3,
+	 * so that their modules are not seen as unused
+	 * @param s the statement
+	 * @throws SQLException
+	 */
+	private static void migrateFilePackages(Statement s) throws SQLException{
+		s.execute("insert or ignore into packages (name) select distinct package from modules");
+		s.execute("insert or ignore into file_packages select distinct mu.fileid,p.packageid from module_usages mu,modules m,packages p where m.moduleid=mu.moduleid and p.name=m.package");
+		for (String table:new String[]{"symbol_usages","symbol_defs"}){
+			s.execute("insert or ignore into file_packages select distinct su.fileid,p.packageid from "+table+" su,symbols s,modules m,packages p where s.symbolid=su.symbolid and m.moduleid=s.moduleid and p.name=m.package");
+		}
+	}
+	
+	/**
+	 * migrate a database created before version 2, that stored locations as JSON text, to integer location columns.
+	 * The usage tables are recreated, but the modules table is referenced by the other tables, so we only add columns to it
+	 * @param s the statement
+	 * @throws SQLException
+	 */
+	private void migrateLocations(Statement s) throws SQLException{
+		int[] loc=new int[4];
+		if (hasColumn(s, "modules", "location") && !hasColumn(s, "modules", "startline")){
+			for (String col:new String[]{"startline","startcolumn","endline","endcolumn"}){
+				s.execute("alter table modules add column "+col+" INTEGER");
+			}
+			try (PreparedStatement ps=conn.prepareStatement("update modules set startline=?,startcolumn=?,endline=?,endcolumn=? where moduleid=?");
+					ResultSet rs=s.executeQuery("select moduleid,location from modules where location is not null")){
+				while (rs.next()){
+					if (parseLocation(rs.getString(2), loc)){
+						setLocation(ps, 1, loc);
+						ps.setLong(5, rs.getLong(1));
+						ps.addBatch();
+					}
 				}
+				ps.executeBatch();
 			}
+			s.execute("update modules set location=null");
 		}
-		if (fileID==null){
-			try (PreparedStatement ps=conn.prepareStatement("insert into files (project,name) values(?,?)")) {
-				ps.setString(1, f.getProject().getName());
-				ps.setString(2, f.getProjectRelativePath().toPortableString());
-				ps.execute();
-				try (ResultSet rs=ps.getGeneratedKeys()) {
-					rs.next();
-					fileID=rs.getLong(1);
+		for (int a=0;a<USAGE_TABLES.length;a++){
+			String table=USAGE_TABLES[a];
+			if (hasColumn(s, table, "location")){
+				s.execute("alter table "+table+" rename to "+table+"_v1");
+				createUsageTable(s, table, USAGE_KEYS[a], USAGE_PARENTS[a]);
+				try (PreparedStatement ps=conn.prepareStatement("insert into "+table+" values(?,?,?,?,?,?,?)");
+						ResultSet rs=s.executeQuery("select "+USAGE_KEYS[a]+",fileid,section,location from "+table+"_v1")){
+					int rows=0;
+					while (rs.next()){
+						if (parseLocation(rs.getString(4), loc)){
+							ps.setLong(1, rs.getLong(1));
+							ps.setLong(2, rs.getLong(2));
+							ps.setString(3, rs.getString(3));
+							setLocation(ps, 4, loc);
+							ps.addBatch();
+							if (++rows%BATCH_USAGES==0){
+								ps.executeBatch();
+							}
+						}
+					}
+					ps.executeBatch();
 				}
-			 }
+				s.execute("drop table "+table+"_v1");
+			}
 		}
-		return fileID;
 	}
 	
-	public void removeFile(IFile f) throws SQLException{
+	private static boolean hasColumn(Statement s,String table,String column) throws SQLException{
+		// no result at all if the table does not exist
+		if (!s.execute("PRAGMA table_info("+table+")")){
+			return false;
+		}
+		try (ResultSet rs=s.getResultSet()) {
+			while (rs.next()){
+				if (column.equals(rs.getString("name"))){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	public synchronized long getFileID(IFile f) throws SQLException{
 		checkConnection();
-		Long fileID=null;
-		try (PreparedStatement ps=conn.prepareStatement("select fileid from files where project=? and name=?")) {
+		Long fileID=findFileID(f);
+		if (fileID==null){
+			PreparedStatement ps=getStatement("insert into files (project,name) values(?,?)");
 			ps.setString(1, f.getProject().getName());
 			ps.setString(2, f.getProjectRelativePath().toPortableString());
-			try (ResultSet rs=ps.executeQuery()) {
-				if (rs.next()){
-					fileID=rs.getLong(1);
-				}
+			ps.execute();
+			try (ResultSet rs=ps.getGeneratedKeys()) {
+				rs.next();
+				fileID=rs.getLong(1);
 			}
 		}
-		if (fileID!=null){
-			try (PreparedStatement ps=conn.prepareStatement("delete from files where fileid=?")) {
-				ps.setLong(1, fileID);
-				ps.executeUpdate();
+		return fileID;
+	}
+	
+	private Long findFileID(IFile f) throws SQLException{
+		PreparedStatement ps=getStatement("select fileid from files where project=? and name=?");
+		ps.setString(1, f.getProject().getName());
+		ps.setString(2, f.getProjectRelativePath().toPortableString());
+		try (ResultSet rs=ps.executeQuery()) {
+			if (rs.next()){
+				return rs.getLong(1);
 			}
 		}
+		return null;
 	}
 	
-	public void clearUsageInFile(long fileid) throws SQLException{
+	public synchronized void removeFile(IFile f) throws SQLException{
 		checkConnection();
-		try (PreparedStatement ps=conn.prepareStatement("delete from module_usages where fileid=?")) {
-			ps.setLong(1, fileid);
-			ps.executeUpdate();
-		}
-		try (PreparedStatement ps=conn.prepareStatement("delete from symbol_usages where fileid=?")) {
-			ps.setLong(1, fileid);
+		Long fileID=findFileID(f);
+		if (fileID!=null){
+			PreparedStatement ps=getStatement("delete from files where fileid=?");
+			ps.setLong(1, fileID);
 			ps.executeUpdate();
 		}
-		try (PreparedStatement ps=conn.prepareStatement("delete from symbol_defs where fileid=?")) {
-			ps.setLong(1, fileid);
-			ps.executeUpdate();
+	}
+	
+	/**
+	 * @param f the file
+	 * @return the fingerprint of the usage information last indexed for the file, or null
+	 * @throws SQLException
+	 */
+	public synchronized String getFingerprint(IFile f) throws SQLException{
+		checkConnection();
+		PreparedStatement ps=getStatement("select fingerprint from files where project=? and name=?");
+		ps.setString(1, f.getProject().getName());
+		ps.setString(2, f.getProjectRelativePath().toPortableString());
+		try (ResultSet rs=ps.executeQuery()) {
+			if (rs.next()){
+				return rs.getString(1);
+			}
 		}
+		return null;
 	}
 	
+	/**
+	 * @param fileid the file id
+	 * @param fingerprint the fingerprint of the usage information indexed for the file
+	 * @throws SQLException
+	 */
+	public synchronized void setFingerprint(long fileid,String fingerprint) throws SQLException{
+		checkConnection();
+		PreparedStatement ps=getStatement("update files set fingerprint=? where fileid=?");
+		if (fingerprint!=null){
+			ps.setString(1, fingerprint);
+		} else {
+			ps.setNull(1, Types.VARCHAR);
+		}
+		ps.setLong(2, fileid);
+		ps.executeUpdate();
+	}
 	
+	/**
+	 * record that a file is part of a cabal component
+	 * @param fileid the file id
+	 * @param component the component name
+	 * @throws SQLException
+	 */
+	public synchronized void addFileComponent(long fileid,String component) throws SQLException{
+		checkConnection();
+		PreparedStatement ps=getStatement("insert or ignore into file_components values(?,?)");
+		ps.setLong(1, fileid);
+		ps.setString(2, component);
+		ps.executeUpdate();
+	}
 	
-	public void setModuleUsages(long fileid,Collection<ObjectUsage> usages) throws SQLException{
+	/**
+	 * @param p the project
+	 * @param relPaths project relative paths of files
+	 * @return the names of the components the files are part of, or null if we don't know the components of a file
+	 * @throws SQLException
+	 */
+	public synchronized Set<String> getComponents(IProject p,Collection<String> relPaths) throws SQLException{
 		checkConnection();
-		try (PreparedStatement ps=conn.prepareStatement("insert into module_usages values(?,?,?,?)")) {
-			for (ObjectUsage usg:usages){
-				ps.setLong(1, usg.getObjectID());
-				ps.setLong(2, fileid);
-				ps.setString(3, usg.getSection());
-				ps.setString(4, usg.getLocation());
-				ps.addBatch();
+		Set<String> ret=new HashSet<>();
+		PreparedStatement ps=getStatement("select fc.component from files f,file_components fc where f.project=? and f.name=? and fc.fileid=f.fileid");
+		for (String relPath:relPaths){
+			ps.setString(1, p.getName());
+			ps.setString(2, relPath);
+			boolean found=false;
+			try (ResultSet rs=ps.executeQuery()) {
+				while (rs.next()){
+					ret.add(rs.getString(1));
+					found=true;
+				}
+			}
+			if (!found){
+				return null;
 			}
-			ps.executeBatch();
 		}
+		return ret;
 	}
 	
-	public void setSymbolUsages(long fileid,Collection<ObjectUsage> usages) throws SQLException{
+	/**
+	 * @param fileid the file id
+	 * @return the ids of the symbols defined in the file
+	 * @throws SQLException
+	 */
+	public synchronized Set<Long> getDefinedSymbols(long fileid) throws SQLException{
 		checkConnection();
-		try (PreparedStatement ps=conn.prepareStatement("insert into symbol_usages values(?,?,?,?)")) {
-			for (ObjectUsage usg:usages){
-				ps.setLong(1, usg.getObjectID());
-				ps.setLong(2, fileid);
-				ps.setString(3, usg.getSection());
-				ps.setString(4, usg.getLocation());
-				ps.addBatch();
+		Set<Long> ret=new HashSet<>();
+		PreparedStatement ps=getStatement("select symbolid from symbol_defs where fileid=?");
+		ps.setLong(1, fileid);
+		try (ResultSet rs=ps.executeQuery()) {
+			while (rs.next()){
+				ret.add(rs.getLong(1));
 			}
-			ps.executeBatch();
 		}
+		return ret;
 	}
 	
-	public void setSymbolDefinitions(long fileid,Collection<ObjectUsage> usages) throws SQLException{
+	/**
+	 * @param moduleid the module id
+	 * @param fileid the id of the file defining the module
+	 * @return the other files referencing the module
+	 * @throws SQLException
+	 */
+	public synchronized List<IFile> getDependentFiles(long moduleid,long fileid) throws SQLException{
 		checkConnection();
-		try (PreparedStatement ps=conn.prepareStatement("insert into symbol_defs values(?,?,?,?)")) {
-			for (ObjectUsage usg:usages){
-				ps.setLong(1, usg.getObjectID());
-				ps.setLong(2, fileid);
-				ps.setString(3, usg.getSection());
-				ps.setString(4, usg.getLocation());
-				ps.addBatch();
+		List<IFile> ret=new ArrayList<>();
+		PreparedStatement ps=getStatement("select distinct f.project,f.name from module_usages mu,files f where mu.moduleid=? and f.fileid=mu.fileid and f.fileid<>?");
+		ps.setLong(1, moduleid);
+		ps.setLong(2, fileid);
+		try (ResultSet rs=ps.executeQuery()) {
+			while (rs.next()){
+				IProject p=ResourcesPlugin.getWorkspace().getRoot().getProject(rs.getString(1));
+				ret.add(p.getFile(rs.getString(2)));
 			}
-			ps.executeBatch();
+		}
+		return ret;
+	}
+	
+	/**
+	 * forget the fingerprints of the files referencing a module, so that their usage information is indexed again
+	 * @param moduleid the module id
+	 * @param fileid the id of the file defining the module
+	 * @throws SQLException
+	 */
+	public synchronized void clearDependentFingerprints(long moduleid,long fileid) throws SQLException{
+		checkConnection();
+		PreparedStatement ps=getStatement("update files set fingerprint=null where fileid in (select distinct fileid from module_usages where moduleid=?) and fileid<>?");
+		ps.setLong(1, moduleid);
+		ps.setLong(2, fileid);
+		ps.executeUpdate();
+	}
+	
+	public synchronized void clearUsageInFile(long fileid) throws SQLException{
+		checkConnection();
+		for (String table:new String[]{"module_usages","symbol_usages","symbol_defs","file_packages"}){
+			PreparedStatement ps=getStatement("delete from "+table+" where fileid=?");
+			ps.setLong(1, fileid);
+			ps.executeUpdate();
 		}
 	}
 	
-	public long getModuleID(String pkg,String module,Long fileID,String loc) throws SQLException {
+	
+	
+	/**
+	 * record that a file references modules of a package
+	 * @param fileid the file id
+	 * @param pkg the package name
+	 * @throws SQLException
+	 */
+	public synchronized void addFilePackage(long fileid,String pkg) throws SQLException{
 		checkConnection();
-		Long moduleID=null;
-		try (PreparedStatement ps=conn.prepareStatement("select moduleid from modules where package=? and module=?")) {
+		Long packageID=packageIDs.get(pkg);
+		if (packageID==null){
+			PreparedStatement ps=getStatement("select packageid from packages where name=?");
 			ps.setString(1, pkg);
-			ps.setString(2, module);
 			try (ResultSet rs=ps.executeQuery()) {
 				if (rs.next()){
-					moduleID=rs.getLong(1);
+					packageID=rs.getLong(1);
 				}
 			}
-		}
-		if (moduleID==null){
-			 try (PreparedStatement ps=conn.prepareStatement("insert into modules (package,module,fileid,location) values(?,?,?,?)")) {
+			if (packageID==null){
+				ps=getStatement("insert into packages (name) values(?)");
 				ps.setString(1, pkg);
-				ps.setString(2, module);
-				if (fileID!=null){
-					ps.setLong(3, fileID);
-				} else {
-					ps.setNull(3, Types.NUMERIC);
-				}
-				if (loc!=null){
-					ps.setString(4, loc);
-				} else {
-					ps.setNull(4, Types.VARCHAR);
-				}
 				ps.execute();
 				try (ResultSet rs=ps.getGeneratedKeys()) {
 					rs.next();
-					moduleID=rs.getLong(1);
+					packageID=rs.getLong(1);
 				}
-			 }
-		} else if (fileID!=null){
-			try (PreparedStatement ps=conn.prepareStatement("update modules set fileid=?,location=? where moduleid=?")) {
-				ps.setLong(1, fileID);
-				if (loc!=null){
-					ps.setString(2, loc);
-				} else {
-					ps.setNull(2, Types.VARCHAR);
-				}
-				ps.setLong(3, moduleID);
-				ps.execute();
 			}
+			packageIDs.put(pkg, packageID);
 		}
-		return moduleID;
+		PreparedStatement ps=getStatement("insert or ignore into file_packages values(?,?)");
+		ps.setLong(1, fileid);
+		ps.setLong(2, packageID);
+		ps.executeUpdate();
 	}
 	
-	//,String section,String loc
-	public long getSymbolID(long moduleid,String symbol,int type) throws SQLException {
+	/**
+	 * remove all the files of a project
+	 * @param project the project name
+	 * @throws SQLException
+	 */
+	public synchronized void removeProject(String project) throws SQLException{
 		checkConnection();
-		Long symbolID=null;
-		try (PreparedStatement ps=conn.prepareStatement("select symbolid from symbols where moduleid=? and symbol=? and type=?")) {
-			ps.setLong(1, moduleid);
-			ps.setString(2, symbol);
-			ps.setInt(3, type);
+		PreparedStatement ps=getStatement("delete from files where project=?");
+		ps.setString(1, project);
+		ps.executeUpdate();
+	}
+	
+	/**
+	 * delete the packages no file references anymore, with the modules and symbols they have outside of the workspace
+	 * @return the number of modules deleted
+	 * @throws SQLException
+	 */
+	public synchronized int collectPackages() throws SQLException{
+		checkConnection();
+		flushUsages();
+		String unused="select m.moduleid from modules m where m.fileid is null and not exists (select 1 from packages p,file_packages fp where p.name=m.package and fp.packageid=p.packageid)";
+		int ret;
+		try (Statement s=conn.createStatement()) {
+			s.executeUpdate("delete from symbols where moduleid in ("+unused+")");
+			ret=s.executeUpdate("delete from modules where moduleid in ("+unused+")");
+			s.executeUpdate("delete from packages where not exists (select 1 from file_packages fp where fp.packageid=packages.packageid)");
+		}
+		if (ret>0){
+			// the ids we know may have been deleted
+			clearCaches();
+			index=null;
+		} else {
+			packageIDs.clear();
+		}
+		return ret;
+	}
+	
+	/**
+	 * add a module usage. Usages are inserted in batches, call flushUsages when the file is done
+	 * @param fileid the file id
+	 * @param moduleid the module id
+	 * @param section the section
+	 * @param loc the location: start line, start column, end line, end column
+	 * @throws SQLException
+	 */
+	public synchronized void addModuleUsage(long fileid,long moduleid,String section,int[] loc) throws SQLException{
+		addUsage(INSERT_MODULE_USAGE, fileid, moduleid, section, loc);
+	}
+	
+	/**
+	 * add a symbol usage. Usages are inserted in batches, call flushUsages when the file is done
+	 * @param fileid the file id
+	 * @param symbolid the symbol id
+	 * @param section the section
+	 * @param loc the location: start line, start column, end line, end column
+	 * @throws SQLException
+	 */
+	public synchronized void addSymbolUsage(long fileid,long symbolid,String section,int[] loc) throws SQLException{
+		addUsage(INSERT_SYMBOL_USAGE, fileid, symbolid, section, loc);
+	}
+	
+	/**
+	 * add a symbol definition. Definitions are inserted in batches, call flushUsages when the file is done
+	 * @param fileid the file id
+	 * @param symbolid the symbol id
+	 * @param section the section
+	 * @param loc the location: start line, start column, end line, end column
+	 * @throws SQLException
+	 */
+	public synchronized void addSymbolDefinition(long fileid,long symbolid,String section,int[] loc) throws SQLException{
+		addUsage(INSERT_SYMBOL_DEF, fileid, symbolid, section, loc);
+	}
+	
+	private void addUsage(String sql,long fileid,long objectid,String section,int[] loc) throws SQLException{
+		checkConnection();
+		PreparedStatement ps=getStatement(sql);
+		ps.setLong(1, objectid);
+		ps.setLong(2, fileid);
+		ps.setString(3, section);
+		setLocation(ps, 4, loc);
+		ps.addBatch();
+		pendingUsages++;
+		if (pendingUsages>=BATCH_USAGES){
+			flushUsages();
+		}
+	}
+	
+	/**
+	 * insert the pending usages
+	 * @throws SQLException
+	 */
+	public synchronized void flushUsages() throws SQLException{
+		if (pendingUsages>0){
+			pendingUsages=0;
+			for (String sql:INSERT_USAGES){
+				getStatement(sql).executeBatch();
+			}
+		}
+	}
+	
+	/**
+	 * forget the pending usages, for example when the usage file could not be read completely
+	 * @throws SQLException
+	 */
+	public synchronized void discardUsages() throws SQLException{
+		if (pendingUsages>0){
+			pendingUsages=0;
+			for (String sql:INSERT_USAGES){
+				getStatement(sql).clearBatch();
+			}
+		}
+	}
+	
+	/**
+	 * set the four location parameters of a statement
+	 * @param ps the statement
+	 * @param ix the index of the start line parameter
+	 * @param loc the location: start line, start column, end line, end column, or null
+	 * @throws SQLException
+	 */
+	private static void setLocation(PreparedStatement ps,int ix,int[] loc) throws SQLException{
+		for (int a=0;a<4;a++){
+			if (loc!=null){
+				ps.setInt(ix+a, loc[a]);
+			} else {
+				ps.setNull(ix+a, Types.INTEGER);
+			}
+		}
+	}
+	
+	/**
+	 * @param rs the result set
+	 * @param ix the index of the start line column
+	 * @return the location: start line, start column, end line, end column
+	 * @throws SQLException
+	 */
+	private static int[] getLocation(ResultSet rs,int ix) throws SQLException{
+		return new int[]{rs.getInt(ix),rs.getInt(ix+1),rs.getInt(ix+2),rs.getInt(ix+3)};
+	}
+	
+	/**
+	 * expand the short forms of the buildwrapper locations, so that we always have start line, start column, end line and end column
+	 * @param loc the location, with room for the four positions
+	 * @param len the number of positions read
+	 * @return true if the location is valid
+	 */
+	static boolean expandLocation(int[] loc,int len){
+		if (len==2){
+			loc[2]=loc[0];
+			loc[3]=loc[1]+1;
+		} else if (len==3){
+			loc[3]=loc[2];
+			loc[2]=loc[0];
+		}
+		return len>=2;
+	}
+	
+	/**
+	 * @param json a location stored as a JSON array, as before version 2
+	 * @param loc the location to fill
+	 * @return true if the location is valid
+	 */
+	private static boolean parseLocation(String json,int[] loc){
+		try {
+			JSONArray arr=new JSONArray(json);
+			int len=Math.min(arr.length(), loc.length);
+			for (int a=0;a<len;a++){
+				loc[a]=arr.getInt(a);
+			}
+			return expandLocation(loc, len);
+		} catch (JSONException je){
+			return false;
+		}
+	}
+	
+	public synchronized long getModuleID(String pkg,String module,Long fileID,int[] loc) throws SQLException {
+		checkConnection();
+		String key=pkg+"\0"+module;
+		Long moduleID=moduleIDs.get(key);
+		if (moduleID!=null && fileID==null){
+			return moduleID;
+		}
+		if (moduleID==null){
+			PreparedStatement ps=getStatement("select moduleid from modules where package=? and module=?");
+			ps.setString(1, pkg);
+			ps.setString(2, module);
 			try (ResultSet rs=ps.executeQuery()) {
 				if (rs.next()){
-					symbolID=rs.getLong(1);
+					moduleID=rs.getLong(1);
 				}
 			}
 		}
+		if (moduleID==null){
+			PreparedStatement ps=getStatement("insert into modules (package,module,fileid,startline,startcolumn,endline,endcolumn) values(?,?,?,?,?,?,?)");
+			ps.setString(1, pkg);
+			ps.setString(2, module);
+			if (fileID!=null){
+				ps.setLong(3, fileID);
+			} else {
+				ps.setNull(3, Types.NUMERIC);
+			}
+			setLocation(ps, 4, loc);
+			ps.execute();
+			try (ResultSet rs=ps.getGeneratedKeys()) {
+				rs.next();
+				moduleID=rs.getLong(1);
+			}
+			if (index!=null){
+				index.addModule(moduleID, pkg, module);
+			}
+		} else if (fileID!=null){
+			PreparedStatement ps=getStatement("update modules set fileid=?,startline=?,startcolumn=?,endline=?,endcolumn=? where moduleid=?");
+			ps.setLong(1, fileID);
+			setLocation(ps, 2, loc);
+			ps.setLong(6, moduleID);
+			ps.execute();
+		}
+		moduleIDs.put(key, moduleID);
+		return moduleID;
+	}
+	
+	//,String section,String loc
+	public synchronized long getSymbolID(long moduleid,String symbol,int type) throws SQLException {
+		checkConnection();
+		String key=moduleid+"\0"+type+"\0"+symbol;
+		Long symbolID=symbolIDs.get(key);
+		if (symbolID!=null){
+			return symbolID;
+		}
+		PreparedStatement ps=getStatement("select symbolid from symbols where moduleid=? and symbol=? and type=?");
+		ps.setLong(1, moduleid);
+		ps.setString(2, symbol);
+		ps.setInt(3, type);
+		try (ResultSet rs=ps.executeQuery()) {
+			if (rs.next()){
+				symbolID=rs.getLong(1);
+			}
+		}
 		if (symbolID==null){
-			try (PreparedStatement ps=conn.prepareStatement("insert into symbols (symbol,type,moduleid) values(?,?,?)")) {
-				ps.setString(1, symbol);
-				ps.setInt(2, type);
-				ps.setLong(3, moduleid);
-				ps.execute();
-				try (ResultSet rs=ps.getGeneratedKeys()) {
-					rs.next();
-					symbolID=rs.getLong(1);
-				}
-			 }
-		} 
+			ps=getStatement("insert into symbols (symbol,type,moduleid) values(?,?,?)");
+			ps.setString(1, symbol);
+			ps.setInt(2, type);
+			ps.setLong(3, moduleid);
+			ps.execute();
+			try (ResultSet rs=ps.getGeneratedKeys()) {
+				rs.next();
+				symbolID=rs.getLong(1);
+			}
+			if (index!=null){
+				index.addSymbol(symbolID, symbol, type, moduleid);
+			}
+		}
+		symbolIDs.put(key, symbolID);
 		/*if (loc!=null){
 			 ps=conn.prepareStatement("insert into symbol_defs values(section=?,location=? where symbolid=?");
 			 try {
@@ -325,9 +1117,9 @@ public class UsageDB {
 	}
 	
 	public List<Module> listLocalModules() throws SQLException {
-		checkConnection();
 		List<Module> ret=new ArrayList<>();
-		try (PreparedStatement ps=conn.prepareStatement("select moduleid,package,module,fileid from modules where fileid is not null")) {
+		Connection c=getReader();
+		try (PreparedStatement ps=prepareRead(c,"select moduleid,package,module,fileid from modules where fileid is not null")) {
 			try (ResultSet rs=ps.executeQuery()) {
 				while (rs.next()){
 					long moduleID=rs.getLong(1);
@@ -338,6 +1130,8 @@ public class UsageDB {
 					ret.add(mod);
 				}
 			}
+		} finally {
+			releaseReader(c);
 		}
 		return ret;
 	}
@@ -346,8 +1140,19 @@ public class UsageDB {
 		if (fileid==null){
 			return null;
 		}
-		checkConnection();
-		try (PreparedStatement ps=conn.prepareStatement("select project,name from files where fileid =?")) {
+		Connection c=getReader();
+		try {
+			return getFile(c, fileid);
+		} finally {
+			releaseReader(c);
+		}
+	}
+	
+	private IFile getFile(Connection c,Long fileid) throws SQLException {
+		if (fileid==null){
+			return null;
+		}
+		try (PreparedStatement ps=prepareRead(c,"select project,name from files where fileid =?")) {
 			ps.setLong(1, fileid);
 			try (ResultSet rs=ps.executeQuery()) {
 				if (rs.next()){
@@ -364,7 +1169,7 @@ public class UsageDB {
 		return null;
 	}
 	
-	public boolean knowsProject(String project) throws SQLException{
+	public synchronized boolean knowsProject(String project) throws SQLException{
 		checkConnection();
 		try (PreparedStatement ps=conn.prepareStatement("select project from files where project=?")) {
 			ps.setString(1, project);
@@ -376,7 +1181,7 @@ public class UsageDB {
 
 	public UsageResults getModuleDefinitions(String pkg,String module,IProject p,boolean exact) throws SQLException {
 		checkConnection();
-		StringBuilder sb=new StringBuilder("select m.fileid,'module ' || module,m.location,1 from modules m");
+		StringBuilder sb=new StringBuilder("select m.fileid,'module ' || module,m.startline,m.startcolumn,m.endline,m.endcolumn,1 from modules m");
 		if (p!=null){
 			sb.append(",files f");
 		}
@@ -391,7 +1196,7 @@ public class UsageDB {
 		if (p!=null){
 			sb.append(" and f.fileid=m.fileid and f.project=?");
 		}
-		sb.append(" and m.location is not null");
+		sb.append(" and m.startline is not null");
 		return getUsageResults(pkg, module, p, sb.toString());
 	}
 	
@@ -409,7 +1214,8 @@ public class UsageDB {
 			sb.append(" and f.fileid=m.fileid and f.project=?");
 		}
 		List<String> ret=new ArrayList<>();
-		try (PreparedStatement ps=conn.prepareStatement(sb.toString())) {
+		Connection c=getReader();
+		try (PreparedStatement ps=prepareRead(c,sb.toString())) {
 			int ix=1;
 			if (module!=null){
 				ps.setString(ix++, module);
@@ -426,6 +1232,8 @@ public class UsageDB {
 					ret.add(rs.getString(1));
 				}
 			}
+		} finally {
+			releaseReader(c);
 		}
 		return ret;
 	}
@@ -436,7 +1244,7 @@ public class UsageDB {
 			
 	public UsageResults getModuleReferences(String pkg,String module,IProject p,boolean exact) throws SQLException {
 		checkConnection();
-		StringBuilder sb=new StringBuilder("select mu.fileid,mu.section,mu.location,0 from module_usages mu, modules m");
+		StringBuilder sb=new StringBuilder("select mu.fileid,mu.section,mu.startline,mu.startcolumn,mu.endline,mu.endcolumn,0 from module_usages mu, modules m");
 		if (p!=null){
 			sb.append(",files f");
 		}
@@ -461,7 +1269,7 @@ public class UsageDB {
 	
 	private UsageResults getSymbols(String pkg,String module,String symbol,int type,IProject p,boolean exact,String table) throws SQLException {
 		checkConnection();
-		StringBuilder sb=new StringBuilder("select su.fileid,su.section,su.location,0 from "+table+" su,symbols s, modules m");
+		StringBuilder sb=new StringBuilder("select su.fileid,su.section,su.startline,su.startcolumn,su.endline,su.endcolumn,0 from "+table+" su,symbols s, modules m");
 		if (p!=null){
 			sb.append(",files f");
 		}
@@ -486,8 +1294,106 @@ public class UsageDB {
 		return getUsageResults(pkg, module, p,symbol,type, sb.toString());	
 	}
 	
+	/**
+	 * @param moduleIDs the ids of the modules
+	 * @param projects project restriction (null for everything)
+	 * @return the definitions of the modules
+	 * @throws SQLException
+	 */
+	public UsageResults getModuleDefinitions(Collection<Long> moduleIDs,Collection<IProject> projects) throws SQLException {
+		return getUsageResults(moduleIDs, projects, "select m.fileid,'module ' || module,m.startline,m.startcolumn,m.endline,m.endcolumn,1 from modules m", "m.moduleid", "m.fileid", " and m.startline is not null");
+	}
+	
+	/**
+	 * @param moduleIDs the ids of the modules
+	 * @param projects project restriction (null for everything)
+	 * @return the references to the modules
+	 * @throws SQLException
+	 */
+	public UsageResults getModuleReferences(Collection<Long> moduleIDs,Collection<IProject> projects) throws SQLException {
+		return getUsageResults(moduleIDs, projects, "select mu.fileid,mu.section,mu.startline,mu.startcolumn,mu.endline,mu.endcolumn,0 from module_usages mu", "mu.moduleid", "mu.fileid", "");
+	}
+	
+	/**
+	 * @param symbolIDs the ids of the symbols
+	 * @param projects project restriction (null for everything)
+	 * @return the definitions of the symbols
+	 * @throws SQLException
+	 */
+	public UsageResults getSymbolDefinitions(Collection<Long> symbolIDs,Collection<IProject> projects) throws SQLException {
+		return getUsageResults(symbolIDs, projects, "select su.fileid,su.section,su.startline,su.startcolumn,su.endline,su.endcolumn,0 from symbol_defs su", "su.symbolid", "su.fileid", "");
+	}
+	
+	/**
+	 * @param symbolIDs the ids of the symbols
+	 * @param projects project restriction (null for everything)
+	 * @return the references to the symbols
+	 * @throws SQLException
+	 */
+	public UsageResults getSymbolReferences(Collection<Long> symbolIDs,Collection<IProject> projects) throws SQLException {
+		return getUsageResults(symbolIDs, projects, "select su.fileid,su.section,su.startline,su.startcolumn,su.endline,su.endcolumn,0 from symbol_usages su", "su.symbolid", "su.fileid", "");
+	}
+	
+	/**
+	 * get the results for a list of ids, querying a few hundred ids at a time
+	 * @param ids the ids
+	 * @param projects project restriction (null for everything)
+	 * @param select the select and from clauses
+	 * @param idColumn the id column to restrict
+	 * @param fileColumn the file id column, to restrict to a project
+	 * @param condition any additional condition
+	 * @return the results
+	 * @throws SQLException
+	 */
+	private UsageResults getUsageResults(Collection<Long> ids,Collection<IProject> projects,String select,String idColumn,String fileColumn,String condition) throws SQLException{
+		UsageResults ret=new UsageResults();
+		Iterator<Long> it=ids.iterator();
+		if (!it.hasNext() || (projects!=null && projects.isEmpty())){
+			return ret;
+		}
+		Connection c=getReader();
+		try {
+			while (it.hasNext()){
+				StringBuilder sb=new StringBuilder(select);
+				if (projects!=null){
+					sb.append(",files f");
+				}
+				sb.append(" where ").append(idColumn).append(" in (");
+				for (int a=0;a<MAX_IDS && it.hasNext();a++){
+					if (a>0){
+						sb.append(",");
+					}
+					sb.append(it.next().longValue());
+				}
+				sb.append(")");
+				sb.append(condition);
+				if (projects!=null){
+					sb.append(" and f.fileid=").append(fileColumn).append(" and f.project in (");
+					for (int a=0;a<projects.size();a++){
+						sb.append(a>0?",?":"?");
+					}
+					sb.append(")");
+				}
+				String query=sb.toString();
+				try (PreparedStatement ps=prepareRead(c,query)) {
+					if (projects!=null){
+						int ix=1;
+						for (IProject p:projects){
+							ps.setString(ix++, p.getName());
+						}
+					}
+					ret.add(getUsageResults(c, ps));
+				}
+			}
+		} finally {
+			releaseReader(c);
+		}
+		return ret;
+	}
+	
 	private UsageResults getUsageResults(String pkg,String module,IProject p,String query) throws SQLException{
-		try (PreparedStatement ps=conn.prepareStatement(query)) {
+		Connection c=getReader();
+		try (PreparedStatement ps=prepareRead(c,query)) {
 			int ix=1;
 			if (module!=null){
 				ps.setString(ix++, module);
@@ -498,12 +1404,15 @@ public class UsageDB {
 			if (p!=null){
 				ps.setString(ix++, p.getName());
 			}
-			return getUsageResults(ps,query);
+			return getUsageResults(c,ps);
+		} finally {
+			releaseReader(c);
 		}
 	}
 	
 	private UsageResults getUsageResults(String pkg,String module,IProject p,String symbol,int type,String query) throws SQLException{
-		try (PreparedStatement ps=conn.prepareStatement(query)) {
+		Connection c=getReader();
+		try (PreparedStatement ps=prepareRead(c,query)) {
 			int ix=1;
 			if (module!=null){
 				ps.setString(ix++, module);
@@ -518,11 +1427,13 @@ public class UsageDB {
 			if (type>0){
 				ps.setInt(ix++, type);
 			}
-			return getUsageResults(ps,query);
+			return getUsageResults(c,ps);
+		} finally {
+			releaseReader(c);
 		}
 	}
 		
-	private UsageResults getUsageResults(PreparedStatement ps,String query) throws SQLException{
+	private UsageResults getUsageResults(Connection c,PreparedStatement ps) throws SQLException{
 		Map<Long,Map<String,Collection<SearchResultLocation>>> m=new HashMap<>();
 	
 		try (ResultSet rs=ps.executeQuery()) {
@@ -542,23 +1453,16 @@ public class UsageDB {
 				//IProject p=ResourcesPlugin.getWorkspace().getRoot().getProject(project);
 				//if (p!=null){
 					//IFile f=p.getFile(name);
-					String loc=rs.getString(3);
-					boolean def=rs.getBoolean(4);
-					try {
-						SearchResultLocation l=new SearchResultLocation(null, new JSONArray(loc));
-						l.setDefinition(def);
-						locs.add(l);
-						
-					} catch (JSONException je){
-						BuildWrapperPlugin.logError(je.getLocalizedMessage(), je);
-					}
+					SearchResultLocation l=new SearchResultLocation(null, getLocation(rs, 3));
+					l.setDefinition(rs.getBoolean(7));
+					locs.add(l);
 				//}
 			}
 		}
 
 		UsageResults ret=new UsageResults();
 		for (Long fileid:m.keySet()){
-			IFile f=getFile(fileid);
+			IFile f=getFile(c,fileid);
 			ret.put(f, m.get(fileid));
 		}
 		return ret;
@@ -579,9 +1483,10 @@ public class UsageDB {
 		sb.append("and f.fileid is not null ");
 		sb.append("and f.fileid=m.fileid ");
 		sb.append("and s.symbolid=sd.symbolid ");
-		sb.append("and sd.location is not null");
+		sb.append("and sd.startline is not null");
 		List<SymbolDef> ret=new ArrayList<>();
-		try (PreparedStatement ps=conn.prepareStatement(sb.toString())) {
+		Connection c=getReader();
+		try (PreparedStatement ps=prepareRead(c,sb.toString())) {
 			ps.setString(1, p.getName());
 			try (ResultSet rs=ps.executeQuery()) {
 				while (rs.next()){
@@ -592,40 +1497,56 @@ public class UsageDB {
 					ret.add(sd);
 				}
 			}
+		} finally {
+			releaseReader(c);
 		}
 		return ret;
 	}
 	
-	public Map<String,List<ReferenceLocation>> listReferencesInFile(IFile f)throws SQLException,JSONException{
-		checkConnection();
-		long fileid=getFileID(f);
+	public Map<String,List<ReferenceLocation>> listReferencesInFile(IFile f)throws SQLException{
 		Map<String,List<ReferenceLocation>> ret=new HashMap<>();
-		try (PreparedStatement ps=conn.prepareStatement("select mu.section,m.module,mu.location from module_usages mu,modules m where mu.fileid=? and mu.moduleid=m.moduleid")) {
-			ps.setLong(1, fileid);
-			try (ResultSet rs=ps.executeQuery()) {
-				while(rs.next()){
-					addReference(f,ret, rs.getString(1), rs.getString(2), rs.getString(3),true);
+		Connection c=getReader();
+		try {
+			long fileid;
+			try (PreparedStatement ps=prepareRead(c,"select fileid from files where project=? and name=?")) {
+				ps.setString(1, f.getProject().getName());
+				ps.setString(2, f.getProjectRelativePath().toPortableString());
+				try (ResultSet rs=ps.executeQuery()) {
+					if (!rs.next()){
+						return ret;
+					}
+					fileid=rs.getLong(1);
 				}
 			}
-		}
-		try (PreparedStatement ps=conn.prepareStatement("select su.section,m.module,s.symbol,su.location from symbol_usages su,modules m,symbols s where su.fileid=? and s.symbolid=su.symbolid and s.moduleid=m.moduleid")) {
-			ps.setLong(1, fileid);
-			try (ResultSet rs=ps.executeQuery()) {
-				while(rs.next()){
-					addReference(f,ret, rs.getString(1), rs.getString(2)+"."+rs.getString(3), rs.getString(4),false);
+			try (PreparedStatement ps=prepareRead(c,"select mu.section,m.module,mu.startline,mu.startcolumn,mu.endline,mu.endcolumn from module_usages mu,modules m where mu.fileid=? and mu.moduleid=m.moduleid")) {
+				ps.setLong(1, fileid);
+				try (ResultSet rs=ps.executeQuery()) {
+					while(rs.next()){
+						addReference(f,ret, rs.getString(1), rs.getString(2), getLocation(rs, 3),true);
+					}
+				}
+			}
+			try (PreparedStatement ps=prepareRead(c,"select su.section,m.module,s.symbol,su.startline,su.startcolumn,su.endline,su.endcolumn from symbol_usages su,modules m,symbols s where su.fileid=? and s.symbolid=su.symbolid and s.moduleid=m.moduleid")) {
+				ps.setLong(1, fileid);
+				try (ResultSet rs=ps.executeQuery()) {
+					while(rs.next()){
+						addReference(f,ret, rs.getString(1), rs.getString(2)+"."+rs.getString(3), getLocation(rs, 4),false);
+					}
 				}
 			}
+		} finally {
+			releaseReader(c);
 		}
 		return ret;
 	}
 	
-	private void addReference(IFile f,Map<String,List<ReferenceLocation>> m,String section,String name,String loc,boolean mod) throws JSONException{
+	private void addReference(IFile f,Map<String,List<ReferenceLocation>> m,String section,String name,int[] loc,boolean mod){
 		List<ReferenceLocation> s=m.get(section);
 		if (s==null){
 			s=new ArrayList<>();
 			m.put(section, s);
 		}
-		ReferenceLocation rl=new ReferenceLocation(name, f, new JSONArray(loc));
+		ReferenceLocation rl=new ReferenceLocation(name, f, loc);
 		s.add(rl);
 		rl.setModule(mod);
 		
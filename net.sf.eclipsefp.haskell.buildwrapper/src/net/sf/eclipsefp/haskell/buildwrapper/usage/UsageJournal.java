@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.buildwrapper.usage;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.eclipsefp.haskell.buildwrapper.BWFacade;
+import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
+import net.sf.eclipsefp.haskell.buildwrapper.util.BWText;
+import net.sf.eclipsefp.haskell.util.FileUtil;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Records which Haskell source files changed since the last usage pass on their project,
+ * so that the next pass only generates usage for the components containing them.
+ * A project is fully processed the first time we see it in a session, or when its cabal file changes
+ * @author JP Moresmau
+ *
+ */
+public class UsageJournal implements IResourceChangeListener {
+	/**
+	 * the project relative paths of the changed files, by project
+	 */
+	private final Map<IProject,Set<String>> changes=new HashMap<>();
+	/**
+	 * the projects fully processed in this session, since their last cabal file change
+	 */
+	private final Set<IProject> complete=new HashSet<>();
+	/**
+	 * the thread to tell about deleted projects
+	 */
+	private final UsageThread thread;
+	
+	/**
+	 * @param thread the thread to tell about deleted projects
+	 */
+	public UsageJournal(UsageThread thread) {
+		this.thread = thread;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.IResourceChangeListener#resourceChanged(org.eclipse.core.resources.IResourceChangeEvent)
+	 */
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		if (event.getDelta()==null){
+			return;
+		}
+		try {
+			event.getDelta().accept(new IResourceDeltaVisitor() {
+				@Override
+				public boolean visit(IResourceDelta delta) {
+					IResource r=delta.getResource();
+					if (r instanceof IProject){
+						if (delta.getKind()==IResourceDelta.REMOVED){
+							projectChanged((IProject)r);
+							thread.removeProject((IProject)r);
+							return false;
+						}
+						if ((delta.getFlags() & IResourceDelta.OPEN)>0){
+							projectChanged((IProject)r);
+						}
+						return true;
+					}
+					if (r.getName().equals(BWFacade.DIST_FOLDER)){
+						return false;
+					}
+					if (r instanceof IFile){
+						boolean changed=delta.getKind()!=IResourceDelta.CHANGED
+								|| (delta.getFlags() & IResourceDelta.CONTENT)>0;
+						if (changed){
+							if (FileUtil.hasHaskellExtension(r)){
+								fileChanged((IFile)r);
+							} else if (FileUtil.hasCabalExtension(r)){
+								projectChanged(r.getProject());
+							}
+						}
+						return false;
+					}
+					return true;
+				}
+			});
+		} catch (CoreException ce){
+			BuildWrapperPlugin.logError(BWText.error_listener_usage, ce);
+		}
+	}
+
+	/**
+	 * @param f a file whose usage information may have changed
+	 */
+	public synchronized void fileChanged(IFile f){
+		Set<String> s=changes.get(f.getProject());
+		if (s==null){
+			s=new HashSet<>();
+			changes.put(f.getProject(), s);
+		}
+		s.add(f.getProjectRelativePath().toPortableString());
+	}
+
+	/**
+	 * @param p a project whose components all need to be processed
+	 */
+	public synchronized void projectChanged(IProject p){
+		complete.remove(p);
+		changes.remove(p);
+	}
+
+	/**
+	 * get the changes for a usage pass on a project, and forget them
+	 * @param p the project
+	 * @return the project relative paths of the changed files, or null if all the components need to be processed
+	 */
+	public synchronized Set<String> take(IProject p){
+		Set<String> s=changes.remove(p);
+		if (!complete.add(p)){
+			return s!=null?s:new HashSet<String>();
+		}
+		return null;
+	}
+
+	/**
+	 * restore changes taken for a pass that did not complete
+	 * @param p the project
+	 * @param paths the paths returned by take
+	 */
+	public synchronized void restore(IProject p,Set<String> paths){
+		if (paths==null){
+			projectChanged(p);
+		} else if (!paths.isEmpty()){
+			Set<String> s=changes.get(p);
+			if (s==null){
+				changes.put(p, new HashSet<>(paths));
+			} else {
+				s.addAll(paths);
+			}
+		}
+	}
+}
@@ -5,31 +5,67 @@
  */
 package net.sf.eclipsefp.haskell.buildwrapper.usage;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.sf.eclipsefp.haskell.buildwrapper.BWFacade;
 import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
 import net.sf.eclipsefp.haskell.buildwrapper.types.Component;
+import net.sf.eclipsefp.haskell.buildwrapper.util.BWText;
 
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
 
 /**
  * This thread calls the BuildWrapper executable and populates the database when needed
- * All requests to update a project are queued here
+ * All requests to update a project are queued here.
+ * The BuildWrapper executable is run for several projects at the same time, in jobs that report progress and can be canceled,
+ * but only this thread writes to the database: the jobs queue the generated usage files and this thread adds them.
+ * Only the components containing files recorded as changed by the journal are processed
  * @author JP Moresmau
  *
  */
 public class UsageThread extends Thread {
+	/**
+	 * the maximum number of projects we generate usage for at the same time
+	 */
+	private static final int MAX_WORKERS=Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()/2));
+
 	private boolean shouldStop=false;
 	
+	/**
+	 * the projects waiting to be processed. All the fields below are protected by synchronizing on this
+	 */
 	private LinkedHashSet<IProject> ps=new LinkedHashSet<>();
+	/**
+	 * the projects we're generating usage for
+	 */
+	private Set<IProject> running=new HashSet<>();
+	/**
+	 * the generated usage files waiting to be added to the database
+	 */
+	private LinkedList<UsageBatch> batches=new LinkedList<>();
 	/**
 	 * are we currently working?
 	 */
 	private AtomicBoolean working=new AtomicBoolean(false);
+	/**
+	 * the changes since the last pass on each project
+	 */
+	private final UsageJournal journal=new UsageJournal(this);
 	
 	public UsageThread() {
 		super("UsageThread");
@@ -46,64 +82,249 @@ public class UsageThread extends Thread {
 
 		BuildWrapperPlugin.getDefault().setUsageAPI(api);
 		while (!shouldStop){
+			IProject p;
+			UsageBatch b=null;
 			synchronized (ps) {
-				try{ 
-					ps.wait();
-				} catch (InterruptedException ie){
-					// noop
-				}
-			}
-			if (!shouldStop){
-				working.set(true);
-				IProject p=getNext();
-					
-				while (p!=null && !shouldStop){
-					boolean retAll=!api.knowsProject(p);
-					BWFacade f=BuildWrapperPlugin.getFacade(p);
-					if (f!=null){
-						List<Component> cs=f.getComponents();
-						for (Component c:cs){
-							if (c.isBuildable()){
-								f.generateUsage(c,retAll);
-							}
+				p=getNext();
+				if (p==null){
+					b=batches.poll();
+					if (b==null){
+						if (running.isEmpty()){
+							working.set(false);
+						}
+						try{
+							ps.wait();
+						} catch (InterruptedException ie){
+							// noop
 						}
+						continue;
 					}
-					p=getNext();
 				}
+				working.set(true);
+			}
+			if (p!=null){
+				startProject(api, p);
+			} else {
+				addBatch(api, b);
 			}
-			working.set(false);
 		}
-		
+		working.set(false);
 	}
 	
 	public boolean isWorking(){
 		return working.get();
 	}
 	
+	/**
+	 * @return the journal of changes
+	 */
+	public UsageJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * get the next project to process, if we have room for it. Must be called while synchronized on ps
+	 * @return the project, or null
+	 */
 	private IProject getNext(){
-		synchronized (ps) {
-			if (!ps.isEmpty()){
-				Iterator<IProject> it=ps.iterator();
+		if (running.size()<MAX_WORKERS){
+			for (Iterator<IProject> it=ps.iterator();it.hasNext();){
 				IProject p=it.next();
-				it.remove();
-				return p;
+				// a project modified while we're processing it will be processed again afterwards
+				if (!running.contains(p)){
+					it.remove();
+					running.add(p);
+					return p;
+				}
 			}
 		}
 		return null;
 	}
-	
+
+	/**
+	 * start generating the usage of the given project in a job
+	 * @param api the usage API
+	 * @param p the project
+	 */
+	private void startProject(UsageAPI api,IProject p){
+		BWFacade f=BuildWrapperPlugin.getFacade(p);
+		if (f==null){
+			synchronized (ps) {
+				running.remove(p);
+			}
+			return;
+		}
+		boolean retAll=!api.knowsProject(p);
+		Set<String> changed=journal.take(p);
+		// the components to process, null for all
+		Set<String> components=null;
+		// the changed files by component: buildwrapper does not return the files whose source did not change,
+		// like the files depending on a module whose definitions changed
+		Map<String,Set<String>> reindex=new HashMap<>();
+		if (!retAll && changed!=null){
+			components=api.getComponents(p, changed);
+			if (components!=null){
+				for (String path:changed){
+					Set<String> cs=api.getComponents(p, Collections.singleton(path));
+					if (cs!=null){
+						for (String c:cs){
+							Set<String> paths=reindex.get(c);
+							if (paths==null){
+								paths=new HashSet<>();
+								reindex.put(c, paths);
+							}
+							paths.add(path);
+						}
+					}
+				}
+			}
+		}
+		api.startIndexing(p);
+		new UsageJob(f, retAll, changed, components, reindex).schedule();
+	}
+
+	/**
+	 * add generated usage files to the database
+	 * @param api the usage API
+	 * @param b the batch of files
+	 */
+	private void addBatch(UsageAPI api,UsageBatch b){
+		if (b.removed){
+			api.removeProject(b.project);
+		} else if (b.component==null){
+			api.endIndexing(b.project);
+			synchronized (ps) {
+				running.remove(b.project);
+			}
+		} else {
+			for (String path:b.paths){
+				if (shouldStop){
+					break;
+				}
+				api.addFile(b.project, b.component, path);
+			}
+		}
+	}
+
+	private void post(UsageBatch b){
+		synchronized (ps) {
+			batches.add(b);
+			ps.notifyAll();
+		}
+	}
+
 	public void addProject(IProject p){
 		synchronized (ps) {
 			ps.add(p);
 			ps.notifyAll();
 		}
 	}
+	
+	/**
+	 * remove the usage of a deleted project from the database
+	 * @param p the project
+	 */
+	public void removeProject(IProject p){
+		synchronized (ps) {
+			ps.remove(p);
+		}
+		post(new UsageBatch(p, null, null, true));
+	}
 
 	public void setShouldStop() {
 		synchronized (ps) {
 			this.shouldStop = true;
 			ps.notifyAll();
 		}
-		
+		Job.getJobManager().cancel(this);
+	}
+
+	/**
+	 * the usage files generated for a component, or the end of the processing of a project if the component is null,
+	 * or the removal of a deleted project
+	 */
+	private static class UsageBatch {
+		private final IProject project;
+		private final Component component;
+		private final List<String> paths;
+		private final boolean removed;
+
+		public UsageBatch(IProject project, Component component,
+				List<String> paths) {
+			this(project, component, paths, false);
+		}
+
+		public UsageBatch(IProject project, Component component,
+				List<String> paths, boolean removed) {
+			super();
+			this.project = project;
+			this.component = component;
+			this.paths = paths;
+			this.removed = removed;
+		}
+	}
+
+	/**
+	 * the job running the BuildWrapper executable on each buildable component of a project
+	 */
+	private class UsageJob extends Job {
+		private final BWFacade f;
+		private final boolean retAll;
+		private final Set<String> changed;
+		private final Set<String> components;
+		private final Map<String,Set<String>> reindex;
+
+		public UsageJob(BWFacade f, boolean retAll, Set<String> changed, Set<String> components, Map<String,Set<String>> reindex) {
+			super(NLS.bind(BWText.job_usage, f.getProject().getName()));
+			this.f = f;
+			this.retAll = retAll;
+			this.changed = changed;
+			this.components = components;
+			this.reindex = reindex;
+			setPriority(Job.LONG);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			IProject p=f.getProject();
+			try {
+				List<Component> cs=f.getComponents();
+				monitor.beginTask(getName(), cs.size());
+				for (Component c:cs){
+					if (monitor.isCanceled() || shouldStop){
+						journal.restore(p, changed);
+						return Status.CANCEL_STATUS;
+					}
+					if (c.isBuildable() && (components==null || components.contains(c.toString()))){
+						monitor.subTask(c.toString());
+						List<String> paths=f.generateUsage(c,retAll);
+						Set<String> rs=reindex.get(c.toString());
+						if (rs!=null){
+							// add the changed files buildwrapper did not regenerate, their fingerprint tells if they need indexing
+							Set<String> known=new HashSet<>();
+							for (String path:paths){
+								known.add(new Path(path).toPortableString());
+							}
+							for (String path:rs){
+								if (known.add(path)){
+									paths.add(path);
+								}
+							}
+						}
+						post(new UsageBatch(p, c, paths));
+					}
+					monitor.worked(1);
+				}
+			} finally {
+				post(new UsageBatch(p, null, null));
+				monitor.done();
+			}
+			return Status.OK_STATUS;
+		}
+
+		@Override
+		public boolean belongsTo(Object family) {
+			return family==UsageThread.this;
+		}
 	}
 }
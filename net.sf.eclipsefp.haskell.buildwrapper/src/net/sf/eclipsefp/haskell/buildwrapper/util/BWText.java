@@ -37,6 +37,7 @@ public class BWText extends NLS {
   
   public static String        job_eval;
   public static String        job_deps;
+  public static String        job_usage;
   
   public static String        error_deleteMarkers;
   public static String        error_gettingFlags;
@@ -49,15 +50,20 @@ public class BWText extends NLS {
   public static String 		  error_parsing_usage_file;
   public static String 		  error_sandbox;
   public static String 		  error_listener_nonhaskell;
+  public static String 		  error_listener_usage;
   public static String 		  error_setup_db;
   public static String 		  error_db;
   public static String 		  error_no_db;
+  public static String 		  error_db_readers;
   
   
   public static String 		  outline_job_name;
   public static String 		  editor_job_name;
   public static String 		  occurrences_job_name;
   public static String 		  thingatpoint_job_name;
+  
+  public static String 		  usage_index_statistics;
+  public static String 		  usage_collect_statistics;
 
   
   private static final String BUNDLE_NAME = BWText.class.getPackage().getName() + ".bwtext"; //$NON-NLS-1$
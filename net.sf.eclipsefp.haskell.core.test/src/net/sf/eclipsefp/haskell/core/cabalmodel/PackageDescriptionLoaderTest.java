@@ -26,4 +26,28 @@ public class PackageDescriptionLoaderTest {
     ls=PackageDescriptionLoader.parseList( "toto > 0.1,titi > 0.1 && < 1.0,"+PlatformUtil.NL+" tutu" );
     Assert.assertEquals( Arrays.asList( "toto > 0.1","titi > 0.1 && < 1.0","tutu"),ls );
   }
+
+  @Test
+  public void freeze(){
+    PackageDescription pd=PackageDescriptionLoader.load( "name: p1"+PlatformUtil.NL+"version: 0.1"+PlatformUtil.NL+PlatformUtil.NL
+        +"library"+PlatformUtil.NL+"  exposed-modules: A"+PlatformUtil.NL );
+    pd.freeze();
+    PackageDescriptionStanza lib=pd.getLibraryStanza();
+    Assert.assertNotNull( lib );
+    Assert.assertEquals( "A", lib.getProperties().get( CabalSyntax.FIELD_EXPOSED_MODULES ) );
+    try {
+      lib.update( CabalSyntax.FIELD_EXPOSED_MODULES, "B" );
+      Assert.fail( "shared stanza was modified" );
+    } catch (UnsupportedOperationException uoe){
+      // expected
+    }
+    try {
+      pd.addStanza( CabalSyntax.SECTION_EXECUTABLE, "p1" );
+      Assert.fail( "shared description was modified" );
+    } catch (UnsupportedOperationException uoe){
+      // expected
+    }
+    Assert.assertEquals( "A", lib.getProperties().get( CabalSyntax.FIELD_EXPOSED_MODULES ) );
+    Assert.assertEquals( 1, lib.listExposedModules().size() );
+  }
 }
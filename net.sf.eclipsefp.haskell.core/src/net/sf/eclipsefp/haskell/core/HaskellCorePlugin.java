@@ -8,9 +8,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import net.sf.eclipsefp.haskell.core.cabalmodel.PackageDescriptionCache;
 import net.sf.eclipsefp.haskell.core.expressions.HaskellPropertyTester;
+import net.sf.eclipsefp.haskell.core.util.ModuleIndex;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.IExtensionRegistry;
@@ -65,6 +69,15 @@ public class HaskellCorePlugin extends Plugin {
 		super.start(context);
 
 		Platform.getAdapterManager().registerAdapters(new HaskellPropertyTester(), IResource.class);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(PackageDescriptionCache.getInstance(), IResourceChangeEvent.POST_CHANGE);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(ModuleIndex.getInstance(), IResourceChangeEvent.POST_CHANGE);
+	}
+
+	@Override
+	public void stop(final BundleContext context) throws Exception {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(PackageDescriptionCache.getInstance());
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(ModuleIndex.getInstance());
+		super.stop(context);
 	}
 
 	/**
@@ -163,7 +163,7 @@ public class HaskellBuilder extends IncrementalProjectBuilder {
     if (f!=null && f.getCabalImplDetails().isSandboxed() && f.getCabalImplDetails().isManageProjectDependencies()){
       IWorkspaceRoot root=ResourcesPlugin.getWorkspace().getRoot();
       try {
-        PackageDescription pd=PackageDescriptionLoader.load( BuildWrapperPlugin.getCabalFile( prj ) );
+        PackageDescription pd=PackageDescriptionLoader.loadShared( BuildWrapperPlugin.getCabalFile( prj ) );
         Set<String> pkgs=new HashSet<>();
         for (PackageDescriptionStanza pds:pd.getStanzas()){
           pkgs.addAll( pds.getDependentPackages() );
@@ -205,7 +205,7 @@ public class HaskellBuilder extends IncrementalProjectBuilder {
   private void cleanNonHaskellSources(){
     IFile cabal=BuildWrapperPlugin.getCabalFile( getProject() );
     try {
-      PackageDescription pd=PackageDescriptionLoader.load(cabal);
+      PackageDescription pd=PackageDescriptionLoader.loadShared(cabal);
       Collection<String> nhfs=pd.getAllNonHaskellFiles();
       for (String s:nhfs){
         if (s!=null && s.length()>0){
@@ -8,6 +8,7 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -25,12 +26,23 @@ import net.sf.eclipsefp.haskell.buildwrapper.types.Component.ComponentType;
   */
 public class PackageDescription {
 
-  private final List<PackageDescriptionStanza> stanzas;
+  private List<PackageDescriptionStanza> stanzas;
 
   PackageDescription() {
     stanzas = new ArrayList<>();
   }
 
+  /**
+   * make this description read only, so that it can be shared between threads.
+   * Modifying a read only description throws an UnsupportedOperationException
+   */
+  void freeze(){
+    for (PackageDescriptionStanza pds:stanzas){
+      pds.freeze();
+    }
+    stanzas = Collections.unmodifiableList( stanzas );
+  }
+
   public PackageDescription(final String name){
     this();
     PackageDescriptionStanza pds = new PackagePropertiesStanza(this, 0 );
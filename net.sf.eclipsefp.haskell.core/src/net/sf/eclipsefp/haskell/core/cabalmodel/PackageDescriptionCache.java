@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.core.cabalmodel;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.eclipsefp.haskell.core.HaskellCorePlugin;
+import net.sf.eclipsefp.haskell.util.FileUtil;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Keeps the parsed package description of each cabal file, so that the callers that only read the description
+ * do not parse the file again every time. An entry is valid as long as the modification stamp of the file
+ * has not changed, and is dropped when a resource delta touches the file.
+ * The descriptions are read only and can be shared between threads
+ * @author JP Moresmau
+ *
+ */
+public class PackageDescriptionCache implements IResourceChangeListener {
+  private static final PackageDescriptionCache instance=new PackageDescriptionCache();
+
+  private final Map<IFile, Entry> entries=new ConcurrentHashMap<>();
+
+  private final AtomicLong hits=new AtomicLong();
+  private final AtomicLong misses=new AtomicLong();
+
+  private PackageDescriptionCache(){
+    // singleton
+  }
+
+  public static PackageDescriptionCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * get the read only description of the given cabal file
+   * @param file the cabal file
+   * @return the description, never null
+   * @throws CoreException
+   */
+  public PackageDescription get( final IFile file ) throws CoreException {
+    if (file==null || !file.exists()){
+      PackageDescription pd=PackageDescriptionLoader.load( file );
+      pd.freeze();
+      return pd;
+    }
+    PackageDescriptionLoader.refresh( file );
+    // read the stamp before parsing: if the file changes while we parse it we'll parse it again next time
+    long stamp=file.getModificationStamp();
+    Entry e=entries.get( file );
+    if (e!=null && e.stamp==stamp){
+      hits.incrementAndGet();
+      return e.pd;
+    }
+    misses.incrementAndGet();
+    PackageDescription pd=PackageDescriptionLoader.parse( file );
+    pd.freeze();
+    entries.put( file, new Entry( stamp, pd ) );
+    return pd;
+  }
+
+  /**
+   * forget the description of a file
+   * @param file the cabal file
+   */
+  public void invalidate( final IFile file ) {
+    entries.remove( file );
+  }
+
+  /**
+   * forget all the descriptions of a project
+   * @param project the project
+   */
+  public void invalidate( final IProject project ) {
+    for (Iterator<IFile> it=entries.keySet().iterator();it.hasNext();){
+      if (project.equals( it.next().getProject() )){
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the number of calls answered from the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of calls that parsed the cabal file
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /* (non-Javadoc)
+   * @see org.eclipse.core.resources.IResourceChangeListener#resourceChanged(org.eclipse.core.resources.IResourceChangeEvent)
+   */
+  @Override
+  public void resourceChanged( final IResourceChangeEvent event ) {
+    if (event.getDelta()==null || entries.isEmpty()){
+      return;
+    }
+    try {
+      event.getDelta().accept( new IResourceDeltaVisitor() {
+
+        @Override
+        public boolean visit( final IResourceDelta delta ) {
+          IResource r=delta.getResource();
+          if (r instanceof IProject){
+            if (delta.getKind()==IResourceDelta.REMOVED || (delta.getFlags() & IResourceDelta.OPEN)>0){
+              invalidate( (IProject)r );
+              return false;
+            }
+            return true;
+          }
+          if (r instanceof IFile){
+            if (FileUtil.hasCabalExtension( r )){
+              invalidate( (IFile)r );
+            }
+            return false;
+          }
+          return true;
+        }
+      });
+    } catch (CoreException ce){
+      HaskellCorePlugin.log( ce );
+    }
+  }
+
+  /**
+   * a parsed description and the modification stamp of the file it was parsed from
+   */
+  private static class Entry {
+    private final long stamp;
+    private final PackageDescription pd;
+
+    private Entry( final long stamp, final PackageDescription pd ) {
+      this.stamp = stamp;
+      this.pd = pd;
+    }
+  }
+}
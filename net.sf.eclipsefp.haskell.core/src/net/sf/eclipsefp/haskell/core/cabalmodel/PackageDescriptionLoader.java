@@ -24,19 +24,45 @@ import org.eclipse.core.runtime.NullProgressMonitor;
   */
 public class PackageDescriptionLoader {
 
+  /**
+   * load a new description of the file, that the caller can modify
+   * @param file the cabal file
+   * @return the description
+   * @throws CoreException
+   */
   public static PackageDescription load( final IFile file ) throws CoreException{
-    PackageDescription result = new PackageDescription();
     if (file!=null && file.exists()){
-      if (!file.getWorkspace().isTreeLocked()){
-        file.refreshLocal( 0, new NullProgressMonitor() );
+      refresh( file );
+      return parse( file );
     }
-      try (InputStream is=file.getContents();
-          BufferedReader br = new BufferedReader(new InputStreamReader( is,file.getCharset() ))) {
-        new CabalParser(result).parse(br);
-      }  catch( final IOException ioex ) {
-        // very unlikely
-        HaskellCorePlugin.log( "Loading cabal file", ioex ); //$NON-NLS-1$
-      }
+    return new PackageDescription();
+  }
+
+  /**
+   * get the shared description of the file from the cache, only parsing the file if it changed.
+   * The description is read only: callers that want to modify it need to call load
+   * @param file the cabal file
+   * @return the description
+   * @throws CoreException
+   */
+  public static PackageDescription loadShared( final IFile file ) throws CoreException{
+    return PackageDescriptionCache.getInstance().get( file );
+  }
+
+  static void refresh( final IFile file ) throws CoreException{
+    if (!file.getWorkspace().isTreeLocked()){
+      file.refreshLocal( 0, new NullProgressMonitor() );
+    }
+  }
+
+  static PackageDescription parse( final IFile file ) throws CoreException{
+    PackageDescription result = new PackageDescription();
+    try (InputStream is=file.getContents();
+        BufferedReader br = new BufferedReader(new InputStreamReader( is,file.getCharset() ))) {
+      new CabalParser(result).parse(br);
+    }  catch( final IOException ioex ) {
+      // very unlikely
+      HaskellCorePlugin.log( "Loading cabal file", ioex ); //$NON-NLS-1$
     }
     return result;
   }
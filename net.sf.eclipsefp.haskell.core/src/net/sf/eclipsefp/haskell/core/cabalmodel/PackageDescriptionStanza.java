@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.Writer;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -48,18 +49,23 @@ public class PackageDescriptionStanza {
   /**
    * field names to values
    */
-  private final Map<String, String> properties=new CabalSyntaxMap<>();
+  private Map<String, String> properties=new CabalSyntaxMap<>();
   /**
    * field names to real names (case may be different)
    */
-  private final Map<String, String> realNames=new CabalSyntaxMap<>();
+  private Map<String, String> realNames=new CabalSyntaxMap<>();
   /**
    * field names to positions
    */
-  private final Map<String, ValuePosition> positions=new CabalSyntaxMap<>();
+  private Map<String, ValuePosition> positions=new CabalSyntaxMap<>();
   private final CabalSyntax type;
 
-  private final List<PackageDescriptionStanza> stanzas=new LinkedList<>();
+  private List<PackageDescriptionStanza> stanzas=new LinkedList<>();
+
+  /**
+   * is this stanza shared, and hence read only?
+   */
+  private boolean frozen=false;
 
   /**
    * this field is kind of a hack, this is used to append properly to the end of a Cabal file
@@ -83,6 +89,26 @@ public class PackageDescriptionStanza {
     return this.pd;
   }
 
+  /**
+   * make this stanza and its sub stanzas read only, so that they can be shared between threads
+   */
+  void freeze(){
+    frozen=true;
+    properties=Collections.unmodifiableMap( properties );
+    realNames=Collections.unmodifiableMap( realNames );
+    positions=Collections.unmodifiableMap( positions );
+    for (PackageDescriptionStanza pds:stanzas){
+      pds.freeze();
+    }
+    stanzas=Collections.unmodifiableList( stanzas );
+  }
+
+  private void checkWritable(){
+    if (frozen){
+      throw new UnsupportedOperationException( "shared package description" ); //$NON-NLS-1$
+    }
+  }
+
   /**
    * clone and add the stanza to the given description
    * @param desc
@@ -119,6 +145,7 @@ public class PackageDescriptionStanza {
   }
 
   public void diffLine ( final int diff ) {
+    checkWritable();
     this.startLine += diff;
     this.endLine += diff;
     for (String entry : positions.keySet()) {
@@ -131,6 +158,7 @@ public class PackageDescriptionStanza {
   }
 
   public void diffLineIf ( final int diff, final int linePos ) {
+    checkWritable();
     boolean needPos=false;
     if (this.startLine>=linePos){
       this.startLine += diff;
@@ -154,11 +182,13 @@ public class PackageDescriptionStanza {
   }
 
   public void setStartLine ( final int startLine ) {
+    checkWritable();
     this.startLine = startLine;
   }
 
 
   public void setEndLine( final int endLine ) {
+    checkWritable();
     this.endLine = endLine;
   }
 
@@ -177,6 +207,7 @@ public class PackageDescriptionStanza {
 
 
   public void setIndent( final int indent ) {
+    checkWritable();
     this.indent = indent;
   }
 
@@ -666,6 +697,7 @@ public class PackageDescriptionStanza {
 
 
   public void setRealTypeName( final String realTypeName ) {
+    checkWritable();
     this.realTypeName = realTypeName;
   }
 }
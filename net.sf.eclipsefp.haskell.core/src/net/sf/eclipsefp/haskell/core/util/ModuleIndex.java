@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.core.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
+import net.sf.eclipsefp.haskell.core.HaskellCorePlugin;
+import net.sf.eclipsefp.haskell.core.cabalmodel.ModuleInclusionType;
+import net.sf.eclipsefp.haskell.core.cabalmodel.PackageDescription;
+import net.sf.eclipsefp.haskell.core.cabalmodel.PackageDescriptionLoader;
+import net.sf.eclipsefp.haskell.core.cabalmodel.PackageDescriptionStanza;
+import net.sf.eclipsefp.haskell.util.FileUtil;
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Indexes the Haskell files of each project by module name, and remembers the module name and the applicable stanzas of each file.
+ * The index of a project is built the first time it's needed from the source folders of the cabal file, and rebuilt when the cabal file changes.
+ * Resource deltas keep it current when Haskell files are added or removed
+ * @author JP Moresmau
+ *
+ */
+public class ModuleIndex implements IResourceChangeListener {
+  private static final ModuleIndex instance=new ModuleIndex();
+
+  /**
+   * the Haskell extensions, in the order findFile prefers them
+   */
+  private static final List<String> extensions=new ArrayList<>( FileUtil.haskellExtensions );
+
+  private final Map<IProject, ProjectIndex> projects=new ConcurrentHashMap<>();
+
+  private ModuleIndex(){
+    // singleton
+  }
+
+  public static ModuleIndex getInstance() {
+    return instance;
+  }
+
+  /**
+   * find the file defining a module in a project
+   * @param project the project
+   * @param module the module name
+   * @return the file, or null if no source folder contains a file for that module
+   * @throws CoreException
+   */
+  public IFile findFile( final IProject project, final String module ) throws CoreException {
+    return getIndex( project ).findFile( module );
+  }
+
+  /**
+   * @param project the project whose cabal file we use
+   * @param file a Haskell file
+   * @return the module name of the file, or an empty string if it's not in any stanza
+   * @throws CoreException
+   */
+  public String getModuleName( final IProject project, final IFile file ) throws CoreException {
+    return getIndex( project ).getInfo( file ).module;
+  }
+
+  /**
+   * @param project the project whose cabal file we use
+   * @param file a Haskell file
+   * @return the stanzas including the file
+   * @throws CoreException
+   */
+  public Set<PackageDescriptionStanza> getStanzas( final IProject project, final IFile file ) throws CoreException {
+    return getIndex( project ).getInfo( file ).stanzas;
+  }
+
+  /**
+   * forget the index of a project
+   * @param project the project
+   */
+  public void invalidate( final IProject project ) {
+    projects.remove( project );
+  }
+
+  /**
+   * get the index of a project, building it if we don't have one or if the cabal file changed
+   * @param project the project
+   * @return the index
+   * @throws CoreException
+   */
+  private ProjectIndex getIndex( final IProject project ) throws CoreException {
+    // the shared description is the same object as long as the cabal file doesn't change
+    PackageDescription pd=PackageDescriptionLoader.loadShared( BuildWrapperPlugin.getCabalFile( project ) );
+    ProjectIndex pi=projects.get( project );
+    if (pi==null || pi.pd!=pd){
+      pi=new ProjectIndex( project, pd );
+      projects.put( project, pi );
+    }
+    return pi;
+  }
+
+  /* (non-Javadoc)
+   * @see org.eclipse.core.resources.IResourceChangeListener#resourceChanged(org.eclipse.core.resources.IResourceChangeEvent)
+   */
+  @Override
+  public void resourceChanged( final IResourceChangeEvent event ) {
+    if (event.getDelta()==null || projects.isEmpty()){
+      return;
+    }
+    try {
+      event.getDelta().accept( new IResourceDeltaVisitor() {
+
+        @Override
+        public boolean visit( final IResourceDelta delta ) {
+          IResource r=delta.getResource();
+          if (r instanceof IProject){
+            if (delta.getKind()==IResourceDelta.REMOVED || (delta.getFlags() & IResourceDelta.OPEN)>0){
+              invalidate( (IProject)r );
+              return false;
+            }
+            return projects.containsKey( r );
+          }
+          if (r instanceof IFile){
+            ProjectIndex pi=projects.get( r.getProject() );
+            if (pi!=null && FileUtil.hasHaskellExtension( r )){
+              if (delta.getKind()==IResourceDelta.ADDED){
+                pi.add( (IFile)r );
+              } else if (delta.getKind()==IResourceDelta.REMOVED){
+                pi.remove( (IFile)r );
+              }
+            }
+            return false;
+          }
+          return true;
+        }
+      });
+    } catch (CoreException ce){
+      HaskellCorePlugin.log( ce );
+    }
+  }
+
+  /**
+   * can the given folder name be part of a module name?
+   */
+  private static boolean isModuleFolder( final String name ) {
+    return name.length()>0 && Character.isUpperCase( name.charAt( 0 ) );
+  }
+
+  /**
+   * the index of one project, for a given version of its cabal file
+   */
+  private static class ProjectIndex {
+    private final PackageDescription pd;
+    private final Map<String, List<PackageDescriptionStanza>> stanzasBySource;
+    /**
+     * the source containers, in the order findFile looks into them
+     */
+    private final List<IContainer> sources=new ArrayList<>();
+    /**
+     * the files for each module name, the preferred one first
+     */
+    private final Map<String, List<IFile>> files=new HashMap<>();
+    /**
+     * the module name and stanzas of the files we were asked about
+     */
+    private final Map<IFile, FileInfo> infos=new HashMap<>();
+
+    private ProjectIndex( final IProject project, final PackageDescription pd ) throws CoreException {
+      this.pd=pd;
+      this.stanzasBySource=pd.getStanzasBySourceDir();
+      for (String src:stanzasBySource.keySet()){
+        sources.add( ResourceUtil.getContainer( project, src ) );
+      }
+      for (final IContainer source:sources){
+        if (source.exists()){
+          source.accept( new IResourceVisitor() {
+
+            @Override
+            public boolean visit( final IResource resource ) {
+              if (resource instanceof IFile){
+                if (FileUtil.hasHaskellExtension( resource )){
+                  add( (IFile)resource, source );
+                }
+                return false;
+              }
+              // folders that cannot be part of a module name (dist, etc.) cannot contain a module
+              return resource==source || resource instanceof IFolder && isModuleFolder( resource.getName() );
+            }
+          });
+        }
+      }
+    }
+
+    synchronized IFile findFile( final String module ) {
+      List<IFile> l=files.get( module );
+      return l!=null?l.get( 0 ):null;
+    }
+
+    synchronized void add( final IFile file ) {
+      for (IContainer source:sources){
+        if (contains( source, file )){
+          add( file, source );
+        }
+      }
+    }
+
+    synchronized void remove( final IFile file ) {
+      infos.remove( file );
+      for (IContainer source:sources){
+        if (contains( source, file )){
+          String module=ResourceUtil.getQualifiedModuleName( file, source );
+          List<IFile> l=files.get( module );
+          if (l!=null){
+            l.remove( file );
+            if (l.isEmpty()){
+              files.remove( module );
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * is the file under the given source container, in folders that can be part of a module name?
+     */
+    private static boolean contains( final IContainer source, final IFile file ) {
+      IPath sp=source.getProjectRelativePath();
+      IPath fp=file.getProjectRelativePath();
+      if (!sp.isPrefixOf( fp )){
+        return false;
+      }
+      for (int a=sp.segmentCount();a<fp.segmentCount()-1;a++){
+        if (!isModuleFolder( fp.segment( a ) )){
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * add the file under the module name it has relatively to the given source container,
+     * keeping first the file ResourceUtil.findFileFromModule used to find: earlier source containers, then extension order
+     */
+    private void add( final IFile file, final IContainer source ) {
+      String module=ResourceUtil.getQualifiedModuleName( file, source );
+      List<IFile> l=files.get( module );
+      if (l==null){
+        l=new LinkedList<>();
+        files.put( module, l );
+      } else if (l.contains( file )){
+        return;
+      }
+      int rank=rank( file, module );
+      int ix=0;
+      for (IFile f:l){
+        if (rank( f, module )>rank){
+          break;
+        }
+        ix++;
+      }
+      l.add( ix, file );
+    }
+
+    private int rank( final IFile file, final String module ) {
+      for (int a=0;a<sources.size();a++){
+        IContainer source=sources.get( a );
+        if (contains( source, file ) && module.equals( ResourceUtil.getQualifiedModuleName( file, source ) )){
+          return a*extensions.size()+extensions.indexOf( file.getFileExtension() );
+        }
+      }
+      return Integer.MAX_VALUE;
+    }
+
+    synchronized FileInfo getInfo( final IFile file ) {
+      FileInfo fi=infos.get( file );
+      if (fi==null){
+        fi=new FileInfo( file, stanzasBySource, sources );
+        infos.put( file, fi );
+      }
+      return fi;
+    }
+  }
+
+  /**
+   * the module name of a file and the stanzas that include it
+   */
+  private static class FileInfo {
+    private final String module;
+    private final Set<PackageDescriptionStanza> stanzas;
+
+    private FileInfo( final IFile file, final Map<String, List<PackageDescriptionStanza>> stanzasBySource, final List<IContainer> sources ) {
+      String name=null;
+      Set<String> potential=new HashSet<>();
+      Set<PackageDescriptionStanza> stzs=new HashSet<>();
+      int ix=0;
+      for (String src:stanzasBySource.keySet()){
+        IContainer fldr=sources.get( ix++ );
+        if (file.getProjectRelativePath().toOSString().startsWith( fldr.getProjectRelativePath().toOSString() )){
+          String qn=ResourceUtil.getQualifiedModuleName( file, fldr );
+          for (PackageDescriptionStanza stz:stanzasBySource.get( src )){
+            ModuleInclusionType mit=stz.getModuleInclusionType( qn );
+            if (!ModuleInclusionType.MISSING.equals( mit )){
+              stzs.add( stz );
+              if (name==null){
+                name=ModuleInclusionType.MAIN.equals( mit )?"Main":qn; //$NON-NLS-1$
+              }
+            } else if (name==null){
+              potential.add( qn );
+            }
+          }
+        }
+      }
+      if (name==null){
+        name=potential.size()==1?potential.iterator().next():""; //$NON-NLS-1$
+      }
+      this.module=name;
+      this.stanzas=Collections.unmodifiableSet( stzs );
+    }
+  }
+}
@@ -23,7 +23,6 @@ import net.sf.eclipsefp.haskell.buildwrapper.types.Component;
 import net.sf.eclipsefp.haskell.buildwrapper.types.Component.ComponentType;
 import net.sf.eclipsefp.haskell.core.HaskellCorePlugin;
 import net.sf.eclipsefp.haskell.core.cabalmodel.CabalSyntax;
-import net.sf.eclipsefp.haskell.core.cabalmodel.ModuleInclusionType;
 import net.sf.eclipsefp.haskell.core.cabalmodel.PackageDescription;
 import net.sf.eclipsefp.haskell.core.cabalmodel.PackageDescriptionLoader;
 import net.sf.eclipsefp.haskell.core.cabalmodel.PackageDescriptionStanza;
@@ -40,7 +39,6 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.NullProgressMonitor;
-import org.eclipse.core.runtime.Path;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.IStructuredSelection;
 
@@ -199,7 +197,7 @@ public class ResourceUtil {
   	  if( hasHaskellNature(project) ) {
 
         IFile f=BuildWrapperPlugin.getCabalFile( project );
-        PackageDescription pd=PackageDescriptionLoader.load(f);
+        PackageDescription pd=PackageDescriptionLoader.loadShared(f);
         Map<String,List<PackageDescriptionStanza>> stzs=pd.getStanzasBySourceDir();
         Collection<IContainer> ret=new ArrayList<>();
         for (String s:stzs.keySet()){
@@ -316,7 +314,7 @@ public class ResourceUtil {
     try {
       if( hasHaskellNature(project) ) {
         IFile f=BuildWrapperPlugin.getCabalFile( project );
-        PackageDescription pd=PackageDescriptionLoader.load(f);
+        PackageDescription pd=PackageDescriptionLoader.loadShared(f);
         for (String src:pd.getStanzasBySourceDir().keySet()){
 
          if (getContainer(project,src).equals(folder)){
@@ -368,7 +366,7 @@ public class ResourceUtil {
       if(project.exists() && hasHaskellNature(project) ) {
 
         IFile f=BuildWrapperPlugin.getCabalFile( project );
-        PackageDescription pd=PackageDescriptionLoader.load(f);
+        PackageDescription pd=PackageDescriptionLoader.loadShared(f);
         for (String src:pd.getStanzasBySourceDir().keySet()){
           if (src!=null && src.equals( "." )) { //$NON-NLS-1$
             return project;
@@ -394,7 +392,7 @@ public class ResourceUtil {
       if(project.exists() && hasHaskellNature(project) ) {
 
         IFile f=BuildWrapperPlugin.getCabalFile( project );
-        PackageDescription pd=PackageDescriptionLoader.load(f);
+        PackageDescription pd=PackageDescriptionLoader.loadShared(f);
         for (String src:pd.getStanzasBySourceDir().keySet()){
           if (src!=null && src.equals( "." )) { //$NON-NLS-1$
             ret.add(project);
@@ -484,21 +482,8 @@ public class ResourceUtil {
 
   public static IFile findFileFromModule(final IProject project,final String module){
     try {
-        String path=module.replace( '.', '/' );
         if(hasHaskellNature(project ) ) {
-          IFile f=BuildWrapperPlugin.getCabalFile( project );
-          PackageDescription pd=PackageDescriptionLoader.load(f);
-          Map<String,List<PackageDescriptionStanza>> stzs=pd.getStanzasBySourceDir();
-
-            for (String src:stzs.keySet()){
-              IContainer fldr=getContainer(project,src);
-              for (String ext:FileUtil.haskellExtensions){
-                IFile file=fldr.getFile( new Path( path+"."+ext ) ); //$NON-NLS-1$
-                if (file.exists()){
-                  return file;
-                }
-              }
-            }
+          return ModuleIndex.getInstance().findFile( project, module );
         }
       } catch( CoreException ex ) {
         HaskellCorePlugin.log( "getModuleName:", ex ); //$NON-NLS-1$
@@ -509,39 +494,13 @@ public class ResourceUtil {
 
   public static String getModuleName(final IFile file){
     IProject project = file.getProject();
-    Set<String> potential=new HashSet<>();
     try {
-      if( hasHaskellNature(project ) ) {
-
-        IFile f=BuildWrapperPlugin.getCabalFile( project );
-        PackageDescription pd=PackageDescriptionLoader.load(f);
-        Map<String,List<PackageDescriptionStanza>> stzs=pd.getStanzasBySourceDir();
-        if (FileUtil.hasHaskellExtension(file)){
-          for (String src:stzs.keySet()){
-            IContainer fldr=getContainer(project,src);
-            if (file.getProjectRelativePath().toOSString().startsWith( fldr.getProjectRelativePath().toOSString() )){
-                for (PackageDescriptionStanza stz:stzs.get(src)){
-                  String module=getQualifiedModuleName( file, fldr );
-                  ModuleInclusionType mit=stz.getModuleInclusionType( module );
-                  if (ModuleInclusionType.MAIN.equals( mit )){
-                    return "Main"; //$NON-NLS-1$
-                  } else if (!ModuleInclusionType.MISSING.equals(mit  )){
-                   return module;
-                  } else {
-                    potential.add(module);
-                  }
-                }
-              }
-            }
-          }
+      if( hasHaskellNature(project ) && FileUtil.hasHaskellExtension(file)) {
+        return ModuleIndex.getInstance().getModuleName( project, file );
       }
-
     } catch( CoreException ex ) {
       HaskellCorePlugin.log( "getModuleName:", ex ); //$NON-NLS-1$
     }
-    if (potential.size()==1){
-      return potential.iterator().next();
-    }
     return ""; //$NON-NLS-1$
   }
 
@@ -554,26 +513,20 @@ public class ResourceUtil {
       if( hasHaskellNature(project) ) {
 
         IFile f=BuildWrapperPlugin.getCabalFile( project );
-        PackageDescription pd=PackageDescriptionLoader.load(f);
+        PackageDescription pd=PackageDescriptionLoader.loadShared(f);
         Map<String,List<PackageDescriptionStanza>> stzs=pd.getStanzasBySourceDir();
 
         Set<PackageDescriptionStanza> applicable=new HashSet<>();
 
         for (IFile fi:files){
+          if (FileUtil.hasHaskellExtension(fi)){
+            applicable.addAll( ModuleIndex.getInstance().getStanzas( project, fi ) );
+            continue;
+          }
           for (String src:stzs.keySet()){
             IContainer fldr=getContainer(project,src);
             if (fi.getProjectRelativePath().toOSString().startsWith( fldr.getProjectRelativePath().toOSString() )){
-
-              if (FileUtil.hasHaskellExtension(fi)){
-                for (PackageDescriptionStanza stz:stzs.get(src)){
-                  String module=getQualifiedModuleName( fi, fldr );
-                  if (!ModuleInclusionType.MISSING.equals( stz.getModuleInclusionType( module ) )){
-                    applicable.add(stz);
-                  }
-                }
-              } else {
-                applicable.addAll(stzs.get(src));
-              }
+              applicable.addAll(stzs.get(src));
             }
           }
         }
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.ui.internal.editors.haskell.text;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.sf.eclipsefp.haskell.buildwrapper.types.Location;
+import net.sf.eclipsefp.haskell.buildwrapper.types.TokenDef;
+import net.sf.eclipsefp.haskell.util.LineOffsetTable;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.junit.Test;
+
+/**
+ * Checks that converting token locations through a line offset table gives the same offsets as the document
+ * @author JP Moresmau
+ *
+ */
+public class TokenOffsets_Test {
+  private static final int LINES=100;
+
+  @Test
+  public void testSameOffsetsAsDocument() throws BadLocationException {
+    StringBuilder sb=new StringBuilder();
+    List<TokenDef> tds=new ArrayList<>();
+    for (int a=1;a<=LINES;a++){
+      // tokens on each line: "f", "x", "=", "x", "+", "1", and a comment every ten lines
+      String line="f"+a+" x = x + 1";
+      sb.append( line );
+      int col=0;
+      for (String s:line.split( " " )){
+        tds.add( new TokenDef( "TV", new Location( "", a, col, a, col+s.length() ) ) );
+        col+=s.length()+1;
+      }
+      if (a%10==0){
+        sb.append( " -- comment" );
+        tds.add( new TokenDef( "TC", new Location( "", a, col, a, col+10 ) ) );
+      }
+      // mix all the delimiters a document knows about
+      sb.append( a%3==0?"\r\n":a%7==0?"\r":"\n" );
+    }
+    String contents=sb.toString();
+    IDocument doc=new Document( contents );
+    // an edited document uses a tree to track lines, like documents in an editor
+    doc.replace( 0, 1, "f" );
+
+    assertEquals( doc.getNumberOfLines(), new LineOffsetTable( contents ).getLineCount() );
+    assertArrayEquals( viaDocument( tds, doc ), TokenDef.getOffsets( tds, new LineOffsetTable( contents ) ) );
+  }
+
+  @Test
+  public void testLocationOffsets() throws BadLocationException {
+    String contents="module M where\r\n\r\nf x = x\n";
+    IDocument doc=new Document( contents );
+    LineOffsetTable table=new LineOffsetTable( contents );
+    Location l=new Location( "", 3, 0, 3, 7 );
+    assertEquals( l.getStartOffset( doc ), l.getStartOffset( table ) );
+    assertEquals( l.getEndOffset( doc ), l.getEndOffset( table ) );
+    assertEquals( 7, l.getLength( table ) );
+    // the empty line after the last delimiter exists, the next one does not
+    assertEquals( contents.length(), new Location( "", 4, 0, 4, 0 ).getStartOffset( table ) );
+    try {
+      new Location( "", 5, 0, 5, 1 ).getStartOffset( table );
+      fail( "line 5 does not exist" );
+    } catch (BadLocationException ble){
+      // expected
+    }
+  }
+
+  @Test
+  public void testOutsideText() {
+    String contents="f x = x\ng = f\n";
+    List<TokenDef> tds=Arrays.asList(
+        new TokenDef( "TV", new Location( "", 2, 0, 2, 1 ) ),
+        new TokenDef( "TV", new Location( "", 7, 0, 7, 1 ) ) );
+    // a token outside the text gets -1 for both offsets, the others are not affected
+    assertArrayEquals( new int[]{8,9,-1,-1}, TokenDef.getOffsets( tds, new LineOffsetTable( contents ) ) );
+  }
+
+  private static int[] viaDocument(final List<TokenDef> tds,final IDocument doc) throws BadLocationException{
+    int[] ret=new int[tds.size()*2];
+    int ix=0;
+    for (TokenDef td:tds){
+      ret[ix++]=td.getLocation().getStartOffset( doc );
+      ret[ix++]=td.getLocation().getEndOffset( doc );
+    }
+    return ret;
+  }
+}
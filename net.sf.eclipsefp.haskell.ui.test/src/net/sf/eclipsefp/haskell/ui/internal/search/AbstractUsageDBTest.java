@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.ui.internal.search;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Gives each test a new temporary usage database file, deleted with its write-ahead log afterwards.
+ * Tests must close the databases they open on it
+ * @author JP Moresmau
+ *
+ */
+public abstract class AbstractUsageDBTest {
+  protected File dbFile;
+
+  @Before
+  public void createDBFile() throws IOException {
+    dbFile=File.createTempFile( "usage", ".db" );
+  }
+
+  @After
+  public void deleteDBFile() {
+    dbFile.delete();
+    new File( dbFile.getPath()+"-wal" ).delete();
+    new File( dbFile.getPath()+"-shm" ).delete();
+  }
+}
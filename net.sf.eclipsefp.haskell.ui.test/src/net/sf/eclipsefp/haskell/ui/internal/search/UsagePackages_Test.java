@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.ui.internal.search;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
+import java.util.Collections;
+import net.sf.eclipsefp.haskell.buildwrapper.usage.UsageDB;
+import org.junit.Test;
+
+/**
+ * Checks that the modules of packages no file uses anymore are deleted from the usage database
+ * @author JP Moresmau
+ *
+ */
+public class UsagePackages_Test extends AbstractUsageDBTest {
+
+  @Test
+  public void testCollectPackages() throws Exception {
+    UsageDB db=new UsageDB( dbFile );
+    try {
+      long prelude=db.getModuleID( "base", "Prelude", null, null );
+      db.getSymbolID( prelude, "map", 1 );
+      db.getModuleID( "base", "Data.List", null, null );
+      db.commit();
+      assertEquals( Arrays.asList( "Data.List", "Prelude" ), db.findModules( "base", "%", null ) );
+
+      // no file references base
+      assertEquals( 2, db.collectPackages() );
+      db.commit();
+      assertEquals( Collections.emptyList(), db.findModules( "base", "%", null ) );
+      assertEquals( 0, db.collectPackages() );
+
+      // the ids are given again
+      db.getModuleID( "base", "Prelude", null, null );
+      db.commit();
+      assertEquals( Collections.singletonList( "Prelude" ), db.findModules( "base", "%", null ) );
+    } finally {
+      db.close();
+    }
+  }
+}
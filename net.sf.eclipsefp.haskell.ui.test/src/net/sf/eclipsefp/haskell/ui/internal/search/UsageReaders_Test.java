@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.ui.internal.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import net.sf.eclipsefp.haskell.buildwrapper.usage.UsageDB;
+import org.junit.Test;
+
+/**
+ * Checks that searches in the usage database do not wait for the indexing writer and only see committed data
+ * @author JP Moresmau
+ *
+ */
+public class UsageReaders_Test extends AbstractUsageDBTest {
+
+  @Test
+  public void testReadDuringWrite() throws Exception {
+    final UsageDB db=new UsageDB( dbFile );
+    try {
+      db.getModuleID( "p", "A", null, null );
+      db.commit();
+      // not committed yet
+      db.getModuleID( "p", "B", null, null );
+
+      final AtomicReference<List<String>> result=new AtomicReference<>();
+      final AtomicReference<Throwable> error=new AtomicReference<>();
+      Thread t=new Thread(){
+        @Override
+        public void run() {
+          try {
+            result.set( db.findModules( null, "%", null ) );
+          } catch (Throwable e){
+            error.set( e );
+          }
+        }
+      };
+      // the writer is busy: the search must not wait for it
+      synchronized( db ) {
+        t.start();
+        t.join( 5000 );
+      }
+      assertFalse( t.isAlive() );
+      // fail with the reader's own error
+      if (error.get()!=null){
+        throw new AssertionError( error.get() );
+      }
+      assertEquals( Collections.singletonList( "A" ), result.get() );
+
+      db.commit();
+      assertEquals( 2, db.findModules( null, "%", null ).size() );
+
+      // a read session keeps its snapshot
+      db.startRead();
+      try {
+        assertEquals( 2, db.findModules( null, "%", null ).size() );
+        db.getModuleID( "p", "C", null, null );
+        db.commit();
+        assertEquals( 2, db.findModules( null, "%", null ).size() );
+      } finally {
+        db.endRead();
+      }
+      assertEquals( Arrays.asList( "A", "B", "C" ), db.findModules( null, "%", null ) );
+    } finally {
+      db.close();
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.ui.internal.search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import net.sf.eclipsefp.haskell.buildwrapper.usage.UsageDB;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.Test;
+
+/**
+ * Builds a usage database in the original schema (JSON text locations, no fingerprints, no indexes)
+ * and checks that UsageDB migrates it to integer locations without losing or changing usages
+ * @author JP Moresmau
+ *
+ */
+public class UsageSchema_Test extends AbstractUsageDBTest {
+  private static final int USAGES=2000;
+  private static final int FILES=20;
+  private static final int SYMBOLS=100;
+
+  @Test
+  public void testMigration() throws Exception {
+    try (Connection conn=connect( dbFile )) {
+      createV1( conn );
+    }
+    List<String> before;
+    try (Connection conn=connect( dbFile )) {
+      before=references( conn, "select fileid,section,location from symbol_usages where symbolid=? order by rowid", true );
+    }
+
+    UsageDB db=new UsageDB( dbFile );
+    db.close();
+
+    try (Connection conn=connect( dbFile )) {
+      try (Statement s=conn.createStatement()) {
+        try (ResultSet rs=s.executeQuery( "PRAGMA user_version" )) {
+          rs.next();
+          assertEquals( 3, rs.getInt( 1 ) );
+        }
+        try (ResultSet rs=s.executeQuery( "select count(*) from symbol_usages" )) {
+          rs.next();
+          assertEquals( USAGES, rs.getInt( 1 ) );
+        }
+        // short locations are expanded: [line,column] covers one character
+        try (ResultSet rs=s.executeQuery( "select startline,startcolumn,endline,endcolumn from symbol_usages where rowid=1" )) {
+          rs.next();
+          assertArrayEquals( expected( 0 ), new int[]{rs.getInt( 1 ),rs.getInt( 2 ),rs.getInt( 3 ),rs.getInt( 4 )} );
+        }
+        try (ResultSet rs=s.executeQuery( "select startline,startcolumn,endline,endcolumn from symbol_usages where rowid=2" )) {
+          rs.next();
+          assertArrayEquals( expected( 1 ), new int[]{rs.getInt( 1 ),rs.getInt( 2 ),rs.getInt( 3 ),rs.getInt( 4 )} );
+        }
+        try (ResultSet rs=s.executeQuery( "select startline,startcolumn,endline,endcolumn from modules where moduleid=1" )) {
+          rs.next();
+          assertArrayEquals( new int[]{1,8,1,12}, new int[]{rs.getInt( 1 ),rs.getInt( 2 ),rs.getInt( 3 ),rs.getInt( 4 )} );
+        }
+        // columns added to the original tables
+        boolean fingerprint=false;
+        try (ResultSet rs=s.executeQuery( "PRAGMA table_info(files)" )) {
+          while (rs.next()){
+            fingerprint|="fingerprint".equals( rs.getString( "name" ) );
+          }
+        }
+        assertTrue( fingerprint );
+      }
+      List<String> after=references( conn, "select fileid,section,startline,startcolumn,endline,endcolumn from symbol_usages where symbolid=? order by rowid", false );
+      assertEquals( before, after );
+    }
+  }
+
+  /**
+   * connect with the driver bundled with UsageDB, that the test cannot see through the DriverManager
+   */
+  private static Connection connect( final File f ) throws Exception {
+    Driver d=(Driver)UsageDB.class.getClassLoader().loadClass( "org.sqlite.JDBC" ).newInstance();
+    Connection conn=d.connect( "jdbc:sqlite:"+f.getAbsolutePath(), new Properties() );
+    conn.setAutoCommit( false );
+    return conn;
+  }
+
+  /**
+   * the location of a usage: alternatively the short [line,column] form and the full form
+   */
+  private static String location( final int ix ) {
+    int line=ix%500+1;
+    int col=ix%40+1;
+    return ix%2==0?"["+line+","+col+"]":"["+line+","+col+","+line+","+( col+5 )+"]";
+  }
+
+  private static int[] expected( final int ix ) {
+    int line=ix%500+1;
+    int col=ix%40+1;
+    return ix%2==0?new int[]{line,col,line,col+1}:new int[]{line,col,line,col+5};
+  }
+
+  /**
+   * create the original schema, as UsageDB created it before storing integer locations
+   */
+  private static void createV1( final Connection conn ) throws SQLException {
+    try (Statement s=conn.createStatement()) {
+      s.execute( "create table files (fileid INTEGER PRIMARY KEY ASC,project TEXT not null, name TEXT not null)" );
+      s.execute( "create unique index filenames on files (project, name)" );
+      s.execute( "create table modules (moduleid INTEGER PRIMARY KEY ASC,package TEXT not null, module TEXT not null,fileid INTEGER,location TEXT,foreign key (fileid) references files(fileid) on delete set null)" );
+      s.execute( "create unique index modulenames on modules (package,module)" );
+      s.execute( "create table module_usages (moduleid INTEGER not null,fileid INTEGER not null,section TEXT not null,location TEXT not null,foreign key (fileid) references files(fileid) on delete cascade,foreign key (moduleid) references modules(moduleid) on delete cascade)" );
+      s.execute( "create table symbols(symbolid INTEGER PRIMARY KEY ASC,symbol TEXT,type INTEGER,moduleid INTEGER not null,foreign key (moduleid) references modules(moduleid) on delete set null)" );
+      s.execute( "create index symbolnames on symbols (symbol,type,moduleid)" );
+      s.execute( "create table symbol_defs(symbolid INTEGER not null,fileid INTEGER not null,section TEXT not null,location TEXT not null,foreign key (symbolid) references symbols(symbolid) on delete cascade,foreign key (fileid) references files(fileid) on delete cascade)" );
+      s.execute( "create table symbol_usages(symbolid INTEGER not null,fileid INTEGER not null,section TEXT not null,location TEXT not null,foreign key (symbolid) references symbols(symbolid) on delete cascade,foreign key (fileid) references files(fileid) on delete cascade)" );
+    }
+    try (PreparedStatement ps=conn.prepareStatement( "insert into files (project,name) values('p',?)" )) {
+      for (int a=0;a<FILES;a++){
+        ps.setString( 1, "src/M"+a+".hs" );
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+    try (PreparedStatement ps=conn.prepareStatement( "insert into modules (package,module,fileid,location) values('p',?,?,?)" )) {
+      for (int a=0;a<FILES;a++){
+        ps.setString( 1, "M"+a );
+        ps.setInt( 2, a+1 );
+        ps.setString( 3, "[1,8,1,12]" );
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+    try (PreparedStatement ps=conn.prepareStatement( "insert into symbols (symbol,type,moduleid) values(?,1,?)" )) {
+      for (int a=0;a<SYMBOLS;a++){
+        ps.setString( 1, "f"+a );
+        ps.setInt( 2, a%FILES+1 );
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+    try (PreparedStatement ps=conn.prepareStatement( "insert into symbol_usages values(?,?,'library',?)" )) {
+      for (int a=0;a<USAGES;a++){
+        ps.setInt( 1, a%SYMBOLS+1 );
+        ps.setInt( 2, a%FILES+1 );
+        ps.setString( 3, location( a ) );
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+    conn.commit();
+  }
+
+  /**
+   * run the reference query for each symbol
+   * @param json are locations stored as JSON text?
+   * @return the references, as file, section and full location
+   */
+  private static List<String> references( final Connection conn, final String query, final boolean json ) throws SQLException, JSONException {
+    List<String> ret=new ArrayList<>();
+    try (PreparedStatement ps=conn.prepareStatement( query )) {
+      for (int a=0;a<SYMBOLS;a++){
+        ps.setInt( 1, a+1 );
+        try (ResultSet rs=ps.executeQuery()) {
+          while (rs.next()){
+            String loc;
+            if (json){
+              JSONArray arr=new JSONArray( rs.getString( 3 ) );
+              int line=arr.getInt( 0 );
+              int col=arr.getInt( 1 );
+              loc=arr.length()>2?line+","+col+","+arr.getInt( 2 )+","+arr.getInt( 3 ):line+","+col+","+line+","+( col+1 );
+            } else {
+              loc=rs.getInt( 3 )+","+rs.getInt( 4 )+","+rs.getInt( 5 )+","+rs.getInt( 6 );
+            }
+            ret.add( rs.getLong( 1 )+" "+rs.getString( 2 )+" "+loc );
+          }
+        }
+      }
+    }
+    return ret;
+  }
+}
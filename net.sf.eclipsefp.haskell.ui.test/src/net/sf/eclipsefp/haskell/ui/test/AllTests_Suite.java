@@ -7,8 +7,12 @@ import junit.framework.JUnit4TestAdapter;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import net.sf.eclipsefp.haskell.ui.internal.editors.haskell.text.HaskellCharacterPairMatcher_Test;
+import net.sf.eclipsefp.haskell.ui.internal.editors.haskell.text.TokenOffsets_Test;
 import net.sf.eclipsefp.haskell.ui.internal.resolve.MissingTypeWarningTest;
 import net.sf.eclipsefp.haskell.ui.internal.resolve.ResolveFromMessageTests;
+import net.sf.eclipsefp.haskell.ui.internal.search.UsagePackages_Test;
+import net.sf.eclipsefp.haskell.ui.internal.search.UsageReaders_Test;
+import net.sf.eclipsefp.haskell.ui.internal.search.UsageSchema_Test;
 
 /** collects all non-PDE test cases in this project.
   *
@@ -22,6 +26,10 @@ public class AllTests_Suite {
 
 		suite.addTest( new JUnit4TestAdapter( MissingTypeWarningTest.class ) );
 		suite.addTest( new JUnit4TestAdapter( ResolveFromMessageTests.class ) );
+		suite.addTest( new JUnit4TestAdapter( TokenOffsets_Test.class ) );
+		suite.addTest( new JUnit4TestAdapter( UsageSchema_Test.class ) );
+		suite.addTest( new JUnit4TestAdapter( UsageReaders_Test.class ) );
+		suite.addTest( new JUnit4TestAdapter( UsagePackages_Test.class ) );
 		return suite;
 	}
 }
@@ -44,7 +44,7 @@ class SourceFolderCP implements ITreeContentProvider {
       IProject project =(IProject)parentElement;
       IFile f=BuildWrapperPlugin.getCabalFile(project  );
       try {
-        PackageDescription pd=PackageDescriptionLoader.load(f);
+        PackageDescription pd=PackageDescriptionLoader.loadShared(f);
         for (String sourcePath:pd.getStanzasBySourceDir().keySet()){
           if( sourcePath.length()>0) {
             list.add(project.getFolder( sourcePath ));
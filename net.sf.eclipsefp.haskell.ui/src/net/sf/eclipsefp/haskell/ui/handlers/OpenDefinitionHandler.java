@@ -293,7 +293,7 @@ public class OpenDefinitionHandler extends AbstractHandler {
             if( ResourceUtil.hasHaskellNature( p )) {
               IFile cf=BuildWrapperPlugin.getCabalFile( p );
               if (cf!=null){
-                PackageDescription pd=PackageDescriptionLoader.load(cf);
+                PackageDescription pd=PackageDescriptionLoader.loadShared(cf);
                 // check on name in cabal file, not project name, as their may be differences
                 if (pd.getPackageStanza()!=null && packageName.equals( pd.getPackageStanza().getProperties().get( CabalSyntax.FIELD_NAME.getCabalName() ))){
                   IFile f = ResourceUtil.findFileFromModule( p, module );
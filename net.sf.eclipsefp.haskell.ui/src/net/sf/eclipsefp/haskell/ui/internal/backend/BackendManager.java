@@ -385,6 +385,11 @@ public class BackendManager implements IResourceChangeListener {
     int maxEvalTime=preferenceStore.getInt( IPreferenceConstants.MAX_EVAL_TIME );
     BuildWrapperPlugin.setMaxConfigureFailures( maxEvalTime );
 
+    BuildWrapperPlugin.setMaxBuildSessions( preferenceStore.getInt( IPreferenceConstants.MAX_BUILD_SESSIONS ) );
+    BuildWrapperPlugin.setBuildSessionIdleTime( preferenceStore.getInt( IPreferenceConstants.BUILD_SESSION_IDLE_TIME ) );
+    BuildWrapperPlugin.setResultCacheSize( preferenceStore.getInt( IPreferenceConstants.RESULT_CACHE_SIZE ) );
+    BuildWrapperPlugin.setPersistResultCache( preferenceStore.getBoolean( IPreferenceConstants.PERSIST_RESULT_CACHE ) );
+
 
     if ( buildWrapperExecutablePath != null && buildWrapperExecutablePath.toFile().exists() ) {
       try {
@@ -874,6 +879,19 @@ public class BackendManager implements IResourceChangeListener {
           } else if (event.getProperty().equals(IPreferenceConstants.MAX_EVAL_TIME)){
             int max = ((Integer)event.getNewValue()).intValue();
             BuildWrapperPlugin.setMaxEvalTime( max );
+          } else if (event.getProperty().equals(IPreferenceConstants.MAX_BUILD_SESSIONS)){
+            int max = ((Integer)event.getNewValue()).intValue();
+            BuildWrapperPlugin.setMaxBuildSessions( max );
+          } else if (event.getProperty().equals(IPreferenceConstants.BUILD_SESSION_IDLE_TIME)){
+            int idle = ((Integer)event.getNewValue()).intValue();
+            BuildWrapperPlugin.setBuildSessionIdleTime( idle );
+          } else if (event.getProperty().equals(IPreferenceConstants.RESULT_CACHE_SIZE)){
+            int size = ((Integer)event.getNewValue()).intValue();
+            BuildWrapperPlugin.setResultCacheSize( size );
+          } else if (event.getProperty().equals(IPreferenceConstants.PERSIST_RESULT_CACHE)){
+            if (event.getNewValue() instanceof Boolean){
+              BuildWrapperPlugin.setPersistResultCache( (Boolean)event.getNewValue() );
+            }
           } else if (event.getProperty().equals( IPreferenceConstants.HASKELL_CONSOLE_HIGH_WATER_MARK )){
             setConsoleMax(((Integer)event.getNewValue()).intValue());
             // update all existing consoles
@@ -1319,7 +1337,7 @@ public class BackendManager implements IResourceChangeListener {
     for (IProject p:prjs){
       IFile f=BuildWrapperPlugin.getCabalFile( p );
       try {
-        PackageDescription pd=PackageDescriptionLoader.load(f);
+        PackageDescription pd=PackageDescriptionLoader.loadShared(f);
         PackageDescriptionStanza pds=pd.getPackageStanza();
         if (pds!=null && pd.getLibraryStanza()!=null){
           String version=pds.getProperties().get( CabalSyntax.FIELD_VERSION );
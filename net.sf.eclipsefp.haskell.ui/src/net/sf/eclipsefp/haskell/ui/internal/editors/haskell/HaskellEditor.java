@@ -155,6 +155,11 @@ public class HaskellEditor extends TextEditor implements IEditorPreferenceNames,
 
   private ImportsManager importsManager;
 
+  /**
+   * the thing at point answers for the current document revision
+   */
+  private final ThingAtPointCache thingAtPointCache=new ThingAtPointCache( this );
+
   /**
    * the names in scope as given by GHC
    */
@@ -447,6 +452,7 @@ public class HaskellEditor extends TextEditor implements IEditorPreferenceNames,
     projectionSupport.addSummarizableAnnotationType("org.eclipse.ui.workbench.texteditor.error"); //$NON-NLS-1$
     projectionSupport.addSummarizableAnnotationType("org.eclipse.ui.workbench.texteditor.warning"); //$NON-NLS-1$
     projectionViewer.doOperation( ProjectionViewer.TOGGLE );
+    thingAtPointCache.install( projectionViewer );
 
     if( markOccurrencesComputer != null ) {
       ISelectionChangedListener listener = new ISelectionChangedListener() {
@@ -525,6 +531,7 @@ public class HaskellEditor extends TextEditor implements IEditorPreferenceNames,
     names.clear();
     lastOutlineResult=null;
     importsManager=null;
+    thingAtPointCache.uninstall();
     if (markOccurrencesComputer!=null){
       markOccurrencesComputer.dispose();
       markOccurrencesComputer=null;
@@ -778,7 +785,17 @@ public class HaskellEditor extends TextEditor implements IEditorPreferenceNames,
           }
         }
 
-        jf.updateFromEditor( file,getDocument(), outlineHandler,this,false,false,handlers );
+        // once buildwrapper has this revision, thing at point answers can be cached
+        final long rev=thingAtPointCache.getRevision();
+        NameDefHandler ndh=new NameDefHandler() {
+
+          @Override
+          public void handleNameDefs( final Collection<NameDef> ns ) {
+            HaskellEditor.this.handleNameDefs( ns );
+            thingAtPointCache.synchronizedWith( rev );
+          }
+        };
+        jf.updateFromEditor( file,getDocument(), outlineHandler,ndh,false,false,handlers );
         /*if (!isDirty()){ // now we've written and not dirty
           needWrite=false;
         }*/
@@ -814,6 +831,13 @@ public class HaskellEditor extends TextEditor implements IEditorPreferenceNames,
     return importsManager;
   }
 
+  /**
+   * @return the cache of thing at point answers
+   */
+  public ThingAtPointCache getThingAtPointCache() {
+    return thingAtPointCache;
+  }
+
 //  private void updateOutline(final IFile currentFile) {
 //    if ( currentFile != null && outlinePage != null ) {
 //      //ScionInstance instance = getInstance( currentFile );
@@ -2,7 +2,6 @@ package net.sf.eclipsefp.haskell.ui.internal.editors.haskell;
 
 import net.sf.eclipsefp.haskell.buildwrapper.BWFacade;
 import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
-import net.sf.eclipsefp.haskell.buildwrapper.types.Location;
 import net.sf.eclipsefp.haskell.buildwrapper.types.ThingAtPoint;
 import net.sf.eclipsefp.haskell.ui.HaskellUIPlugin;
 import net.sf.eclipsefp.haskell.ui.internal.util.UITexts;
@@ -34,21 +33,19 @@ public class HaskellHyperlinkDetector implements IHyperlinkDetector {
     if (file==null){
       return null;
     }
-    Location location;
+    BWFacade f = BuildWrapperPlugin.getFacade( file.getProject() );
+    if( f == null ) {
+      return null;
+    }
+
+    ThingAtPoint thing;
     try {
-      location = new Location( file.getLocation().toOSString(),
+      thing = editor.getThingAtPointCache().getThingAtPoint( f, file,
           textViewer.getDocument(), region );
     } catch( BadLocationException ex ) {
       HaskellUIPlugin.log( UITexts.editor_textHover_error, ex );
       return null;
     }
-
-    BWFacade f = BuildWrapperPlugin.getFacade( file.getProject() );
-    if( f == null ) {
-      return null;
-    }
-
-    ThingAtPoint thing = f.getThingAtPoint( file, location );
     if( thing == null ) {
       return null;
     }
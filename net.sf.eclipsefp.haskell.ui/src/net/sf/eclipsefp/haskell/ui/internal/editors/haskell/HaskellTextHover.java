@@ -10,7 +10,6 @@ import net.sf.eclipsefp.haskell.browser.BrowserPlugin;
 import net.sf.eclipsefp.haskell.browser.items.Documented;
 import net.sf.eclipsefp.haskell.buildwrapper.BWFacade;
 import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
-import net.sf.eclipsefp.haskell.buildwrapper.types.Location;
 import net.sf.eclipsefp.haskell.buildwrapper.types.ThingAtPoint;
 import net.sf.eclipsefp.haskell.ui.HaskellUIPlugin;
 import net.sf.eclipsefp.haskell.ui.internal.editors.haskell.imports.ImportsManager;
@@ -180,14 +179,13 @@ public class HaskellTextHover extends DefaultTextHover implements ITextHoverExte
     IFile file = editor.findFile();
     if (file != null) {
       try {
-        Location location = new Location(file.getLocation().toOSString(), textViewer.getDocument(), hoverRegion);
         //IDocument theDocument = textViewer.getDocument();
         //ScionInstance scionInstance = ScionPlugin.getScionInstance( file );
         BWFacade f=BuildWrapperPlugin.getFacade( file.getProject() );
         if (f != null) {
           //long t0=System.currentTimeMillis();
           //try {
-            ThingAtPoint tap=f.getThingAtPoint(file,location);
+            ThingAtPoint tap=editor.getThingAtPointCache().getThingAtPoint( f, file, textViewer.getDocument(), hoverRegion );
             if (tap!=null){
               StringBuilder sb=new StringBuilder();
 
@@ -0,0 +1,367 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.ui.internal.editors.haskell;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sf.eclipsefp.haskell.buildwrapper.BWFacade;
+import net.sf.eclipsefp.haskell.buildwrapper.BuildWrapperPlugin;
+import net.sf.eclipsefp.haskell.buildwrapper.types.Location;
+import net.sf.eclipsefp.haskell.buildwrapper.types.ThingAtPoint;
+import net.sf.eclipsefp.haskell.core.codeassist.HaskellSyntax;
+import net.sf.eclipsefp.haskell.core.parser.ParserUtils;
+import net.sf.eclipsefp.haskell.ui.HaskellUIPlugin;
+import net.sf.eclipsefp.haskell.ui.internal.util.UITexts;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextInputListener;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.IViewportListener;
+import org.eclipse.jface.text.Region;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Caches the thing at point answers for the current revision of an editor document, by word region, so that
+ * hovers and hyperlinks over the same identifiers do not call buildwrapper each time.
+ * Answers are only cached once buildwrapper has been given the current revision, and the whole cache is dropped
+ * as soon as the document changes.
+ * When the file is idle (synchronized and unchanged), the identifiers of the visible lines are prefetched in the background.
+ * The prefetch backs off while a hover or hyperlink request is pending, since it would keep the long running session busy
+ * @author JP Moresmau
+ *
+ */
+public class ThingAtPointCache implements IDocumentListener, ITextInputListener, IViewportListener {
+  /**
+   * how long the file needs to stay idle before we prefetch, in milliseconds
+   */
+  private static final long PREFETCH_DELAY=500;
+  /**
+   * the maximum number of identifiers we prefetch for a viewport
+   */
+  private static final int PREFETCH_MAX=200;
+
+  private static final Set<String> KEYWORDS=new HashSet<>( Arrays.asList( HaskellSyntax.getKeywords() ) );
+
+  private final HaskellEditor editor;
+  private ITextViewer viewer;
+  private IDocument document;
+
+  /**
+   * the answers for the current revision, by word region
+   */
+  private final Map<IRegion,ThingAtPoint> things=new HashMap<>();
+  /**
+   * the word regions we got no answer for in the current revision. The prefetch does not ask for them again,
+   * but requests do, since no answer may come from a transient error
+   */
+  private final Set<IRegion> misses=new HashSet<>();
+  /**
+   * the number of requests waiting for buildwrapper
+   */
+  private final AtomicInteger pendingRequests=new AtomicInteger( 0 );
+  /**
+   * incremented on each document change
+   */
+  private long revision=0;
+  /**
+   * the last revision buildwrapper has been synchronized with
+   */
+  private long synchronizedRevision=-1;
+
+  /**
+   * the visible lines, read in the UI thread
+   */
+  private volatile int topLine=-1;
+  private volatile int bottomLine=-1;
+
+  private final Job prefetchJob=new Job(UITexts.editor_thingatpoint_job){
+    @Override
+    protected IStatus run( final IProgressMonitor monitor ) {
+      prefetch(monitor);
+      return monitor.isCanceled()?Status.CANCEL_STATUS:Status.OK_STATUS;
+    }
+  };
+
+  public ThingAtPointCache( final HaskellEditor editor ) {
+    this.editor = editor;
+    prefetchJob.setSystem( true );
+    prefetchJob.setPriority( Job.DECORATE );
+  }
+
+  /**
+   * start listening to the viewer and its document
+   * @param viewer the editor viewer
+   */
+  public void install( final ITextViewer viewer ) {
+    this.viewer=viewer;
+    viewer.addTextInputListener( this );
+    viewer.addViewportListener( this );
+    setDocument( viewer.getDocument() );
+  }
+
+  /**
+   * stop listening and drop everything
+   */
+  public void uninstall() {
+    prefetchJob.cancel();
+    if (viewer!=null){
+      viewer.removeTextInputListener( this );
+      viewer.removeViewportListener( this );
+      viewer=null;
+    }
+    setDocument( null );
+  }
+
+  private synchronized void setDocument( final IDocument doc ) {
+    if (document!=null){
+      document.removeDocumentListener( this );
+    }
+    document=doc;
+    if (document!=null){
+      document.addDocumentListener( this );
+    }
+    invalidate();
+  }
+
+  /**
+   * @return the current revision, to give to synchronized once buildwrapper has been given the contents
+   */
+  public synchronized long getRevision() {
+    return revision;
+  }
+
+  /**
+   * buildwrapper has been given the contents of the document at the given revision: if nothing changed since, the file is idle
+   * @param rev the revision
+   */
+  public void synchronizedWith( final long rev ) {
+    synchronized( this ) {
+      if (rev!=revision){
+        return;
+      }
+      synchronizedRevision=rev;
+    }
+    Display display=Display.getDefault();
+    if (!display.isDisposed()){
+      display.asyncExec( new Runnable() {
+        @Override
+        public void run() {
+          schedulePrefetch();
+        }
+      } );
+    }
+  }
+
+  /**
+   * get the thing at point, from the cache if possible
+   * @param f the facade
+   * @param file the file
+   * @param doc the document
+   * @param region the region, only its start matters to buildwrapper
+   * @return the thing at point or null
+   * @throws BadLocationException
+   */
+  public ThingAtPoint getThingAtPoint( final BWFacade f, final IFile file, final IDocument doc, final IRegion region ) throws BadLocationException {
+    IRegion key=null;
+    long rev;
+    synchronized( this ) {
+      rev=revision;
+      if (doc==document && rev==synchronizedRevision){
+        key=findWordRegion( doc, region.getOffset() );
+        ThingAtPoint tap=key!=null?things.get( key ):null;
+        if (tap!=null){
+          return tap;
+        }
+      }
+    }
+    // stop the prefetch so that the long running session is free: the UI thread does not wait for it
+    pendingRequests.incrementAndGet();
+    boolean prefetching=prefetchJob.getState()!=Job.NONE;
+    prefetchJob.cancel();
+    try {
+      Location location = new Location( file.getLocation().toOSString(), doc, region );
+      ThingAtPoint tap=f.getThingAtPoint( file, location );
+      if (key!=null){
+        put( rev, key, tap );
+      }
+      return tap;
+    } finally {
+      if (pendingRequests.decrementAndGet()==0 && prefetching){
+        resumePrefetch( rev );
+      }
+    }
+  }
+
+  private synchronized void put( final long rev, final IRegion key, final ThingAtPoint tap ) {
+    // the document may have changed while we were asking
+    if (rev==revision){
+      if (tap!=null){
+        things.put( key, tap );
+      } else {
+        misses.add( key );
+      }
+    }
+  }
+
+  private synchronized void invalidate() {
+    revision++;
+    things.clear();
+    misses.clear();
+    prefetchJob.cancel();
+  }
+
+  /**
+   * get the word region around the offset
+   * @return the region of the word, or null if the offset is not on a word
+   */
+  private static IRegion findWordRegion( final IDocument doc, final int offset ) throws BadLocationException {
+    if (offset<0 || offset>=doc.getLength()){
+      return null;
+    }
+    IRegion lr=doc.getLineInformationOfOffset( offset );
+    IRegion r=ParserUtils.getHaskellWordRegion( doc.get( lr.getOffset(), lr.getLength() ), offset-lr.getOffset() );
+    return r!=null?new Region( lr.getOffset()+r.getOffset(), r.getLength() ):null;
+  }
+
+  /**
+   * read the visible lines and schedule a prefetch, if the file is idle. Called in the UI thread
+   */
+  private void schedulePrefetch() {
+    ITextViewer v=viewer;
+    if (v==null){
+      return;
+    }
+    StyledText st=v.getTextWidget();
+    if (st==null || st.isDisposed()){
+      return;
+    }
+    topLine=v.getTopIndex();
+    bottomLine=v.getBottomIndex();
+    synchronized( this ) {
+      if (revision!=synchronizedRevision){
+        return;
+      }
+    }
+    prefetchJob.cancel();
+    prefetchJob.schedule( PREFETCH_DELAY );
+  }
+
+  /**
+   * schedule the prefetch again, over the visible lines we last read, after a request stopped it
+   * @param rev the revision the request was made for
+   */
+  private void resumePrefetch( final long rev ) {
+    synchronized( this ) {
+      if (rev!=revision || rev!=synchronizedRevision){
+        return;
+      }
+    }
+    prefetchJob.schedule( PREFETCH_DELAY );
+  }
+
+  /**
+   * ask buildwrapper for the identifiers of the visible lines we don't know yet
+   */
+  private void prefetch( final IProgressMonitor monitor ) {
+    IFile file=editor.findFile();
+    if (file==null || file.getLocation()==null){
+      return;
+    }
+    BWFacade f=BuildWrapperPlugin.getFacade( file.getProject() );
+    if (f==null){
+      return;
+    }
+    IDocument doc;
+    long rev;
+    synchronized( this ) {
+      doc=document;
+      rev=revision;
+      if (doc==null || rev!=synchronizedRevision){
+        return;
+      }
+    }
+    int count=0;
+    try {
+      int bottom=Math.min( bottomLine, doc.getNumberOfLines()-1 );
+      for (int line=Math.max( topLine, 0 );line<=bottom;line++){
+        IRegion lr=doc.getLineInformation( line );
+        String s=doc.get( lr.getOffset(), lr.getLength() );
+        int off=0;
+        while (off<s.length()){
+          IRegion r=ParserUtils.getHaskellWordRegion( s, off );
+          if (r==null){
+            off++;
+            continue;
+          }
+          off=r.getOffset()+r.getLength();
+          String word=s.substring( r.getOffset(), off );
+          char c=word.charAt( 0 );
+          if ((!Character.isLetter( c ) && c!='_') || KEYWORDS.contains( word )){
+            continue;
+          }
+          IRegion key=new Region( lr.getOffset()+r.getOffset(), r.getLength() );
+          synchronized( this ) {
+            if (rev!=revision){
+              return;
+            }
+            if (things.containsKey( key ) || misses.contains( key )){
+              continue;
+            }
+          }
+          // a request is waiting for the session: it will schedule us again
+          if (monitor.isCanceled() || pendingRequests.get()>0 || count>=PREFETCH_MAX){
+            return;
+          }
+          Location location = new Location( file.getLocation().toOSString(), doc, key );
+          put( rev, key, f.getThingAtPoint( file, location ) );
+          count++;
+        }
+      }
+    } catch (BadLocationException ble){
+      // the document changed under us: the next revision will prefetch again
+    } catch (Exception e){
+      HaskellUIPlugin.log( e );
+    }
+  }
+
+  @Override
+  public void documentAboutToBeChanged( final DocumentEvent event ) {
+    invalidate();
+  }
+
+  @Override
+  public void documentChanged( final DocumentEvent event ) {
+    // invalidated before the change
+  }
+
+  @Override
+  public void inputDocumentAboutToBeChanged( final IDocument oldInput, final IDocument newInput ) {
+    setDocument( null );
+  }
+
+  @Override
+  public void inputDocumentChanged( final IDocument oldInput, final IDocument newInput ) {
+    setDocument( newInput );
+  }
+
+  @Override
+  public void viewportChanged( final int verticalOffset ) {
+    schedulePrefetch();
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.ui.internal.editors.haskell.codeassist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.sf.eclipsefp.haskell.ui.HaskellUIPlugin;
+import net.sf.eclipsefp.haskell.ui.internal.util.UITexts;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * A request for completion proposals: each source of proposals (imports, locals, project files, browser) runs in its own job,
+ * in parallel. The content assist processor waits for the sources up to a latency budget and shows what has arrived;
+ * if some sources finish later, a listener is told so that the proposals can be refreshed.
+ * A request superseded by a new one, because the user kept typing, is canceled
+ * @author JP Moresmau
+ *
+ */
+class CompletionRequest {
+  /**
+   * identifies what the request is for: a request with the same key can be reused
+   */
+  private final String key;
+  private final List<Source<?>> sources=new ArrayList<>();
+  private CountDownLatch latch;
+  private volatile boolean canceled=false;
+  /**
+   * has somebody stopped waiting for us?
+   */
+  private volatile boolean late=false;
+  /**
+   * called when the last source finishes after the latency budget
+   */
+  private Runnable lateListener;
+
+  CompletionRequest( final String key ) {
+    this.key = key;
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  /**
+   * add a source, before the request is started
+   * @param source the source
+   * @return the source
+   */
+  <T> Source<T> add( final Source<T> source ) {
+    source.request=this;
+    sources.add( source );
+    return source;
+  }
+
+  /**
+   * @param lateListener called in the job of the last source if it finishes after the latency budget
+   */
+  void setLateListener( final Runnable lateListener ) {
+    this.lateListener = lateListener;
+  }
+
+  /**
+   * schedule all the sources
+   */
+  void start() {
+    latch=new CountDownLatch( sources.size() );
+    for (Source<?> s:sources){
+      s.schedule();
+    }
+  }
+
+  /**
+   * wait for the sources
+   * @param budget the maximum time to wait, in milliseconds
+   * @return true if all the sources have finished
+   */
+  boolean await( final long budget ) {
+    boolean complete=false;
+    try {
+      complete=latch.await( budget, TimeUnit.MILLISECONDS );
+    } catch (InterruptedException ie){
+      // show what we have
+    }
+    if (!complete){
+      late=true;
+      complete=latch.getCount()==0;
+    }
+    return complete;
+  }
+
+  boolean isComplete() {
+    return latch!=null && latch.getCount()==0;
+  }
+
+  boolean isCanceled() {
+    return canceled;
+  }
+
+  /**
+   * cancel the sources that are still running: their results are ignored
+   */
+  void cancel() {
+    canceled=true;
+    for (Source<?> s:sources){
+      s.cancel();
+    }
+  }
+
+  private void sourceDone() {
+    latch.countDown();
+    if (latch.getCount()==0 && late && !canceled && lateListener!=null){
+      lateListener.run();
+    }
+  }
+
+  /**
+   * a source of proposals, running in a system job
+   * @param <T> the type of result
+   */
+  abstract static class Source<T> extends Job {
+    private CompletionRequest request;
+    private volatile T result;
+
+    Source() {
+      super( UITexts.proposal_job );
+      setSystem( true );
+      setPriority( Job.INTERACTIVE );
+    }
+
+    /**
+     * @param monitor the monitor, canceled when the request is
+     * @return the result
+     * @throws Exception
+     */
+    protected abstract T compute( IProgressMonitor monitor ) throws Exception;
+
+    @Override
+    protected IStatus run( final IProgressMonitor monitor ) {
+      try {
+        if (!monitor.isCanceled()){
+          T t=compute( monitor );
+          if (!monitor.isCanceled()){
+            result=t;
+          }
+        }
+      } catch (Exception e){
+        HaskellUIPlugin.log( e );
+      } finally {
+        request.sourceDone();
+      }
+      return monitor.isCanceled()?Status.CANCEL_STATUS:Status.OK_STATUS;
+    }
+
+    /**
+     * @return the result, or null if the source has not finished or was canceled
+     */
+    T getProposals() {
+      return result;
+    }
+  }
+}
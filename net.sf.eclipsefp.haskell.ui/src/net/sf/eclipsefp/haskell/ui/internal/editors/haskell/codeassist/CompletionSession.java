@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.ui.internal.editors.haskell.codeassist;
+
+import java.util.Arrays;
+import java.util.List;
+import net.sf.eclipsefp.haskell.browser.items.Documented;
+
+/**
+ * The candidates of a completion session, computed once for the prefix typed when the session started,
+ * in the order they are proposed. As the user keeps typing, the prefix only grows, so we filter the
+ * last candidates instead of asking all the sources again.
+ * The session is only valid for the context it was computed in: the file, scope, qualifier and imports
+ * @author JP Moresmau
+ *
+ */
+class CompletionSession {
+  /**
+   * what the candidates depend on, apart from the prefix
+   */
+  private final String context;
+  /**
+   * the prefix the candidates were computed for
+   */
+  private final String basePrefix;
+  /**
+   * all the candidates, in proposal order
+   */
+  private final Candidate[] candidates;
+  /**
+   * the last prefix we filtered on
+   */
+  private String lastPrefix;
+  /**
+   * the candidates matching the last prefix, in proposal order
+   */
+  private Candidate[] lastCandidates;
+
+  CompletionSession( final String context, final String prefix, final List<Candidate> candidates ) {
+    this.context = context;
+    this.basePrefix = prefix;
+    this.candidates = candidates.toArray( new Candidate[candidates.size()] );
+    this.lastPrefix = prefix;
+    this.lastCandidates = this.candidates;
+  }
+
+  /**
+   * @param context the current context
+   * @param prefix the current prefix
+   * @return true if the candidates can be found by filtering ours
+   */
+  boolean accepts( final String context, final String prefix ) {
+    return this.context.equals( context ) && prefix.startsWith( basePrefix );
+  }
+
+  /**
+   * @param prefix the current prefix, accepted by this session
+   * @return the candidates starting with the prefix, in proposal order
+   */
+  Candidate[] filter( final String prefix ) {
+    // the user deleted characters: start again from all the candidates
+    Candidate[] source=prefix.startsWith( lastPrefix )?lastCandidates:candidates;
+    if (!prefix.equals( lastPrefix ) || source!=lastCandidates){
+      Candidate[] filtered=new Candidate[source.length];
+      int count=0;
+      for (Candidate c:source){
+        if (c.getKey().startsWith( prefix )){
+          filtered[count++]=c;
+        }
+      }
+      lastCandidates=Arrays.copyOf( filtered, count );
+      lastPrefix=prefix;
+    }
+    return lastCandidates;
+  }
+
+  /**
+   * a proposal, before the offset it applies to is known
+   */
+  static class Candidate {
+    private final String key;
+    private final Documented documented;
+    private final boolean type;
+    private final String pkg;
+    private final String realImport;
+
+    /**
+     * @param key the declaration key: the name, followed by the module for declarations not imported yet
+     * @param documented the declaration
+     * @param type is it a type?
+     * @param pkg the package to add a reference to, or null
+     * @param realImport what to import instead of the name, or null
+     */
+    Candidate( final String key, final Documented documented, final boolean type, final String pkg, final String realImport ) {
+      this.key = key;
+      this.documented = documented;
+      this.type = type;
+      this.pkg = pkg;
+      this.realImport = realImport;
+    }
+
+    String getKey() {
+      return key;
+    }
+
+    Documented getDocumented() {
+      return documented;
+    }
+
+    boolean isType() {
+      return type;
+    }
+
+    String getPackage() {
+      return pkg;
+    }
+
+    String getRealImport() {
+      return realImport;
+    }
+  }
+}
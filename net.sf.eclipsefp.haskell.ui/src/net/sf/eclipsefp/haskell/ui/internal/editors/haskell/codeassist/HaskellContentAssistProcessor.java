@@ -56,9 +56,11 @@ import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.contentassist.CompletionProposal;
@@ -71,7 +73,9 @@ import org.eclipse.jface.text.contentassist.IContentAssistProcessor;
 import org.eclipse.jface.text.contentassist.IContextInformation;
 import org.eclipse.jface.text.contentassist.IContextInformationValidator;
 import org.eclipse.osgi.util.NLS;
+import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.keys.IBindingService;
 
@@ -132,6 +136,23 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
    */
   private String contentAssistBinding;
 
+  /**
+   * how long we wait for the sources of proposals before showing what we have, in milliseconds
+   */
+  private static final long LATENCY_BUDGET=300;
+  /**
+   * the last request for proposals of the default completion context
+   */
+  private DefaultRequest request;
+  /**
+   * are we showing again the proposals of a request whose sources finished late?
+   */
+  private boolean refreshing=false;
+  /**
+   * the candidates of the current completion session, filtered as the prefix grows
+   */
+  private CompletionSession session;
+
   /**
    * The constructor.
    *
@@ -177,7 +198,7 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
     } else {
       if (prf!=null){ // && (!prf.startsWith( prefix ) || prf.length()==0)){
         if (prf.length()>0){
-          if (prf.equals( prefix )){
+          if (prf.equals( prefix ) && !refreshing){
             scope=scope.next();
           }
         }
@@ -311,6 +332,12 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
 
 	/** Hard reset internal state */
 	private void internalReset() {
+	  // nobody will want the proposals still being computed
+	  if (request!=null && !request.isComplete()){
+	    request.cancel();
+	    request=null;
+	  }
+	  session = null;
 	  context = CompletionContext.NO_CONTEXT;
     prefixOffsetAnchor = -1;
 	  prefix = new String();
@@ -378,144 +405,113 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
     HaskellEditor editor=(HaskellEditor)HaskellUIPlugin.getTextEditor( viewer );
     ImportsManager mgr =editor!=null?editor.getImportsManager():null;
         //new ImportsManager( theFile, doc );
-    //long t0=System.currentTimeMillis();
-    Map<String, Documented> decls = new HashMap<>();
-    //long t1=System.currentTimeMillis();
-    //HaskellUIPlugin.log( "getDeclarations:"+(t1-t0), IStatus.INFO );
-    ArrayList<String> elts = new ArrayList<>();
-    ArrayList<String> typeElts = new ArrayList<>();
+    final ProposalScope sc=scope;
+    String sessionContext=getSessionContext( theFile, mgr, sc, prefix, needSearch, typesHavePriority );
+    CompletionSession.Candidate[] candidates;
+    if (session!=null && session.accepts( sessionContext, prefix )){
+      // the prefix only got longer: filter what we have
+      candidates=session.filter( prefix );
+    } else {
+      session=null;
+      DefaultRequest req=getRequest( viewer, theFile, doc, offset, editor, mgr, sc, prefix, needSearch );
+      boolean complete=req.await( LATENCY_BUDGET );
+      if (!complete){
+        // keep the list open, so that the proposals that arrive late can be shown
+        assistant.setShowEmptyList( true );
+      }
+      List<CompletionSession.Candidate> l=getCandidates( req, sc, prefix, typesHavePriority );
+      // only keep complete results for the next keystrokes
+      if (complete){
+        session=new CompletionSession( sessionContext, prefix, l );
+      }
+      candidates=l.toArray( new CompletionSession.Candidate[l.size()] );
+    }
 
-    // declaration key to package
-    Map<String,String> packages=new HashMap<>();
-    // constructor key to declaration name (if we use a constructor from a new module, we need to import to data type, not the constructor)
-    Map<String,String> constructors=new HashMap<>();
+    // Merge the results together (templates precede generated proposals):
+    int totalSize = templateProposals.length + candidates.length;
+    ICompletionProposal[] result = new ICompletionProposal[ totalSize ];
 
-    //ProposalScope ps=ProposalScope.valueOf( HaskellUIPlugin.getDefault().getPreferenceStore().getString( IEditorPreferenceNames.CA_PROPOSALS_SCOPE ) );
+    if ( templateProposals.length > 0 ) {
+      System.arraycopy( templateProposals, 0, result, 0, templateProposals.length );
+    }
 
-    Map<String,Documented> importeds=mgr!=null?mgr.getDeclarations():new HashMap<String, Documented>();
-    IProject project=theFile.getProject();
-    if (needSearch && !scope.equals( ProposalScope.IMPORTED )){
-      try {
-        Set<String> pkgs=ResourceUtil.getImportPackages( new IFile[]{theFile});
-
-//        List<SymbolDef> sds=BuildWrapperPlugin.getDefault().getUsageAPI().listDefinedSymbols( theFile.getProject() );
-//        for (SymbolDef sd:sds){
-//          String name=sd.getName();
-//          if (name.startsWith( prefix ) && !importeds.containsKey( name )){
-//            name=name+" ("+sd.getModule()+")";
-//            Documented d=null;
-//            String comm=sd.getComment();
-//            if (comm==null){
-//              comm="";
-//            }
-//            switch (sd.getType()){
-//              case UsageQueryFlags.TYPE_CONSTRUCTOR:
-//                d=new Constructor( comm, sd.getName(), "?",null );
-//                break;
-//              case UsageQueryFlags.TYPE_TYPE:
-//                d=new DataType( comm, new String[0], sd.getName(), new String[0], "", new Constructor[0] );
-//                break;
-//              case UsageQueryFlags.TYPE_VAR:
-//                d=new Function( comm, sd.getName(), "" );
-//            }
-//            decls.put(name, d );
-//          }
-//        }
+    final int plength = prefix.length();
 
-        if (scope.equals( ProposalScope.ALL )){
-          // search on everything
-          if (BrowserPlugin.getSharedInstance().isAnyDatabaseLoaded() && !BrowserPlugin.getSharedInstance().isRunning()){
-            Packaged<Declaration>[] browserDecls=BrowserPlugin.getSharedInstance().getDeclarationsFromPrefix(Database.LOCAL, prefix);
-            if (browserDecls.length > 0) {
-              // If the browser found the module
-              for (Packaged<Declaration> browserDecl : browserDecls) {
-                boolean newPackage=!pkgs.contains( browserDecl.getPackage().getName() );
-                addBrowserDecl( browserDecl, decls, packages, constructors, newPackage );
-              }
-            }
-          }
-        } else if (scope.equals( ProposalScope.PROJECT )){
-          // things in project
-          for (IContainer src:ResourceUtil.getAllSourceContainers( theFile )){
-            Collection<IFile> fs=ResourceUtil.getSourceFiles(src);
-            addFileSymbols(prefix,fs,importeds,decls,constructors);
-          }
-          // we reference ourselves, more exactly the library stanza
-          // so we need to retrieve exposed modules from the library
-          if (pkgs.contains( project.getName() )){
-            IFile cf=BuildWrapperPlugin.getCabalFile( project );
-            PackageDescription pd=PackageDescriptionLoader.load(cf);
-            Map<String,List<PackageDescriptionStanza>> pds=pd.getStanzasBySourceDir();
-            // retrieve all possible source containers for the library
-            Set<IContainer> srcs=new HashSet<>();
-            PackageDescriptionStanza pdLibrary=null;
-            for (String src:pds.keySet()){
-              for (PackageDescriptionStanza pd1:pds.get( src )){
-                if (CabalSyntax.SECTION_LIBRARY.equals(pd1.getType())){
-                  srcs.add( ResourceUtil.getContainer(project,src) );
-                  pdLibrary=pd1;
-                  break;
-                }
-              }
-            }
-            if (pdLibrary!=null){
-                Collection<IFile> fs=new ArrayList<>();
-                // find the file for all exposed modules
-                String ps=pdLibrary.getProperties().get( CabalSyntax.FIELD_EXPOSED_MODULES );
-                List<String> ls=PackageDescriptionLoader.parseList( ps );
-                for (String m:ls){
-                  String path=m.replace( '.', '/' );
-                  outer:for (String ext:FileUtil.haskellExtensions){
-                    for (IContainer fldr:srcs){
-                      IFile file=fldr.getFile( new Path( path+"."+ext ) ); //$NON-NLS-1$
-                      if (file.exists()){
-                        fs.add(file);
-                        break outer;
-                      }
-                    }
-                  }
-                }
-                addFileSymbols(prefix,fs,importeds,decls,constructors);
-            }
+    int i = templateProposals.length;
+    for (CompletionSession.Candidate c:candidates){
+      result[i] = getCompletionProposal( c.getKey(), c.getDocumented(), offset, plength, c.isType(), c.getPackage(), c.getRealImport() );
+      i++;
+    }
 
-          }
+    //scope=scope.next();
+    //HaskellUIPlugin.log( "scope:"+scope,IStatus.INFO);
+    return result;
+   // return (totalSize > 0 ? result : null);
+	}
 
-          // search on dependent packages only
-          BWFacade f=BuildWrapperPlugin.getFacade( project );
-          if (f!=null && BrowserPlugin.getSharedInstance().isAnyDatabaseLoaded() && !BrowserPlugin.getSharedInstance().isRunning()){
-            for (CabalPackage[] cps:f.getPackagesByDB().values()){
-              for (CabalPackage cp:cps){
-                if (pkgs.contains( cp.getName() )){
-                  if (!f.getProject().getName().equals( cp.getName() )){
-                    Database pkg=Database.Package( new PackageIdentifier( cp.getName(), cp.getVersion() ) );
-                    Packaged<Declaration>[] browserDecls=BrowserPlugin.getSharedInstance().getDeclarationsFromPrefix(pkg, prefix);
-                    if (browserDecls.length > 0) {
-                      // If the browser found the module
-                      for (Packaged<Declaration> browserDecl : browserDecls) {
-                        addBrowserDecl( browserDecl, decls, packages, constructors, false );
-
-                      }
-
-                    }
-                  }
-                }
-              }
-            }
+  /**
+   * what the candidates of the default completion context depend on, apart from the prefix
+   */
+  private static String getSessionContext( final IFile theFile, final ImportsManager mgr, final ProposalScope sc, final String prefix,
+      final boolean needSearch, final boolean typesHavePriority ) {
+    StringBuilder sb=new StringBuilder();
+    sb.append( theFile.getFullPath() ).append( ":" ).append( sc ).append( ":" ).append( typesHavePriority );
+    // imported scope does not search, so we don't need to recompute when we start searching
+    sb.append( ":" ).append( needSearch && !sc.equals( ProposalScope.IMPORTED ) );
+    // the qualifier
+    sb.append( ":" ).append( prefix.substring( 0, prefix.lastIndexOf( '.' ) + 1 ) );
+    if (mgr!=null){
+      for (AnImport imp:mgr.parseImports()){
+        sb.append( ":" ).append( imp.getImportDef() );
+      }
+    }
+    return sb.toString();
+  }
 
+  /**
+   * merge the results of the sources that have finished, sources computed first have priority
+   * @return the candidates, in proposal order
+   */
+  private static List<CompletionSession.Candidate> getCandidates( final DefaultRequest req, final ProposalScope sc,
+      final String prefix, final boolean typesHavePriority ) {
+    Symbols all=new Symbols();
+    Map<String,Documented> importeds=new HashMap<>();
+    if (req.imports.getProposals()!=null){
+      importeds.putAll( req.imports.getProposals() );
+    }
+    if (req.project!=null && req.project.getProposals()!=null){
+      Symbols s=req.project.getProposals();
+      for (String key:s.decls.keySet()){
+        // the key is the name followed by the module
+        String name=key.substring( 0, key.lastIndexOf( " (" ) );
+        if (!importeds.containsKey( name )){
+          s.copyTo( all, key );
+        }
+      }
+    }
+    if (req.browser!=null && req.browser.getProposals()!=null){
+      Symbols s=req.browser.getProposals();
+      for (String key:s.decls.keySet()){
+        if (!all.decls.containsKey( key )){
+          s.copyTo( all, key );
+        }
+      }
+    }
+    if (sc.equals( ProposalScope.IMPORTED )){
+      if (req.locals!=null && req.locals.getProposals()!=null){
+        for (ThingAtPoint t:req.locals.getProposals()){
+          if (!importeds.containsKey( t.getName() )){
+            importeds.put( t.getName(), new Local("",t.getName(),t.getType()) );
           }
         }
-
-      } catch (Exception e){
-        HaskellUIPlugin.log( e );
       }
+      all.decls.putAll(importeds);
     }
-    if (scope.equals( ProposalScope.IMPORTED )){
-      addLocals( editor, project, theFile, doc, offset, importeds );
 
-      decls.putAll(importeds);
-    }
+    ArrayList<String> elts = new ArrayList<>();
+    ArrayList<String> typeElts = new ArrayList<>();
 
-    for ( Map.Entry<String, Documented> s : decls.entrySet() ) {
+    for ( Map.Entry<String, Documented> s : all.decls.entrySet() ) {
       if ( s.getKey().startsWith( prefix ) && s.getValue()!=null) {
         if (s.getValue().isType()) {
           typeElts.add( s.getKey() );
@@ -525,8 +521,6 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
       }
     }
 
-
-
     Comparator<String> pointedComparator = new Comparator<String>() {
 
       @Override
@@ -546,64 +540,216 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
     Collections.sort( elts, pointedComparator );
     Collections.sort( typeElts, pointedComparator );
 
-    // Merge the results together (templates precede generated proposals):
-    int totalSize = templateProposals.length + elts.size() + typeElts.size();
-    int endIndex = 0;
-    ICompletionProposal[] result = new ICompletionProposal[ totalSize ];
-
-    if ( templateProposals.length > 0 ) {
-      System.arraycopy( templateProposals, 0, result, endIndex, templateProposals.length );
-      endIndex += templateProposals.length;
+    List<CompletionSession.Candidate> types=new ArrayList<>(typeElts.size());
+    for ( String s : typeElts ) {
+      // declaration key to package
+      types.add( new CompletionSession.Candidate( s, all.decls.get( s ), true, all.packages.get( s ), null ) );
     }
-
-    final int plength = prefix.length();
-
-    int i = 0;
-
+    List<CompletionSession.Candidate> ret=new ArrayList<>(elts.size()+typeElts.size());
     if (typesHavePriority) {
-      i = 0;
-      for ( String s : typeElts ) {
-        Documented d = decls.get( s );
-        result[endIndex + i] = getCompletionProposal( s, d, offset, plength, true,packages.get( s ) ,null);
-        i++;
-      }
-      endIndex += typeElts.size();
+      ret.addAll( types );
     }
-
-    i = 0;
     for ( String s : elts ) {
-      Documented d = decls.get( s );
+      Documented d = all.decls.get( s );
       String realImport=null;
+      // if we use a constructor from a new module, we need to import to data type, not the constructor
       if (d instanceof Constructor){
-        realImport=constructors.get( s )+"(..)";
+        realImport=all.constructors.get( s )+"(..)";
       }
-      result[endIndex + i] =getCompletionProposal( s, d, offset, plength, false,packages.get( s )  ,realImport);
-      i++;
+      ret.add( new CompletionSession.Candidate( s, d, false, all.packages.get( s ), realImport ) );
     }
-    endIndex += elts.size();
-
     if (!typesHavePriority) {
-      i = 0;
-      for ( String s : typeElts ) {
-        Documented d = decls.get( s );
-        result[endIndex + i] = getCompletionProposal( s, d, offset, plength, true,packages.get( s )  ,null);
-        i++;
+      ret.addAll( types );
+    }
+    return ret;
+  }
+
+  /**
+   * get the request for the proposals of the default completion context, starting it if we don't have it already
+   */
+  private DefaultRequest getRequest( final ITextViewer viewer, final IFile theFile, final IDocument doc, final int offset,
+      final HaskellEditor editor, final ImportsManager mgr, final ProposalScope sc, final String prefix, final boolean needSearch ) {
+    long stamp=doc instanceof IDocumentExtension4?((IDocumentExtension4)doc).getModificationStamp():doc.getLength();
+    String key=theFile.getFullPath()+":"+stamp+":"+offset+":"+prefix+":"+sc+":"+needSearch;
+    if (request!=null && request.getKey().equals( key ) && !request.isCanceled()){
+      return request;
+    }
+    // the user has kept typing
+    if (request!=null){
+      request.cancel();
+    }
+    final DefaultRequest req=new DefaultRequest( key );
+    // the imports are parsed now, from the outline or the document, the job only computes their declarations
+    final List<AnImport> imps=mgr!=null?mgr.parseImports():null;
+    req.imports=req.add( new CompletionRequest.Source<Map<String,Documented>>() {
+      @Override
+      protected Map<String, Documented> compute( final IProgressMonitor monitor ) {
+        return mgr!=null?mgr.getDeclarations( imps ):new HashMap<String, Documented>();
       }
-      endIndex += typeElts.size();
+    } );
+    if (sc.equals( ProposalScope.IMPORTED )){
+      // the outline is read now, buildwrapper is asked in the job
+      final Location odL=editor!=null?editor.getOutlineSpan( offset ):null;
+      final BWFacade f=BuildWrapperPlugin.getFacade( theFile.getProject() );
+      if (odL!=null && f!=null){
+        req.locals=req.add( new CompletionRequest.Source<List<ThingAtPoint>>() {
+          @Override
+          protected List<ThingAtPoint> compute( final IProgressMonitor monitor ) {
+            return f.getLocals( theFile, odL );
+          }
+        } );
+      }
+    } else if (needSearch){
+      if (sc.equals( ProposalScope.PROJECT )){
+        req.project=req.add( new CompletionRequest.Source<Symbols>() {
+          @Override
+          protected Symbols compute( final IProgressMonitor monitor ) throws CoreException {
+            Symbols s=new Symbols();
+            addProjectSymbols( theFile, prefix, s );
+            return s;
+          }
+        } );
+      }
+      req.browser=req.add( new CompletionRequest.Source<Symbols>() {
+        @Override
+        protected Symbols compute( final IProgressMonitor monitor ) throws Exception {
+          Symbols s=new Symbols();
+          addBrowserSymbols( theFile, prefix, sc, s );
+          return s;
+        }
+      } );
     }
+    req.setLateListener( new Runnable() {
+      @Override
+      public void run() {
+        refresh( req, viewer );
+      }
+    } );
+    request=req;
+    req.start();
+    return req;
+  }
 
-    //scope=scope.next();
-    //HaskellUIPlugin.log( "scope:"+scope,IStatus.INFO);
-    return result;
-   // return (totalSize > 0 ? result : null);
-	}
+  /**
+   * show the proposals again, once the sources that missed the latency budget have finished
+   */
+  private void refresh( final CompletionRequest req, final ITextViewer viewer ) {
+    final Display display=PlatformUI.getWorkbench().getDisplay();
+    if (display.isDisposed()){
+      return;
+    }
+    display.asyncExec( new Runnable() {
+      @Override
+      public void run() {
+        StyledText st=viewer.getTextWidget();
+        if (req==request && !req.isCanceled() && st!=null && !st.isDisposed()){
+          refreshing=true;
+          try {
+            assistant.showPossibleCompletions();
+          } finally {
+            refreshing=false;
+          }
+        }
+      }
+    } );
+  }
+
+  /**
+   * add the symbols of the project files, and of the library if we reference it
+   */
+  private static void addProjectSymbols( final IFile theFile, final String prefix, final Symbols s ) throws CoreException {
+    IProject project=theFile.getProject();
+    Set<String> pkgs=ResourceUtil.getImportPackages( new IFile[]{theFile});
+    // things in project
+    for (IContainer src:ResourceUtil.getAllSourceContainers( theFile )){
+      Collection<IFile> fs=ResourceUtil.getSourceFiles(src);
+      addFileSymbols(prefix,fs,s.decls,s.constructors);
+    }
+    // we reference ourselves, more exactly the library stanza
+    // so we need to retrieve exposed modules from the library
+    if (pkgs.contains( project.getName() )){
+      IFile cf=BuildWrapperPlugin.getCabalFile( project );
+      PackageDescription pd=PackageDescriptionLoader.loadShared(cf);
+      Map<String,List<PackageDescriptionStanza>> pds=pd.getStanzasBySourceDir();
+      // retrieve all possible source containers for the library
+      Set<IContainer> srcs=new HashSet<>();
+      PackageDescriptionStanza pdLibrary=null;
+      for (String src:pds.keySet()){
+        for (PackageDescriptionStanza pd1:pds.get( src )){
+          if (CabalSyntax.SECTION_LIBRARY.equals(pd1.getType())){
+            srcs.add( ResourceUtil.getContainer(project,src) );
+            pdLibrary=pd1;
+            break;
+          }
+        }
+      }
+      if (pdLibrary!=null){
+          Collection<IFile> fs=new ArrayList<>();
+          // find the file for all exposed modules
+          String ps=pdLibrary.getProperties().get( CabalSyntax.FIELD_EXPOSED_MODULES );
+          List<String> ls=PackageDescriptionLoader.parseList( ps );
+          for (String m:ls){
+            String path=m.replace( '.', '/' );
+            outer:for (String ext:FileUtil.haskellExtensions){
+              for (IContainer fldr:srcs){
+                IFile file=fldr.getFile( new Path( path+"."+ext ) ); //$NON-NLS-1$
+                if (file.exists()){
+                  fs.add(file);
+                  break outer;
+                }
+              }
+            }
+          }
+          addFileSymbols(prefix,fs,s.decls,s.constructors);
+      }
+    }
+  }
+
+  /**
+   * add the declarations the browser finds: in all packages for the ALL scope, in the dependent packages for the PROJECT scope
+   */
+  private static void addBrowserSymbols( final IFile theFile, final String prefix, final ProposalScope sc, final Symbols s ) throws Exception {
+    Set<String> pkgs=ResourceUtil.getImportPackages( new IFile[]{theFile});
+    if (sc.equals( ProposalScope.ALL )){
+      // search on everything
+      if (BrowserPlugin.getSharedInstance().isAnyDatabaseLoaded()){
+        // from memory once the local database is indexed
+        Packaged<Declaration>[] browserDecls=BrowserPlugin.getDeclarationsFromPrefix(Database.LOCAL, prefix);
+        for (Packaged<Declaration> browserDecl : browserDecls) {
+          boolean newPackage=!pkgs.contains( browserDecl.getPackage().getName() );
+          addBrowserDecl( browserDecl, s.decls, s.packages, s.constructors, newPackage );
+        }
+      }
+      return;
+    }
+    // search on dependent packages only
+    BWFacade f=BuildWrapperPlugin.getFacade( theFile.getProject() );
+    if (f!=null && BrowserPlugin.getSharedInstance().isAnyDatabaseLoaded()){
+      for (CabalPackage[] cps:f.getPackagesByDB().values()){
+        for (CabalPackage cp:cps){
+          if (pkgs.contains( cp.getName() )){
+            if (!f.getProject().getName().equals( cp.getName() )){
+              Database pkg=Database.Package( new PackageIdentifier( cp.getName(), cp.getVersion() ) );
+              Packaged<Declaration>[] browserDecls=BrowserPlugin.getDeclarationsFromPrefix(pkg, prefix);
+              if (browserDecls.length > 0) {
+                // If the browser found the module
+                for (Packaged<Declaration> browserDecl : browserDecls) {
+                  addBrowserDecl( browserDecl, s.decls, s.packages, s.constructors, false );
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+  }
 
-	private static void addFileSymbols(final String prefix, final Collection<IFile> fs,final Map<String,Documented> importeds,final Map<String, Documented> decls,final Map<String,String> constructors){
+	private static void addFileSymbols(final String prefix, final Collection<IFile> fs,final Map<String, Documented> decls,final Map<String,String> constructors){
 	  for (IFile f:fs){
       String module=ResourceUtil.getModuleName( f );
       for (FileDocumented fd:AnImport.getDeclarationsFromFile( f )){
         String name=fd.getDocumented().getName();
-        if (name.startsWith( prefix ) && !importeds.containsKey( name )){
+        if (name.startsWith( prefix )){
           name=name+" ("+module+")";
           decls.put(name, fd.getDocumented() );
           if (fd.getDocumented() instanceof Constructor){
@@ -617,33 +763,6 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
     }
 	}
 
-	/**
-	 * add local definition from the method
-	 * @param editor
-	 * @param project
-	 * @param theFile
-	 * @param doc
-	 * @param offset
-	 * @param importeds
-	 */
-	private static void addLocals(final HaskellEditor editor,final IProject project,final IFile theFile,final IDocument doc,final int offset,final Map<String,Documented> importeds){
-	  if (editor!=null){
-  	  BWFacade f=BuildWrapperPlugin.getFacade(project) ;
-      if (f!=null){
-        Location odL=editor.getOutlineSpan( offset );
-        if (odL!=null){
-          List<ThingAtPoint> taps=f.getLocals( theFile,odL);
-          for (ThingAtPoint t:taps){
-            Local func=new Local("",t.getName(),t.getType());
-            if (!importeds.containsKey( t.getName() )){
-              importeds.put(t.getName(),func);
-            }
-          }
-        }
-      }
-	  }
-	}
-
 	private static boolean isPointed(final String name){
 	  int ix=name.indexOf( " (" );
 	  if (ix>-1){
@@ -653,7 +772,7 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
 	}
 
 
-	private void addBrowserDecl(final Packaged<Declaration> browserDecl,final Map<String, Documented> decls,final Map<String,String> packages,final Map<String,String> constructors, final boolean newPackage){
+	private static void addBrowserDecl(final Packaged<Declaration> browserDecl,final Map<String, Documented> decls,final Map<String,String> packages,final Map<String,String> constructors, final boolean newPackage){
 	  String key= browserDecl.getElement().getName()+" (";
 	  // prepend package name before module to indicate this will create a new reference
 	  if (newPackage){
@@ -772,7 +891,7 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
   	      if (ResourceUtil.hasHaskellNature( p )){
   	        IFile f=BuildWrapperPlugin.getCabalFile( p );
   	        if (f!=null){
-    	        PackageDescription pd=PackageDescriptionLoader.load(f);
+    	        PackageDescription pd=PackageDescriptionLoader.loadShared(f);
     	        PackageDescriptionStanza pds=pd.getLibraryStanza();
     	        if (pds!=null){
     	          exposedModules.addAll(pds.listExposedModules());
@@ -986,6 +1105,44 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
     return new String();
 	}
 
+  /**
+   * the sources of proposals for the default completion context
+   */
+  private static class DefaultRequest extends CompletionRequest {
+    private CompletionRequest.Source<Map<String,Documented>> imports;
+    private CompletionRequest.Source<List<ThingAtPoint>> locals;
+    private CompletionRequest.Source<Symbols> project;
+    private CompletionRequest.Source<Symbols> browser;
+
+    private DefaultRequest( final String key ) {
+      super( key );
+    }
+  }
+
+  /**
+   * the declarations found by a source of proposals
+   */
+  private static class Symbols {
+    private final Map<String, Documented> decls = new HashMap<>();
+    // declaration key to package
+    private final Map<String,String> packages=new HashMap<>();
+    // constructor key to declaration name
+    private final Map<String,String> constructors=new HashMap<>();
+
+    /**
+     * copy a declaration and what we know about it
+     */
+    private void copyTo( final Symbols target, final String key ) {
+      target.decls.put( key, decls.get( key ) );
+      if (packages.containsKey( key )){
+        target.packages.put( key, packages.get( key ) );
+      }
+      if (constructors.containsKey( key )){
+        target.constructors.put( key, constructors.get( key ) );
+      }
+    }
+  }
+
 	/** Content assistant listener: This initializes and manages the transitions between completion context states. */
 	private class CAListener implements ICompletionListener, ICompletionListenerExtension {
 	  public CAListener() {
@@ -998,7 +1155,10 @@ public class HaskellContentAssistProcessor implements IContentAssistProcessor {
 
 	    // Reset the context to force computeCompletionProposals to figure out what the context,
 	    // clean out existing state:
-	    HaskellContentAssistProcessor.this.internalReset();
+	    // (unless we're only showing proposals that arrived late)
+	    if (!refreshing){
+	      HaskellContentAssistProcessor.this.internalReset();
+	    }
     }
 
     @Override
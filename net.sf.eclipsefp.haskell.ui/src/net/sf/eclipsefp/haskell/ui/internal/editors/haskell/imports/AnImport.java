@@ -141,6 +141,23 @@ public class AnImport {
 
   public Map<String, FileDocumented> getDeclarations( final IProject project,
       final IFile file, final IDocument doc ) {
+    OutlineResult or=null;
+    if (isMe) {
+      HaskellEditor ed=HaskellUIPlugin.getHaskellEditor( doc );
+      or=ed!=null?ed.getLastOutlineResult():null;
+    }
+    return getDeclarations( project, file, or );
+  }
+
+  /**
+   * get the declarations without looking for an editor, so that it can be called outside of the UI thread
+   * @param project the project
+   * @param file the file containing the import
+   * @param or the outline of the file, used if this is the import of the file's own module, or null to read it from the file
+   * @return the declarations by name
+   */
+  public Map<String, FileDocumented> getDeclarations( final IProject project,
+      final IFile file, final OutlineResult or ) {
     // ArrayList<String> items
     // we will put names qualified with alias if it exist and with the full module name
     String aliasName =  importDef.getAlias() != null && importDef.getAlias().length()>0 ? importDef.getAlias() : null;
@@ -150,8 +167,6 @@ public class AnImport {
       List<FileDocumented> decls;
       Set<String> visited=new HashSet<>();
       if (isMe) {
-        HaskellEditor ed=HaskellUIPlugin.getHaskellEditor( doc );
-        OutlineResult or=ed!=null?ed.getLastOutlineResult():null;
         if (or!=null){
           decls=getDeclarationsFromOutlineResult(file,or,visited);
         } else {
@@ -8,6 +8,7 @@ package net.sf.eclipsefp.haskell.ui.internal.editors.haskell.imports;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import net.sf.eclipsefp.haskell.browser.items.Documented;
 import net.sf.eclipsefp.haskell.browser.util.ImageCache;
@@ -30,6 +31,8 @@ import org.eclipse.jface.text.contentassist.ICompletionProposal;
  * Manages information and changed in the imports section
  * of a Haskell source file. All imports must be in only
  * one line to be recognized by this parser.
+ * The imports are parsed from the editor outline or the document, so in the UI thread; the declarations they bring
+ * can then be computed in a job from the parsed imports. The cached values are protected by synchronizing on this.
  * @author Alejandro Serrano
  * @author JP Moresmau
  */
@@ -39,6 +42,10 @@ public class ImportsManager {
   private final IDocument doc;
 
   private ArrayList<AnImport> imports=null;
+  /**
+   * the outline the imports were parsed from
+   */
+  private OutlineResult outline=null;
   private Map<String, Documented> decls=null;
   private Map<String, Imported> importedDecls=null;
 
@@ -58,13 +65,14 @@ public class ImportsManager {
     this.names=names;
   }
 
-  public void reset(){
+  public synchronized void reset(){
     imports=null;
+    outline=null;
     decls=null;
     importedDecls=null;
   }
 
-  public ArrayList<AnImport> parseImports() {
+  public synchronized ArrayList<AnImport> parseImports() {
     if(imports==null){
       ArrayList<AnImport> myImports = new ArrayList<>();
       OutlineResult or=null;
@@ -88,23 +96,42 @@ public class ImportsManager {
         }
       }
       imports=myImports;
+      outline=or;
     }
     return imports;
   }
 
   public Map<String, Documented> getDeclarations() {
-    if(decls==null){
-      Map<String, Imported> si=getImportedDeclarations();
-      Map<String, Documented> myDecls = new HashMap<>(si.size());
+    return getDeclarations( parseImports() );
+  }
+
+  /**
+   * get the declarations brought by imports parsed before. This does not read the document, so it can be called outside of the UI thread.
+   * The result is only cached if the imports have not been reset in the meantime
+   * @param imps the imports, as returned by parseImports
+   * @return the declarations by name
+   */
+  public Map<String, Documented> getDeclarations(final List<AnImport> imps) {
+    Map<String, Documented> myDecls;
+    synchronized( this ) {
+      myDecls=imps==imports?decls:null;
+    }
+    if(myDecls==null){
+      Map<String, Imported> si=getImportedDeclarations(imps);
+      myDecls = new HashMap<>(si.size());
       for (String i:si.keySet()) {
         myDecls.put(i,si.get( i ).getDocumented().getDocumented()  );
       }
-      decls=myDecls;
+      synchronized( this ) {
+        if (imps==imports){
+          decls=myDecls;
+        }
+      }
     }
-    Map<String, Documented> ret=decls;
+    Map<String, Documented> ret=myDecls;
     if (names!=null){
       // add the names dynamically
-      ret=new HashMap<>(decls);
+      ret=new HashMap<>(myDecls);
       for(NameDef n:names){
         if (!ret.containsKey( n.getName() )){
           ret.put( n.getName(), AnImport.nameToBrowser( n ) );
@@ -115,35 +142,48 @@ public class ImportsManager {
   }
 
   public Map<String, Imported> getImportedDeclarations() {
-    if(importedDecls==null){
-      ArrayList<AnImport> imports = parseImports();
+    return getImportedDeclarations( parseImports() );
+  }
+
+  private Map<String, Imported> getImportedDeclarations(final List<AnImport> imps) {
+    Map<String, Imported> myImportedDecls;
+    OutlineResult or;
+    synchronized( this ) {
+      myImportedDecls=imps==imports?importedDecls:null;
+      or=imps==imports?outline:null;
+    }
+    if(myImportedDecls==null){
       // Add Prelude import
       boolean hasPrelude = false;
-      Map<String, Imported> myImportedDecls = new HashMap<>();
+      myImportedDecls = new HashMap<>();
 
 
       // Add me
       String meName = ResourceUtil.getModuleName( file );
 
-      getImportDeclarations(myImportedDecls, AnImport.createMe( meName ) );
+      getImportDeclarations(myImportedDecls, AnImport.createMe( meName ), or );
 
-      for (AnImport i : imports) {
-        getImportDeclarations(myImportedDecls,i);
+      for (AnImport i : imps) {
+        getImportDeclarations(myImportedDecls,i, or);
         if (i.getImportDef().getModule().equals( "Prelude" )) {
           hasPrelude = true;
         }
       }
 
       if (!hasPrelude) {
-        getImportDeclarations(myImportedDecls, new AnImport(new ImportDef("Prelude", null, false, false, null ),false ));
+        getImportDeclarations(myImportedDecls, new AnImport(new ImportDef("Prelude", null, false, false, null ),false ), or);
+      }
+      synchronized( this ) {
+        if (imps==imports){
+          importedDecls=myImportedDecls;
+        }
       }
-      importedDecls=myImportedDecls;
     }
-    return importedDecls;
+    return myImportedDecls;
   }
 
-  private void getImportDeclarations(final Map<String, Imported> r,final AnImport i){
-    Map<String, FileDocumented> ir=i.getDeclarations( file.getProject(), file, doc );
+  private void getImportDeclarations(final Map<String, Imported> r,final AnImport i,final OutlineResult or){
+    Map<String, FileDocumented> ir=i.getDeclarations( file.getProject(), file, or );
     for (String s:ir.keySet()){
       r.put(s,new Imported( ir.get( s ), i )  );
     }
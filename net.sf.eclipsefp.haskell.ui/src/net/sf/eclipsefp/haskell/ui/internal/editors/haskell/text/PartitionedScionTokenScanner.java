@@ -12,6 +12,7 @@ import net.sf.eclipsefp.haskell.buildwrapper.types.TokenDef;
 import net.sf.eclipsefp.haskell.core.codeassist.ITokenTypes;
 import net.sf.eclipsefp.haskell.ui.HaskellUIPlugin;
 import net.sf.eclipsefp.haskell.ui.internal.preferences.editor.IEditorPreferenceNames;
+import net.sf.eclipsefp.haskell.util.LineOffsetTable;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
@@ -40,6 +41,10 @@ public class PartitionedScionTokenScanner implements IPartitionTokenScanner,
   private TokenDef currentTokenDef;
   private List<TokenDef> lTokenDefs;
   private ListIterator<TokenDef> tokenDefs;
+  /**
+   * the start and end offsets of lTokenDefs, packed
+   */
+  private int[] tokenOffsets;
   private IToken currentToken;
   private int currentOffset;
   private int currentLength;
@@ -142,10 +147,14 @@ public class PartitionedScionTokenScanner implements IPartitionTokenScanner,
 
     do {
       if( tokenDefs != null && tokenDefs.hasNext() ) {
+        int ix = tokenDefs.nextIndex();
         TokenDef nextTokenDef = tokenDefs.next();
         try {
-          int nextOffset = nextTokenDef.getLocation().getStartOffset( doc );
-          int nextEnd = nextTokenDef.getLocation().getEndOffset( doc );
+          int nextOffset = tokenOffsets[ ix * 2 ];
+          int nextEnd = tokenOffsets[ ix * 2 + 1 ];
+          if( nextOffset < 0 ) {
+            throw new BadLocationException( nextTokenDef.toString() );
+          }
           int end = Math.min( offset + length, nextEnd );
 
           IToken nextToken = getTokenFromTokenDef( nextTokenDef );
@@ -272,6 +281,8 @@ public class PartitionedScionTokenScanner implements IPartitionTokenScanner,
     this.doc = document;
     if( lTokenDefs != null && lTokenDefs.size() > 0 ) {
       tokenDefs = lTokenDefs.listIterator();
+      tokenOffsets = TokenDef.getOffsets( lTokenDefs,
+          new LineOffsetTable( document.get() ) );
     }
 
     this.offset = realOffset;
@@ -29,12 +29,15 @@ import net.sf.eclipsefp.haskell.ui.internal.editors.haskell.HaskellEditor;
 import net.sf.eclipsefp.haskell.ui.internal.preferences.editor.IEditorPreferenceNames;
 import net.sf.eclipsefp.haskell.ui.internal.util.UITexts;
 import net.sf.eclipsefp.haskell.util.FileUtil;
+import net.sf.eclipsefp.haskell.util.IntervalIndex;
+import net.sf.eclipsefp.haskell.util.LineOffsetTable;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.rules.IPartitionTokenScanner;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.Token;
@@ -52,14 +55,32 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
 
   private IDocument doc;
   private String contents;
+  /**
+   * the line offsets of contents, so that we don't ask the document for each token
+   */
+  private LineOffsetTable lineOffsets;
+  /**
+   * the modification stamp of doc when contents was read
+   */
+  private long lineOffsetsStamp=IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
 
   private TokenDef currentTokenDef;
   private List<TokenDef> lTokenDefs;
   private List<TokenDef> lMergedTokenDefs;
   private ListIterator<TokenDef> tokenDefs;
+  /**
+   * the start and end offsets of lMergedTokenDefs, packed
+   */
+  private int[] mergedOffsets;
 
-  private final Map<List<String>,List<TokenDef>> occurrences=new HashMap<>();
-  private final List<List<String>> tokenLocations=new ArrayList<>();
+  /**
+   * the occurrence groups, by token type then token text
+   */
+  private final Map<String,Map<String,OccurrenceGroup>> occurrences=new HashMap<>();
+  /**
+   * the occurrence group of each token, by offset
+   */
+  private final IntervalIndex<OccurrenceGroup> tokenLocations=new IntervalIndex<>(1024);
 
   private IToken currentToken;
   private int currentOffset;
@@ -146,11 +167,14 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
   public IToken nextToken() {
      do {
        if (tokenDefs!=null && tokenDefs.hasNext()){
+         int ix=tokenDefs.nextIndex();
          TokenDef nextTokenDef=tokenDefs.next();
-         try {
-           int nextOffset=nextTokenDef.getLocation().getStartOffset( doc );
+         int nextOffset=mergedOffsets[ix*2];
+         if (nextOffset<0){
+           HaskellUIPlugin.log( new BadLocationException( nextTokenDef.toString() ) );
+         } else {
            //nextOffset=Math.max( nextOffset, offset );
-           int nextEnd=nextTokenDef.getLocation().getEndOffset( doc );
+           int nextEnd=mergedOffsets[ix*2+1];
            if (nextEnd>offset){
              nextOffset=Math.max( nextOffset, offset );
            }
@@ -196,9 +220,6 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
              currentTokenDef=null;
              return Token.EOF;
            }
-
-         } catch (BadLocationException ble){
-           HaskellUIPlugin.log( ble );
          }
        } else {
          return Token.EOF;
@@ -218,7 +239,23 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
    * @param end
    * @param td
    */
-  private void addTokenOccurence(final String s,final int offset,int end,final TokenDef td){
+  private void addTokenOccurence(final String s,final int offset,final int end,final TokenDef td){
+    OccurrenceGroup group=getOccurrenceGroup( s, offset, end, td );
+    if (group!=null){
+      tokenLocations.add( offset, Math.min( end, s.length() ), group );
+      group.tokens.add(td);
+    }
+  }
+
+  /**
+   * get the group of occurrences of a given token
+   * @param s
+   * @param offset
+   * @param end
+   * @param td
+   * @return the group, or null if we don't track occurrences for that token
+   */
+  private OccurrenceGroup getOccurrenceGroup(final String s,final int offset,int end,final TokenDef td){
     String name=td.getName();
     if (name.equals( ITokenTypes.KEYWORD )
         || name.equals( ITokenTypes.GHC_EXTENSION_KEYWORD )
@@ -227,30 +264,26 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
         || name.equals( ITokenTypes.SYMBOL_RESERVED )
         ){  //|| name.equals( IScionTokens.SYMBOL_SPECIAL )
 
-      List<String> key=new LinkedList<>();
-      key.add(td.getName());
       if (end>s.length()){
         end=s.length();
       }
       if (offset>end){
-        return;
+        return null;
       }
-      key.add( s.substring(offset,end) );
-
-      while (tokenLocations.size()<offset){
-        tokenLocations.add( null );
+      Map<String,OccurrenceGroup> byText=occurrences.get( name );
+      if (byText==null){
+        byText=new HashMap<>();
+        occurrences.put( name, byText );
       }
-      while(tokenLocations.size()<end){
-        tokenLocations.add(key);
+      String text=s.substring(offset,end);
+      OccurrenceGroup group=byText.get( text );
+      if (group==null){
+        group=new OccurrenceGroup( name, text );
+        byText.put( text, group );
       }
-      List<TokenDef> l=occurrences.get( key );
-      if (l==null){
-        l=new LinkedList<>();
-        occurrences.put( key, l );
-      }
-      l.add(td);
-
+      return group;
     }
+    return null;
   }
 
   /**
@@ -260,17 +293,17 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
    */
   public List<Occurrence> getOccurrences(final int offset){
     LinkedList<Occurrence> ret=new LinkedList<>();
-    if (offset>0 && offset<tokenLocations.size()){
-      List<String> key=tokenLocations.get( offset );
-      if (key!=null){
-        List<TokenDef> l=occurrences.get( key );
-        if (l!=null){
+    if (offset>0){
+      OccurrenceGroup group=tokenLocations.get( offset );
+      if (group!=null){
+        List<TokenDef> l=group.tokens;
+        if (!l.isEmpty()){
 
           for (TokenDef td:l){
             try {
               Occurrence occ=new Occurrence( td );
               if (td.getLocation().getStartLine()!=td.getLocation().getEndLine()){
-                occ=new Occurrence( td,doc );
+                occ=new Occurrence( td,lineOffsets );
               }
               if (occ.getLength()>0){
                 ret.add(occ);
@@ -319,6 +352,7 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
       if( !document.equals( doc ) || !newContents.equals( contents ) || lTokenDefs == null ) {
         doc = document;
         contents = newContents;
+        lineOffsets=new LineOffsetTable( contents );
 //        if (!checkedTabs){
 //            checkedTabs=true;
 //
@@ -345,9 +379,12 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
         //long t2=System.currentTimeMillis();
         //HaskellUIPlugin.log( "bw:"+(t1-t0)+"ms ("+lTokenDefs.size()+",write: "+(t01-t0)+"ms ), scion:"+(t2-t1)+"ms ("+l+")", IStatus.INFO );
       }
+      lineOffsetsStamp=getModificationStamp( document );
     } else {
       this.doc = document;
       contents=doc.get();
+      lineOffsets=new LineOffsetTable( contents );
+      lineOffsetsStamp=getModificationStamp( document );
       changed=true;
       /*try {
         InputStream stream = SyntaxPreviewer.class.getResourceAsStream( "preview.json" );
@@ -394,36 +431,21 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
 
       occurrences.clear();
       tokenLocations.clear();
-      //String s=doc.get();
-  //    long previousOffset=-1;
-  //    long previousEnd=-1;
-      for (TokenDef nextTokenDef:lTokenDefs){
-        try {
-          int nextOffset=nextTokenDef.getLocation().getStartOffset( doc );
-  //        if (nextOffset<previousOffset){
-  //          HaskellUIPlugin.log( "offset error: "+nextOffset+"<"+previousOffset, IStatus.ERROR );
-  //        }
-  //        if (nextOffset<previousEnd){
-  //          HaskellUIPlugin.log( "offset error at line "+nextTokenDef.getLocation().getStartLine()+": "+nextOffset+"<"+previousEnd, IStatus.ERROR );
-  //        }
-          int nextEnd=nextTokenDef.getLocation().getEndOffset( doc );
-  //        if (nextOffset>nextEnd){
-  //          HaskellUIPlugin.log( "extent error: "+nextOffset+">"+nextEnd, IStatus.ERROR );
-  //        }
-  //        if (previousOffset>nextEnd){
-  //          HaskellUIPlugin.log( "extent error: "+nextEnd+">"+previousOffset, IStatus.ERROR );
-  //        }
-          //HaskellUIPlugin.log(nextOffset+"->"+nextEnd, IStatus.INFO);
-          addTokenOccurence( contents,nextOffset, nextEnd, nextTokenDef );
-
-  //        previousOffset=nextOffset;
-  //        previousEnd=nextEnd;
-        } catch (BadLocationException ble){
-          HaskellUIPlugin.log( ble );
-        }
-      }
       if( lTokenDefs != null) {
+        // convert all the locations in one pass over the line offsets
+        int[] offs=TokenDef.getOffsets( lTokenDefs, lineOffsets );
+        int ix=0;
+        for (TokenDef nextTokenDef:lTokenDefs){
+          int nextOffset=offs[ix++];
+          int nextEnd=offs[ix++];
+          if (nextOffset<0){
+            HaskellUIPlugin.log( new BadLocationException( nextTokenDef.toString() ) );
+          } else {
+            addTokenOccurence( contents,nextOffset, nextEnd, nextTokenDef );
+          }
+        }
         lMergedTokenDefs=mergeTokens( lTokenDefs);
+        mergedOffsets=TokenDef.getOffsets( lMergedTokenDefs, lineOffsets );
       }
     } else if (offset == this.offset+this.length && tokenDefs.hasPrevious()){
       this.offset = offset;
@@ -453,6 +475,25 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
     return tgt;
   }
 
+  /**
+   * @param document the document
+   * @return the line offsets of the document if they are up to date, null otherwise
+   */
+  public LineOffsetTable getLineOffsets(final IDocument document){
+    if (document!=null && document==doc && lineOffsetsStamp!=IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+        && getModificationStamp( document )==lineOffsetsStamp){
+      return lineOffsets;
+    }
+    return null;
+  }
+
+  private static long getModificationStamp(final IDocument document){
+    if (document instanceof IDocumentExtension4){
+      return ((IDocumentExtension4)document).getModificationStamp();
+    }
+    return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+  }
+
   /**
    * mark task tags
    */
@@ -574,5 +615,17 @@ public class ScionTokenScanner implements IPartitionTokenScanner, IEditorPrefere
 
   }
 
-
+  /**
+   * the tokens sharing a type and a text. Each token location points to its group, so groups act as interned keys
+   */
+  private static class OccurrenceGroup {
+    private final String name;
+    private final String text;
+    private final List<TokenDef> tokens=new ArrayList<>();
+
+    private OccurrenceGroup(final String name,final String text){
+      this.name=name;
+      this.text=text;
+    }
+  }
 }
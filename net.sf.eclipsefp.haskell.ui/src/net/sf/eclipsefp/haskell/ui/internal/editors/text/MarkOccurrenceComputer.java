@@ -9,6 +9,7 @@ import java.util.Map;
 import net.sf.eclipsefp.haskell.buildwrapper.types.Occurrence;
 import net.sf.eclipsefp.haskell.ui.internal.editors.haskell.HaskellEditor;
 import net.sf.eclipsefp.haskell.ui.internal.editors.haskell.text.ScionTokenScanner;
+import net.sf.eclipsefp.haskell.util.LineOffsetTable;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
@@ -73,7 +74,7 @@ public class MarkOccurrenceComputer {
             if (pm!=null && pm.isCanceled()){
               return;
             }
-            Map<Annotation, Position> map = computeAnnotations( occurrences );
+            Map<Annotation, Position> map = computeAnnotations( occurrences, sts.getLineOffsets( document ) );
             IAnnotationModelExtension amx = ( IAnnotationModelExtension )model;
             if (pm!=null && pm.isCanceled()){
               return;
@@ -159,9 +160,21 @@ public class MarkOccurrenceComputer {
 //    return ( offset - document.getLineOffset( line ) + 1 );
 //  }
 
-  private List<Position> computePositions( final List<Occurrence> occurrences ) {
+  /**
+   * @param occurrences the occurrences
+   * @param lineOffsets the line offsets of the document, or null if we need to ask the document
+   * @return the positions
+   */
+  private List<Position> computePositions( final List<Occurrence> occurrences, final LineOffsetTable lineOffsets ) {
     List<Position> result = new ArrayList<>();
     for( Occurrence occ: occurrences ) {
+      if (lineOffsets!=null){
+        int offs = lineOffsets.getOffset( occ.getLine() - 1, occ.getColumn() );
+        if (offs>=0){
+          result.add( new Position( offs, occ.getLength() ) );
+        }
+        continue;
+      }
       try {
         int offs = document.getLineOffset( occ.getLine() - 1 );
         offs += occ.getColumn() ;
@@ -173,9 +186,9 @@ public class MarkOccurrenceComputer {
     return result;
   }
 
-  private Map<Annotation, Position> computeAnnotations( final List<Occurrence> occs ) {
+  private Map<Annotation, Position> computeAnnotations( final List<Occurrence> occs, final LineOffsetTable lineOffsets ) {
     Map<Annotation, Position> result = new HashMap<>();
-    List<Position> poss = computePositions( occs );
+    List<Position> poss = computePositions( occs, lineOffsets );
     Iterator<Position> it = poss.iterator();
     while( it.hasNext() ) {
       Position pos = it.next();
@@ -38,6 +38,10 @@ public interface IPreferenceConstants {
   public final static String MAX_CONFIGURE_FAILURES = "MAX_CONFIGURE_FAILURES";  //$NON-NLS-1$
   public final static String BROWSER_VERBOSE_INTERACTION = "BROWSER_VERBOSE_INTERACTION";  //$NON-NLS-1$
   public final static String MAX_EVAL_TIME="MAX_EVAL_TIME";//$NON-NLS-1$
+  public final static String MAX_BUILD_SESSIONS="MAX_BUILD_SESSIONS";//$NON-NLS-1$
+  public final static String BUILD_SESSION_IDLE_TIME="BUILD_SESSION_IDLE_TIME";//$NON-NLS-1$
+  public final static String RESULT_CACHE_SIZE="RESULT_CACHE_SIZE";//$NON-NLS-1$
+  public final static String PERSIST_RESULT_CACHE="PERSIST_RESULT_CACHE";//$NON-NLS-1$
   //public final static String RUN_CABAL_UPDATE = "RUN_CABAL_UPDATE" ; //$NON-NLS-1$
 
   // search paths
@@ -56,6 +56,14 @@ public class ScionPP
   private Composite maxConfigureFailuresFieldC;
   private IntegerFieldEditor evalMaxField;
   private Composite evalMaxFieldFieldC;
+  private IntegerFieldEditor maxBuildSessionsField;
+  private Composite maxBuildSessionsFieldC;
+  private IntegerFieldEditor buildSessionIdleTimeField;
+  private Composite buildSessionIdleTimeFieldC;
+  private IntegerFieldEditor resultCacheSizeField;
+  private Composite resultCacheSizeFieldC;
+  private BooleanFieldEditor persistResultCacheField;
+  private Composite persistResultCacheFieldC;
 
   private BooleanFieldEditor verboseBrowserInteractionField;
 
@@ -155,6 +163,53 @@ public class ScionPP
     evalMaxField.setPreferenceStore( prefStore );
     evalMaxField.load();
 
+    maxBuildSessionsFieldC = new Composite(bwComposite, SWT.NONE);
+    gd = new GridData(GridData.HORIZONTAL_ALIGN_FILL | GridData.GRAB_HORIZONTAL | GridData.VERTICAL_ALIGN_CENTER);
+    gd.horizontalSpan=2;
+    maxBuildSessionsFieldC.setLayoutData( gd);
+    maxBuildSessionsField= new IntegerFieldEditor( IPreferenceConstants.MAX_BUILD_SESSIONS,
+        UITexts.maxBuildSessions_title,
+        maxBuildSessionsFieldC );
+    maxBuildSessionsField.setValidRange( 0, Integer.MAX_VALUE );
+    maxBuildSessionsField.setPage(this);
+    maxBuildSessionsField.setPreferenceStore( prefStore );
+    maxBuildSessionsField.load();
+
+    buildSessionIdleTimeFieldC = new Composite(bwComposite, SWT.NONE);
+    gd = new GridData(GridData.HORIZONTAL_ALIGN_FILL | GridData.GRAB_HORIZONTAL | GridData.VERTICAL_ALIGN_CENTER);
+    gd.horizontalSpan=2;
+    buildSessionIdleTimeFieldC.setLayoutData( gd);
+    buildSessionIdleTimeField= new IntegerFieldEditor( IPreferenceConstants.BUILD_SESSION_IDLE_TIME,
+        UITexts.buildSessionIdleTime_title,
+        buildSessionIdleTimeFieldC );
+    buildSessionIdleTimeField.setValidRange( 0, Integer.MAX_VALUE );
+    buildSessionIdleTimeField.setPage(this);
+    buildSessionIdleTimeField.setPreferenceStore( prefStore );
+    buildSessionIdleTimeField.load();
+
+    resultCacheSizeFieldC = new Composite(bwComposite, SWT.NONE);
+    gd = new GridData(GridData.HORIZONTAL_ALIGN_FILL | GridData.GRAB_HORIZONTAL | GridData.VERTICAL_ALIGN_CENTER);
+    gd.horizontalSpan=2;
+    resultCacheSizeFieldC.setLayoutData( gd);
+    resultCacheSizeField= new IntegerFieldEditor( IPreferenceConstants.RESULT_CACHE_SIZE,
+        UITexts.resultCacheSize_title,
+        resultCacheSizeFieldC );
+    resultCacheSizeField.setValidRange( 0, Integer.MAX_VALUE );
+    resultCacheSizeField.setPage(this);
+    resultCacheSizeField.setPreferenceStore( prefStore );
+    resultCacheSizeField.load();
+
+    persistResultCacheFieldC = new Composite(bwComposite, SWT.NONE);
+    gd = new GridData(GridData.HORIZONTAL_ALIGN_FILL | GridData.GRAB_HORIZONTAL | GridData.VERTICAL_ALIGN_CENTER);
+    gd.horizontalSpan=2;
+    persistResultCacheFieldC.setLayoutData( gd);
+    persistResultCacheField = new BooleanFieldEditor( IPreferenceConstants.PERSIST_RESULT_CACHE,
+        UITexts.persistResultCache_title,
+        persistResultCacheFieldC );
+    persistResultCacheField.setPage(this);
+    persistResultCacheField.setPreferenceStore( prefStore );
+    persistResultCacheField.load();
+
     // scion-browser
 
 		Group sbComposite = new Group(parentComposite, SWT.NONE);
@@ -271,6 +326,10 @@ public class ScionPP
 	  store.setDefault( BROWSER_START_ONLY_PERSPECTIVE, true );
 	  store.setDefault( MAX_CONFIGURE_FAILURES, 10 );
 	  store.setDefault( MAX_EVAL_TIME, 30 );
+	  store.setDefault( MAX_BUILD_SESSIONS, 8 );
+	  store.setDefault( BUILD_SESSION_IDLE_TIME, 30*60 );
+	  store.setDefault( RESULT_CACHE_SIZE, 4*1024 );
+	  store.setDefault( PERSIST_RESULT_CACHE, true );
 	  store.setDefault( IPreferenceConstants.HASKELL_CONSOLE_HIGH_WATER_MARK, 32 * 1024);// 32K
 	  store.setDefault( IPreferenceConstants.HASKELL_CONSOLE_ACTIVATE_ON_WRITE,false);
 	  store.setDefault( UNIQUE_SANDBOX, false );
@@ -289,6 +348,10 @@ public class ScionPP
     ignoreTooOld.store();
     verboseInteractionField.store();
     maxConfigureFailuresField.store();
+    maxBuildSessionsField.store();
+    buildSessionIdleTimeField.store();
+    resultCacheSizeField.store();
+    persistResultCacheField.store();
     verboseBrowserInteractionField.store();
     browserStartPerspectiveField.store();
     consoleActivateField.store();
@@ -276,6 +276,7 @@ public class HaskellSearchPage extends DialogPage implements ISearchPage{
       // get flags from checked buttons
       final UsageQuery uq=new UsageQuery( term, projs );
       uq.setExact( false );
+      uq.setCamelCase( true );
       for (Map.Entry<Button,Integer> me:buttonsToType.entrySet()){
         if (me.getKey().getSelection()){
           uq.setTypeFlags( me.getValue() );
@@ -56,6 +56,11 @@ public class UsageQuery implements ISearchQuery {
    */
   private boolean exact=true;
 
+  /**
+   * in a LIKE search, also match symbol names as camel case patterns
+   */
+  private boolean camelCase=false;
+
   /**
    * restrict results to specified resources
    */
@@ -90,17 +95,14 @@ public class UsageQuery implements ISearchQuery {
     UsageAPI api=BuildWrapperPlugin.getDefault().getUsageAPI();
     UsageResults results=new UsageResults();
     if (api!=null){
-      for (IProject p:projects){
-        // search for each project
-        UsageResults res=exact?
-               api.exactSearch( null, term, p, typeFlags, scopeFlags )
-               :api.likeSearch( null, term, p, typeFlags, scopeFlags );
-        // restrict if needed
-        if (restrictedResources!=null){
-          res.filter( restrictedResources );
-        }
-        // add to global
-        results.add(res);
+      // search all the projects at once, so that names are only resolved once
+      Collection<IProject> ps=projects.contains( null )?null:projects;
+      results=exact?
+             api.exactSearchInProjects( null, term, ps, typeFlags, scopeFlags )
+             :api.likeSearchInProjects( null, term, ps, typeFlags, scopeFlags, camelCase );
+      // restrict if needed
+      if (restrictedResources!=null){
+        results.filter( restrictedResources );
       }
     }
 
@@ -172,6 +174,16 @@ public class UsageQuery implements ISearchQuery {
   }
 
 
+  public boolean isCamelCase() {
+    return camelCase;
+  }
+
+
+  public void setCamelCase( final boolean camelCase ) {
+    this.camelCase = camelCase;
+  }
+
+
   public Set<IResource> getRestrictedResources() {
     return restrictedResources;
   }
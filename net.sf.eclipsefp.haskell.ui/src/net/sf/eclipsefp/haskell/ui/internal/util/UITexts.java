@@ -286,6 +286,7 @@ public final class UITexts extends NLS {
   public static String editor_textHover_module;
   public static String editor_actions_source;
   public static String editor_occurrences_job;
+  public static String editor_thingatpoint_job;
 
   public static String scion_console_title;
   public static String scion_preferences_title;
@@ -841,6 +842,7 @@ public final class UITexts extends NLS {
   public static String sh_save;
 
   public static String proposal_category_mode;
+  public static String proposal_job;
 
   public static String source_folder_title;
   public static String source_folder_msg;
@@ -858,6 +860,10 @@ public final class UITexts extends NLS {
 
   public static String maxConfigureFailures_title;
   public static String maxEvalTime_title;
+  public static String maxBuildSessions_title;
+  public static String buildSessionIdleTime_title;
+  public static String resultCacheSize_title;
+  public static String persistResultCache_title;
 
   public static String executables_preferences_advanced;
   public static String executables_preferences_console_high;
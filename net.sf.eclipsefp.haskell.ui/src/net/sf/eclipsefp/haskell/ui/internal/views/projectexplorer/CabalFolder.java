@@ -32,7 +32,7 @@ public class CabalFolder {
 
   public List<ProjectExplorerStanza> getStanzas() {
     try {
-      PackageDescription descr = PackageDescriptionLoader.load( cabalFile );
+      PackageDescription descr = PackageDescriptionLoader.loadShared( cabalFile );
       switch(this.type) {
         case EXECUTABLE:
           return getStanzas(descr.getExecutableStanzas());
@@ -89,7 +89,7 @@ public class HaskellResourceExtensionCP implements ICommonContentProvider {
         // if we have a Haskell source file, we show the same content as outline
         // underneath
         else if( FileUtil.hasCabalExtension( f ) && ResourceUtil.isInHaskellProject( f )) {
-          PackageDescription descr = PackageDescriptionLoader.load( f );
+          PackageDescription descr = PackageDescriptionLoader.loadShared( f );
           PackageDescriptionStanza lib = descr.getLibraryStanza();
           if (lib != null) {
             result.add( new ProjectExplorerStanza( f,descr.getLibraryStanza() ));
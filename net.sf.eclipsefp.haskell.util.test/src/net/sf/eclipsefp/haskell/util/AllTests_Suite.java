@@ -22,6 +22,12 @@ public class AllTests_Suite {
 		suite.addTest( new JUnit4TestAdapter(CommandLineUtilTest.class ));
 		suite.addTestSuite( FileUtilTest.class );
 		suite.addTest( new JUnit4TestAdapter(CappedStringWriterTest.class ));
+		suite.addTest( new JUnit4TestAdapter(KeyLockManagerTest.class ));
+		suite.addTest( new JUnit4TestAdapter(JSONPullParserTest.class ));
+		suite.addTest( new JUnit4TestAdapter(ResultCacheTest.class ));
+		suite.addTest( new JUnit4TestAdapter(LineOffsetTableTest.class ));
+		suite.addTest( new JUnit4TestAdapter(IntervalIndexTest.class ));
+		suite.addTest( new JUnit4TestAdapter(NameIndexTest.class ));
 		return suite;
 	}
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests for IntervalIndex
+ * @author JP Moresmau
+ *
+ */
+public class IntervalIndexTest {
+
+	@Test
+	public void testAddGet(){
+		IntervalIndex<String> ii=new IntervalIndex<>(1);
+		ii.add(0, 3, "a");
+		ii.add(4, 6, "b");
+		ii.add(10, 12, "c");
+		// out of order
+		ii.add(7, 9, "d");
+		assertEquals(4,ii.size());
+		assertEquals("a",ii.get(0));
+		assertEquals("a",ii.get(2));
+		assertNull(ii.get(3));
+		assertEquals("b",ii.get(5));
+		assertNull(ii.get(6));
+		assertEquals("d",ii.get(8));
+		assertEquals("c",ii.get(11));
+		assertNull(ii.get(12));
+		assertNull(ii.get(-1));
+		// overlapping intervals are truncated
+		ii.add(5, 8, "e");
+		assertEquals("b",ii.get(4));
+		assertEquals("e",ii.get(5));
+		assertEquals("e",ii.get(7));
+		assertEquals("d",ii.get(8));
+		assertEquals(5,ii.size());
+		ii.add(4, 9, "f");
+		assertEquals("f",ii.get(4));
+		assertEquals("f",ii.get(8));
+		assertEquals(3,ii.size());
+	}
+
+	@Test
+	public void testRemove(){
+		IntervalIndex<String> ii=new IntervalIndex<>();
+		ii.add(0, 10, "a");
+		ii.remove(3, 5);
+		assertEquals(2,ii.size());
+		assertEquals("a",ii.get(2));
+		assertNull(ii.get(3));
+		assertNull(ii.get(4));
+		assertEquals("a",ii.get(5));
+		ii.add(10, 12, "b");
+		ii.add(12, 14, "c");
+		ii.remove(6, 13);
+		assertEquals("a",ii.get(5));
+		assertNull(ii.get(6));
+		assertNull(ii.get(12));
+		assertEquals("c",ii.get(13));
+		assertEquals(3,ii.size());
+		ii.clear();
+		assertEquals(0,ii.size());
+		assertNull(ii.get(0));
+	}
+
+	@Test
+	public void testReplace(){
+		IntervalIndex<String> ii=new IntervalIndex<>();
+		ii.add(0, 2, "a");
+		ii.add(3, 5, "b");
+		ii.add(6, 8, "c");
+		ii.add(9, 11, "d");
+		// the text between 3 and 8 is replaced by 2 characters
+		ii.replace(3, 8, 5);
+		assertEquals(2,ii.size());
+		assertEquals("a",ii.get(1));
+		assertNull(ii.get(3));
+		assertEquals("d",ii.get(6));
+		assertNull(ii.get(8));
+		// insert 2 characters in the middle of d
+		ii.replace(7, 7, 9);
+		assertEquals("d",ii.get(6));
+		assertNull(ii.get(7));
+		// insert 1 character before a
+		ii.replace(0, 0, 1);
+		assertNull(ii.get(0));
+		assertEquals("a",ii.get(1));
+		assertEquals("d",ii.get(7));
+	}
+}
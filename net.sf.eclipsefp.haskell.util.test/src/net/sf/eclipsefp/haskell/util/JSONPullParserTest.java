@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import net.sf.eclipsefp.haskell.util.JSONPullParser.Event;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests for JSONPullParser
+ * @author JP Moresmau
+ *
+ */
+public class JSONPullParserTest {
+
+	@Test
+	public void testEvents() throws IOException,JSONException{
+		JSONPullParser p=new JSONPullParser(new StringReader("[{\"Name\":[1,2,3,-4]},null,true,\"a\\\"b\\u0041\"]"));
+		assertEquals(Event.START_ARRAY,p.next());
+		assertEquals(Event.START_OBJECT,p.next());
+		assertEquals("Name",p.nextKey());
+		assertEquals(Event.START_ARRAY,p.next());
+		assertEquals(1,p.nextInt());
+		assertEquals(2,p.nextInt());
+		assertEquals(3,p.nextInt());
+		assertEquals(-4,p.nextInt());
+		assertEquals(Event.END_ARRAY,p.next());
+		assertNull(p.nextKey());
+		assertNull(p.nextString());
+		assertEquals(Event.BOOLEAN,p.next());
+		assertTrue(p.getBoolean());
+		assertEquals("a\"bA",p.nextString());
+		assertEquals(Event.END_ARRAY,p.next());
+		assertEquals(Event.END,p.next());
+	}
+
+	@Test
+	public void testStopsAtEndOfValue() throws IOException,JSONException{
+		StringReader sr=new StringReader("[[],[]]\nnext line");
+		JSONPullParser p=new JSONPullParser(sr);
+		p.skipValue();
+		assertEquals(Event.END,p.peek());
+		// nothing has been read after the closing bracket
+		assertEquals('\n',sr.read());
+	}
+
+	@Test
+	public void testReadValue() throws IOException,JSONException{
+		String s="[{\"n\":\"main\",\"t\":[\"function\"],\"sl\":null,\"x\":{\"y\":[1.5,2]}},[]]";
+		JSONPullParser p=new JSONPullParser(new StringReader(s));
+		JSONArray arr=p.readArray();
+		assertEquals(2,arr.length());
+		JSONObject obj=arr.getJSONObject(0);
+		assertEquals("main",obj.getString("n"));
+		assertEquals("function",obj.getJSONArray("t").getString(0));
+		assertTrue(obj.isNull("sl"));
+		assertEquals(2,obj.getJSONObject("x").getJSONArray("y").getInt(1));
+		assertEquals(0,arr.getJSONArray(1).length());
+	}
+
+	@Test
+	public void testSkipValue() throws IOException,JSONException{
+		JSONPullParser p=new JSONPullParser(new StringReader("{\"a\":{\"b\":[1,[2,{}]]},\"c\":3}"));
+		assertEquals(Event.START_OBJECT,p.next());
+		assertEquals("a",p.nextKey());
+		p.skipValue();
+		assertEquals("c",p.nextKey());
+		assertEquals(3,p.nextInt());
+		assertNull(p.nextKey());
+		assertEquals(Event.END,p.next());
+	}
+
+	@Test(expected=JSONException.class)
+	public void testUnterminated() throws IOException,JSONException{
+		JSONPullParser p=new JSONPullParser(new StringReader("[\"abc"));
+		p.readValue();
+	}
+
+	@Test
+	public void testMalformed() throws IOException{
+		String[] bad={
+				// truncated
+				"[1,2", "[{\"a\":1}", "{\"a\":", "[1,",
+				// missing or extra separators
+				"[1 2]", "{\"a\" 1}", "[,1]", "[1,]", "{\"a\":1,}", "{,\"a\":1}", "[1,,2]",
+				// not a key
+				"{1:2}",
+				// not a value
+				"[tru]", "[1x]", "[01]", "[-]",
+				// mismatched brackets
+				"[1}", "{\"a\":1]"
+		};
+		for (String s:bad){
+			JSONPullParser p=new JSONPullParser(new StringReader(s));
+			try {
+				p.readValue();
+				fail("no error for "+s);
+			} catch (JSONException je){
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testTypes() throws IOException,JSONException{
+		JSONPullParser p=new JSONPullParser(new StringReader("[1.5,2,\"3\"]"));
+		p.expect(Event.START_ARRAY);
+		try {
+			p.nextInt();
+			fail("1.5 is not an int");
+		} catch (JSONException je){
+			// expected
+		}
+		try {
+			p.nextString();
+			fail("2 is not a string");
+		} catch (JSONException je){
+			// expected
+		}
+		assertEquals("3",p.nextString());
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for KeyLockManager
+ * @author JP Moresmau
+ *
+ */
+public class KeyLockManagerTest {
+
+	@Test
+	public void testTryLock(){
+		KeyLockManager klm=new KeyLockManager();
+		assertTrue(klm.tryLock("a"));
+		assertFalse(klm.tryLock("a"));
+		assertTrue(klm.tryLock("b"));
+		assertTrue(klm.isLocked("a"));
+		klm.unlock("a");
+		assertFalse(klm.isLocked("a"));
+		assertTrue(klm.tryLock("a"));
+	}
+
+	@Test
+	public void testOwner() throws InterruptedException{
+		final KeyLockManager klm=new KeyLockManager();
+		assertTrue(klm.tryLock("a"));
+		final List<Throwable> errors=Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread t=new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					klm.unlock("a");
+				} catch (IllegalMonitorStateException imse){
+					errors.add(imse);
+				}
+			}
+		});
+		t.start();
+		t.join();
+		assertEquals(1,errors.size());
+		// still ours
+		assertTrue(klm.isLocked("a"));
+		klm.unlock("a");
+		assertFalse(klm.isLocked("a"));
+		try {
+			klm.unlock("a");
+			fail();
+		} catch (IllegalMonitorStateException imse){
+			// not held any more
+		}
+	}
+
+	@Test
+	public void testTimeout(){
+		KeyLockManager klm=new KeyLockManager();
+		assertTrue(klm.lock("a",0,null));
+		long t0=System.currentTimeMillis();
+		assertFalse(klm.lock("a",200,null));
+		assertTrue(System.currentTimeMillis()-t0>=200);
+		assertEquals(1,klm.getStatistics().get("a").getFailures());
+		// the abandoned ticket does not block the next owner
+		klm.unlock("a");
+		assertFalse(klm.isLocked("a"));
+		assertTrue(klm.tryLock("a"));
+	}
+
+	@Test
+	public void testFIFO() throws InterruptedException{
+		final KeyLockManager klm=new KeyLockManager();
+		assertTrue(klm.lock("a",0,null));
+		final List<Integer> order=Collections.synchronizedList(new ArrayList<Integer>());
+		List<Thread> ts=new ArrayList<>();
+		for (int a=0;a<5;a++){
+			final int idx=a;
+			Thread t=new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					if (klm.lock("a",0,null)){
+						order.add(idx);
+						klm.unlock("a");
+					}
+				}
+			});
+			t.start();
+			ts.add(t);
+			// make sure the threads queue in order
+			while (t.getState()!=Thread.State.TIMED_WAITING){
+				Thread.sleep(10);
+			}
+		}
+		long t0=System.currentTimeMillis();
+		klm.unlock("a");
+		for (Thread t:ts){
+			t.join();
+		}
+		// woken straight away, not after a polling delay for each waiter
+		assertTrue(System.currentTimeMillis()-t0<500);
+		assertEquals(5,order.size());
+		for (int a=0;a<5;a++){
+			assertEquals(Integer.valueOf(a),order.get(a));
+		}
+		assertFalse(klm.isLocked("a"));
+		assertEquals(6,klm.getStatistics().get("a").getCount());
+	}
+}
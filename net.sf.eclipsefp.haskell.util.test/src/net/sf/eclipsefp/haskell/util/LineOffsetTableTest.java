@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for LineOffsetTable
+ * @author JP Moresmau
+ *
+ */
+public class LineOffsetTableTest {
+
+	@Test
+	public void testDelimiters(){
+		LineOffsetTable t=new LineOffsetTable("ab\ncd\r\nef\rg\n");
+		assertEquals(5,t.getLineCount());
+		assertEquals(0,t.getLineOffset(0));
+		assertEquals(3,t.getLineOffset(1));
+		assertEquals(7,t.getLineOffset(2));
+		assertEquals(10,t.getLineOffset(3));
+		assertEquals(12,t.getLineOffset(4));
+		assertEquals(-1,t.getLineOffset(5));
+		assertEquals(-1,t.getLineOffset(-1));
+		assertEquals(8,t.getOffset(2, 1));
+		assertEquals(4,t.getLineLength(1));
+		assertEquals(0,t.getLineLength(4));
+	}
+
+	@Test
+	public void testLineOfOffset(){
+		LineOffsetTable t=new LineOffsetTable("ab\ncd\r\nef");
+		assertEquals(0,t.getLineOfOffset(0));
+		assertEquals(0,t.getLineOfOffset(2));
+		assertEquals(1,t.getLineOfOffset(3));
+		assertEquals(1,t.getLineOfOffset(6));
+		assertEquals(2,t.getLineOfOffset(7));
+		assertEquals(2,t.getLineOfOffset(9));
+		assertEquals(-1,t.getLineOfOffset(10));
+	}
+
+	@Test
+	public void testGrow(){
+		StringBuilder sb=new StringBuilder();
+		for (int a=0;a<1000;a++){
+			sb.append("\n");
+		}
+		LineOffsetTable t=new LineOffsetTable(sb);
+		assertEquals(1001,t.getLineCount());
+		assertEquals(1000,t.getLineOffset(1000));
+		assertEquals(500,t.getLineOfOffset(500));
+		LineOffsetTable e=new LineOffsetTable("");
+		assertEquals(1,e.getLineCount());
+		assertEquals(0,e.getLineOffset(0));
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Tests for NameIndex
+ * @author JP Moresmau
+ *
+ */
+public class NameIndexTest {
+
+	private static NameIndex getIndex(){
+		NameIndex ni=new NameIndex();
+		ni.add("getFileName");
+		ni.add("getFile");
+		ni.add("fileName");
+		ni.add("NoSuchElement");
+		ni.add("a*b");
+		ni.add("map");
+		ni.add("mapM_");
+		return ni;
+	}
+
+	@Test
+	public void testAdd(){
+		NameIndex ni=getIndex();
+		assertEquals(7,ni.size());
+		assertEquals(1,ni.add("getFile"));
+		assertEquals(7,ni.size());
+		assertEquals(5,ni.getID("map"));
+		assertEquals(-1,ni.getID("Map"));
+		assertEquals("fileName",ni.getName(2));
+	}
+
+	@Test
+	public void testMatch(){
+		NameIndex ni=getIndex();
+		assertEquals(ids(0,1),ni.match("getfile*"));
+		assertEquals(ids(0,2),ni.match("*filename"));
+		assertEquals(ids(0,1,2),ni.match("*ile*"));
+		assertEquals(ids(5),ni.match("map"));
+		assertEquals(ids(5,6),ni.match("ma?*"));
+		assertEquals(ids(6),ni.match("map?_"));
+		assertEquals(ids(4),ni.match("a\\*b"));
+		assertEquals(ids(),ni.match("*xyz*"));
+		assertEquals(ids(0,1,2,3,4,5,6),ni.match("*"));
+	}
+
+	@Test
+	public void testCamelCase(){
+		NameIndex ni=getIndex();
+		assertEquals(ids(0),ni.matchCamelCase("gFN"));
+		assertEquals(ids(0,1),ni.matchCamelCase("gF"));
+		assertEquals(ids(3),ni.matchCamelCase("NoSE"));
+		assertEquals(ids(),ni.matchCamelCase("GF"));
+		assertTrue(NameIndex.hasWildcards("a*"));
+		assertFalse(NameIndex.hasWildcards("aB"));
+	}
+
+	private static BitSet ids(int... ids){
+		BitSet ret=new BitSet();
+		for (int id:ids){
+			ret.set(id);
+		}
+		return ret;
+	}
+}
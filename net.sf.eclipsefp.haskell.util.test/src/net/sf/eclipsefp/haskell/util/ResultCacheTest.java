@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for ResultCache
+ * @author JP Moresmau
+ *
+ */
+public class ResultCacheTest {
+
+	@Test
+	public void testLRU(){
+		ResultCache rc=new ResultCache(20, null);
+		rc.put("a", "123456789");
+		rc.put("b", "123456789");
+		// a is now the most recently used
+		assertEquals("123456789",rc.get("a"));
+		rc.put("c", "123456789");
+		assertNull(rc.get("b"));
+		assertNotNull(rc.get("a"));
+		assertNotNull(rc.get("c"));
+		assertEquals(20,rc.getSize());
+		// too big to be cached at all
+		rc.put("d", "123456789012345678901");
+		assertNull(rc.get("d"));
+		assertEquals(2,rc.getCount());
+		rc.setMaxSize(10);
+		assertEquals(1,rc.getCount());
+		assertNotNull(rc.get("c"));
+		assertEquals(4,rc.getHits());
+		assertEquals(2,rc.getMisses());
+	}
+
+	@Test
+	public void testPersist() throws IOException{
+		File fldr=File.createTempFile("resultcache", "");
+		fldr.delete();
+		try {
+			ResultCache rc=new ResultCache(100, fldr);
+			rc.put("k1", "[[],[]]\n[]");
+			rc.put("k2", "v2");
+			rc=new ResultCache(100, fldr);
+			assertEquals(0,rc.getCount());
+			assertEquals("[[],[]]\n[]",rc.get("k1"));
+			assertEquals("v2",rc.get("k2"));
+			rc.clear();
+			rc=new ResultCache(100, fldr);
+			assertNull(rc.get("k1"));
+		} finally {
+			File[] fs=fldr.listFiles();
+			if (fs!=null){
+				for (File f:fs){
+					f.delete();
+				}
+			}
+			fldr.delete();
+		}
+	}
+
+	@Test
+	public void testDigest(){
+		assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d",ResultCache.digest("abc"));
+	}
+}
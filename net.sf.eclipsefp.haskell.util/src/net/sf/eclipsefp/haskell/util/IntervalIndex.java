@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import java.util.Arrays;
+
+/**
+ * A sorted index of non overlapping intervals [start,end[ over offsets, each carrying a value.
+ * Intervals are kept in primitive arrays, so the index stays compact even with hundreds of thousands of entries,
+ * and finding the value at a given offset is a binary search.
+ * Adding an interval removes the intervals it overlaps
+ * @author JP Moresmau
+ *
+ * @param <T> the type of the values
+ */
+public class IntervalIndex<T> {
+	private int[] starts;
+	private int[] ends;
+	private Object[] values;
+	private int size=0;
+
+	public IntervalIndex() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity the initial capacity
+	 */
+	public IntervalIndex(int capacity) {
+		capacity=Math.max(1, capacity);
+		starts=new int[capacity];
+		ends=new int[capacity];
+		values=new Object[capacity];
+	}
+
+	/**
+	 * @return the number of intervals
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * remove all intervals
+	 */
+	public void clear(){
+		Arrays.fill(values, 0, size, null);
+		size=0;
+	}
+
+	/**
+	 * add an interval. Adding intervals in increasing order is the fastest
+	 * @param start the start offset, inclusive
+	 * @param end the end offset, exclusive
+	 * @param value the value
+	 */
+	public void add(int start,int end,T value){
+		if (end<=start){
+			return;
+		}
+		int ix;
+		if (size==0 || starts[size-1]<start){
+			ix=size;
+			if (size>0 && ends[size-1]>start){
+				ends[size-1]=start;
+			}
+		} else {
+			remove(start, end);
+			ix=indexAfter(start);
+		}
+		ensureCapacity(size+1);
+		if (ix<size){
+			System.arraycopy(starts, ix, starts, ix+1, size-ix);
+			System.arraycopy(ends, ix, ends, ix+1, size-ix);
+			System.arraycopy(values, ix, values, ix+1, size-ix);
+		}
+		starts[ix]=start;
+		ends[ix]=end;
+		values[ix]=value;
+		size++;
+	}
+
+	/**
+	 * @param offset an offset
+	 * @return the value of the interval containing the offset, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int offset){
+		int ix=indexAfter(offset)-1;
+		if (ix>=0 && offset<ends[ix]){
+			return (T)values[ix];
+		}
+		return null;
+	}
+
+	/**
+	 * remove all intervals intersecting [start,end[. Intervals partially covered are truncated
+	 * @param start the start offset, inclusive
+	 * @param end the end offset, exclusive
+	 */
+	public void remove(int start,int end){
+		if (end<=start || size==0){
+			return;
+		}
+		// first interval that may intersect
+		int from=indexAfter(start)-1;
+		if (from<0 || ends[from]<=start){
+			from++;
+		} else if (starts[from]<start){
+			// keep the part before the range
+			int oldEnd=ends[from];
+			ends[from]=start;
+			if (oldEnd>end){
+				// and the part after
+				ensureCapacity(size+1);
+				System.arraycopy(starts, from+1, starts, from+2, size-from-1);
+				System.arraycopy(ends, from+1, ends, from+2, size-from-1);
+				System.arraycopy(values, from+1, values, from+2, size-from-1);
+				starts[from+1]=end;
+				ends[from+1]=oldEnd;
+				values[from+1]=values[from];
+				size++;
+				return;
+			}
+			from++;
+		}
+		int to=indexAfter(end-1);
+		if (to>from && ends[to-1]>end){
+			// keep the part after the range
+			starts[to-1]=end;
+			to--;
+		}
+		if (to>from){
+			System.arraycopy(starts, to, starts, from, size-to);
+			System.arraycopy(ends, to, ends, from, size-to);
+			System.arraycopy(values, to, values, from, size-to);
+			Arrays.fill(values, size-(to-from), size, null);
+			size-=to-from;
+		}
+	}
+
+	/**
+	 * update the index after the text between start and oldEnd has been replaced by text ending at newEnd:
+	 * the intervals intersecting the replaced text are removed and the intervals after it are moved.
+	 * On a pure insertion an interval spanning the insertion point is truncated there
+	 * @param start the start of the replaced text
+	 * @param oldEnd the end of the replaced text, before the change
+	 * @param newEnd the end of the replacement text
+	 */
+	public void replace(int start,int oldEnd,int newEnd){
+		if (oldEnd==start){
+			int ix=indexAfter(start)-1;
+			if (ix>=0 && starts[ix]<start && ends[ix]>start){
+				ends[ix]=start;
+			}
+		} else {
+			remove(start, oldEnd);
+		}
+		int delta=newEnd-oldEnd;
+		if (delta!=0){
+			for (int ix=indexAfter(oldEnd-1);ix<size;ix++){
+				starts[ix]+=delta;
+				ends[ix]+=delta;
+			}
+		}
+	}
+
+	/**
+	 * @param offset an offset
+	 * @return the index of the first interval starting after the offset
+	 */
+	private int indexAfter(int offset){
+		int low=0;
+		int high=size;
+		while (low<high){
+			int mid=(low+high)>>>1;
+			if (starts[mid]<=offset){
+				low=mid+1;
+			} else {
+				high=mid;
+			}
+		}
+		return low;
+	}
+
+	private void ensureCapacity(int capacity){
+		if (capacity>starts.length){
+			int newCapacity=Math.max(capacity, starts.length*2);
+			starts=Arrays.copyOf(starts, newCapacity);
+			ends=Arrays.copyOf(ends, newCapacity);
+			values=Arrays.copyOf(values, newCapacity);
+		}
+	}
+}
@@ -0,0 +1,497 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A pull parser reading one JSON value from a Reader, event by event, so that big structures can be turned into objects
+ * without building the full JSON tree or reading the whole text into a String first.
+ * The parser stops reading as soon as the top level value is complete, so it can be used on a process output stream.
+ * Malformed input, including input that ends before the value is complete, is reported as a JSONException
+ * @author JP Moresmau
+ *
+ */
+public class JSONPullParser {
+
+	/**
+	 * the parsing events
+	 */
+	public enum Event {
+		START_ARRAY,
+		END_ARRAY,
+		START_OBJECT,
+		END_OBJECT,
+		/**
+		 * a key in an object: the value follows
+		 */
+		KEY,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		/**
+		 * the top level value is complete, or the input is exhausted
+		 */
+		END
+	}
+
+	private final Reader reader;
+
+	/**
+	 * one character pushback, -2 if none
+	 */
+	private int pushback=-2;
+
+	/**
+	 * the event we've peeked at, if any
+	 */
+	private Event peeked;
+
+	/**
+	 * the text of the current string, key, number or boolean
+	 */
+	private String text;
+
+	/**
+	 * the states of the structures we're in: what we've just read in an array or an object
+	 */
+	private static final int ARRAY_EMPTY=0;
+	private static final int ARRAY_VALUE=1;
+	private static final int ARRAY_COMMA=2;
+	private static final int OBJECT_EMPTY=3;
+	private static final int OBJECT_KEY=4;
+	private static final int OBJECT_COLON=5;
+	private static final int OBJECT_VALUE=6;
+	private static final int OBJECT_COMMA=7;
+
+	private static final Pattern NUMBER_PATTERN=Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+	/**
+	 * the nesting: the state of each structure we're in
+	 */
+	private int[] stack=new int[16];
+	private int depth=0;
+
+	/**
+	 * have we read a complete top level value?
+	 */
+	private boolean done=false;
+
+	private final StringBuilder sb=new StringBuilder();
+
+	public JSONPullParser(Reader reader) {
+		this.reader=reader;
+	}
+
+	/**
+	 * @return the next event, without consuming it
+	 * @throws IOException
+	 * @throws JSONException on invalid JSON
+	 */
+	public Event peek() throws IOException,JSONException {
+		if (peeked==null){
+			peeked=read();
+		}
+		return peeked;
+	}
+
+	/**
+	 * @return the next event
+	 * @throws IOException
+	 * @throws JSONException on invalid JSON
+	 */
+	public Event next() throws IOException,JSONException {
+		Event e=peek();
+		peeked=null;
+		return e;
+	}
+
+	/**
+	 * consume the next event, which must be the given one
+	 * @param e the expected event
+	 * @throws IOException
+	 * @throws JSONException if the event is not the expected one
+	 */
+	public void expect(Event e) throws IOException,JSONException {
+		Event n=next();
+		if (n!=e){
+			throw new JSONException("Expected "+e+", got "+n);
+		}
+	}
+
+	/**
+	 * @return the text of the last KEY, STRING, NUMBER or BOOLEAN event
+	 */
+	public String getString(){
+		return text;
+	}
+
+	/**
+	 * @return the value of the last NUMBER event as an int
+	 * @throws JSONException if the number is not an int
+	 */
+	public int getInt() throws JSONException {
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException nfe){
+			throw new JSONException("Not an int: "+text);
+		}
+	}
+
+	/**
+	 * @return the value of the last BOOLEAN event
+	 */
+	public boolean getBoolean(){
+		return Boolean.parseBoolean(text);
+	}
+
+	/**
+	 * read the next key in the current object
+	 * @return the key, or null if the object is finished (the END_OBJECT event is consumed)
+	 */
+	public String nextKey() throws IOException,JSONException {
+		Event e=next();
+		if (e==Event.END_OBJECT){
+			return null;
+		}
+		if (e!=Event.KEY){
+			throw new JSONException("Expected KEY, got "+e);
+		}
+		return text;
+	}
+
+	/**
+	 * read the next value as a string
+	 * @return the string, or null for a JSON null
+	 */
+	public String nextString() throws IOException,JSONException {
+		Event e=next();
+		if (e==Event.NULL){
+			return null;
+		}
+		if (e!=Event.STRING){
+			throw new JSONException("Expected STRING, got "+e);
+		}
+		return text;
+	}
+
+	/**
+	 * read the next value as an int
+	 */
+	public int nextInt() throws IOException,JSONException {
+		expect(Event.NUMBER);
+		return getInt();
+	}
+
+	/**
+	 * skip the next value, however deep it is
+	 */
+	public void skipValue() throws IOException,JSONException {
+		int depth=0;
+		do {
+			Event e=next();
+			switch (e){
+			case START_ARRAY:
+			case START_OBJECT:
+				depth++;
+				break;
+			case END_ARRAY:
+			case END_OBJECT:
+				depth--;
+				break;
+			case END:
+				throw new JSONException("No value to skip");
+			default:
+				break;
+			}
+		} while (depth>0);
+	}
+
+	/**
+	 * read the next value as a org.json structure
+	 * @return a JSONArray, JSONObject, String, Number, Boolean or JSONObject.NULL
+	 */
+	public Object readValue() throws IOException,JSONException {
+		Event e=next();
+		switch (e){
+		case START_ARRAY:
+			JSONArray arr=new JSONArray();
+			while (peek()!=Event.END_ARRAY){
+				arr.put(readValue());
+			}
+			next();
+			return arr;
+		case START_OBJECT:
+			JSONObject obj=new JSONObject();
+			for (String k=nextKey();k!=null;k=nextKey()){
+				obj.put(k, readValue());
+			}
+			return obj;
+		case STRING:
+			return text;
+		case NUMBER:
+			return toNumber(text);
+		case BOOLEAN:
+			return Boolean.valueOf(text);
+		case NULL:
+			return JSONObject.NULL;
+		default:
+			throw new JSONException("Unexpected "+e);
+		}
+	}
+
+	/**
+	 * read the next value, that must be an array, as a JSONArray
+	 * @return the array or null if the value is null
+	 */
+	public JSONArray readArray() throws IOException,JSONException {
+		if (peek()==Event.NULL){
+			next();
+			return null;
+		}
+		if (peek()!=Event.START_ARRAY){
+			throw new JSONException("Expected START_ARRAY, got "+peek());
+		}
+		return (JSONArray)readValue();
+	}
+
+	/**
+	 * @param s a valid JSON number
+	 * @return the number as an Integer or a Long if it fits, a Double otherwise
+	 */
+	private static Object toNumber(String s){
+		if (s.indexOf('.')<0 && s.indexOf('e')<0 && s.indexOf('E')<0){
+			try {
+				long l=Long.parseLong(s);
+				if (l>=Integer.MIN_VALUE && l<=Integer.MAX_VALUE){
+					return Integer.valueOf((int)l);
+				}
+				return Long.valueOf(l);
+			} catch (NumberFormatException nfe){
+				// too big for a long
+			}
+		}
+		return Double.valueOf(s);
+	}
+
+	private int readChar() throws IOException{
+		if (pushback!=-2){
+			int c=pushback;
+			pushback=-2;
+			return c;
+		}
+		return reader.read();
+	}
+
+	/**
+	 * @return the next character that is not white space
+	 */
+	private int skipWhiteSpace() throws IOException{
+		int c=readChar();
+		while (c==' ' || c=='\t' || c=='\r' || c=='\n'){
+			c=readChar();
+		}
+		return c;
+	}
+
+	/**
+	 * @return the next character that is not white space, which must exist since we're inside a structure
+	 * @throws JSONException at the end of the input
+	 */
+	private int skipWhiteSpaceInside() throws IOException,JSONException{
+		int c=skipWhiteSpace();
+		if (c==-1){
+			throw new JSONException("Unexpected end of input");
+		}
+		return c;
+	}
+
+	private int top(){
+		return stack[depth-1];
+	}
+
+	private void setTop(int state){
+		stack[depth-1]=state;
+	}
+
+	private void push(int state){
+		if (depth==stack.length){
+			stack=Arrays.copyOf(stack, depth*2);
+		}
+		stack[depth++]=state;
+	}
+
+	/**
+	 * a scalar or a closing bracket completes a value in the enclosing context
+	 */
+	private void valueDone(){
+		if (depth==0){
+			done=true;
+		} else {
+			setTop(top()<OBJECT_EMPTY?ARRAY_VALUE:OBJECT_VALUE);
+		}
+	}
+
+	private Event read() throws IOException,JSONException{
+		if (done){
+			return Event.END;
+		}
+		int c=skipWhiteSpace();
+		if (c==-1){
+			if (depth>0){
+				throw new JSONException("Unexpected end of input");
+			}
+			done=true;
+			return Event.END;
+		}
+		// separators
+		if (depth>0){
+			int st=top();
+			if (st==ARRAY_VALUE || st==OBJECT_VALUE){
+				if (c==','){
+					setTop(st==ARRAY_VALUE?ARRAY_COMMA:OBJECT_COMMA);
+					c=skipWhiteSpaceInside();
+				} else if (c!=(st==ARRAY_VALUE?']':'}')){
+					throw new JSONException("Expected , or "+(st==ARRAY_VALUE?']':'}')+", got "+(char)c);
+				}
+			} else if (st==OBJECT_KEY){
+				if (c!=':'){
+					throw new JSONException("Expected :, got "+(char)c);
+				}
+				setTop(OBJECT_COLON);
+				c=skipWhiteSpaceInside();
+			}
+		}
+		int st=depth>0?top():-1;
+		switch (c){
+		case ']':
+			if (st!=ARRAY_EMPTY && st!=ARRAY_VALUE){
+				throw new JSONException("Unexpected ]");
+			}
+			depth--;
+			valueDone();
+			return Event.END_ARRAY;
+		case '}':
+			if (st!=OBJECT_EMPTY && st!=OBJECT_VALUE){
+				throw new JSONException("Unexpected }");
+			}
+			depth--;
+			valueDone();
+			return Event.END_OBJECT;
+		default:
+			break;
+		}
+		if (st==OBJECT_EMPTY || st==OBJECT_COMMA){
+			if (c!='"'){
+				throw new JSONException("Expected a key, got "+(char)c);
+			}
+			text=readString();
+			setTop(OBJECT_KEY);
+			return Event.KEY;
+		}
+		switch (c){
+		case '[':
+			push(ARRAY_EMPTY);
+			return Event.START_ARRAY;
+		case '{':
+			push(OBJECT_EMPTY);
+			return Event.START_OBJECT;
+		case '"':
+			text=readString();
+			valueDone();
+			return Event.STRING;
+		default:
+			text=readLiteral(c);
+			valueDone();
+			if ("null".equals(text)){
+				text=null;
+				return Event.NULL;
+			} else if ("true".equals(text) || "false".equals(text)){
+				return Event.BOOLEAN;
+			} else if (NUMBER_PATTERN.matcher(text).matches()){
+				return Event.NUMBER;
+			}
+			throw new JSONException("Unexpected literal "+text);
+		}
+	}
+
+	private String readLiteral(int first) throws IOException,JSONException{
+		sb.setLength(0);
+		int c=first;
+		while (c!=-1 && c!=',' && c!=':' && c!=']' && c!='}' && c!=' ' && c!='\t' && c!='\r' && c!='\n'){
+			sb.append((char)c);
+			c=readChar();
+		}
+		// keep the delimiter for the next read, but don't read beyond the end of a top level literal
+		pushback=c;
+		if (sb.length()==0){
+			throw new JSONException("Unexpected character "+(char)first);
+		}
+		return sb.toString();
+	}
+
+	private String readString() throws IOException,JSONException{
+		sb.setLength(0);
+		while (true){
+			int c=readChar();
+			switch (c){
+			case -1:
+				throw new JSONException("Unterminated string");
+			case '"':
+				return sb.toString();
+			case '\\':
+				c=readChar();
+				switch (c){
+				case 'b':
+					sb.append('\b');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 'u':
+					char[] hex=new char[4];
+					for (int a=0;a<4;a++){
+						int h=readChar();
+						if (h==-1){
+							throw new JSONException("Unterminated string");
+						}
+						hex[a]=(char)h;
+					}
+					try {
+						sb.append((char)Integer.parseInt(new String(hex),16));
+					} catch (NumberFormatException nfe){
+						throw new JSONException("Illegal escape: \\u"+new String(hex));
+					}
+					break;
+				case -1:
+					throw new JSONException("Unterminated string");
+				default:
+					sb.append((char)c);
+				}
+				break;
+			default:
+				sb.append((char)c);
+			}
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Non reentrant locks identified by a key, granted in FIFO order. Only the thread holding a lock can release it.
+ * Waiters are woken as soon as the key is released, can give up after a timeout or when their monitor is canceled,
+ * and the time spent waiting is recorded per key
+ * @author JP Moresmau
+ *
+ */
+public class KeyLockManager {
+	/**
+	 * how long we wait at most before checking the monitor again, in milliseconds
+	 */
+	private static final long CANCEL_CHECK_PERIOD=100;
+
+	/**
+	 * the locks by key, only present while held or waited for
+	 */
+	private final Map<String,KeyLock> locks=new HashMap<>();
+
+	/**
+	 * the wait statistics by key
+	 */
+	private final Map<String,WaitStatistics> stats=new HashMap<>();
+
+	/**
+	 * try to acquire the lock without waiting
+	 * @param key the key
+	 * @return true if we got the lock
+	 */
+	public synchronized boolean tryLock(String key){
+		KeyLock kl=locks.get(key);
+		if (kl!=null && kl.isLocked()){
+			return false;
+		}
+		if (kl==null){
+			kl=new KeyLock();
+			locks.put(key, kl);
+		}
+		kl.next++;
+		kl.owner=Thread.currentThread();
+		return true;
+	}
+
+	/**
+	 * acquire the lock, waiting behind the threads that asked for it before us
+	 * @param key the key
+	 * @param timeout the maximum time to wait in milliseconds, 0 or less to wait forever
+	 * @param monitor the monitor, maybe null. If it gets canceled we stop waiting
+	 * @return true if we got the lock, false if we timed out, were canceled or interrupted
+	 */
+	public synchronized boolean lock(String key,long timeout,IProgressMonitor monitor){
+		KeyLock kl=locks.get(key);
+		if (kl==null){
+			kl=new KeyLock();
+			locks.put(key, kl);
+		}
+		long ticket=kl.next++;
+		if (ticket==kl.serving){
+			kl.owner=Thread.currentThread();
+			getStatistics(key).record(0);
+			return true;
+		}
+		long t0=System.currentTimeMillis();
+		long max=timeout>0?t0+timeout:Long.MAX_VALUE;
+		boolean interrupted=false;
+		while (kl.serving!=ticket){
+			long now=System.currentTimeMillis();
+			if (now>=max || interrupted || (monitor!=null && monitor.isCanceled())){
+				kl.abandon(ticket);
+				getStatistics(key).recordFailure(now-t0);
+				if (interrupted){
+					Thread.currentThread().interrupt();
+				}
+				return false;
+			}
+			try {
+				wait(Math.min(CANCEL_CHECK_PERIOD, max-now));
+			} catch (InterruptedException ie){
+				interrupted=true;
+			}
+		}
+		kl.owner=Thread.currentThread();
+		getStatistics(key).record(System.currentTimeMillis()-t0);
+		return true;
+	}
+
+	/**
+	 * release the lock. Only call this from the thread that got true from lock or tryLock
+	 * @param key the key
+	 * @throws IllegalMonitorStateException if the current thread does not hold the lock
+	 */
+	public synchronized void unlock(String key){
+		KeyLock kl=locks.get(key);
+		if (kl==null || kl.owner!=Thread.currentThread()){
+			throw new IllegalMonitorStateException(key);
+		}
+		kl.release();
+		if (!kl.isLocked()){
+			locks.remove(key);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @param key the key
+	 * @return true if the lock is held or waited for
+	 */
+	public synchronized boolean isLocked(String key){
+		KeyLock kl=locks.get(key);
+		return kl!=null && kl.isLocked();
+	}
+
+	/**
+	 * @return a copy of the wait statistics, by key
+	 */
+	public synchronized Map<String,WaitStatistics> getStatistics(){
+		Map<String,WaitStatistics> ret=new HashMap<>();
+		for (Map.Entry<String,WaitStatistics> e:stats.entrySet()){
+			ret.put(e.getKey(), new WaitStatistics(e.getValue()));
+		}
+		return ret;
+	}
+
+	private WaitStatistics getStatistics(String key){
+		WaitStatistics ws=stats.get(key);
+		if (ws==null){
+			ws=new WaitStatistics();
+			stats.put(key, ws);
+		}
+		return ws;
+	}
+
+	/**
+	 * a ticket lock: each thread gets a ticket and waits until it's served
+	 */
+	private static class KeyLock {
+		/**
+		 * the next ticket to give out
+		 */
+		private long next=0;
+		/**
+		 * the ticket currently holding the lock
+		 */
+		private long serving=0;
+		/**
+		 * the thread holding the lock, null until the thread served has woken up
+		 */
+		private Thread owner;
+		/**
+		 * tickets whose owners gave up waiting
+		 */
+		private Set<Long> abandoned=new HashSet<>();
+
+		private boolean isLocked(){
+			return serving<next;
+		}
+
+		private void abandon(long ticket){
+			abandoned.add(ticket);
+		}
+
+		private void release(){
+			owner=null;
+			serving++;
+			while (abandoned.remove(serving)){
+				serving++;
+			}
+		}
+	}
+
+	/**
+	 * statistics about waiting for a given key
+	 */
+	public static class WaitStatistics {
+		private long count;
+		private long failures;
+		private long totalWait;
+		private long maxWait;
+
+		private WaitStatistics(){
+		}
+
+		private WaitStatistics(WaitStatistics ws){
+			this.count=ws.count;
+			this.failures=ws.failures;
+			this.totalWait=ws.totalWait;
+			this.maxWait=ws.maxWait;
+		}
+
+		private void record(long wait){
+			count++;
+			add(wait);
+		}
+
+		private void recordFailure(long wait){
+			failures++;
+			add(wait);
+		}
+
+		private void add(long wait){
+			totalWait+=wait;
+			maxWait=Math.max(maxWait, wait);
+		}
+
+		/**
+		 * @return the number of times the lock was acquired, with or without waiting
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the number of times we gave up waiting
+		 */
+		public long getFailures() {
+			return failures;
+		}
+
+		/**
+		 * @return the total time spent waiting, in milliseconds
+		 */
+		public long getTotalWait() {
+			return totalWait;
+		}
+
+		/**
+		 * @return the longest wait, in milliseconds
+		 */
+		public long getMaxWait() {
+			return maxWait;
+		}
+
+		@Override
+		public String toString() {
+			return count+" acquisitions, "+failures+" failures, "+totalWait+"ms total, "+maxWait+"ms max";
+		}
+	}
+}
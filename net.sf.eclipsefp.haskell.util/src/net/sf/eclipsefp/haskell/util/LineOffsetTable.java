@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import java.util.Arrays;
+
+/**
+ * The offsets of the start of each line of a text, computed in one pass.
+ * Lines are delimited like in a default Eclipse document: \n, \r\n or \r.
+ * Lines are zero-based, like in IDocument; the table is immutable, so build a new one for each revision of the text
+ * @author JP Moresmau
+ *
+ */
+public class LineOffsetTable {
+	/**
+	 * the start offset of each line, only the first lineCount entries are used
+	 */
+	private final int[] offsets;
+
+	private final int lineCount;
+
+	/**
+	 * the total length of the text
+	 */
+	private final int length;
+
+	/**
+	 * @param s the text
+	 */
+	public LineOffsetTable(CharSequence s) {
+		int len=s.length();
+		int[] offs=new int[Math.max(16, len/32)];
+		int cnt=1;
+		for (int a=0;a<len;a++){
+			char c=s.charAt(a);
+			if (c=='\n' || c=='\r'){
+				if (c=='\r' && a+1<len && s.charAt(a+1)=='\n'){
+					a++;
+				}
+				if (cnt==offs.length){
+					offs=Arrays.copyOf(offs, cnt*2);
+				}
+				offs[cnt++]=a+1;
+			}
+		}
+		this.offsets=offs;
+		this.lineCount=cnt;
+		this.length=len;
+	}
+
+	/**
+	 * @return the number of lines, at least one
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return the length of the text
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @param line the zero-based line
+	 * @return the offset of the start of the line, or -1 if the line does not exist
+	 */
+	public int getLineOffset(int line){
+		if (line<0 || line>=lineCount){
+			return -1;
+		}
+		return offsets[line];
+	}
+
+	/**
+	 * @param line the zero-based line
+	 * @param column the zero-based column
+	 * @return the offset, or -1 if the line does not exist
+	 */
+	public int getOffset(int line,int column){
+		if (line<0 || line>=lineCount){
+			return -1;
+		}
+		return offsets[line]+column;
+	}
+
+	/**
+	 * @param offset an offset in the text
+	 * @return the zero-based line containing the offset, or -1 if the offset is outside the text
+	 */
+	public int getLineOfOffset(int offset){
+		if (offset<0 || offset>length){
+			return -1;
+		}
+		int ix=Arrays.binarySearch(offsets, 0, lineCount, offset);
+		return ix>=0?ix:-ix-2;
+	}
+
+	/**
+	 * @param line the zero-based line
+	 * @return the length of the line, including its delimiter, or -1 if the line does not exist
+	 */
+	public int getLineLength(int line){
+		if (line<0 || line>=lineCount){
+			return -1;
+		}
+		int end=line+1<lineCount?offsets[line+1]:length;
+		return end-offsets[line];
+	}
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of distinct names, each name getting an integer id in insertion order.
+ * Names can be found exactly, by Eclipse wildcard patterns (* and ?, \ to escape them) or by camel case patterns.
+ * Wildcard matching is case insensitive, like SQL LIKE, and uses an index of the trigrams of each name,
+ * so that infix searches do not need to look at every name
+ * @author JP Moresmau
+ *
+ */
+public class NameIndex {
+	/**
+	 * the ids by name
+	 */
+	private final Map<String,Integer> ids=new HashMap<>();
+	/**
+	 * the names by id
+	 */
+	private final List<String> names=new ArrayList<>();
+	/**
+	 * the sorted ids of the names containing each lower case trigram
+	 */
+	private final Map<Long,Postings> trigrams=new HashMap<>();
+
+	/**
+	 * @return the number of names
+	 */
+	public synchronized int size(){
+		return names.size();
+	}
+
+	/**
+	 * remove all names
+	 */
+	public synchronized void clear(){
+		ids.clear();
+		names.clear();
+		trigrams.clear();
+	}
+
+	/**
+	 * add a name if it's not already there
+	 * @param name the name
+	 * @return the id of the name
+	 */
+	public synchronized int add(String name){
+		Integer id=ids.get(name);
+		if (id!=null){
+			return id;
+		}
+		int newID=names.size();
+		names.add(name);
+		ids.put(name, newID);
+		for (int a=0;a+3<=name.length();a++){
+			long key=getTrigram(name, a);
+			Postings ps=trigrams.get(key);
+			if (ps==null){
+				ps=new Postings();
+				trigrams.put(key, ps);
+			}
+			ps.add(newID);
+		}
+		return newID;
+	}
+
+	/**
+	 * @param name the name
+	 * @return the id of the name, or -1 if it's not in the index
+	 */
+	public synchronized int getID(String name){
+		Integer id=ids.get(name);
+		return id!=null?id:-1;
+	}
+
+	/**
+	 * @param id the id
+	 * @return the name with that id
+	 */
+	public synchronized String getName(int id){
+		return names.get(id);
+	}
+
+	/**
+	 * find the names matching a wildcard pattern: * matches any sequence of characters, ? matches one character,
+	 * \* and \? match the characters themselves
+	 * @param pattern the pattern
+	 * @return the ids of the matching names
+	 */
+	public synchronized BitSet match(String pattern){
+		StringBuilder lit=new StringBuilder(pattern.length());
+		BitSet wild=new BitSet();
+		for (int a=0;a<pattern.length();a++){
+			char c=pattern.charAt(a);
+			if (c=='\\' && a+1<pattern.length() && (pattern.charAt(a+1)=='*' || pattern.charAt(a+1)=='?' || pattern.charAt(a+1)=='\\')){
+				a++;
+				lit.append(pattern.charAt(a));
+			} else {
+				if (c=='*' || c=='?'){
+					wild.set(lit.length());
+				}
+				lit.append(c);
+			}
+		}
+		char[] pat=lit.toString().toCharArray();
+		BitSet ret=new BitSet();
+		Postings candidates=getCandidates(pat, wild);
+		if (candidates!=null){
+			for (int a=0;a<candidates.size;a++){
+				int id=candidates.ids[a];
+				if (matches(pat, wild, names.get(id))){
+					ret.set(id);
+				}
+			}
+		} else {
+			for (int id=0;id<names.size();id++){
+				if (matches(pat, wild, names.get(id))){
+					ret.set(id);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * find the names matching a camel case pattern: the pattern must start like the name,
+	 * and each upper case character or digit of the pattern starts a new part of the name.
+	 * For example gFN matches getFileName, and NoSE matches NoSuchElement
+	 * @param pattern the pattern
+	 * @return the ids of the matching names
+	 */
+	public synchronized BitSet matchCamelCase(String pattern){
+		BitSet ret=new BitSet();
+		if (pattern.length()>0){
+			for (int id=0;id<names.size();id++){
+				if (matchesCamelCase(pattern, names.get(id))){
+					ret.set(id);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @param pattern a pattern
+	 * @return true if the pattern has wildcards
+	 */
+	public static boolean hasWildcards(String pattern){
+		return pattern.indexOf('*')>-1 || pattern.indexOf('?')>-1;
+	}
+
+	/**
+	 * get the candidates for a pattern, by intersecting the postings of the trigrams of its longest literal part
+	 * @param pat the pattern characters
+	 * @param wild the positions of the wildcards
+	 * @return the candidate ids, or null if the pattern has no literal part long enough
+	 */
+	private Postings getCandidates(char[] pat,BitSet wild){
+		int bestStart=-1;
+		int bestLength=2;
+		int start=0;
+		for (int a=0;a<=pat.length;a++){
+			if (a==pat.length || wild.get(a)){
+				if (a-start>bestLength){
+					bestStart=start;
+					bestLength=a-start;
+				}
+				start=a+1;
+			}
+		}
+		if (bestStart<0){
+			return null;
+		}
+		String s=new String(pat, bestStart, bestLength);
+		Postings ret=null;
+		for (int a=0;a+3<=s.length();a++){
+			Postings ps=trigrams.get(getTrigram(s, a));
+			if (ps==null){
+				return new Postings();
+			}
+			ret=ret==null?ps:ret.intersect(ps);
+		}
+		return ret;
+	}
+
+	/**
+	 * case insensitive wildcard matching
+	 * @param pat the pattern characters
+	 * @param wild the positions of the wildcards
+	 * @param name the name
+	 * @return true if the whole name matches
+	 */
+	private static boolean matches(char[] pat,BitSet wild,String name){
+		int p=0;
+		int n=0;
+		// position of the last star in the pattern, and position in the name it matched up to
+		int star=-1;
+		int starN=0;
+		while (n<name.length()){
+			if (p<pat.length && wild.get(p) && pat[p]=='*'){
+				star=p++;
+				starN=n;
+			} else if (p<pat.length && ((wild.get(p) && pat[p]=='?') || equalsIgnoreCase(pat[p], name.charAt(n)))){
+				p++;
+				n++;
+			} else if (star>-1){
+				p=star+1;
+				n=++starN;
+			} else {
+				return false;
+			}
+		}
+		while (p<pat.length && wild.get(p) && pat[p]=='*'){
+			p++;
+		}
+		return p==pat.length;
+	}
+
+	private static boolean matchesCamelCase(String pattern,String name){
+		if (name.isEmpty() || pattern.charAt(0)!=name.charAt(0)){
+			return false;
+		}
+		int n=1;
+		for (int p=1;p<pattern.length();p++){
+			char c=pattern.charAt(p);
+			if (n<name.length() && name.charAt(n)==c){
+				n++;
+			} else if (Character.isUpperCase(c) || Character.isDigit(c)){
+				// skip to the next part of the name starting with that character
+				n++;
+				while (n<name.length() && !(name.charAt(n)==c && isPartStart(name, n))){
+					n++;
+				}
+				if (n==name.length()){
+					return false;
+				}
+				n++;
+			} else {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPartStart(String name,int ix){
+		char c=name.charAt(ix);
+		char prev=name.charAt(ix-1);
+		return Character.isUpperCase(c) || (Character.isDigit(c) && !Character.isDigit(prev)) || prev=='_';
+	}
+
+	private static boolean equalsIgnoreCase(char c1,char c2){
+		return c1==c2 || Character.toLowerCase(c1)==Character.toLowerCase(c2);
+	}
+
+	private static long getTrigram(CharSequence s,int ix){
+		return ((long)Character.toLowerCase(s.charAt(ix))<<32)
+				| ((long)Character.toLowerCase(s.charAt(ix+1))<<16)
+				| Character.toLowerCase(s.charAt(ix+2));
+	}
+
+	/**
+	 * a sorted list of ids
+	 */
+	private static class Postings {
+		private int[] ids=new int[4];
+		private int size=0;
+
+		/**
+		 * add an id, bigger than all the ids already there
+		 * @param id the id
+		 */
+		private void add(int id){
+			if (size>0 && ids[size-1]==id){
+				// same trigram several times in the same name
+				return;
+			}
+			if (size==ids.length){
+				ids=Arrays.copyOf(ids, size*2);
+			}
+			ids[size++]=id;
+		}
+
+		private Postings intersect(Postings other){
+			Postings ret=new Postings();
+			int a=0;
+			int b=0;
+			while (a<size && b<other.size){
+				if (ids[a]<other.ids[b]){
+					a++;
+				} else if (ids[a]>other.ids[b]){
+					b++;
+				} else {
+					ret.add(ids[a]);
+					a++;
+					b++;
+				}
+			}
+			return ret;
+		}
+	}
+}
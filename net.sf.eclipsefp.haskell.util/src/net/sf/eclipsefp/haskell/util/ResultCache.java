@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2014 by JP Moresmau
+ * This code is made available under the terms of the Eclipse Public License,
+ * version 1.0 (EPL). See http://www.eclipse.org/legal/epl-v10.html
+ */
+package net.sf.eclipsefp.haskell.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of textual results, bounded by the total size of its entries, least recently used entries being dropped first.
+ * Entries can also be persisted in a folder, so that they survive a restart
+ * @author JP Moresmau
+ *
+ */
+public class ResultCache {
+	/**
+	 * the extension of the persisted entries
+	 */
+	private static final String EXTENSION=".cache";
+
+	private static final char[] HEX="0123456789abcdef".toCharArray();
+
+	/**
+	 * the entries, in access order
+	 */
+	private final Map<String,String> entries=new LinkedHashMap<>(16,0.75f,true);
+
+	/**
+	 * the folder for persisted entries, null if we keep everything in memory
+	 */
+	private final File folder;
+
+	/**
+	 * the maximum size, in characters
+	 */
+	private long maxSize;
+
+	/**
+	 * the current size, in characters
+	 */
+	private long size=0;
+
+	private long hits=0;
+	private long misses=0;
+
+	/**
+	 * @param maxSize the maximum total size of the entries, in characters
+	 * @param folder the folder where entries are persisted, null to keep the entries only in memory
+	 */
+	public ResultCache(long maxSize,File folder) {
+		this.maxSize=maxSize;
+		this.folder=folder;
+		if (folder!=null){
+			pruneFolder();
+		}
+	}
+
+	/**
+	 * @param key the key
+	 * @return the cached value or null
+	 */
+	public synchronized String get(String key){
+		String v=entries.get(key);
+		if (v==null && folder!=null){
+			v=load(key);
+			if (v!=null){
+				entries.put(key, v);
+				size+=getSize(key,v);
+				evict();
+			}
+		}
+		if (v!=null){
+			hits++;
+		} else {
+			misses++;
+		}
+		return v;
+	}
+
+	/**
+	 * @param key the key
+	 * @param value the value to cache
+	 */
+	public synchronized void put(String key,String value){
+		long sz=getSize(key,value);
+		if (sz>maxSize){
+			return;
+		}
+		String old=entries.put(key, value);
+		if (old!=null){
+			size-=getSize(key,old);
+		}
+		size+=sz;
+		if (folder!=null){
+			store(key,value);
+		}
+		evict();
+	}
+
+	/**
+	 * remove all entries, in memory and on disk
+	 */
+	public synchronized void clear(){
+		entries.clear();
+		size=0;
+		if (folder!=null){
+			File[] fs=folder.listFiles();
+			if (fs!=null){
+				for (File f:fs){
+					if (f.getName().endsWith(EXTENSION)){
+						f.delete();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param maxSize the new maximum size, in characters
+	 */
+	public synchronized void setMaxSize(long maxSize){
+		this.maxSize=maxSize;
+		evict();
+	}
+
+	/**
+	 * @return the current size of the entries in memory, in characters
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of entries in memory
+	 */
+	public synchronized int getCount(){
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of times get returned a value
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of times get returned null
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * drop the least recently used entries until we're within our maximum size
+	 */
+	private void evict(){
+		Iterator<Map.Entry<String,String>> it=entries.entrySet().iterator();
+		while (size>maxSize && it.hasNext()){
+			Map.Entry<String,String> e=it.next();
+			size-=getSize(e.getKey(),e.getValue());
+			it.remove();
+			if (folder!=null){
+				getFile(e.getKey()).delete();
+			}
+		}
+	}
+
+	/**
+	 * make sure entries persisted by previous sessions do not take more space than we allow, removing the oldest first
+	 */
+	private void pruneFolder(){
+		File[] fs=folder.listFiles();
+		if (fs==null){
+			return;
+		}
+		Arrays.sort(fs,new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				long l1=o1.lastModified();
+				long l2=o2.lastModified();
+				return l1>l2?-1:(l1<l2?1:0);
+			}
+		});
+		long total=0;
+		for (File f:fs){
+			if (f.getName().endsWith(EXTENSION)){
+				// characters are mostly one byte in UTF-8
+				total+=f.length();
+				if (total>maxSize){
+					f.delete();
+				}
+			}
+		}
+	}
+
+	private File getFile(String key){
+		return new File(folder,digest(key)+EXTENSION);
+	}
+
+	/**
+	 * the persisted file contains the key on the first line and the value after
+	 * @param key the key
+	 * @return the value or null if nothing was persisted for that key
+	 */
+	private String load(String key){
+		File f=getFile(key);
+		if (!f.exists()){
+			return null;
+		}
+		try {
+			String s=FileUtil.getContents(f, FileUtil.UTF8);
+			int ix=s.indexOf('\n');
+			if (ix>-1 && key.equals(s.substring(0,ix))){
+				// mark the entry as recently used, for pruning
+				f.setLastModified(System.currentTimeMillis());
+				return s.substring(ix+1);
+			}
+		} catch (IOException ioe){
+			// treat as missing
+		}
+		return null;
+	}
+
+	private void store(String key,String value){
+		if (key.indexOf('\n')>-1){
+			return;
+		}
+		try {
+			folder.mkdirs();
+			FileUtil.writeSharedFile(getFile(key), key+"\n"+value, 1);
+		} catch (IOException ioe){
+			// the entry stays in memory
+		}
+	}
+
+	private static long getSize(String key,String value){
+		return key.length()+value.length();
+	}
+
+	/**
+	 * @param s a string
+	 * @return the hexadecimal SHA-1 of the UTF-8 bytes of the string
+	 */
+	public static String digest(String s){
+		try {
+			return toHex(getDigest().digest(s.getBytes(FileUtil.UTF8)));
+		} catch (UnsupportedEncodingException uee){
+			// UTF-8 is always supported
+			throw new IllegalStateException(uee);
+		}
+	}
+
+	/**
+	 * @param f a file
+	 * @return the hexadecimal SHA-1 of the contents of the file
+	 * @throws IOException
+	 */
+	public static String digest(File f) throws IOException{
+		MessageDigest md=getDigest();
+		try (InputStream is=new BufferedInputStream(new FileInputStream(f))){
+			byte[] buf=new byte[4096];
+			int r=is.read(buf);
+			while (r>-1){
+				md.update(buf,0,r);
+				r=is.read(buf);
+			}
+		}
+		return toHex(md.digest());
+	}
+
+	private static MessageDigest getDigest(){
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException nsae){
+			// SHA-1 is always supported
+			throw new IllegalStateException(nsae);
+		}
+	}
+
+	private static String toHex(byte[] bs){
+		char[] cs=new char[bs.length*2];
+		for (int a=0;a<bs.length;a++){
+			cs[a*2]=HEX[(bs[a]>>4) & 0xF];
+			cs[a*2+1]=HEX[bs[a] & 0xF];
+		}
+		return new String(cs);
+	}
+}